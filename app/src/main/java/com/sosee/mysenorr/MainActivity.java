@@ -10,11 +10,13 @@ import android.view.animation.RotateAnimation;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.sosee.mysenorr.fusion.NavigationState;
 import com.sosee.mysenorr.sensors.Core;
 import com.sosee.mysenorr.tools.Locationer;
 
 public class MainActivity extends AppCompatActivity implements Core.onStepUpdateListener, Locationer.onLocationUpdateListener {
     private Locationer mLocationer;
+    private Core mCore;
     private ImageView mImageView;
     private TextView mTextView;
     private float row = 0;
@@ -29,10 +31,10 @@ public class MainActivity extends AppCompatActivity implements Core.onStepUpdate
         mImageView = findViewById(R.id.iv);
         mTextView = findViewById(R.id.tv);
 
-        Core core = new Core(this);
-        //    core.reactivateSensors();
-        core.enableAutocorrect();
-        core.startSensors();
+        mCore = new Core(this);
+        //    mCore.reactivateSensors();
+        mCore.enableAutocorrect();
+        mCore.startSensors();
 
     }
 
@@ -62,7 +64,9 @@ public class MainActivity extends AppCompatActivity implements Core.onStepUpdate
     @SuppressLint("SetTextI18n")
     private void positionUpdate() {
 
-        float rotation = (float) Core.azimuth;
+        // heading, position and steps of one update  同一次更新的方向、位置和步数
+        NavigationState state = mCore.getState();
+        float rotation = (float) state.getAzimuth();
 
         mTextView.setText(rotation + "");
 
@@ -96,7 +100,8 @@ public class MainActivity extends AppCompatActivity implements Core.onStepUpdate
                 //    showGPSDialog();
                 break;
             case 8:
-                Core.setLocation(Locationer.startLat, Locationer.startLon);
+                mCore.calibrateStepLength(Locationer.startLat, Locationer.startLon, (float) Locationer.errorGPS);
+                mCore.setLocation(Locationer.startLat, Locationer.startLon);
 
                 break;
             case 12:
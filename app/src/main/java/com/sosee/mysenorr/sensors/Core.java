@@ -9,25 +9,47 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.net.Uri;
-import android.opengl.Matrix;
+import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.sosee.mysenorr.BuildConfig;
+import com.sosee.mysenorr.fusion.CarryModeClassifier;
+import com.sosee.mysenorr.fusion.GyroIntegrator;
+import com.sosee.mysenorr.fusion.MadgwickFilter;
+import com.sosee.mysenorr.fusion.MagneticCalibrator;
+import com.sosee.mysenorr.fusion.NavigationEngine;
+import com.sosee.mysenorr.fusion.NavigationState;
+import com.sosee.mysenorr.fusion.SensorFanOut;
+import com.sosee.mysenorr.fusion.SensorEventBatch;
+import com.sosee.mysenorr.fusion.SensorRateGovernor;
+import com.sosee.mysenorr.fusion.StepLengthEstimator;
+import com.sosee.mysenorr.metrics.LatencyStats;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is the core of SmartNavis stepdetection and direction calculation
  * The MapActivities just give the Core all sensordata.
  * Core recognizes steps and computes direction, location, etc.
+ * The calculations are done by {@link NavigationEngine}, Core feeds it with the Android sensors.
+ * The sensor events are processed on a separate thread, the listener is called on the UI thread.
  *
  * 这是SmartNavis阶跃检测和方向计算的核心
  * MapActivities只是给核心所有sensordata。
@@ -38,71 +60,208 @@ import java.util.TimeZone;
  */
 public class Core implements SensorEventListener {
 
-    public static float[] gravity = new float[3];
-    public static float[] linear = new float[4];
-    public static float[] linearRemapped = new float[4];
-    public static float[] origMagn = new float[3];
-    public static float[] magn = new float[3];
-    public static float[] origAcl = new float[3]; //only needed for logging/debug purposes
-    public static double startLat;
-    public static double startLon;
-    public static int stepCounter = 0;
-    public static double azimuth;
-    public static int altitude = 150;
-    public static double distanceLongitude;
-    public static float stepLength;
-    public static boolean export;
-    public static String version;
-    public static float lastErrorGPS;
-    public static int units = 0;
-    static File posFile;
-    static File sensorFile;
-    private static double oldAzimuth = 0;
-    private static float frequency;
-    private static boolean stepBegin = false;
-    private static float[] iMatrix = new float[9];
-    private static float[] RMatrix = new float[16];
-    private static float[] RMatrixRemapped = new float[16];
-    private static float[] RMatrixTranspose = new float[16];
-    private static float[] orientation = new float[3];
-    private static double deltaLat;
-    private static double deltaLon;
-    private static float iStep = 1;
-    private static float ugainA;
-    private static float ugainM;
-    private static double[] xa0 = new double[4];
-    private static double[] ya0 = new double[4];
-    private static double[] xa1 = new double[4];
-    private static double[] ya1 = new double[4];
-    private static double[] xa2 = new double[4];
-    private static double[] ya2 = new double[4];
-    private static float[] tpA = new float[3];
-    private static float[] tpM = new float[3];
-    private static double[] xm0 = new double[4];
-    private static double[] ym0 = new double[4];
-    private static double[] xm1 = new double[4];
-    private static double[] ym1 = new double[4];
-    private static double[] xm2 = new double[4];
-    private static double[] ym2 = new double[4];
-    private static float stepThreshold = 2.0f;
-    private static boolean sensorFileNotExisting = true;
-    private static boolean positionsFileNotExisting = true;
-    private static float decl = 0;
-    private static boolean initialStep;
-    private static boolean newStepDetected = false;
-    private static boolean startedToExport = false;
-    private static long startTime;
+    /**
+     * All state belongs to the instance, so several Cores (e.g. variants with other thresholds fed by a
+     * {@link SensorFanOut}) can run side by side
+     * 所有状态都属于实例，因此多个Core（例如由SensorFanOut提供数据、使用其他阈值的变体）可以并行运行
+     */
+    private NavigationEngine engine;
+    /**
+     * The position the engine starts from (initialize, GPS fix), the current position is in {@link #getState()}
+     * 引擎的起始位置（初始化、GPS定位），当前位置见getState()
+     */
+    private volatile double startLat;
+    private volatile double startLon;
+    private int altitude = 150;
+    private double distanceLongitude;
+    private float stepLength;
+    /**
+     * The track file ({@link #export}, {@link #posFile}, {@link #positionsFileNotExisting}) is only written on the
+     * sensor thread, where the steps are detected
+     * 轨迹文件只在检测步伐的传感器线程上写入
+     */
+    private boolean export;
+    private String version;
+    private float lastErrorGPS;
+    private int units = 0;
+    private File posFile;
+    private File sensorFile;
+    private boolean positionsFileNotExisting = true;
+    private float decl = 0;
+    private boolean newStepDetected = false;
+    private boolean startedToExport = false;
+    /**
+     * Handler of the thread that processes the sensor events, null if there is none (e.g. offline processing). It is
+     * kept after {@link #shutdown}, tasks posted then are dropped.
+     * 处理传感器事件的线程的Handler，没有时为null（例如离线处理）。shutdown之后保留，之后提交的任务被丢弃。
+     */
+    private volatile Handler sensorHandler;
+    /**
+     * Receives a copy of every sample for variants of the pipeline, null if there are none
+     */
+    private volatile SensorFanOut fanOut;
+    /**
+     * Sampling period of SENSOR_DELAY_GAME, used until the activity of the user is known
+     */
+    private static final int SAMPLING_PERIOD_US = 20000;
+    /**
+     * Sampling period of all sensors, chosen by the {@link #rateGovernor} for the activity of the user
+     * 所有传感器的采样周期，由rateGovernor根据用户的活动选择
+     */
+    private volatile int samplingPeriodUs = SAMPLING_PERIOD_US;
+    private final SensorRateGovernor rateGovernor = new SensorRateGovernor();
+    private boolean governRates;
+    /**
+     * Events of one batch, enough for 10 seconds of all four sensors at 100 Hz
+     */
+    private static final int BATCH_CAPACITY = 4096;
+    private static final int STEP_EVENT = 1;
+    private static final int AUTOCORRECT_EVENT = 2;
+    /**
+     * Events for the listener ({@link #STEP_EVENT}, {@link #AUTOCORRECT_EVENT}) that were not yet delivered on the UI
+     * thread. The sensor thread sets the bits, the UI thread takes them all at once, so no lock is needed and
+     * several steps between two frames are delivered as one update.
+     * 尚未在UI线程上传递给监听器的事件。传感器线程设置位，UI线程一次性取走，因此不需要锁。
+     */
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    private final Runnable deliverEvents = new Runnable() {
+        @Override
+        public void run() {
+            int events = pendingEvents.getAndSet(0);
+            if ((events & STEP_EVENT) != 0) {
+                stepUpdateListener.onStepUpdate(0);
+            }
+            if ((events & AUTOCORRECT_EVENT) != 0) {
+                stepUpdateListener.onStepUpdate(1);
+            }
+        }
+    };
+    /**
+     * Time from the timestamp of a sensor event until Core receives it, and the time Core needs to process it
+     * 从传感器事件的时间戳到Core收到它的时间，以及Core处理它所需的时间
+     */
+    private final LatencyStats deliveryLatency = new LatencyStats();
+    private final LatencyStats processingTime = new LatencyStats();
+    private final LatencyStats batchProcessingTime = new LatencyStats();
+    private HandlerThread sensorThread;
+    private Handler uiHandler;
+    /**
+     * Maximum time the sensor hub may hold the events back (hardware FIFO), 0 to deliver every sample immediately
+     * 传感器中枢可以保留事件的最长时间（硬件FIFO），0表示立即传递每个样本
+     */
+    private volatile int maxReportLatencyUs = 0;
+    /**
+     * Part of the FIFO the batches may fill, the rest is left for the time until the CPU is awake
+     */
+    private static final float FIFO_USE = 0.8f;
+    private boolean sensorsActive;
+    /**
+     * Measures the energy per walked distance, null before Android 5 which cannot read the charge of the battery
+     * 测量每行走距离的能耗，Android 5之前无法读取电池电量，为null
+     */
+    private BatteryManager batteryManager;
+    /**
+     * Charge of the battery in µAh and walked distance in m when the sensors were started, only used on the sensor
+     * thread
+     */
+    private long startCharge = Long.MIN_VALUE;
+    private double startDistance;
+    /**
+     * The events delivered in one batch, processed together by {@link #processBatch} on the sensor thread
+     * 一批传递的事件，在传感器线程上由processBatch一起处理
+     */
+    private final SensorEventBatch batch = new SensorEventBatch(BATCH_CAPACITY);
+    private final SensorEventBatch.Receiver batchReceiver = new SensorEventBatch.Receiver() {
+        @Override
+        public void onEvent(int type, long timestamp, float[] values) {
+            processSample(type, timestamp, values);
+        }
+    };
+    private final Runnable processBatch = new Runnable() {
+        @Override
+        public void run() {
+            drainBatch();
+        }
+    };
     public boolean gyroExists = false;
-    private ImprovedOrientationSensor2Provider mOrientationProvider;
+    /**
+     * Names of the orientation providers for {@link #setOrientationProvider(String)} and the setting
+     * "orientation_provider"
+     */
+    public static final String PROVIDER_IMPROVED = "improved";
+    public static final String PROVIDER_KALMAN = "kalman";
+    public static final String PROVIDER_MADGWICK = "madgwick";
+    /**
+     * Replaced at runtime by {@link #setOrientationProvider(String)}, read on the sensor thread
+     */
+    private volatile OrientationProvider mOrientationProvider;
     private SensorManager mSensorManager;
     private boolean alreadyWaitingForAutoCorrect = false;
     private int stepsToWait = 0;
     private int autoCorrectFactor = 1;
-    private int magnUnits;
-    private int aclUnits;
     private boolean autoCorrect = false;
     private SharedPreferences settings;
     private onStepUpdateListener stepUpdateListener;
+    /**
+     * Records the raw sensor events while the log is written (debug builds), null if not recording
+     * 写日志时（调试版本）录制原始传感器事件，不录制时为null
+     */
+    private volatile SensorTraceRecorder recorder;
+    /**
+     * The last published result, replaced as a whole by the sensor thread and read by any thread
+     * 最后发布的结果，由传感器线程整体替换，任何线程都可读取
+     */
+    private volatile NavigationState state = NavigationState.INITIAL;
+    /**
+     * Version of the last published state, only used on the sensor thread
+     */
+    private long stateVersion;
+    private final NavigationEngine.Listener engineListener = new NavigationEngine.Listener() {
+        @Override
+        public void onStep(int stepCounter) {
+            if (governRates && rateGovernor.onStep(engine.getTimestamp())) {
+                onActivityChange();
+            }
+            publishState();
+            publishEvent(STEP_EVENT);
+            newStepDetected = true;
+            if (export) {
+                positionOutput();
+            }
+        }
+
+        @Override
+        public void onOrientationChange(double azimuth) {
+            //invoke step (only interface, not a real step), because orientation of user has changed more than X degree
+            //so a step is necessary to update users position marker and respective orientation
+            //调用步骤（仅接口，而不是真正的步骤），因为用户的方向已经改变了超过X度
+            //所以需要一步来更新用户位置标记和相应的方向
+            publishState();
+            publishEvent(STEP_EVENT);
+        }
+
+        @Override
+        public void onMagneticDisturbance(boolean disturbed) {
+            publishState();
+        }
+
+        @Override
+        public void onCarryModeChange(int mode) {
+            Log.i("Sensors", "Carry mode " + CarryModeClassifier.getName(mode) + ", step detection "
+                    + engine.getStepDetector().getAdaptiveThreshold());
+        }
+    };
+    /**
+     * Passes the gyroscope from the orientation provider to the engine, which recognizes how the phone is carried
+     * 将陀螺仪从方向提供程序传给引擎，引擎据此识别手机的携带方式
+     */
+    private final OrientationProvider.GyroscopeListener gyroscopeListener =
+            new OrientationProvider.GyroscopeListener() {
+        @Override
+        public void onGyroscope(long timestamp, float[] values) {
+            engine.onGyroscope(timestamp, values);
+        }
+    };
 
 
     public Core(Context context) {
@@ -118,28 +277,195 @@ public class Core implements SensorEventListener {
         settings = context.getApplicationContext().getSharedPreferences(context.getApplicationContext().getPackageName() + "_preferences", Context.MODE_PRIVATE);
         autoCorrect = settings.getBoolean("autocorrect", false);
 
-        positionsFileNotExisting = true;
-        sensorFileNotExisting = true;
-
-        stepCounter = 0;
-        initialStep = true;
-
-        magn[0] = magn[1] = magn[2] = gravity[0] = gravity[1] = 0;
-        gravity[2] = 9.81f;
-        ugainM = ugainA = 154994.3249f;
-        tpA[0] = tpM[0] = 0.9273699683f;
-        tpA[1] = tpM[1] = -2.8520278186f;
-        tpA[2] = tpM[2] = 2.9246062355f;
+        resetState();
+        // the engine leaves them off, the app turns them on unless the settings say otherwise
+        //引擎默认关闭它们，除非设置另有规定，应用程序将其打开
+        engine.setDynamicStepLength(settings.getBoolean("dynamic_steplength", true));
+        engine.setUseWalkingDirection(settings.getBoolean("walking_direction", true));
+        engine.setCarryModeDetection(settings.getBoolean("carry_mode_detection", true));
+        governRates = settings.getBoolean("rate_governor", true);
+        engine.getStepLengthEstimator().setCalibration(
+                Double.longBitsToDouble(settings.getLong("steplength_products", 0)),
+                Double.longBitsToDouble(settings.getLong("steplength_squares", 0)));
+        loadMagneticCalibration();
 
         version = BuildConfig.VERSION_NAME;
 
         mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
 
+        //The sensor events are processed on their own thread, so rendering does not delay them (and vice versa)
+        //传感器事件在自己的线程上处理，因此渲染不会延迟它们（反之亦然）
+        sensorThread = new HandlerThread("SensorThread", Process.THREAD_PRIORITY_DISPLAY);
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
+        uiHandler = new Handler(Looper.getMainLooper());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            batteryManager = (BatteryManager) context.getSystemService(Context.BATTERY_SERVICE);
+        }
 
         if (mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE) != null) {
             gyroExists = true;
-            mOrientationProvider = new ImprovedOrientationSensor2Provider((SensorManager) context.getSystemService(Context.SENSOR_SERVICE));
+            // without rotation vector the improved provider would never get an absolute orientation
+            //没有旋转矢量时改进的提供程序永远得不到绝对方向
+            String provider = mSensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR) != null
+                    ? PROVIDER_IMPROVED : PROVIDER_MADGWICK;
+            mOrientationProvider = createOrientationProvider(settings.getString("orientation_provider", provider));
+            mOrientationProvider.setGyroscopeListener(gyroscopeListener);
+            //use gyroscope with the orientation provider for the direction
+            //使用方向提供程序的陀螺仪计算方向
+            engine.setHeadingSource(new NavigationEngine.HeadingSource() {
+                @Override
+                public double getAzimuth() {
+                    // magnetic north, the engine adds the declination  磁北，引擎加上磁偏角
+                    return mOrientationProvider.getAzimuth(0);
+                }
+
+                @Override
+                public void onMagneticDisturbance(boolean disturbed) {
+                    mOrientationProvider.setMagneticDisturbed(disturbed);
+                }
+            });
         }
+        engine.setListener(engineListener);
+        setBatching(settings.getInt("batching_latency", 0));
+    }
+
+    private OrientationProvider createOrientationProvider(String name) {
+        OrientationProvider provider;
+        if (PROVIDER_KALMAN.equals(name)) {
+            provider = new KalmanOrientationProvider(mSensorManager);
+        } else if (PROVIDER_MADGWICK.equals(name)) {
+            MadgwickOrientationProvider madgwick = new MadgwickOrientationProvider(mSensorManager);
+            madgwick.setGain(settings.getFloat("madgwick_gain", MadgwickFilter.DEFAULT_GAIN));
+            provider = madgwick;
+        } else {
+            provider = new ImprovedOrientationSensor2Provider(mSensorManager);
+        }
+        provider.setGyroscopeIntegrator(settings.getInt("gyro_integrator", GyroIntegrator.CONING));
+        float[] bias = loadFloats(gyroscopeBiasKey(), 3);
+        if (bias != null) {
+            provider.setGyroscopeBias(bias);
+        }
+        return provider;
+    }
+
+    /**
+     * Switches the fusion that provides the direction on devices with a gyroscope, takes effect immediately if the
+     * sensors are running. The new provider starts from accelerometer and magnetic field (or the rotation vector).
+     * 切换在有陀螺仪的设备上提供方向的融合方式，传感器运行时立即生效。新的提供程序从加速度计和磁场（或旋转矢量）开始。
+     *
+     * @param name {@link #PROVIDER_IMPROVED} (gyroscope and rotation vector), {@link #PROVIDER_KALMAN} (Kalman
+     *             filter over gyroscope, accelerometer and magnetic field) or {@link #PROVIDER_MADGWICK} (lightweight
+     *             gradient descent over the same sensors)
+     */
+    public void setOrientationProvider(String name) {
+        if (!gyroExists) {
+            return;
+        }
+        OrientationProvider old = mOrientationProvider;
+        OrientationProvider provider = createOrientationProvider(name);
+        provider.setRecorder(recorder);
+        provider.setGyroscopeListener(gyroscopeListener);
+        provider.setMagneticDisturbed(engine.getDisturbanceDetector().isDisturbed());
+        if (sensorsActive) {
+            mSensorManager.unregisterListener(Core.this);
+            old.stop();
+            mOrientationProvider = provider;
+            registerSensors();
+        } else {
+            mOrientationProvider = provider;
+        }
+        old.setRecorder(null);
+        old.setGyroscopeListener(null);
+    }
+
+    /**
+     * Creates a Core without sensor manager, preferences and thread, e.g. to process recorded samples
+     * via {@link #processSample(int, long, float[])} on the JVM, or as a variant fed by a {@link SensorFanOut}.
+     * The listener is called on the thread that processes the samples. The engine has the defaults of
+     * {@link NavigationEngine}, like a bare engine; configure it through {@link #getEngine()}.
+     * 创建一个没有传感器管理器、设置和线程的Core，用于离线处理样本或作为由SensorFanOut提供数据的变体。
+     * 引擎使用NavigationEngine的默认值，与单独的引擎相同；通过getEngine()配置。
+     *
+     * @param listener receives step and orientation updates
+     */
+    public Core(onStepUpdateListener listener) {
+        stepUpdateListener = listener;
+
+        resetState();
+        engine.setListener(engineListener);
+    }
+
+    /**
+     * Starts with a new engine, i.e. filters and step detection in initial state, with the position, declination
+     * and step length of this Core and otherwise the defaults of {@link NavigationEngine}
+     * 使用新的引擎，即滤波器和步伐检测处于初始状态，使用此Core的位置、磁偏角和步长，其余为NavigationEngine的默认值
+     */
+    private void resetState() {
+        positionsFileNotExisting = true;
+
+        engine = new NavigationEngine();
+        engine.setPosition(startLat, startLon);
+        engine.setDeclination(decl);
+        engine.setStepLength(stepLength);
+    }
+
+    /**
+     * Feeds every sample that this Core processes also to variants of the pipeline, e.g. Cores created with
+     * {@link #Core(onStepUpdateListener)} whose engines use other thresholds or heading sources. The samples are
+     * added on the sensor thread, the variants run on the threads of the fan-out. Without batching the gyroscope
+     * goes directly to the orientation provider and is not passed on.
+     * 将此Core处理的每个样本也提供给流程的变体，例如使用其他阈值或方向来源的Core。样本在传感器线程上添加，
+     * 变体在分发器的线程上运行。
+     *
+     * @param fanOut the variants, null to stop
+     */
+    public void setFanOut(final SensorFanOut fanOut) {
+        runOnSensorThread(new Runnable() {
+            @Override
+            public void run() {
+                SensorFanOut previous = Core.this.fanOut;
+                if (previous != null) {
+                    previous.flush();
+                }
+                Core.this.fanOut = fanOut;
+            }
+        });
+    }
+
+    /**
+     * @return passes the events to {@link #processSample(int, long, float[])}, e.g. as a pipeline of a
+     * {@link SensorFanOut}
+     */
+    public SensorEventBatch.Receiver getReceiver() {
+        return batchReceiver;
+    }
+
+    /**
+     * @return the engine, e.g. to configure a variant before it gets samples; change it only on the thread that
+     * processes the samples
+     */
+    public NavigationEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Publishes the results of the engine as a new {@link NavigationState}, called on the sensor thread after a step,
+     * a change of direction or a new position. Allocates the state object, the samples in between do not.
+     * 将引擎的结果作为新的NavigationState发布，在传感器线程上于一步、方向变化或新位置之后调用。
+     */
+    private void publishState() {
+        state = new NavigationState(++stateVersion, engine.getTimestamp(), engine.getLatitude(), engine.getLongitude(),
+                engine.getAzimuth(), engine.getStepCounter(), engine.getLastStepLength(),
+                engine.getDisturbanceDetector().isDisturbed(), engine.getDisturbanceDetector().getDuration());
+    }
+
+    /**
+     * @return the latest heading, position and step count, consistent with each other; can be called on any thread
+     * 最新的方向、位置和步数，彼此一致；可在任何线程调用
+     */
+    public NavigationState getState() {
+        return state;
     }
 
     /**
@@ -147,14 +473,21 @@ public class Core implements SensorEventListener {
      *
      * @param startLat
      * @param startLon
-     * @param distanceLongitude
+     * @param distanceLongitude only kept in {@link #distanceLongitude}, the engine computes the length of a degree
+     *                          longitude from the latitude
      */
-    public static void initialize(double startLat, double startLon, double distanceLongitude, double altitude, float lastErrorGPS) {
-        Core.startLat = startLat;
-        Core.startLon = startLon;
-        Core.distanceLongitude = distanceLongitude;
-        Core.altitude = (int) altitude;
-        Core.lastErrorGPS = lastErrorGPS;
+    public void initialize(double startLat, double startLon, double distanceLongitude, double altitude, float lastErrorGPS) {
+        this.startLat = startLat;
+        this.startLon = startLon;
+        this.distanceLongitude = distanceLongitude;
+        this.altitude = (int) altitude;
+        this.lastErrorGPS = lastErrorGPS;
+        runOnSensorThread(new Runnable() {
+            @Override
+            public void run() {
+                engine.setPosition(Core.this.startLat, Core.this.startLon);
+            }
+        });
 
 //        Core.startLat = 116.493047;
 //        Core.startLon = 39.967226;
@@ -165,23 +498,111 @@ public class Core implements SensorEventListener {
         trueNorth();
     }
 
-    public static void setLocation(double lat, double lon) {
-        startLat = lat;
-        startLon = lon;
+    public void setLocation(final double lat, final double lon) {
+        runOnSensorThread(new Runnable() {
+            @Override
+            public void run() {
+                startLat = lat;
+                startLon = lon;
+                engine.setPosition(lat, lon);
+            }
+        });
+    }
+
+    /**
+     * Calibrates the dynamic step length with a GPS fix of the {@link com.sosee.mysenorr.tools.Locationer}, the
+     * calibration is stored when a segment between two fixes was used
+     * 用Locationer的GPS定位点校准动态步长，使用两个定位点之间的路段后保存校准结果
+     *
+     * @param lat      latitude of the fix
+     * @param lon      longitude of the fix
+     * @param accuracy accuracy of the fix in metres
+     */
+    public void calibrateStepLength(final double lat, final double lon, final float accuracy) {
+        runOnSensorThread(new Runnable() {
+            @Override
+            public void run() {
+                if (engine.onGpsFix(lat, lon, accuracy) && settings != null) {
+                    StepLengthEstimator estimator = engine.getStepLengthEstimator();
+                    settings.edit()
+                            .putLong("steplength_products", Double.doubleToRawLongBits(estimator.getSumProducts()))
+                            .putLong("steplength_squares", Double.doubleToRawLongBits(estimator.getSumSquares()))
+                            .apply();
+                }
+            }
+        });
+    }
+
+    public void setStepLength(final float stepLength) {
+        this.stepLength = stepLength;
+        runOnSensorThread(new Runnable() {
+            @Override
+            public void run() {
+                engine.setStepLength(stepLength);
+            }
+        });
+    }
+
+    /**
+     * Runs the task on the sensor thread (or immediately if there is none, e.g. offline processing), the engine must
+     * only be changed there. After {@link #shutdown} the task is dropped, the thread has ended.
+     * 在传感器线程上运行任务（没有时立即运行，例如离线处理），引擎只能在那里修改。shutdown之后任务被丢弃，线程已经结束。
+     */
+    private void runOnSensorThread(Runnable task) {
+        Handler handler = sensorHandler;
+        if (handler != null) {
+            // returns false without running the task once the looper has quit  循环退出后返回false，不运行任务
+            handler.post(task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Hands an event over to the UI thread, where the listener is called
+     * 将事件交给UI线程，在那里调用监听器
+     *
+     * @param event {@link #STEP_EVENT} or {@link #AUTOCORRECT_EVENT}
+     */
+    private void publishEvent(int event) {
+        int pending;
+        do {
+            pending = pendingEvents.get();
+        } while (!pendingEvents.compareAndSet(pending, pending | event));
+        if (pending == 0) {
+            // not yet scheduled
+            //尚未安排
+            if (uiHandler != null) {
+                uiHandler.post(deliverEvents);
+            } else {
+                deliverEvents.run();
+            }
+        }
     }
 
-    private static void trueNorth() {
+    private void trueNorth() {
 
         long time = System.currentTimeMillis();
         GeomagneticField geo = new GeomagneticField((float) startLat, (float) startLon, altitude, time);
 //        GeomagneticField geo = new GeomagneticField((float) 116.493047, (float) 39.967226, 150, time);
         decl = geo.getDeclination();
+        final float declination = decl;
+        // GeomagneticField gives the strength in nT  GeomagneticField给出的强度单位为nT
+        final float strength = geo.getFieldStrength() / 1000;
+        final float dip = geo.getInclination();
+        runOnSensorThread(new Runnable() {
+            @Override
+            public void run() {
+                engine.setDeclination(declination);
+                engine.getDisturbanceDetector().setExpectedField(strength, dip);
+            }
+        });
 
         Log.d("nuinvsa","DECL:          "+decl);
 
     }
 
-    private static void positionOutput() {
+    private void positionOutput() {
         try {
             File folder = new File(Environment.getExternalStorageDirectory() + "/smartnavi/");
             folder.mkdir();
@@ -215,7 +636,8 @@ public class Core implements SensorEventListener {
                         df.setTimeZone(tz);
                         String nowAsISO = df.format(new Date());
 
-                        out.write("<trkpt lat=\"" + startLat + "\" lon=\"" + startLon + "\"><time>" + nowAsISO + "</time></trkpt>");
+                        NavigationState current = state;
+                        out.write("<trkpt lat=\"" + current.getLatitude() + "\" lon=\"" + current.getLongitude() + "\"><time>" + nowAsISO + "</time></trkpt>");
 
                         newStepDetected = false;
                     }
@@ -228,7 +650,20 @@ public class Core implements SensorEventListener {
         }
     }
 
-    public static void closeLogFile() {
+    /**
+     * Ends the track file after the steps that are still queued, on the sensor thread
+     * 在仍在排队的步伐之后结束轨迹文件，在传感器线程上执行
+     */
+    public void closeLogFile() {
+        runOnSensorThread(new Runnable() {
+            @Override
+            public void run() {
+                writeTrackEnd();
+            }
+        });
+    }
+
+    private void writeTrackEnd() {
         if (export && positionsFileNotExisting == false) {
             try {
                 FileWriter posWriter;
@@ -243,36 +678,26 @@ public class Core implements SensorEventListener {
         }
         export = false;
         positionsFileNotExisting = true;
-        sensorFileNotExisting = true;
     }
 
-    private static void dataOutput() {
+    /**
+     * Starts recording the raw sensor events into a new trace file in the smartnavi folder
+     * 开始将原始传感器事件录制到smartnavi文件夹中的新轨迹文件
+     */
+    public void startRecording() {
+        if (recorder != null) {
+            return;
+        }
         try {
             File folder = new File(Environment.getExternalStorageDirectory() + "/smartnavi/");
             folder.mkdir();
             if (folder.canWrite()) {
-                if (sensorFileNotExisting) {
-                    SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.GERMAN);
-                    String curentDateandTime = sdf.format(new Date());
-                    String textname = "sensoren_" + curentDateandTime + ".csv";
-                    sensorFile = new File(folder, textname);
-                    FileWriter sensorWriter = new FileWriter(sensorFile);
-                    BufferedWriter outs = new BufferedWriter(sensorWriter);
-                    outs.write(startLat + "; " + startLon + "; " + stepLength + ";" + version + "; ");
-                    outs.newLine();
-                    outs.write("origmagn0; origmagn1; origmagn2; origaccel0; origaccel1; origaccel2; "
-                            + "azimuthNeu;");
-                    outs.close();
-                    sensorFileNotExisting = false;
-                } else {
-                    FileWriter sensorWriter = new FileWriter(sensorFile, true);
-                    BufferedWriter outs = new BufferedWriter(sensorWriter);
-
-                    outs.newLine();
-
-                    outs.write(origMagn[0] + ";" + origMagn[1] + ";" + origMagn[2] + ";" + origAcl[0] + ";" + origAcl[1] + ";" + origAcl[2] + ";"
-                            + azimuth + ";");
-                    outs.close();
+                SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.GERMAN);
+                String curentDateandTime = sdf.format(new Date());
+                sensorFile = new File(folder, "sensoren_" + curentDateandTime + ".trace");
+                recorder = new SensorTraceRecorder(sensorFile);
+                if (gyroExists) {
+                    mOrientationProvider.setRecorder(recorder);
                 }
             }
         } catch (IOException e) {
@@ -280,41 +705,254 @@ public class Core implements SensorEventListener {
         }
     }
 
+    /**
+     * Stops recording and closes the trace file
+     * 停止录制并关闭轨迹文件
+     */
+    public void stopRecording() {
+        SensorTraceRecorder recorder = this.recorder;
+        if (recorder != null) {
+            this.recorder = null;
+            if (gyroExists) {
+                mOrientationProvider.setRecorder(null);
+            }
+            recorder.close();
+        }
+    }
+
     public void startSensors() {
-        aclUnits = 0;
-        magnUnits = 0;
-        startTime = System.nanoTime();
+        // the activity is unknown after the pause  暂停之后活动未知
+        samplingPeriodUs = SAMPLING_PERIOD_US;
+        final float power = getSensorPower();
+        final long charge = getBatteryCharge();
+        runOnSensorThread(new Runnable() {
+            @Override
+            public void run() {
+                engine.resetRateMeasurement();
+                rateGovernor.reset();
+                rateGovernor.setSensorPower(power);
+                startCharge = charge;
+                startDistance = engine.getWalkedDistance();
+            }
+        });
         try {
-            mSensorManager.registerListener(Core.this, mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), SensorManager.SENSOR_DELAY_GAME);
-            mSensorManager.registerListener(Core.this, mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD), SensorManager.SENSOR_DELAY_GAME);
+            registerSensors();
 //            if (BuildConfig.debug)
 //                Log.i("Sensors", "Sensors activated");
         } catch (Exception e) {
             e.printStackTrace();
         }
-        if (gyroExists) {
-            //use gyroscope with impovedOrientationProvider
-            //使用impovedOrientationProvider的陀螺仪
-            mOrientationProvider.start();
-        }
     }
 
     public void reactivateSensors() {
         if (mSensorManager != null) {
             mSensorManager.unregisterListener(Core.this);
-            mSensorManager.registerListener(Core.this, mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), 1);
-            mSensorManager.registerListener(Core.this, mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD), 1);
+            registerSensors();
 //            if (BuildConfig.debug)
 //                Log.i("Sensors", "Sensors activated!");
+        }
+    }
+
+    /**
+     * Registers the sensors, with batching all of them (also those of the orientation provider) on Core, so the
+     * events of a batch can be processed in the order of their timestamps
+     * 注册传感器；批处理时全部（包括方向提供程序的传感器）注册到Core，以便按时间戳顺序处理一批事件
+     */
+    private void registerSensors() {
+        int latency = maxReportLatencyUs;
+        int period = samplingPeriodUs;
+        Sensor accelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        Sensor magneticField = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+        if (latency > 0) {
+            List<Sensor> sensors = new ArrayList<Sensor>();
+            sensors.add(getBatchingSensor(accelerometer));
+            sensors.add(getBatchingSensor(magneticField));
+            if (gyroExists) {
+                for (Sensor sensor : mOrientationProvider.getSensors()) {
+                    int type = sensor.getType();
+                    // accelerometer and magnetic field are already in the list  加速度计和磁场已经在列表中
+                    if (type != Sensor.TYPE_ACCELEROMETER && type != Sensor.TYPE_MAGNETIC_FIELD) {
+                        sensors.add(getBatchingSensor(sensor));
+                    }
+                }
+            }
+            latency = getBatchLatency(sensors, latency, period);
+            for (Sensor sensor : sensors) {
+                mSensorManager.registerListener(Core.this, sensor, period, latency, sensorHandler);
+            }
+        } else {
+            mSensorManager.registerListener(Core.this, accelerometer, period, sensorHandler);
+            mSensorManager.registerListener(Core.this, magneticField, period, sensorHandler);
             if (gyroExists) {
                 //use gyroscope with impovedOrientationProvider
                 //使用impovedOrientationProvider的陀螺仪
-                mOrientationProvider.start();
+                mOrientationProvider.start(sensorHandler, period);
+            }
+        }
+        sensorsActive = true;
+    }
+
+    /**
+     * Batching is meant for the screen being off, when the CPU suspends. The FIFO of a normal sensor then overwrites
+     * the oldest samples once it is full, so the wake-up variant is used where there is one (Android 5 and later):
+     * its sensor hub wakes the CPU to deliver the batch, and Android holds a wakelock until Core has received it. If
+     * the CPU sleeps again before the batch is processed, it is processed together with the next one.
+     * 批处理用于屏幕关闭、CPU休眠时。普通传感器的FIFO满后会覆盖最早的样本，因此在有唤醒版本时使用唤醒版本（Android 5及以上）：
+     * 其传感器中枢唤醒CPU传递这批事件，Android在Core收到之前持有唤醒锁。如果CPU在处理之前再次休眠，这批事件与下一批一起处理。
+     *
+     * @return the wake-up variant of the sensor, the sensor itself if there is none
+     */
+    private Sensor getBatchingSensor(Sensor sensor) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && !sensor.isWakeUpSensor()) {
+            Sensor wakeUp = mSensorManager.getDefaultSensor(sensor.getType(), true);
+            if (wakeUp != null) {
+                return wakeUp;
+            }
+            Log.w("Sensors", "No wake-up " + sensor.getName() + ", its samples are lost while the CPU sleeps");
+        }
+        return sensor;
+    }
+
+    /**
+     * The sensors share the FIFO, so together they may only fill the part {@link #FIFO_USE} of it within the latency,
+     * else the FIFO overflows before the batch is delivered
+     * 传感器共享FIFO，因此在延迟时间内它们总共只能填满其中的FIFO_USE部分，否则FIFO在传递之前就会溢出
+     *
+     * @param sensors the sensors that are batched
+     * @param latency the requested latency in µs
+     * @param period  sampling period of every sensor in µs
+     * @return the latency limited to the FIFO in µs, 0 if there is no FIFO
+     */
+    private static int getBatchLatency(List<Sensor> sensors, int latency, int period) {
+        int capacity = Integer.MAX_VALUE;
+        for (Sensor sensor : sensors) {
+            capacity = Math.min(capacity, sensor.getFifoMaxEventCount());
+        }
+        if (capacity == 0) {
+            Log.i("Sensors", "No sensor FIFO, batching does not save energy on this device");
+            return 0;
+        }
+        long limit = (long) (FIFO_USE * capacity / sensors.size()) * period;
+        if (limit < latency) {
+            Log.i("Sensors", "Batching latency limited to " + limit / 1000 + " ms by the FIFO of " + capacity
+                    + " events");
+            return (int) limit;
+        }
+        return latency;
+    }
+
+    /**
+     * Lets the sensor hub collect the samples in its FIFO for up to the given time before delivering them, so the
+     * CPU can sleep in between (e.g. while the screen is off during navigation). Each batch is then processed in one
+     * pass, using the timestamps of the events, and the listener gets the steps in bursts. The latency is limited to
+     * what the FIFO holds, see {@link #getBatchingSensor(Sensor)} for the screen being off.
+     * Set by the setting "batching_latency" (ms, 0 by default), takes effect immediately if the sensors are running.
+     * <p>
+     * 让传感器中枢在其FIFO中收集样本，最长到给定时间后再传递，使CPU可以在其间休眠（例如导航时屏幕关闭）。
+     * 每批事件按时间戳一次性处理，监听器会成批收到步伐。延迟限制为FIFO能容纳的时间。
+     *
+     * @param maxReportLatencyMs maximum delay of a sample, 0 to deliver every sample immediately
+     */
+    public void setBatching(int maxReportLatencyMs) {
+        maxReportLatencyUs = maxReportLatencyMs * 1000;
+        if (sensorsActive) {
+            registerSensorsAgain();
+        }
+    }
+
+    /**
+     * Registers the running sensors again, e.g. with another sampling period or latency
+     * 重新注册正在运行的传感器，例如使用其他采样周期或延迟
+     */
+    private void registerSensorsAgain() {
+        mSensorManager.unregisterListener(Core.this);
+        if (gyroExists) {
+            mOrientationProvider.stop();
+        }
+        registerSensors();
+    }
+
+    /**
+     * @return the current of the registered sensors in mA as the manufacturers state it, for the estimates of the
+     * {@link #rateGovernor}
+     * 已注册传感器的电流（mA，按制造商的说明），用于频率调节器的估计
+     */
+    private float getSensorPower() {
+        float power = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER).getPower()
+                + mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD).getPower();
+        if (gyroExists) {
+            for (Sensor sensor : mOrientationProvider.getSensors()) {
+                int type = sensor.getType();
+                if (type != Sensor.TYPE_ACCELEROMETER && type != Sensor.TYPE_MAGNETIC_FIELD) {
+                    power += sensor.getPower();
+                }
+            }
+        }
+        return power;
+    }
+
+    /**
+     * Runs the sensors at the rate the activity of the user needs ({@link SensorRateGovernor}), called on the
+     * sensor thread. The filters follow at once through {@link #changeDelay}, the measurement of the rates corrects
+     * them two seconds later with the rate the sensors really deliver. The gyroscope integration of the orientation
+     * provider starts over once the sensors are registered again.
+     * 以用户活动所需的频率运行传感器，在传感器线程上调用。滤波器通过changeDelay立即跟随，两秒后采样率测量按传感器实际提供的频率修正。
+     * 传感器重新注册后，方向提供程序的陀螺仪积分重新开始。
+     */
+    private void onActivityChange() {
+        int rate = rateGovernor.getSamplingRate();
+        Log.i("Sensors", "Activity " + SensorRateGovernor.getName(rateGovernor.getActivity()) + ": "
+                + rateGovernor.describeRate());
+        int period = 1000000 / rate;
+        if (period == samplingPeriodUs) {
+            return;
+        }
+        samplingPeriodUs = period;
+        engine.resetRateMeasurement();
+        changeDelay(rate, 0);
+        changeDelay(rate, 1);
+        // registered on the UI thread like everywhere else, so it cannot overtake pauseSensors
+        //与其他地方一样在UI线程上注册，因此不会越过pauseSensors
+        uiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!sensorsActive) {
+                    return;
+                }
+                registerSensorsAgain();
+                if (gyroExists) {
+                    // the integrators of the gyroscope assume evenly spaced samples, start them over at the new rate
+                    //陀螺仪积分器假设样本等间隔，以新频率重新开始积分
+                    runOnSensorThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            mOrientationProvider.restartGyroscopeIntegration();
+                        }
+                    });
+                }
             }
+        });
+    }
+
+    /**
+     * Processes the collected events of a batch, called on the sensor thread
+     * 处理一批收集的事件，在传感器线程上调用
+     */
+    private void drainBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = SystemClock.elapsedRealtimeNanos();
+        batch.drain(batchReceiver);
+        SensorFanOut fanOut = this.fanOut;
+        if (fanOut != null) {
+            fanOut.flush();
         }
+        batchProcessingTime.record(SystemClock.elapsedRealtimeNanos() - start);
     }
 
     public void pauseSensors() {
+        sensorsActive = false;
         try {
             mSensorManager.unregisterListener(this);
             //new orientation provider
@@ -325,371 +963,272 @@ public class Core implements SensorEventListener {
         } catch (Exception e) {
             e.printStackTrace();
         }
+        // after the events that are still queued
+        //在仍在排队的事件之后
+        runOnSensorThread(new Runnable() {
+            @Override
+            public void run() {
+                drainBatch();
+                logLatency();
+                logEnergy();
+                saveMagneticCalibration();
+                saveGyroscopeBias();
+            }
+        });
     }
 
-    public void enableAutocorrect() {
-        autoCorrect = settings.getBoolean("autocorrect", false);
-        //First look if AutoCorrect should be activated, because closeLocationer relies on that
-        //首先看看是否应该激活自动更正，因为closeLocationer依赖于此
-        if (autoCorrect) {
-            int i = settings.getInt("gpstimer", 1);
-            if (i == 0) { //save as much battery as possible(尽可能多地省点)
-                autoCorrectFactor = 4;
-            } else if (i == 1) { // balanced 均衡
-                autoCorrectFactor = 2;
-            } else if (i == 2) { // high accuracy  高准确率
-                autoCorrectFactor = 1;
-            }
-            alreadyWaitingForAutoCorrect = false;
+    /**
+     * The calibration belongs to the phone, the key contains the model so a backup restored on another phone is not
+     * used there
+     * 校准属于手机，键中包含型号，因此在另一部手机上恢复的备份不会被使用
+     */
+    private static String magneticCalibrationKey() {
+        return "magnetic_calibration_" + Build.MANUFACTURER + "_" + Build.MODEL;
+    }
+
+    /**
+     * Restores the stored magnetic calibration, so it does not have to be learned again at every start
+     * 恢复保存的磁场校准，因此不必在每次启动时重新学习
+     */
+    private void loadMagneticCalibration() {
+        float[] calibration = loadFloats(magneticCalibrationKey(), MagneticCalibrator.CALIBRATION_SIZE);
+        if (calibration != null) {
+            engine.getMagneticCalibrator().setCalibration(calibration);
         }
     }
 
-    public void disableAutocorrect() {
-        autoCorrect = settings.getBoolean("autocorrect", false);
+    /**
+     * Stores the magnetic calibration if there is one, called on the sensor thread
+     * 如果有磁场校准则保存，在传感器线程上调用
+     */
+    private void saveMagneticCalibration() {
+        MagneticCalibrator calibrator = engine.getMagneticCalibrator();
+        if (settings == null || calibrator.getFits() == 0) {
+            return;
+        }
+        float[] calibration = new float[MagneticCalibrator.CALIBRATION_SIZE];
+        calibrator.getCalibration(calibration);
+        saveFloats(magneticCalibrationKey(), calibration);
     }
 
-    public void writeLog(boolean sollich) {
-        if (sollich) {
-            export = true;
-            startedToExport = true;
-        } else if (startedToExport == true && sollich == false) {
-            closeLogFile();
+    /**
+     * Like the magnetic calibration, the bias belongs to the gyroscope of the phone
+     * 与磁场校准一样，零偏属于手机的陀螺仪
+     */
+    private static String gyroscopeBiasKey() {
+        return "gyroscope_bias_" + Build.MANUFACTURER + "_" + Build.MODEL;
+    }
+
+    /**
+     * Stores the bias of the gyroscope estimated by the orientation provider, called on the sensor thread
+     * 保存方向提供程序估计的陀螺仪零偏，在传感器线程上调用
+     */
+    private void saveGyroscopeBias() {
+        float[] bias = new float[3];
+        if (settings == null || !gyroExists || !mOrientationProvider.getGyroscopeBias(bias)) {
+            return;
         }
+        Log.i("Sensors", "Gyroscope bias " + bias[0] + ", " + bias[1] + ", " + bias[2] + " rad/s");
+        saveFloats(gyroscopeBiasKey(), bias);
     }
 
-    public void imbaMagnetic(float[] magnetic) {
-        // LowPass 0.5Hz for alpha0   低通 0.5Hz，用于alpha0
-        xm0[0] = xm0[1];
-        xm0[1] = xm0[2];
-        xm0[2] = xm0[3];
-        xm0[3] = magnetic[0] / ugainM;
-        ym0[0] = ym0[1];
-        ym0[1] = ym0[2];
-        ym0[2] = ym0[3];
-        ym0[3] = (xm0[0] + xm0[3]) + 3 * (xm0[1] + xm0[2]) + (tpM[0] * ym0[0]) + (tpM[1] * ym0[1]) + (tpM[2] * ym0[2]);
-        magn[0] = (float) ym0[3];
-
-        // LowPass 0.5Hz for alpha1   低通 0.5Hz，用于alpha1
-        xm1[0] = xm1[1];
-        xm1[1] = xm1[2];
-        xm1[2] = xm1[3];
-        xm1[3] = magnetic[1] / ugainM;
-        ym1[0] = ym1[1];
-        ym1[1] = ym1[2];
-        ym1[2] = ym1[3];
-        ym1[3] = (xm1[0] + xm1[3]) + 3 * (xm1[1] + xm1[2]) + (tpM[0] * ym1[0]) + (tpM[1] * ym1[1]) + (tpM[2] * ym1[2]);
-        magn[1] = (float) ym1[3];
-
-        // LowPass 0.5Hz for alpha2  低通 0.5Hz，用于alpha2
-        xm2[0] = xm2[1];
-        xm2[1] = xm2[2];
-        xm2[2] = xm2[3];
-        xm2[3] = magnetic[2] / ugainM;
-        ym2[0] = ym2[1];
-        ym2[1] = ym2[2];
-        ym2[2] = ym2[3];
-        ym2[3] = (xm2[0] + xm2[3]) + 3 * (xm2[1] + xm2[2]) + (tpM[0] * ym2[0]) + (tpM[1] * ym2[1]) + (tpM[2] * ym2[2]);
-        magn[2] = (float) ym2[3];
-    }
-
-    public void imbaGravity(float[] accel) {
-        // LowPass 0.5Hz for alpha0  低通 0.5Hz，用于alpha0
-        xa0[0] = xa0[1];
-        xa0[1] = xa0[2];
-        xa0[2] = xa0[3];
-        xa0[3] = accel[0] / ugainA;
-        ya0[0] = ya0[1];
-        ya0[1] = ya0[2];
-        ya0[2] = ya0[3];
-        ya0[3] = (xa0[0] + xa0[3]) + 3 * (xa0[1] + xa0[2]) + (tpA[0] * ya0[0]) + (tpA[1] * ya0[1]) + (tpA[2] * ya0[2]);
-        gravity[0] = (float) ya0[3];
-
-        // LowPass 0.5Hz for alpha1  低通 0.5Hz，用于alpha1
-        xa1[0] = xa1[1];
-        xa1[1] = xa1[2];
-        xa1[2] = xa1[3];
-        xa1[3] = accel[1] / ugainA;
-        ya1[0] = ya1[1];
-        ya1[1] = ya1[2];
-        ya1[2] = ya1[3];
-        ya1[3] = (xa1[0] + xa1[3]) + 3 * (xa1[1] + xa1[2]) + (tpA[0] * ya1[0]) + (tpA[1] * ya1[1]) + (tpA[2] * ya1[2]);
-        gravity[1] = (float) ya1[3];
-
-        // LowPass 0.5Hz for alpha2   低通 0.5Hz，用于alpha2
-        xa2[0] = xa2[1];
-        xa2[1] = xa2[2];
-        xa2[2] = xa2[3];
-        xa2[3] = accel[2] / ugainA;
-        ya2[0] = ya2[1];
-        ya2[1] = ya2[2];
-        ya2[2] = ya2[3];
-        ya2[3] = (xa2[0] + xa2[3]) + 3 * (xa2[1] + xa2[2]) + (tpA[0] * ya2[0]) + (tpA[1] * ya2[1]) + (tpA[2] * ya2[2]);
-        gravity[2] = (float) ya2[3];
-    }
-
-    public void imbaLinear(float[] accel) {
-        linear[0] = accel[0] - gravity[0];
-        linear[1] = accel[1] - gravity[1];
-        linear[2] = accel[2] - gravity[2];
-    }
-
-    public void calculateAzimuth() {
-        SensorManager.getRotationMatrix(RMatrix, iMatrix, gravity, magn);
-        SensorManager.remapCoordinateSystem(RMatrix, SensorManager.AXIS_X, SensorManager.AXIS_Y, RMatrixRemapped);
-        SensorManager.getOrientation(RMatrixRemapped, orientation);
-        Matrix.transposeM(RMatrixTranspose, 0, RMatrix, 0);
-        Matrix.multiplyMV(linearRemapped, 0, RMatrixTranspose, 0, linear, 0);
-
-        //If Gyroscope exists, use ImprovedOrientationProvider, else use accelerometer and magentic field
-        //如果存在陀螺仪，请使用改进的定位提供程序，否则使用加速度计和磁场
-        if (gyroExists) {
-            azimuth = mOrientationProvider.getAzimuth(0);
-            Log.d("MyRowSys",azimuth+"");
-        } else {
-            if (orientation[0] >= 0) {
-                // Azimuth-Calculation (rad in degree)
-                //方位角 - 计算（弧度）
-                azimuth = (orientation[0] * 57.29577951f + decl);
-            } else {
-                // Azimuth-Calculation (rad in degree) +360
-                //方位角计算（弧度）+360
-                azimuth = (orientation[0] * 57.29577951f + 360 + decl);
+    /**
+     * @return the values stored as comma separated list, null if there are none or not the given number
+     */
+    private float[] loadFloats(String key, int count) {
+        String stored = settings.getString(key, null);
+        if (stored == null) {
+            return null;
+        }
+        String[] parts = stored.split(",");
+        if (parts.length != count) {
+            return null;
+        }
+        float[] values = new float[count];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                values[i] = Float.parseFloat(parts[i]);
             }
+        } catch (NumberFormatException e) {
+            Log.w("Sensors", "Invalid " + key + " " + stored);
+            return null;
+        }
+        return values;
+    }
 
-            if (azimuth >= 360) {
-                azimuth -= 360;
+    private void saveFloats(String key, float[] values) {
+        StringBuilder stored = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                stored.append(',');
             }
+            stored.append(values[i]);
+        }
+        settings.edit().putString(key, stored.toString()).apply();
+    }
+
+    /**
+     * Logs and resets the latency statistics and logs the step threshold and length, called on the sensor thread
+     * 记录并重置延迟统计并记录步伐阈值和步长，在传感器线程上调用
+     */
+    private void logLatency() {
+        Log.i("Sensors", "Step detection " + engine.getStepDetector().getAdaptiveThreshold());
+        Log.i("Sensors", "Step length " + engine.getStepLengthEstimator());
+        Log.i("Sensors", "Magnetic field " + engine.getMagneticCalibrator());
+        Log.i("Sensors", "Magnetic disturbance " + engine.getDisturbanceDetector());
+        Log.i("Sensors", "Walking direction " + engine.getWalkingDirectionEstimator());
+        Log.i("Sensors", "Carry mode " + engine.getCarryModeClassifier());
+        Log.i("Sensors", "Activity " + rateGovernor);
+        Log.i("Sensors", "Accelerometer/magnetic field latency " + deliveryLatency + ", processing " + processingTime);
+        deliveryLatency.reset();
+        processingTime.reset();
+        if (batchProcessingTime.getCount() > 0) {
+            // every batch is one wakeup of the CPU
+            //每批对应CPU的一次唤醒
+            Log.i("Sensors", "Batches " + batchProcessingTime);
+            batchProcessingTime.reset();
+        }
+        if (gyroExists) {
+            Log.i("Sensors", mOrientationProvider.getClass().getSimpleName() + " latency "
+                    + mOrientationProvider.getDeliveryLatency()
+                    + ", processing " + mOrientationProvider.getProcessingTime());
+            mOrientationProvider.getDeliveryLatency().reset();
+            mOrientationProvider.getProcessingTime().reset();
+        }
+    }
 
-            Log.d("MyRowSys",azimuth+"");
+    /**
+     * Logs the charge of the battery per walked kilometre since the sensors were started, and the part of the
+     * sensors as estimated by the {@link #rateGovernor}; called on the sensor thread
+     * 记录自传感器启动以来每行走一公里的电池电量消耗，以及频率调节器估计的传感器部分；在传感器线程上调用
+     */
+    private void logEnergy() {
+        double kilometres = (engine.getWalkedDistance() - startDistance) / 1000;
+        long charge = getBatteryCharge();
+        if (kilometres <= 0 || startCharge == Long.MIN_VALUE || charge == Long.MIN_VALUE) {
+            return;
+        }
+        // the counter falls while the battery discharges  电池放电时计数器下降
+        double used = (startCharge - charge) / 1000.0;
+        StringBuilder message = new StringBuilder(String.format(Locale.ENGLISH,
+                "Battery %.1f mAh for %.2f km, %.1f mAh/km", used, kilometres, used / kilometres));
+        if (governRates) {
+            message.append(String.format(Locale.ENGLISH, ", sensors about %.1f mAh/km",
+                    rateGovernor.getCharge() / kilometres));
         }
+        if (maxReportLatencyUs > 0) {
+            message.append(", batching ").append(maxReportLatencyUs / 1000).append(" ms");
+        }
+        Log.i("Sensors", message.toString());
     }
 
-    public void stepDetection() {
-        float value = linearRemapped[2];
-        if (initialStep && value >= stepThreshold) {
-            // Introduction of a step
-            //介绍一个步骤
-            initialStep = false;
-            stepBegin = true;
-        } else if (!stepBegin) {
-            if (oldAzimuth - azimuth > 5 || oldAzimuth - azimuth < -5) {
-                //invoke step (only interface, not a real step), because orientation of user has changed more than X degree
-                //so a step is necessary to update users position marker and respective orientation
-                //at this position in code it means: no step is being awaited and therefore check orientation change
+    /**
+     * @return remaining charge of the battery in µAh, Long.MIN_VALUE if it is unknown
+     */
+    private long getBatteryCharge() {
+        if (batteryManager == null) {
+            return Long.MIN_VALUE;
+        }
+        int charge = batteryManager.getIntProperty(BatteryManager.BATTERY_PROPERTY_CHARGE_COUNTER);
+        // devices without the counter report 0 or Integer.MIN_VALUE  没有计数器的设备报告0或Integer.MIN_VALUE
+        return charge > 0 ? charge : Long.MIN_VALUE;
+    }
 
-                //调用步骤（仅接口，而不是真正的步骤），因为用户的方向已经改变了超过X度
-                //所以需要一步来更新用户位置标记和相应的方向
-                //代码中的这个位置意味着：没有正在等待的步骤，因此检查方向改变
-                stepUpdateListener.onStepUpdate(0);
-                oldAzimuth = azimuth;
-            }
-        }
-        if (stepBegin && iStep / frequency >= 0.24f && iStep / frequency <= 0.8f) {
-            // Timeframe for step between minTime and maxTime
-            //minTime和maxTime之间的时间范围
-            // Check for negative peak
-            //检查负峰值
-            if (value < -stepThreshold) {
-                // TimeFrame correct AND Threshold of reverse side reached
-                //TimeFrame正确且达到反面的阈值
-                stepCounter++;
-                stepBegin = false;
-                iStep = 1;
-                initialStep = true;
-                newStep();
-                newStepDetected = true;
-                //save old azimith for possibly necessary orientation change, in case no steps are detected and users orientation changes strong enough
-                ////保存旧的azimith可能需要的方向更改，以防未检测到任何步骤并且用户方向变得足够强大
-                oldAzimuth = azimuth;
-                if (export) {
-                    positionOutput();
+    /**
+     * @return time from the timestamp of an accelerometer or magnetic field event until Core receives it
+     * (read on another thread than the sensor thread, the values are approximate)
+     */
+    public LatencyStats getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    /**
+     * @return time Core needs to process an accelerometer or magnetic field event
+     */
+    public LatencyStats getProcessingTime() {
+        return processingTime;
+    }
+
+    public void enableAutocorrect() {
+        final boolean enabled = settings.getBoolean("autocorrect", false);
+        final int i = settings.getInt("gpstimer", 1);
+        // the autocorrect state belongs to the sensor thread
+        //自动更正的状态属于传感器线程
+        runOnSensorThread(new Runnable() {
+            @Override
+            public void run() {
+                autoCorrect = enabled;
+                //First look if AutoCorrect should be activated, because closeLocationer relies on that
+                //首先看看是否应该激活自动更正，因为closeLocationer依赖于此
+                if (autoCorrect) {
+                    if (i == 0) { //save as much battery as possible(尽可能多地省点)
+                        autoCorrectFactor = 4;
+                    } else if (i == 1) { // balanced 均衡
+                        autoCorrectFactor = 2;
+                    } else if (i == 2) { // high accuracy  高准确率
+                        autoCorrectFactor = 1;
+                    }
+                    alreadyWaitingForAutoCorrect = false;
                 }
-            } else {
-                // TimeFrame correct but negative Threshold is too low
-                //TimeFrame正确但负值阈值太低
-                iStep++;
-            }
-        } else if (stepBegin && iStep / frequency < 0.24f) {
-            // TimeFrame for step too small, so wait and iStep++
-            //TimeFrame步骤太小，所以请等待和iStep ++
-            iStep++;
-        } else if (stepBegin && iStep / frequency > 0.8f) {
-            // TimeFrame for step too long
-            //步长过长的TimeFrame
-            stepBegin = false;
-            initialStep = true;
-            iStep = 1;
-        }
-    }
-
-    private void newStep() {
-        double winkel = azimuth;
-
-        Log.d("nuihuij",winkel+"");
-
-        //角度转成弧度
-
-        double winkel2 = winkel * 0.01745329252;
-//        if (BuildConfig.debug) {
-//            Log.i("Location-Status", "Step: " + Core.startLon);
-//        }
-        deltaLat = Math.cos(winkel2) * 0.000008984725966 * stepLength;
-        // 100cm for a step will be calculated according to angle on lat
-        //根据拉特上的角度计算100厘米
-        deltaLon = Math.sin(winkel2) / (distanceLongitude * 1000) * stepLength;
-        // 100cm for a step will be calculated according to angle on lon
-        //根据lon的角度计算100cm一步
-
-        deltaLat = Math.abs(deltaLat);
-        deltaLon = Math.abs(deltaLon);
-        // made by Christian Henke
-        //由基督教亨克制作
-        if (startLat > 0) {
-            // User is on northern hemisphere, Latitude bigger than 0
-            //用户位于北半球，纬度大于0
-            if (winkel > 270 || winkel < 90) { // Movement towards north  朝北的运动
-                startLat += deltaLat;
-            } else {
-                // Movement towards south
-                //朝南的运动
-                startLat -= deltaLat;
-            }
-        } else if (startLat < 0) {
-            // User is on southern hemisphere, Latitude smaller than 0
-            //用户位于南半球，纬度小于0
-            if (winkel > 270 || winkel < 90) {
-                // Movement towards north
-                //朝北的运动
-                startLat += deltaLat;
-            } else {
-                // Movement towards south
-                //朝南的运动
-                startLat -= deltaLat;
             }
+        });
+    }
+
+    public void disableAutocorrect() {
+        final boolean enabled = settings.getBoolean("autocorrect", false);
+        runOnSensorThread(new Runnable() {
+            @Override
+            public void run() {
+                autoCorrect = enabled;
+            }
+        });
+    }
+
+    public void writeLog(boolean sollich) {
+        if (sollich) {
+            runOnSensorThread(new Runnable() {
+                @Override
+                public void run() {
+                    export = true;
+                }
+            });
+            startedToExport = true;
+            if (BuildConfig.DEBUG) {
+                startRecording();
+            }
+        } else if (startedToExport == true && sollich == false) {
+            stopRecording();
+            closeLogFile();
         }
-        if (winkel < 180) {
-            // Movement towards east
-            //向东方移动
-            startLon += deltaLon;
-        } else {
-            // Movement towards west
-            //向西方移动
-            startLon -= deltaLon;
-        }
-        stepUpdateListener.onStepUpdate(0);
     }
 
+    /**
+     * Adapts filters and step detection to the measured sampling rate
+     * 根据测量的采样率调整滤波器和步伐检测
+     *
+     * @param freq   sampling rate in Hz
+     * @param sensor 0 for the accelerometer, 1 for the magnetic field sensor
+     */
     public void changeDelay(int freq, int sensor) {
-        // LowPassFilter 3. Order - Corner frequency all at 0.3 Hz
-        //低通滤波器 3.阶数 - 角频率全部在0.3 Hz
-
-        //Initializing on 50Hz
-        //初始化为50Hz
-        float ugain = 154994.3249f;
-        float tp0 = 0.9273699683f;
-        float tp1 = -2.8520278186f;
-        float tp2 = 2.9246062355f;
-
-        // Values according to actual frequency
-        //根据实际频率值
-        if (freq >= 125) {    //130
-            ugain = 2662508.633f;
-            tp0 = 0.9714168814f;
-            tp1 = -2.9424208232f;
-            tp2 = 2.9710009372f;
-        } else if (freq <= 124 && freq >= 115) { //120
-            ugain = 2096647.970f;
-            tp0 = 0.9690721133f;
-            tp1 = -2.9376603253f;
-            tp2 = 2.9685843964f;
-        } else if (freq <= 114 && freq >= 105) { //110
-            ugain = 1617241.715f;
-            tp0 = 0.9663083052f;
-            tp1 = -2.9320417512f;
-            tp2 = 2.9657284993f;
-        } else if (freq <= 104 && freq >= 95) { //100
-            ugain = 1217122.860f;
-            tp0 = 0.9630021159f;
-            tp1 = -2.9253101348f;
-            tp2 = 2.9623014461f;
-        } else if (freq <= 94 && freq >= 85) { //90
-            ugain = 889124.3983f;
-            tp0 = 0.9589765397f;
-            tp1 = -2.9170984005f;
-            tp2 = 2.9581128632f;
-        } else if (freq <= 84 && freq >= 75) { //80
-            ugain = 626079.3215f;
-            tp0 = 0.9539681632f;
-            tp1 = -2.9068581408f;
-            tp2 = 2.9528771997f;
-        } else if (freq <= 74 && freq >= 65) { //70
-            ugain = 420820.6222f;
-            tp0 = 0.9475671238f;
-            tp1 = -2.8937318862f;
-            tp2 = 2.9461457520f;
-        } else if (freq <= 64 && freq >= 55) { //60
-            ugain = 266181.2926f;
-            tp0 = 0.9390989403f;
-            tp1 = -2.8762997235f;
-            tp2 = 2.9371707284f;
-        } else if (freq <= 54 && freq >= 45) {  //50
-            ugain = 154994.3249f;
-            tp0 = 0.9273699683f;
-            tp1 = -2.8520278186f;
-            tp2 = 2.9246062355f;
-        } else if (freq <= 44 && freq >= 35) { //40
-            ugain = 80092.71123f;
-            tp0 = 0.9100493001f;
-            tp1 = -2.8159101079f;
-            tp2 = 2.9057609235f;
-        } else if (freq <= 34 && freq >= 28) { //30
-            ugain = 34309.44333f;
-            tp0 = 0.8818931306f;
-            tp1 = -2.7564831952f;
-            tp2 = 2.8743568927f;
-        } else if (freq <= 27 && freq >= 23) { //25
-            ugain = 20097.49869f;
-            tp0 = 0.8599919781f;
-            tp1 = -2.7096291328f;
-            tp2 = 2.8492390952f;
-        } else if (freq <= 22 && freq >= 15) { //20
-            ugain = 10477.51171f;
-            tp0 = 0.8281462754f;
-            tp1 = -2.6404834928f;
-            tp2 = 2.8115736773f;
-        } else if (freq <= 14) { //10
-            ugain = 1429.899908f;
-            tp0 = 0.6855359773f;
-            tp1 = -2.3146825811f;
-            tp2 = 2.6235518066f;
-        }
-
-        // Set values for specific sensor
-        //设置特定传感器的值
-        if (sensor == 0) {
-            //  Accelerometer 加速度计
-            frequency = freq;
-            ugainA = ugain;
-            tpA[0] = tp0;
-            tpA[1] = tp1;
-            tpA[2] = tp2;
-        } else if (sensor == 1) {
-            // Magnetic Field
-            // here not: frequency = freq; otherwise value is wrong for step detection
-            //that value has to be specified by accelerometer
-
-            //磁场
-            //这里不是：frequency = freq; 否则步骤检测的值错误
-            //该值必须由加速度计指定
-            ugainM = ugain;
-            tpM[0] = tp0;
-            tpM[1] = tp1;
-            tpM[2] = tp2;
-        }
+        engine.changeDelay(freq, sensor);
     }
 
     public void shutdown(Context mContext) {
         pauseSensors();
+        stopRecording();
+        closeLogFile();
+        if (sensorThread != null) {
+            // the events that are still queued and the end of the track file are processed before the thread ends,
+            // waiting for it makes the closed file visible here
+            //线程结束前仍会处理排队的事件和轨迹文件的结尾，等待线程结束后这里可以看到关闭的文件
+            sensorThread.quitSafely();
+            try {
+                sensorThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            sensorThread = null;
+        }
 //        if (BuildConfig.debug)
 //            Log.i("Sensors", "Sensors deactivated");
         try {
@@ -705,52 +1244,82 @@ public class Core implements SensorEventListener {
         } catch (Exception e) {
             // is always the case
         }
-        closeLogFile();
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
-        switch (event.sensor.getType()) {
+        // the timestamps of the events are based on elapsedRealtimeNanos
+        //事件的时间戳基于elapsedRealtimeNanos
+        long received = SystemClock.elapsedRealtimeNanos();
+        deliveryLatency.record(received - event.timestamp);
+
+        SensorTraceRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.record(event);
+        }
+        if (maxReportLatencyUs > 0) {
+            // the events of a batch are delivered one after another, the batch is processed after the last one
+            //一批事件逐个传递，在最后一个之后处理整批
+            if (batch.isEmpty()) {
+                sensorHandler.post(processBatch);
+            }
+            if (!batch.add(event.sensor.getType(), event.timestamp, event.values)) {
+                drainBatch();
+                batch.add(event.sensor.getType(), event.timestamp, event.values);
+            }
+        } else {
+            // events left over from batching come first
+            //批处理剩余的事件先处理
+            drainBatch();
+            processSample(event.sensor.getType(), event.timestamp, event.values);
+        }
+
+        processingTime.record(SystemClock.elapsedRealtimeNanos() - received);
+    }
+
+    /**
+     * Runs one sensor sample through the filter, heading and step pipeline.
+     * The values are only read, never stored, so callers may pass (and later reuse) their own buffer
+     * and no copy of the sample is made. Nothing on this path allocates.
+     * <p>
+     * 通过滤波、方向和步伐检测处理一个传感器样本。数组只被读取，不会被保存，因此不需要复制，整个过程不分配内存。
+     *
+     * @param sensorType {@link Sensor#TYPE_ACCELEROMETER} or {@link Sensor#TYPE_MAGNETIC_FIELD}, when batching
+     *                   also {@link Sensor#TYPE_GYROSCOPE} and {@link Sensor#TYPE_ROTATION_VECTOR}
+     * @param timestamp  time of the sample in nanoseconds
+     * @param values     the raw sensor values (x, y, z)
+     */
+    public void processSample(int sensorType, long timestamp, float[] values) {
+        SensorFanOut fanOut = this.fanOut;
+        if (fanOut != null) {
+            fanOut.add(sensorType, timestamp, values);
+        }
+        switch (sensorType) {
 
             case Sensor.TYPE_MAGNETIC_FIELD:
-                imbaMagnetic(event.values.clone());
-//                if (BuildConfig.debug) {
-//                    Core.origMagn = event.values.clone();
-//                }
-                magnUnits++;
+                engine.onMagneticField(timestamp, values);
+                if (gyroExists && mOrientationProvider.needsAccelerometerAndMagneticField()) {
+                    // without hard and soft iron, like the field the engine uses  与引擎使用的磁场一样去除硬铁和软铁
+                    mOrientationProvider.processEvent(sensorType, timestamp, engine.getMagnCalibrated());
+                }
                 break;
 
             case Sensor.TYPE_ACCELEROMETER:
-//                if (BuildConfig.debug) {
-//                    Core.origAcl = event.values.clone();
-//                }
-
 //                if (Config.backgroundServiceActive && units % 50 == 0) {
 //                    BackgroundService.newFakePosition();
 //                }
 
-                long timePassed = System.nanoTime() - startTime;
-                aclUnits++;
                 units++;
 
-                if (timePassed >= 2000000000) { // every 2sek
-                    changeDelay(aclUnits / 2, 0);
-                    changeDelay(magnUnits / 2, 1);
-
-                    startTime = System.nanoTime();
-                    aclUnits = magnUnits = 0;
+                if (gyroExists && mOrientationProvider.needsAccelerometerAndMagneticField()) {
+                    // before the engine asks it for the direction  在引擎向它询问方向之前
+                    mOrientationProvider.processEvent(sensorType, timestamp, values);
                 }
-
-                imbaGravity(event.values.clone());
-                imbaLinear(event.values.clone());
-
-                calculateAzimuth();
-
-//                if (export && BuildConfig.debug) {
-//                    dataOutput();
-//                }
-
-                stepDetection();
+                engine.onAccelerometer(timestamp, values);
+                if (governRates && rateGovernor.onAccelerometer(timestamp, values)) {
+                    onActivityChange();
+                }
+                int stepCounter = engine.getStepCounter();
 
                 // AutoCorrect (dependent on Factor, i.e. number of steps)
                 //自动更正（取决于因子，即步数）
@@ -768,13 +1337,25 @@ public class Core implements SensorEventListener {
 //                            GoogleMap.backgroundServiceShallBeOnAgain = true;
 //                            BackgroundService.pauseFakeProvider();
 //                        }
-                        stepUpdateListener.onStepUpdate(1); //start Autocorrect
+                        publishEvent(AUTOCORRECT_EVENT); //start Autocorrect
                         alreadyWaitingForAutoCorrect = false;
 //                        if (BuildConfig.debug)
 //                            Log.i("Location-Status", "Steps reached for Autocorrect!");
                     }
                 }
                 break;
+
+            case Sensor.TYPE_GYROSCOPE:
+            case Sensor.TYPE_ROTATION_VECTOR:
+                // only delivered to Core when batching
+                //只有批处理时才传递给Core
+                if (sensorType == Sensor.TYPE_GYROSCOPE) {
+                    engine.onGyroscope(timestamp, values);
+                }
+                if (gyroExists) {
+                    mOrientationProvider.processEvent(sensorType, timestamp, values);
+                }
+                break;
         }
     }
 
@@ -0,0 +1,95 @@
+package com.sosee.mysenorr.sensors;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+import com.sosee.mysenorr.fusion.KalmanOrientationFilter;
+
+
+/**
+ * The orientation provider that fuses {@link Sensor#TYPE_GYROSCOPE Gyroscope}, accelerometer and magnetic field
+ * itself with an error-state Kalman filter, including the bias of the gyroscope. Unlike the
+ * {@link ImprovedOrientationSensor2Provider} it does not need the Android Rotation Vector, and the weight of the
+ * corrections follows the uncertainty of the orientation instead of being fixed.
+ * The fusion itself is done by {@link KalmanOrientationFilter}, this class connects it to the Android sensors.
+ * Only the gyroscope is registered here, accelerometer and magnetic field are passed in by Core, which receives them
+ * anyway (see {@link #needsAccelerometerAndMagneticField()}).
+ * <p>
+ * 自行用误差状态卡尔曼滤波器融合陀螺仪、加速度计和磁场（包括陀螺仪零偏）的方向提供程序。与ImprovedOrientationSensor2Provider
+ * 不同，它不需要Android旋转矢量，修正的权重随方向的不确定性变化而不是固定的。这里只注册陀螺仪，加速度计和磁场由Core传入。
+ */
+public class KalmanOrientationProvider extends OrientationProvider {
+
+    private final KalmanOrientationFilter filter = new KalmanOrientationFilter();
+    private final float[] quaternion = new float[4];
+
+    /**
+     * @param sensorManager The android sensor manager
+     */
+    public KalmanOrientationProvider(SensorManager sensorManager) {
+        super(sensorManager);
+        sensorList.add(sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE));
+    }
+
+    @Override
+    public void processEvent(int sensorType, long timestamp, float[] values) {
+        switch (sensorType) {
+            case Sensor.TYPE_GYROSCOPE:
+                if (filter.onGyroscope(timestamp, values)) {
+                    filter.getQuaternion(quaternion);
+                    // w inverted, as in all quaternions of the providers  w取反，与所有提供程序的四元数一致
+                    currentOrientationQuaternion.setXYZW(quaternion[1], quaternion[2], quaternion[3], -quaternion[0]);
+                    filter.getRotationMatrix(currentOrientationRotationMatrix.matrix);
+                    publishOrientation();
+                }
+                break;
+
+            case Sensor.TYPE_ACCELEROMETER:
+                filter.onAccelerometer(timestamp, values);
+                break;
+
+            case Sensor.TYPE_MAGNETIC_FIELD:
+                filter.onMagneticField(timestamp, values);
+                break;
+        }
+    }
+
+    @Override
+    public boolean needsAccelerometerAndMagneticField() {
+        return true;
+    }
+
+    @Override
+    public void setMagneticDisturbed(boolean disturbed) {
+        filter.setMagneticDisturbed(disturbed);
+    }
+
+    @Override
+    public void setGyroscopeIntegrator(int method) {
+        filter.setIntegrator(method);
+    }
+
+    @Override
+    public void restartGyroscopeIntegration() {
+        filter.restartIntegration();
+    }
+
+    /**
+     * The filter estimates the bias itself, all the time
+     * 滤波器始终自行估计零偏
+     */
+    @Override
+    public boolean getGyroscopeBias(float[] bias) {
+        filter.getBias(bias);
+        return filter.isInitialised();
+    }
+
+    @Override
+    public void setGyroscopeBias(float[] bias) {
+        filter.setBias(bias);
+    }
+
+    public KalmanOrientationFilter getFilter() {
+        return filter;
+    }
+}
@@ -0,0 +1,99 @@
+package com.sosee.mysenorr.sensors;
+
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+
+import com.sosee.mysenorr.fusion.MadgwickFilter;
+
+
+/**
+ * The lightweight orientation provider for low-end devices and devices without a (good)
+ * {@link Sensor#TYPE_ROTATION_VECTOR Android Rotation Vector}: fuses {@link Sensor#TYPE_GYROSCOPE Gyroscope},
+ * accelerometer and magnetic field with Madgwick's gradient descent filter, a few hundred float operations per
+ * gyroscope sample. The gain can be tuned with {@link #setGain(float)}.
+ * The fusion itself is done by {@link MadgwickFilter}, this class connects it to the Android sensors.
+ * Only the gyroscope is registered here, accelerometer and magnetic field are passed in by Core, which receives them
+ * anyway (see {@link #needsAccelerometerAndMagneticField()}).
+ * <p>
+ * 用于低端设备和没有（好的）Android旋转矢量的设备的轻量方向提供程序：用Madgwick梯度下降滤波器融合陀螺仪、加速度计和磁场，
+ * 每个陀螺仪样本只需几百次浮点运算。这里只注册陀螺仪，加速度计和磁场由Core传入。
+ */
+public class MadgwickOrientationProvider extends OrientationProvider {
+
+    private final MadgwickFilter filter = new MadgwickFilter();
+    private final float[] quaternion = new float[4];
+
+    /**
+     * @param sensorManager The android sensor manager
+     */
+    public MadgwickOrientationProvider(SensorManager sensorManager) {
+        super(sensorManager);
+        sensorList.add(sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE));
+    }
+
+    @Override
+    public void processEvent(int sensorType, long timestamp, float[] values) {
+        switch (sensorType) {
+            case Sensor.TYPE_GYROSCOPE:
+                if (filter.onGyroscope(timestamp, values)) {
+                    filter.getQuaternion(quaternion);
+                    // w inverted, as in all quaternions of the providers  w取反，与所有提供程序的四元数一致
+                    currentOrientationQuaternion.setXYZW(quaternion[1], quaternion[2], quaternion[3], -quaternion[0]);
+                    filter.getRotationMatrix(currentOrientationRotationMatrix.matrix);
+                    publishOrientation();
+                }
+                break;
+
+            case Sensor.TYPE_ACCELEROMETER:
+                filter.onAccelerometer(timestamp, values);
+                break;
+
+            case Sensor.TYPE_MAGNETIC_FIELD:
+                filter.onMagneticField(timestamp, values);
+                break;
+        }
+    }
+
+    @Override
+    public boolean needsAccelerometerAndMagneticField() {
+        return true;
+    }
+
+    @Override
+    public void setMagneticDisturbed(boolean disturbed) {
+        filter.setMagneticDisturbed(disturbed);
+    }
+
+    @Override
+    public void setGyroscopeIntegrator(int method) {
+        filter.setIntegrator(method);
+    }
+
+    @Override
+    public void restartGyroscopeIntegration() {
+        filter.restartIntegration();
+    }
+
+    @Override
+    public boolean getGyroscopeBias(float[] bias) {
+        filter.getBiasEstimator().getBias(bias);
+        return filter.getBiasEstimator().hasBias();
+    }
+
+    @Override
+    public void setGyroscopeBias(float[] bias) {
+        filter.getBiasEstimator().setBias(bias);
+    }
+
+    /**
+     * @param gain step of the gradient descent in rad/s: larger follows accelerometer and magnetic field more
+     *             closely, smaller trusts the gyroscope longer
+     */
+    public void setGain(float gain) {
+        filter.setGain(gain);
+    }
+
+    public MadgwickFilter getFilter() {
+        return filter;
+    }
+}
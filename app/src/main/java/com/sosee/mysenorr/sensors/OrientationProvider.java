@@ -4,9 +4,14 @@
 package com.sosee.mysenorr.sensors;
 
 import android.hardware.Sensor;
+import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.SystemClock;
 
+import com.sosee.mysenorr.fusion.OrientationSnapshot;
+import com.sosee.mysenorr.metrics.LatencyStats;
 
 import com.sosee.mysenorr.representation.EulerAngles;
 import com.sosee.mysenorr.representation.Matrixf4x4;
@@ -20,7 +25,9 @@ import java.util.List;
  * either by directly accessing hardware, using Android sensor fusion or fusing
  * sensors itself.
  * <p/>
- * The orientation can be provided as rotation matrix or quaternion.
+ * The orientation can be provided as rotation matrix or quaternion. It is published after every update
+ * through a lock-free {@link OrientationSnapshot}, so readers on other threads (e.g. rendering) never block
+ * the sensor thread and never see a half-written matrix.
  *
  *实现这个接口的类提供了设备的方向
  *通过直接访问硬件，使用Android传感器融合或融合传感器本身。
@@ -28,16 +35,13 @@ import java.util.List;
  */
 public abstract class OrientationProvider implements SensorEventListener {
     /**
-     * Sync-token for syncing read/write to sensor-data from sensor manager and
-     * fusion algorithm
-     *
-     * 用于同步读/写传感器管理器和传感器数据的同步令牌
-     *融合算法
+     * The published orientation that is read by other threads
+     * 发布给其他线程读取的方向
      */
-    protected final Object syncToken = new Object();
+    private final OrientationSnapshot snapshot = new OrientationSnapshot();
     /**
-     * The matrix that holds the current rotation
-     *保存当前旋转的矩阵
+     * The matrix that holds the current rotation, only used by the sensor thread (see {@link #publishOrientation()})
+     *保存当前旋转的矩阵，只由传感器线程使用
      */
     protected final Matrixf4x4 currentOrientationRotationMatrix;
     /**
@@ -55,6 +59,21 @@ public abstract class OrientationProvider implements SensorEventListener {
      * 用于访问android传感器的传感器管理器
      */
     protected SensorManager sensorManager;
+    /**
+     * Records the raw events of the sensors, null if not recording
+     * 录制传感器的原始事件，不录制时为null
+     */
+    protected volatile SensorTraceRecorder recorder;
+    /**
+     * Receives the gyroscope samples this provider gets from the sensor manager, null if nobody listens
+     */
+    protected volatile GyroscopeListener gyroscopeListener;
+    /**
+     * Time from the timestamp of a sensor event until the provider receives it, and the time to process it
+     * 从传感器事件的时间戳到提供程序收到它的时间，以及处理它的时间
+     */
+    protected final LatencyStats deliveryLatency = new LatencyStats();
+    protected final LatencyStats processingTime = new LatencyStats();
 
     /**
      * Initialises a new OrientationProvider
@@ -70,6 +89,15 @@ public abstract class OrientationProvider implements SensorEventListener {
 
         // Initialise with identity
         currentOrientationQuaternion = new Quaternion();
+        publishOrientation();
+    }
+
+    /**
+     * Makes the current rotation matrix and quaternion visible to the readers, called after every update
+     * 使当前的旋转矩阵和四元数对读取者可见，每次更新后调用
+     */
+    protected void publishOrientation() {
+        snapshot.publish(currentOrientationRotationMatrix.matrix, currentOrientationQuaternion.ToArray());
     }
 
     /**
@@ -77,17 +105,38 @@ public abstract class OrientationProvider implements SensorEventListener {
      * 开始传感器融合（例如，恢复活动时）
      */
     public void start() {
+        start(null);
+    }
+
+    /**
+     * Starts the sensor fusion with the events delivered on the thread of the handler
+     * 开始传感器融合，事件在handler的线程上传递
+     *
+     * @param handler the handler of the thread that processes the events, null for the main thread
+     */
+    public void start(Handler handler) {
         // enable our sensor when the activity is resumed, ask for
         // 10 ms updates.
         //当活动恢复时启用我们的传感器，请求
         // 10 ms更新。
+        start(handler, SensorManager.SENSOR_DELAY_GAME);
+    }
+
+    /**
+     * Starts the sensor fusion at a sampling rate, e.g. a lower one while the user stands still
+     * 以给定的采样率开始传感器融合，例如用户静止时使用较低的频率
+     *
+     * @param handler          the handler of the thread that processes the events, null for the main thread
+     * @param samplingPeriodUs time between two events in microseconds, or one of the SensorManager.SENSOR_DELAY_*
+     *                         constants
+     */
+    public void start(Handler handler, int samplingPeriodUs) {
         for (Sensor sensor : sensorList) {
             // enable our sensors when the activity is resumed, ask for
             // 20 ms updates (Sensor_delay_game)
             //在活动恢复时启用我们的传感器，请求
             // 20 ms更新（Sensor_delay_game）
-            sensorManager.registerListener(this, sensor,
-                    SensorManager.SENSOR_DELAY_GAME);
+            sensorManager.registerListener(this, sensor, samplingPeriodUs, handler);
         }
     }
 
@@ -103,22 +152,172 @@ public abstract class OrientationProvider implements SensorEventListener {
         }
     }
 
+    /**
+     * @param recorder receives the raw events of the sensors of this provider, null to stop recording
+     */
+    public void setRecorder(SensorTraceRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * @param gyroscopeListener receives the gyroscope samples that are delivered to this provider by the sensor
+     *                          manager (not those passed to {@link #processEvent}), on the thread of the events;
+     *                          null to stop
+     */
+    public void setGyroscopeListener(GyroscopeListener gyroscopeListener) {
+        this.gyroscopeListener = gyroscopeListener;
+    }
+
+    /**
+     * @return the sensors used by this provider, e.g. to deliver their events via {@link #processEvent} in a batch
+     */
+    public List<Sensor> getSensors() {
+        return sensorList;
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        // the timestamps of the events are based on elapsedRealtimeNanos
+        //事件的时间戳基于elapsedRealtimeNanos
+        long received = SystemClock.elapsedRealtimeNanos();
+        deliveryLatency.record(received - event.timestamp);
+
+        SensorTraceRecorder recorder = this.recorder;
+        if (recorder != null) {
+            recorder.record(event);
+        }
+        processEvent(event.sensor.getType(), event.timestamp, event.values);
+        GyroscopeListener gyroscopeListener = this.gyroscopeListener;
+        if (gyroscopeListener != null && event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
+            gyroscopeListener.onGyroscope(event.timestamp, event.values);
+        }
+
+        processingTime.record(SystemClock.elapsedRealtimeNanos() - received);
+    }
+
+    /**
+     * Processes one sensor event, must be called on the sensor thread
+     * 处理一个传感器事件，必须在传感器线程上调用
+     *
+     * @param sensorType type of the sensor, one of {@link #getSensors()}
+     * @param timestamp  time of the event in nanoseconds
+     * @param values     the values of the event, only read
+     */
+    public abstract void processEvent(int sensorType, long timestamp, float[] values);
+
+    /**
+     * @return true if Core has to pass the accelerometer and magnetic field events to {@link #processEvent}, because
+     * the provider uses them itself but does not register them (Core receives them anyway)
+     */
+    public boolean needsAccelerometerAndMagneticField() {
+        return false;
+    }
+
+    /**
+     * Called when the magnetic field becomes disturbed or trustworthy again, providers that use it (also indirectly
+     * through the rotation vector) should then rely on the gyroscope
+     * 磁场受到干扰或重新可信时调用，使用磁场（包括通过旋转矢量间接使用）的提供程序此时应依靠陀螺仪
+     *
+     * @param disturbed true if the field is disturbed
+     */
+    public void setMagneticDisturbed(boolean disturbed) {
+    }
+
+    /**
+     * Selects how the gyroscope samples are integrated, providers that integrate the gyroscope themselves should use
+     * it
+     * 选择陀螺仪样本的积分方法，自行积分陀螺仪的提供程序应使用它
+     *
+     * @param method one of the methods of {@link com.sosee.mysenorr.fusion.GyroIntegrator}
+     */
+    public void setGyroscopeIntegrator(int method) {
+    }
+
+    /**
+     * Starts the integration of the gyroscope over with the next sample, e.g. after the sensors were registered at
+     * another rate, providers that integrate the gyroscope themselves should implement it
+     * 从下一个样本重新开始陀螺仪积分，例如传感器以其他频率重新注册之后，自行积分陀螺仪的提供程序应实现它
+     */
+    public void restartGyroscopeIntegration() {
+    }
+
+    /**
+     * @param bias receives the estimated bias of the gyroscope in rad/s (x, y, z)
+     * @return true if the provider estimates the bias and has an estimate worth storing
+     */
+    public boolean getGyroscopeBias(float[] bias) {
+        return false;
+    }
+
+    /**
+     * Starts with a bias of the gyroscope stored in an earlier session, so the heading drifts less from the start
+     * 从之前会话保存的陀螺仪零偏开始，使方向从一开始就漂移更少
+     *
+     * @param bias the bias in rad/s (x, y, z), only read
+     */
+    public void setGyroscopeBias(float[] bias) {
+    }
+
+    public LatencyStats getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    public LatencyStats getProcessingTime() {
+        return processingTime;
+    }
+
     @Override
     public void onAccuracyChanged(Sensor sensor, int accuracy) {
         // Not doing anything
     }
 
+    /**
+     * @param matrix receives the current rotation of the device as 4x4 rotation matrix (16 values)
+     *               接收设备当前旋转的4x4旋转矩阵
+     */
+    public void getRotationMatrix(float[] matrix) {
+        snapshot.getRotationMatrix(matrix);
+    }
+
+    /**
+     * @param quaternion receives the current rotation of the device
+     *                   接收设备的当前旋转
+     */
+    public void getQuaternion(Quaternion quaternion) {
+        snapshot.getQuaternion(quaternion.ToArray());
+        // marks the cached matrix of the quaternion as outdated
+        quaternion.set(quaternion);
+    }
+
+    /**
+     * @param angles receives the current rotation of the device as azimuth, pitch and roll in radians
+     *               接收设备当前旋转的欧拉角（弧度）
+     */
+    public void getEulerAngles(float[] angles) {
+        snapshot.getOrientation(angles);
+    }
+
+    /**
+     * @param decl difference between magnetic and true north in degrees
+     * @return the direction of the device in degrees (0 = north)
+     */
+    public float getAzimuth(float decl) {
+        // Azimuth-Calculation (rad in degree) + difference to true north (decl)
+        //方位角计算（rad in度）+与真北差（decl）
+        return snapshot.getAzimuth(decl);
+    }
+
     /**
      * @return Returns the current rotation of the device in the rotation matrix
-     * format (4x4 matrix)
+     * format (4x4 matrix), a new copy on every call
      * 返回旋转矩阵中设备的当前旋转
      *格式（4x4矩阵）
      *
      */
     public Matrixf4x4 getRotationMatrix() {
-        synchronized (syncToken) {
-            return currentOrientationRotationMatrix;
-        }
+        Matrixf4x4 matrix = new Matrixf4x4();
+        snapshot.getRotationMatrix(matrix.matrix);
+        return matrix;
     }
 
     /**
@@ -128,9 +327,9 @@ public abstract class OrientationProvider implements SensorEventListener {
      *格式（vector4f）
      */
     public Quaternion getQuaternion() {
-        synchronized (syncToken) {
-            return currentOrientationQuaternion.clone();
-        }
+        Quaternion quaternion = new Quaternion();
+        getQuaternion(quaternion);
+        return quaternion;
     }
 
     /**
@@ -138,11 +337,20 @@ public abstract class OrientationProvider implements SensorEventListener {
      * 返回设备在欧拉角中的当前旋转
      */
     public EulerAngles getEulerAngles() {
-        synchronized (syncToken) {
+        float[] angles = new float[3];
+        snapshot.getOrientation(angles);
+        return new EulerAngles(angles[0], angles[1], angles[2]);
+    }
 
-            float[] angles = new float[3];
-            SensorManager.getOrientation(currentOrientationRotationMatrix.matrix, angles);
-            return new EulerAngles(angles[0], angles[1], angles[2]);
-        }
+    /**
+     * Receives the samples of the gyroscope, e.g. to recognize how the phone is carried
+     * 接收陀螺仪样本，例如用于识别手机的携带方式
+     */
+    public interface GyroscopeListener {
+        /**
+         * @param timestamp time of the sample in nanoseconds
+         * @param values    angular speed in rad/s (x, y, z), only valid during the call
+         */
+        void onGyroscope(long timestamp, float[] values);
     }
 }
@@ -0,0 +1,70 @@
+package com.sosee.mysenorr.sensors;
+
+import android.hardware.SensorEvent;
+import android.util.Log;
+
+import com.sosee.mysenorr.trace.TraceWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Records the raw sensor events (accelerometer, magnetic field, gyroscope, rotation vector) with their timestamps
+ * into a binary trace file, see {@link com.sosee.mysenorr.trace.TraceFormat}. Recording does not allocate and
+ * the file is only written in blocks of {@link TraceWriter#DEFAULT_BUFFER_SIZE} bytes, so it can run on the
+ * sensor thread even at high sampling rates.
+ * <p>
+ * 将原始传感器事件及其时间戳录制到二进制轨迹文件中。录制不分配内存，文件按块写入，因此即使在高采样率下也可以在传感器线程上运行。
+ */
+public class SensorTraceRecorder {
+
+    private final File file;
+    private TraceWriter writer;
+
+    /**
+     * Creates the trace file (an existing file is overwritten)
+     *
+     * @param file the trace file
+     */
+    public SensorTraceRecorder(File file) throws IOException {
+        this.file = file;
+        writer = new TraceWriter(new FileOutputStream(file).getChannel());
+    }
+
+    /**
+     * Appends the event to the trace. If writing fails (e.g. the storage is full), the recording is stopped.
+     * 将事件追加到轨迹。如果写入失败（例如存储已满），录制将停止。
+     */
+    public synchronized void record(SensorEvent event) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(event.sensor.getType(), event.timestamp, event.values);
+        } catch (IOException e) {
+            Log.e("SensorTraceRecorder", "Recording stopped: " + e.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * Writes the remaining events and closes the file, further events are ignored
+     * 写入剩余的事件并关闭文件，之后的事件将被忽略
+     */
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            Log.e("SensorTraceRecorder", "Closing the trace failed: " + e.getMessage());
+        }
+        writer = null;
+    }
+
+    public File getFile() {
+        return file;
+    }
+}
@@ -0,0 +1,120 @@
+package com.sosee.mysenorr.sensors;
+
+import android.hardware.Sensor;
+
+import com.sosee.mysenorr.fusion.NavigationState;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays a synthetic walk through {@link Core#processSample(int, long, float[])} and checks that the
+ * per-sample path does not allocate. The only allocation is the {@link NavigationState} published after a step or a
+ * change of direction.
+ */
+public class CoreAllocationTest {
+
+    private static final int RATE = 50;
+    private static final int WARMUP_SAMPLES = 20000;
+    private static final int MEASURED_SAMPLES = 10000;
+    /**
+     * The JVM itself occasionally allocates a few bytes on the thread (e.g. while switching compiled code), so the
+     * best of some rounds is taken. An allocation on the per-sample path shows up in every round.
+     */
+    private static final int ROUNDS = 3;
+    /**
+     * Looked up once: the lookup itself allocates, and differently once the JIT has compiled it
+     */
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static volatile NavigationState published;
+
+    @Test
+    public void processSample_doesNotAllocate() throws Exception {
+        final int[] updates = new int[1];
+        Core core = new Core(new Core.onStepUpdateListener() {
+            @Override
+            public void onStepUpdate(int event) {
+                updates[0]++;
+            }
+        });
+        float[] trace = walkTrace(WARMUP_SAMPLES + ROUNDS * MEASURED_SAMPLES);
+        float[] acl = new float[3];
+        float[] magn = new float[3];
+
+        replay(core, trace, 0, WARMUP_SAMPLES, acl, magn);
+
+        long before = allocatedBytes();
+        long overhead = allocatedBytes() - before;
+        long stateBytes = stateBytes(overhead);
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            int from = WARMUP_SAMPLES + round * MEASURED_SAMPLES;
+            long version = core.getState().getVersion();
+            before = allocatedBytes();
+            replay(core, trace, from, from + MEASURED_SAMPLES, acl, magn);
+            long states = core.getState().getVersion() - version;
+            allocated = Math.min(allocated, allocatedBytes() - before - overhead - states * stateBytes);
+        }
+
+        assertEquals("bytes allocated for " + MEASURED_SAMPLES + " samples besides the states", 0, allocated);
+        assertTrue("steps were detected", updates[0] > 0 && core.getState().getStepCounter() > 0);
+    }
+
+    private static void replay(Core core, float[] trace, int from, int to, float[] acl, float[] magn) {
+        for (int i = from; i < to; i++) {
+            int o = i * 6;
+            long timestamp = i * 1000000000L / RATE;
+            acl[0] = trace[o];
+            acl[1] = trace[o + 1];
+            acl[2] = trace[o + 2];
+            magn[0] = trace[o + 3];
+            magn[1] = trace[o + 4];
+            magn[2] = trace[o + 5];
+            core.processSample(Sensor.TYPE_MAGNETIC_FIELD, timestamp, magn);
+            core.processSample(Sensor.TYPE_ACCELEROMETER, timestamp, acl);
+        }
+    }
+
+    /**
+     * A phone held flat while walking at two steps per second: vertical acceleration swings around
+     * gravity, the magnetic field points north and slightly down.
+     */
+    private static float[] walkTrace(int samples) {
+        float[] trace = new float[samples * 6];
+        for (int i = 0; i < samples; i++) {
+            double t = (double) i / RATE;
+            int o = i * 6;
+            trace[o] = (float) (0.4 * Math.sin(2 * Math.PI * 1 * t));
+            trace[o + 1] = (float) (0.8 * Math.sin(2 * Math.PI * 2 * t + 0.5));
+            trace[o + 2] = (float) (9.81 + 3.0 * Math.sin(2 * Math.PI * 2 * t));
+            trace[o + 3] = 0;
+            trace[o + 4] = 22;
+            trace[o + 5] = -40;
+        }
+        return trace;
+    }
+
+    /**
+     * Size of a published state, measured like the samples (stored in a volatile field, so it is really allocated)
+     */
+    private static long stateBytes(long overhead) {
+        long bytes = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < 100; i++) {
+                published = new NavigationState(i, i, 48, 11, 0, i, 0.7f, false, 0);
+            }
+            bytes = Math.min(bytes, allocatedBytes() - before - overhead);
+        }
+        return bytes / 100;
+    }
+
+    private static long allocatedBytes() {
+        return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
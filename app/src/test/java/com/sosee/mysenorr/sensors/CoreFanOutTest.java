@@ -0,0 +1,58 @@
+package com.sosee.mysenorr.sensors;
+
+import android.hardware.Sensor;
+
+import com.sosee.mysenorr.fusion.SensorFanOut;
+
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs variants of Core side by side on the samples of a primary Core
+ */
+public class CoreFanOutTest {
+
+    private static final int RATE = 50;
+
+    private static final Core.onStepUpdateListener IGNORE = new Core.onStepUpdateListener() {
+        @Override
+        public void onStepUpdate(int event) {
+        }
+    };
+
+    @Test
+    public void variantsGetTheSamplesOfThePrimary() throws InterruptedException {
+        Core primary = new Core(IGNORE);
+        Core same = new Core(IGNORE);
+        Core strict = new Core(IGNORE);
+        strict.getEngine().getStepDetector().setStepThreshold(4.0f);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        SensorFanOut fanOut = new SensorFanOut(pool, 64, 8, same.getReceiver(), strict.getReceiver());
+        fanOut.setBlocking(true);
+        primary.setFanOut(fanOut);
+
+        float[] acl = new float[3];
+        float[] magn = {0, 22, -40};
+        for (int i = 0; i < 60 * RATE; i++) {
+            long timestamp = i * 1000000000L / RATE;
+            acl[2] = (float) (9.81 + 3.0 * Math.sin(2 * Math.PI * 2 * i / RATE));
+            primary.processSample(Sensor.TYPE_MAGNETIC_FIELD, timestamp, magn);
+            primary.processSample(Sensor.TYPE_ACCELEROMETER, timestamp, acl);
+        }
+        fanOut.awaitIdle();
+        pool.shutdown();
+
+        // each Core has its own engine and state  每个Core有自己的引擎和状态
+        int steps = primary.getState().getStepCounter();
+        assertTrue(steps > 100);
+        assertEquals(steps, same.getState().getStepCounter());
+        assertEquals(primary.getState().getAzimuth(), same.getState().getAzimuth(), 0);
+        assertEquals(0, strict.getState().getStepCounter());
+    }
+}
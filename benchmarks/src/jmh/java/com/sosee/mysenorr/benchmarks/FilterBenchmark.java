@@ -0,0 +1,89 @@
+package com.sosee.mysenorr.benchmarks;
+
+import com.sosee.mysenorr.fusion.IirFilterBank;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The low pass filters of gravity and magnetic field: two {@link LowPassFilter} against one {@link IirFilterBank},
+ * sample by sample and as block (one second of a batch at 50Hz). One operation is one sample of both sensors.
+ */
+@State(Scope.Thread)
+public class FilterBenchmark {
+
+    private static final int BLOCK = 50;
+
+    private LowPassFilter gravityFilter;
+    private LowPassFilter magneticFilter;
+    private IirFilterBank bank;
+    private float[] acl;
+    private float[] magn;
+    private float[] gravity;
+    private float[] magnFiltered;
+    private float[] aclBlock;
+    private float[] magnBlock;
+    private float[] gravityBlock;
+    private float[] magnFilteredBlock;
+
+    @Setup
+    public void setUp() {
+        gravityFilter = new LowPassFilter();
+        magneticFilter = new LowPassFilter();
+        bank = new IirFilterBank(2);
+        acl = new float[]{0.3f, -0.7f, 9.9f};
+        magn = new float[]{-22.0f, 3.5f, -40.2f};
+        gravity = new float[3];
+        magnFiltered = new float[3];
+        aclBlock = new float[BLOCK * 3];
+        magnBlock = new float[BLOCK * 3];
+        gravityBlock = new float[BLOCK * 3];
+        magnFilteredBlock = new float[BLOCK * 3];
+        for (int i = 0; i < BLOCK; i++) {
+            aclBlock[i * 3] = 0.3f;
+            aclBlock[i * 3 + 1] = -0.7f;
+            aclBlock[i * 3 + 2] = (float) (9.81 + 3.0 * Math.sin(2 * Math.PI * 2 * i / 50.0));
+            magnBlock[i * 3] = -22.0f;
+            magnBlock[i * 3 + 1] = 3.5f;
+            magnBlock[i * 3 + 2] = -40.2f;
+        }
+    }
+
+    @Benchmark
+    public float[] legacyFilters() {
+        gravityFilter.filter(acl, gravity);
+        magneticFilter.filter(magn, magnFiltered);
+        return gravity;
+    }
+
+    @Benchmark
+    public float[] filterBank() {
+        bank.filter(0, acl, gravity);
+        bank.filter(1, magn, magnFiltered);
+        return gravity;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public float[] legacyFiltersBlock() {
+        for (int i = 0; i < BLOCK; i++) {
+            acl[0] = aclBlock[i * 3];
+            acl[1] = aclBlock[i * 3 + 1];
+            acl[2] = aclBlock[i * 3 + 2];
+            gravityFilter.filter(acl, gravity);
+            magneticFilter.filter(magn, magnFiltered);
+        }
+        return gravity;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public float[] filterBankBlock() {
+        bank.filterBlock(0, aclBlock, 0, gravityBlock, 0, BLOCK);
+        bank.filterBlock(1, magnBlock, 0, magnFilteredBlock, 0, BLOCK);
+        return gravityBlock;
+    }
+}
@@ -0,0 +1,128 @@
+package com.sosee.mysenorr.benchmarks;
+
+import com.sosee.mysenorr.fusion.GyroIntegrator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Replays one minute of the gyroscope of a phone swinging in the hand of a walking, turning user at different rates
+ * through the {@link GyroIntegrator} methods. One operation is the whole minute, so the time shows what a lower rate
+ * saves. The accuracy of the methods at these rates (e.g. {@link GyroIntegrator#CONING} at 50 Hz against
+ * {@link GyroIntegrator#FIRST_ORDER} at 200 Hz) is checked by GyroIntegratorTest on the same motion.
+ * Run with -PjmhInclude=GyroIntegrationBenchmark.
+ */
+@State(Scope.Thread)
+public class GyroIntegrationBenchmark {
+
+    private static final int SECONDS = 60;
+
+    /**
+     * Rate of the gyroscope in Hz
+     */
+    @Param({"200", "100", "50"})
+    public int rate;
+    /**
+     * {@link GyroIntegrator#FIRST_ORDER}, {@link GyroIntegrator#CONING} or {@link GyroIntegrator#RK4}
+     */
+    @Param({"0", "1", "2"})
+    public int method;
+
+    private GyroIntegrator integrator;
+    /**
+     * The samples (x, y, z)
+     */
+    private float[] samples;
+    private int count;
+    private final double[] start = new double[4];
+    private final double[] q = new double[4];
+    private final float[] sample = new float[3];
+    private final float[] rotation = new float[3];
+
+    @Setup
+    public void setUp() {
+        integrator = new GyroIntegrator(method);
+        count = SECONDS * rate + 1;
+        samples = new float[count * 3];
+        for (int i = 0; i < count; i++) {
+            rate((double) i / rate, sample);
+            System.arraycopy(sample, 0, samples, i * 3, 3);
+        }
+        truth(0, start);
+    }
+
+    @Benchmark
+    public double[] replay() {
+        System.arraycopy(start, 0, q, 0, 4);
+        integrator.reset();
+        float dt = 1f / rate;
+        for (int i = 0; i < count; i++) {
+            sample[0] = samples[i * 3];
+            sample[1] = samples[i * 3 + 1];
+            sample[2] = samples[i * 3 + 2];
+            integrator.integrate(sample, i == 0 ? 0 : dt, rotation);
+            rotate(q, rotation);
+        }
+        return q;
+    }
+
+    /**
+     * The true orientation (w, x, y, z) at time t: turning slowly, swinging forward and back at the step frequency
+     * and rolling at half of it
+     */
+    private static void truth(double t, double[] q) {
+        double yaw = 0.2 * t;
+        double pitch = 0.6 * Math.sin(2 * Math.PI * 1.8 * t);
+        double roll = 0.4 * Math.sin(2 * Math.PI * 0.9 * t + 1);
+        double cy = Math.cos(yaw / 2), sy = Math.sin(yaw / 2);
+        double cp = Math.cos(pitch / 2), sp = Math.sin(pitch / 2);
+        double cr = Math.cos(roll / 2), sr = Math.sin(roll / 2);
+        // yaw about z, then pitch about x, then roll about y
+        double w = cy * cp, x = cy * sp, y = sy * sp, z = sy * cp;
+        q[0] = w * cr - y * sr;
+        q[1] = x * cr - z * sr;
+        q[2] = y * cr + w * sr;
+        q[3] = z * cr + x * sr;
+    }
+
+    /**
+     * The angular speed in device coordinates at time t: 2 q' dq/dt, the derivative numerically
+     */
+    private static void rate(double t, float[] rate) {
+        double h = 1e-6;
+        double[] q = new double[4];
+        double[] before = new double[4];
+        double[] after = new double[4];
+        truth(t, q);
+        truth(t - h, before);
+        truth(t + h, after);
+        double dw = (after[0] - before[0]) / (2 * h);
+        double dx = (after[1] - before[1]) / (2 * h);
+        double dy = (after[2] - before[2]) / (2 * h);
+        double dz = (after[3] - before[3]) / (2 * h);
+        rate[0] = (float) (2 * (q[0] * dx - q[1] * dw - q[2] * dz + q[3] * dy));
+        rate[1] = (float) (2 * (q[0] * dy - q[2] * dw - q[3] * dx + q[1] * dz));
+        rate[2] = (float) (2 * (q[0] * dz - q[3] * dw - q[1] * dy + q[2] * dx));
+    }
+
+    /**
+     * q = q * rotation vector
+     */
+    private static void rotate(double[] q, float[] rotation) {
+        double angle = Math.sqrt(rotation[0] * rotation[0] + rotation[1] * rotation[1] + rotation[2] * rotation[2]);
+        double s = angle > 1e-12 ? Math.sin(angle / 2) / angle : 0.5;
+        double dw = Math.cos(angle / 2), dx = s * rotation[0], dy = s * rotation[1], dz = s * rotation[2];
+        double w = q[0] * dw - q[1] * dx - q[2] * dy - q[3] * dz;
+        double x = q[0] * dx + q[1] * dw + q[2] * dz - q[3] * dy;
+        double y = q[0] * dy - q[1] * dz + q[2] * dw + q[3] * dx;
+        double z = q[0] * dz + q[1] * dy - q[2] * dx + q[3] * dw;
+        double norm = Math.sqrt(w * w + x * x + y * y + z * z);
+        q[0] = w / norm;
+        q[1] = x / norm;
+        q[2] = y / norm;
+        q[3] = z / norm;
+    }
+}
@@ -0,0 +1,89 @@
+package com.sosee.mysenorr.benchmarks;
+
+import com.sosee.mysenorr.fusion.ButterworthCoefficients;
+import com.sosee.mysenorr.fusion.IirFilterBank;
+
+/**
+ * Third order IIR low pass filter for the three axes of a sensor, corner frequency at 0.3 Hz.
+ * It is used to get the gravity out of the accelerometer and to smooth the magnetic field.
+ * The coefficients are computed for the sampling rate, see {@link #setSamplingRate(int)}.
+ * This is the filter as the navigation used it before {@link IirFilterBank}, which computes the same filter for
+ * several sensors; it is only kept as the baseline of {@link FilterBenchmark}.
+ * <p>
+ * 三阶IIR低通滤波器（角频率0.3 Hz），用于从加速度计中得到重力以及平滑磁场。导航现在使用IirFilterBank，此类仅作为基准测试的对照。
+ */
+public class LowPassFilter {
+
+    private final double[] x0 = new double[4];
+    private final double[] y0 = new double[4];
+    private final double[] x1 = new double[4];
+    private final double[] y1 = new double[4];
+    private final double[] x2 = new double[4];
+    private final double[] y2 = new double[4];
+    /**
+     * tp0, tp1, tp2 and the gain
+     */
+    private final double[] tp = new double[ButterworthCoefficients.SIZE];
+    private final ButterworthCoefficients generator = new ButterworthCoefficients();
+
+    /**
+     * Creates a filter with the coefficients for 50Hz
+     * 创建一个50Hz系数的滤波器
+     */
+    public LowPassFilter() {
+        setSamplingRate(50);
+    }
+
+    /**
+     * Filters one sample
+     *
+     * @param input  the raw values (x, y, z)
+     * @param output receives the filtered values, may be the input array
+     */
+    public void filter(float[] input, float[] output) {
+        // LowPass 0.5Hz for alpha0   低通 0.5Hz，用于alpha0
+        x0[0] = x0[1];
+        x0[1] = x0[2];
+        x0[2] = x0[3];
+        x0[3] = input[0];
+        y0[0] = y0[1];
+        y0[1] = y0[2];
+        y0[2] = y0[3];
+        y0[3] = tp[3] * ((x0[0] + x0[3]) + 3 * (x0[1] + x0[2])) + (tp[0] * y0[0]) + (tp[1] * y0[1]) + (tp[2] * y0[2]);
+
+        // LowPass 0.5Hz for alpha1   低通 0.5Hz，用于alpha1
+        x1[0] = x1[1];
+        x1[1] = x1[2];
+        x1[2] = x1[3];
+        x1[3] = input[1];
+        y1[0] = y1[1];
+        y1[1] = y1[2];
+        y1[2] = y1[3];
+        y1[3] = tp[3] * ((x1[0] + x1[3]) + 3 * (x1[1] + x1[2])) + (tp[0] * y1[0]) + (tp[1] * y1[1]) + (tp[2] * y1[2]);
+
+        // LowPass 0.5Hz for alpha2  低通 0.5Hz，用于alpha2
+        x2[0] = x2[1];
+        x2[1] = x2[2];
+        x2[2] = x2[3];
+        x2[3] = input[2];
+        y2[0] = y2[1];
+        y2[1] = y2[2];
+        y2[2] = y2[3];
+        y2[3] = tp[3] * ((x2[0] + x2[3]) + 3 * (x2[1] + x2[2])) + (tp[0] * y2[0]) + (tp[1] * y2[1]) + (tp[2] * y2[2]);
+
+        output[0] = (float) y0[3];
+        output[1] = (float) y1[3];
+        output[2] = (float) y2[3];
+    }
+
+    /**
+     * Sets the coefficients for the measured sampling rate. The stored inputs do not contain the gain, so the filter
+     * continues without a jump.
+     * 根据测量的采样率设置系数。存储的输入不含增益，因此滤波器输出不会跳变。
+     *
+     * @param freq the sampling rate in Hz
+     */
+    public void setSamplingRate(int freq) {
+        generator.get(freq, tp, 0);
+    }
+}
@@ -0,0 +1,159 @@
+package com.sosee.mysenorr.benchmarks;
+
+import com.sosee.mysenorr.representation.Matrix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * All public operations of {@link Matrix}. The in-place operations use rotations and scale factors of -1, so the
+ * values stay bounded however often they are repeated. The inputs come from setRotateM, setRotateEulerM does not
+ * produce an orthonormal matrix.
+ */
+@State(Scope.Thread)
+public class MatrixBenchmark {
+
+    private float[] rotation;
+    private float[] other;
+    private float[] out;
+    private float[] vector;
+    private float[] vectorOut;
+
+    @Setup
+    public void setUp() {
+        rotation = new float[16];
+        Matrix.setRotateM(rotation, 0, 30, 0.2f, 0.3f, 0.9f);
+        other = new float[16];
+        Matrix.setRotateM(other, 0, 60, 0.8f, -0.1f, 0.4f);
+        out = new float[16];
+        vector = new float[]{0.3f, -0.2f, 9.7f, 0};
+        vectorOut = new float[4];
+    }
+
+    @Benchmark
+    public float[] multiplyMM() {
+        Matrix.multiplyMM(out, 0, rotation, 0, other, 0);
+        return out;
+    }
+
+    @Benchmark
+    public float[] multiplyMMNoOffset() {
+        Matrix.multiplyMM(out, rotation, other);
+        return out;
+    }
+
+    @Benchmark
+    public float[] multiplyMV() {
+        Matrix.multiplyMV(vectorOut, 0, rotation, 0, vector, 0);
+        return vectorOut;
+    }
+
+    @Benchmark
+    public float[] multiplyMVNoOffset() {
+        Matrix.multiplyMV(vectorOut, rotation, vector);
+        return vectorOut;
+    }
+
+    @Benchmark
+    public float[] multiplyMV3() {
+        Matrix.multiplyMV3(vectorOut, rotation, vector, 1);
+        return vectorOut;
+    }
+
+    @Benchmark
+    public float[] transposeM() {
+        Matrix.transposeM(out, 0, rotation, 0);
+        return out;
+    }
+
+    @Benchmark
+    public boolean invertM() {
+        return Matrix.invertM(out, 0, rotation, 0);
+    }
+
+    @Benchmark
+    public float[] orthoM() {
+        Matrix.orthoM(out, 0, -1, 1, -1, 1, 0.1f, 100);
+        return out;
+    }
+
+    @Benchmark
+    public float[] frustumM() {
+        Matrix.frustumM(out, 0, -1, 1, -1, 1, 0.1f, 100);
+        return out;
+    }
+
+    @Benchmark
+    public float[] perspectiveM() {
+        Matrix.perspectiveM(out, 0, 60, 1.5f, 0.1f, 100);
+        return out;
+    }
+
+    @Benchmark
+    public float length() {
+        return Matrix.length(vector[0], vector[1], vector[2]);
+    }
+
+    @Benchmark
+    public float[] setIdentityM() {
+        Matrix.setIdentityM(out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public float[] scaleM() {
+        Matrix.scaleM(out, 0, rotation, 0, 2, 3, 4);
+        return out;
+    }
+
+    @Benchmark
+    public float[] scaleMInPlace() {
+        Matrix.scaleM(other, 0, -1, -1, -1);
+        return other;
+    }
+
+    @Benchmark
+    public float[] translateM() {
+        Matrix.translateM(out, 0, rotation, 0, 1, 2, 3);
+        return out;
+    }
+
+    @Benchmark
+    public float[] translateMInPlace() {
+        System.arraycopy(rotation, 0, out, 0, 16);
+        Matrix.translateM(out, 0, 1, 2, 3);
+        return out;
+    }
+
+    @Benchmark
+    public float[] rotateM() {
+        Matrix.rotateM(out, 0, rotation, 0, 45, 0, 0, 1);
+        return out;
+    }
+
+    @Benchmark
+    public float[] rotateMInPlace() {
+        Matrix.rotateM(other, 0, 45, 0, 0, 1);
+        return other;
+    }
+
+    @Benchmark
+    public float[] setRotateM() {
+        Matrix.setRotateM(out, 0, 45, 0.2f, 0.3f, 0.9f);
+        return out;
+    }
+
+    @Benchmark
+    public float[] setRotateEulerM() {
+        Matrix.setRotateEulerM(out, 0, 10, 20, 30);
+        return out;
+    }
+
+    @Benchmark
+    public float[] setLookAtM() {
+        Matrix.setLookAtM(out, 0, 0, 0, 5, 0, 0, 0, 0, 1, 0);
+        return out;
+    }
+}
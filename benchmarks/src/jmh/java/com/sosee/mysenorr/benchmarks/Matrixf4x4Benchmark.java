@@ -0,0 +1,99 @@
+package com.sosee.mysenorr.benchmarks;
+
+import com.sosee.mysenorr.representation.Matrix;
+import com.sosee.mysenorr.representation.Matrixf4x4;
+import com.sosee.mysenorr.representation.Vector3f;
+import com.sosee.mysenorr.representation.Vector4f;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * All public operations of {@link Matrixf4x4} (except plain getters and setters). Only rotation matrices are used,
+ * so the vectors and matrices that are modified in place stay bounded.
+ */
+@State(Scope.Thread)
+public class Matrixf4x4Benchmark {
+
+    private Matrixf4x4 rotation;
+    private Matrixf4x4 rotation3x3;
+    private Matrixf4x4 target;
+    private float[] rotationValues;
+    private float[] input;
+    private float[] output;
+    private Vector4f vector4;
+    private Vector3f vector3;
+
+    @Setup
+    public void setUp() {
+        rotationValues = new float[16];
+        Matrix.setRotateM(rotationValues, 0, 30, 0.2f, 0.3f, 0.9f);
+        rotation = new Matrixf4x4();
+        rotation.setMatrixValues(rotationValues);
+
+        float[] values3x3 = new float[9];
+        for (int i = 0; i < 9; i++) {
+            values3x3[i] = rotationValues[Matrixf4x4.matIndCol16_3x3[i]];
+        }
+        rotation3x3 = new Matrixf4x4();
+        rotation3x3.setMatrix(values3x3);
+
+        target = new Matrixf4x4();
+        input = new float[16];
+        Matrix.setRotateM(input, 0, 60, 0.8f, -0.1f, 0.4f);
+        output = new float[16];
+        vector4 = new Vector4f(0.3f, -0.2f, 9.7f, 1);
+        vector3 = new Vector3f(0.3f, -0.2f, 9.7f);
+    }
+
+    @Benchmark
+    public Matrixf4x4 newMatrix() {
+        return new Matrixf4x4();
+    }
+
+    @Benchmark
+    public Matrixf4x4 setMatrixValues() {
+        target.setMatrixValues(rotationValues);
+        return target;
+    }
+
+    @Benchmark
+    public Vector4f multiplyVector4fByMatrix() {
+        // restart from the same vector, repeated float rotations would drift
+        vector4.setXYZW(0.3f, -0.2f, 9.7f, 1);
+        rotation.multiplyVector4fByMatrix(vector4);
+        return vector4;
+    }
+
+    @Benchmark
+    public Vector3f multiplyVector3fByMatrix() {
+        vector3.setXYZ(0.3f, -0.2f, 9.7f);
+        rotation3x3.multiplyVector3fByMatrix(vector3);
+        return vector3;
+    }
+
+    @Benchmark
+    public Matrixf4x4 multiplyMatrix4x4ByMatrix() {
+        // replaces the array of the argument with the product
+        rotation.multiplyMatrix4x4ByMatrix(target);
+        return target;
+    }
+
+    @Benchmark
+    public float[] multiplyMatrix() {
+        // multiplyMatrix adds to the output, so it has to be cleared first
+        for (int i = 0; i < 16; i++) {
+            output[i] = 0;
+        }
+        rotation.multiplyMatrix(input, 0, output, 0);
+        return output;
+    }
+
+    @Benchmark
+    public Matrixf4x4 transpose() {
+        rotation.transpose();
+        return rotation;
+    }
+}
@@ -0,0 +1,95 @@
+package com.sosee.mysenorr.benchmarks;
+
+import com.sosee.mysenorr.fusion.GyroFusion;
+import com.sosee.mysenorr.fusion.KalmanOrientationFilter;
+import com.sosee.mysenorr.fusion.MadgwickFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One update of the orientation fusions: a gyroscope sample of the {@link GyroFusion} (with rotation vector) against
+ * the {@link KalmanOrientationFilter} and the {@link MadgwickFilter}, the latter two also with an accelerometer and a
+ * magnetic field correction. The Kalman filter has to stay below 5 µs per update, the Madgwick filter is meant for
+ * low-end devices and has to be clearly cheaper than both. The accuracy on a replayed trace is compared in
+ * TraceReplayTest.
+ */
+@State(Scope.Thread)
+public class OrientationFilterBenchmark {
+
+    private static final long GYRO_PERIOD = 5000000L;
+
+    private GyroFusion gyroFusion;
+    private KalmanOrientationFilter kalman;
+    private MadgwickFilter madgwick;
+    private float[] gyro;
+    private float[] acl;
+    private float[] magn;
+    private float[] rotationVector;
+    private float[] matrix;
+    private long timestamp;
+
+    @Setup
+    public void setUp() {
+        gyroFusion = new GyroFusion();
+        kalman = new KalmanOrientationFilter();
+        madgwick = new MadgwickFilter();
+        gyro = new float[]{0.12f, -0.05f, 0.31f};
+        acl = new float[]{0.3f, -0.7f, 9.7f};
+        magn = new float[]{-22.0f, 3.5f, -40.2f};
+        rotationVector = new float[]{0.01f, 0.02f, 0.7f, 0.71f};
+        matrix = new float[16];
+        gyroFusion.onRotationVector(rotationVector);
+        kalman.onAccelerometer(0, acl);
+        kalman.onMagneticField(0, magn);
+        madgwick.onAccelerometer(0, acl);
+        madgwick.onMagneticField(0, magn);
+        timestamp = GYRO_PERIOD;
+    }
+
+    @Benchmark
+    public float[] gyroFusion() {
+        timestamp += GYRO_PERIOD;
+        gyroFusion.onGyroscope(timestamp, gyro);
+        gyroFusion.getRotationMatrix(matrix);
+        return matrix;
+    }
+
+    @Benchmark
+    public float[] kalmanGyroscope() {
+        timestamp += GYRO_PERIOD;
+        kalman.onGyroscope(timestamp, gyro);
+        kalman.getRotationMatrix(matrix);
+        return matrix;
+    }
+
+    @Benchmark
+    public float[] kalmanAllSensors() {
+        timestamp += GYRO_PERIOD;
+        kalman.onGyroscope(timestamp, gyro);
+        kalman.onAccelerometer(timestamp, acl);
+        kalman.onMagneticField(timestamp, magn);
+        kalman.getRotationMatrix(matrix);
+        return matrix;
+    }
+
+    @Benchmark
+    public float[] madgwickGyroscope() {
+        timestamp += GYRO_PERIOD;
+        madgwick.onGyroscope(timestamp, gyro);
+        madgwick.getRotationMatrix(matrix);
+        return matrix;
+    }
+
+    @Benchmark
+    public float[] madgwickAllSensors() {
+        timestamp += GYRO_PERIOD;
+        madgwick.onAccelerometer(timestamp, acl);
+        madgwick.onMagneticField(timestamp, magn);
+        madgwick.onGyroscope(timestamp, gyro);
+        madgwick.getRotationMatrix(matrix);
+        return matrix;
+    }
+}
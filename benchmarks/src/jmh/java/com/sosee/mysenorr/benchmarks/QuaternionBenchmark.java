@@ -0,0 +1,180 @@
+package com.sosee.mysenorr.benchmarks;
+
+import com.sosee.mysenorr.representation.Matrixf4x4;
+import com.sosee.mysenorr.representation.Quaternion;
+import com.sosee.mysenorr.representation.Vector3f;
+import com.sosee.mysenorr.representation.Vector4f;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * All public operations of {@link Quaternion}. Operations that modify the quaternion are applied to
+ * unit quaternions, so the values stay bounded however often they are repeated.
+ */
+@State(Scope.Thread)
+public class QuaternionBenchmark {
+
+    private Quaternion a;
+    private Quaternion b;
+    private Quaternion out;
+    private Vector4f axisAngle;
+    private Vector3f axis;
+    private float[] rotationMatrix;
+
+    @Setup
+    public void setUp() {
+        a = new Quaternion();
+        a.setEulerAngle(30, 10, 5);
+        b = new Quaternion();
+        b.setEulerAngle(35, 12, 3);
+        out = new Quaternion();
+        axisAngle = new Vector4f();
+        axis = new Vector3f(0, 0, 1);
+        rotationMatrix = a.getMatrix4x4().getMatrix().clone();
+    }
+
+    @Benchmark
+    public Quaternion multiplyByQuat() {
+        a.multiplyByQuat(b, out);
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion multiplyByQuatInPlace() {
+        // input and output are the same object, the case used by the gyroscope fusion
+        a.multiplyByQuat(out, out);
+        out.normalise();
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion multiplyByQuatThis() {
+        out.multiplyByQuat(a);
+        out.normalise();
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion slerp() {
+        a.slerp(b, out, 0.01f);
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion normalise() {
+        a.normalise();
+        return a;
+    }
+
+    @Benchmark
+    public Quaternion set() {
+        out.set(a);
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion multiplyByScalar() {
+        out.copyVec4(a);
+        out.multiplyByScalar(-1);
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion addQuat() {
+        a.addQuat(b, out);
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion addQuatInPlace() {
+        out.copyVec4(a);
+        out.addQuat(b);
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion subQuat() {
+        a.subQuat(b, out);
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion subQuatInPlace() {
+        out.copyVec4(a);
+        out.subQuat(b);
+        return out;
+    }
+
+    @Benchmark
+    public Vector4f toAxisAngle() {
+        a.toAxisAngle(axisAngle);
+        return axisAngle;
+    }
+
+    @Benchmark
+    public double[] toEulerAngles() {
+        return a.toEulerAngles();
+    }
+
+    @Benchmark
+    public Quaternion loadIdentityQuat() {
+        out.loadIdentityQuat();
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion setColumnMajor() {
+        out.setColumnMajor(rotationMatrix);
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion setRowMajor() {
+        out.setRowMajor(rotationMatrix);
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion setEulerAngle() {
+        out.setEulerAngle(30, 10, 5);
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion setAxisAngle() {
+        out.setAxisAngle(axis, 45);
+        return out;
+    }
+
+    @Benchmark
+    public Quaternion setAxisAngleRad() {
+        out.setAxisAngleRad(axis, 0.7);
+        return out;
+    }
+
+    @Benchmark
+    public Matrixf4x4 getMatrix4x4() {
+        // setting the values marks the matrix dirty, so it is recalculated
+        out.setEulerAngle(30, 10, 5);
+        return out.getMatrix4x4();
+    }
+
+    @Benchmark
+    public Quaternion copyFromVec3() {
+        out.copyFromVec3(axis, 1);
+        return out;
+    }
+
+    @Benchmark
+    public float dotProduct() {
+        return a.dotProduct(b);
+    }
+
+    @Benchmark
+    public Quaternion cloneQuaternion() {
+        return a.clone();
+    }
+}
@@ -0,0 +1,216 @@
+package com.sosee.mysenorr.benchmarks;
+
+import com.sosee.mysenorr.representation.EulerAngles;
+import com.sosee.mysenorr.representation.Vector3f;
+import com.sosee.mysenorr.representation.Vector4f;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * All public operations of {@link Vector3f}, {@link Vector4f} and {@link EulerAngles} (except plain getters and
+ * setters). Operations that modify a vector are chosen so the values stay bounded however often they are repeated.
+ */
+@State(Scope.Thread)
+public class VectorBenchmark {
+
+    private Vector3f a3;
+    private Vector3f b3;
+    private Vector3f out3;
+    private float[] array3;
+    private Vector4f a4;
+    private Vector4f b4;
+    private Vector4f out4;
+
+    @Setup
+    public void setUp() {
+        a3 = new Vector3f(0.3f, -9.7f, 1.2f);
+        b3 = new Vector3f(21.0f, 3.5f, -40.2f);
+        out3 = new Vector3f();
+        array3 = new float[]{0.1f, 0.2f, 9.81f};
+        a4 = new Vector4f(0.3f, -9.7f, 1.2f, 1);
+        b4 = new Vector4f(21.0f, 3.5f, -40.2f, 1);
+        out4 = new Vector4f();
+    }
+
+    @Benchmark
+    public Vector3f crossProduct() {
+        a3.crossProduct(b3, out3);
+        return out3;
+    }
+
+    @Benchmark
+    public Vector3f crossProductNew() {
+        return a3.crossProduct(b3);
+    }
+
+    @Benchmark
+    public float dotProduct3() {
+        return a3.dotProduct(b3);
+    }
+
+    @Benchmark
+    public Vector3f add3() {
+        out3.clone(a3);
+        out3.add(b3);
+        return out3;
+    }
+
+    @Benchmark
+    public Vector3f addScalar3() {
+        out3.clone(a3);
+        out3.add(1.5f);
+        return out3;
+    }
+
+    @Benchmark
+    public Vector3f subtract3() {
+        out3.clone(a3);
+        out3.subtract(b3);
+        return out3;
+    }
+
+    @Benchmark
+    public Vector3f multiplyByScalar3() {
+        out3.multiplyByScalar(-1);
+        return out3;
+    }
+
+    @Benchmark
+    public Vector3f normalize3() {
+        out3.clone(b3);
+        out3.normalize();
+        return out3;
+    }
+
+    @Benchmark
+    public float getLength3() {
+        return b3.getLength();
+    }
+
+    @Benchmark
+    public float[] toArray3() {
+        return a3.toArray();
+    }
+
+    @Benchmark
+    public Vector3f cloneVector3() {
+        out3.clone(a3);
+        return out3;
+    }
+
+    @Benchmark
+    public Vector3f cloneArray3() {
+        out3.clone(array3);
+        return out3;
+    }
+
+    @Benchmark
+    public Vector3f setXYZ() {
+        out3.setXYZ(1, 2, 3);
+        return out3;
+    }
+
+    @Benchmark
+    public Vector3f newVector3() {
+        return new Vector3f(a3);
+    }
+
+    @Benchmark
+    public Vector4f copyVec4() {
+        out4.copyVec4(a4);
+        return out4;
+    }
+
+    @Benchmark
+    public Vector4f add4() {
+        out4.copyVec4(a4);
+        out4.add(b4);
+        return out4;
+    }
+
+    @Benchmark
+    public Vector4f addVector3() {
+        out4.copyVec4(a4);
+        out4.add(b3, 1);
+        return out4;
+    }
+
+    @Benchmark
+    public Vector4f subtract4() {
+        out4.copyVec4(a4);
+        out4.subtract(b4);
+        return out4;
+    }
+
+    @Benchmark
+    public Vector4f subtractInto4() {
+        a4.subtract(b4, out4);
+        return out4;
+    }
+
+    @Benchmark
+    public Vector4f subdivide4() {
+        out4.copyVec4(a4);
+        out4.subdivide(b4);
+        return out4;
+    }
+
+    @Benchmark
+    public Vector4f multiplyByScalar4() {
+        out4.multiplyByScalar(-1);
+        return out4;
+    }
+
+    @Benchmark
+    public float dotProduct4() {
+        return a4.dotProduct(b4);
+    }
+
+    @Benchmark
+    public Vector4f lerp4() {
+        a4.lerp(b4, out4, 0.3f);
+        return out4;
+    }
+
+    @Benchmark
+    public Vector4f normalize4() {
+        out4.copyVec4(b4);
+        out4.normalize();
+        return out4;
+    }
+
+    @Benchmark
+    public Vector4f setXYZW() {
+        out4.setXYZW(1, 2, 3, 4);
+        return out4;
+    }
+
+    @Benchmark
+    public boolean compareTo4() {
+        return a4.compareTo(b4);
+    }
+
+    @Benchmark
+    public Vector4f copyFromV3f() {
+        out4.copyFromV3f(a3, 1);
+        return out4;
+    }
+
+    @Benchmark
+    public float[] toArray4() {
+        return a4.ToArray();
+    }
+
+    @Benchmark
+    public Vector4f newVector4() {
+        return new Vector4f(a3, 1);
+    }
+
+    @Benchmark
+    public EulerAngles newEulerAngles() {
+        return new EulerAngles(a3.getX(), a3.getY(), a3.getZ());
+    }
+}
@@ -0,0 +1,133 @@
+package com.sosee.mysenorr.fusion;
+
+import java.util.Locale;
+
+/**
+ * Step threshold that follows the strength of the walk. It tracks the envelope of the peaks and of the valleys of
+ * the vertical linear acceleration: a higher peak (deeper valley) is taken at once, otherwise the envelope decays
+ * with a time constant of 1.5 seconds. The threshold is half of the weaker envelope, limited to 0.6 to 6 m/s^2, so a
+ * slow walker with small peaks is counted as well as a runner whose secondary peaks stay below the threshold.
+ * Without movement the threshold falls to its minimum, which is above the noise of a phone lying on a table.
+ * <p>
+ * Each update costs a few operations, the decay uses the timestamps, so it does not depend on the sampling rate.
+ * The minimum and the part of the envelope can be changed for the way the phone is carried
+ * ({@link CarryModeClassifier}).
+ * <p>
+ * 跟随行走强度的步伐阈值。跟踪垂直线性加速度峰值和谷值的包络：更高的峰值（更深的谷值）立即采用，
+ * 否则包络以1.5秒的时间常数衰减。阈值为较弱包络的一半，限制在0.6到6 m/s^2之间。
+ * 每次更新只需几次运算，衰减使用时间戳，因此与采样率无关。
+ */
+public class AdaptiveStepThreshold {
+
+    public static final float MIN_THRESHOLD = 0.6f;
+    public static final float MAX_THRESHOLD = 6.0f;
+    /**
+     * Threshold as part of the envelope
+     */
+    public static final float ENVELOPE_FACTOR = 0.5f;
+    private static final double DECAY_TIME_NS = 1.5e9;
+    /**
+     * The fixed threshold used before, the envelopes start so that it is the initial threshold
+     */
+    private static final float INITIAL_THRESHOLD = 2.0f;
+
+    private float minThreshold = MIN_THRESHOLD;
+    private float envelopeFactor = ENVELOPE_FACTOR;
+    private float peakEnvelope;
+    private float valleyEnvelope;
+    private float threshold;
+    private long lastTimestamp = -1;
+    /**
+     * The decay of the last sample interval, the interval hardly changes so exp() is rarely needed
+     */
+    private long decayInterval = -1;
+    private float decay;
+
+    public AdaptiveStepThreshold() {
+        reset();
+    }
+
+    /**
+     * Adds a sample, the threshold for the next sample is updated
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param value     vertical linear acceleration in m/s^2
+     */
+    public void update(long timestamp, float value) {
+        if (lastTimestamp >= 0 && timestamp > lastTimestamp) {
+            long interval = timestamp - lastTimestamp;
+            if (interval != decayInterval) {
+                decay = (float) Math.exp(-interval / DECAY_TIME_NS);
+                decayInterval = interval;
+            }
+            peakEnvelope *= decay;
+            valleyEnvelope *= decay;
+        }
+        lastTimestamp = timestamp;
+        if (value > peakEnvelope) {
+            peakEnvelope = value;
+        } else if (-value > valleyEnvelope) {
+            valleyEnvelope = -value;
+        }
+        threshold = Math.max(minThreshold,
+                Math.min(MAX_THRESHOLD, envelopeFactor * Math.min(peakEnvelope, valleyEnvelope)));
+    }
+
+    /**
+     * Adapts the threshold to the way the phone is carried, e.g. a higher minimum in a pocket where the leg adds
+     * peaks, a lower one in a bag which dampens the steps. Takes effect with the next sample.
+     * 根据手机的携带方式调整阈值，例如裤兜里腿部会增加峰值，最小值更高；包会减弱步伐，最小值更低。从下一个样本起生效。
+     *
+     * @param minThreshold   smallest threshold in m/s^2, {@link #MIN_THRESHOLD} by default
+     * @param envelopeFactor threshold as part of the weaker envelope, {@link #ENVELOPE_FACTOR} by default
+     */
+    public void setLimits(float minThreshold, float envelopeFactor) {
+        this.minThreshold = minThreshold;
+        this.envelopeFactor = envelopeFactor;
+    }
+
+    public float getMinThreshold() {
+        return minThreshold;
+    }
+
+    public float getEnvelopeFactor() {
+        return envelopeFactor;
+    }
+
+    /**
+     * @return the threshold in m/s^2, positive peaks must reach it, negative peaks its negative
+     */
+    public float getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return the envelope of the positive peaks in m/s^2
+     */
+    public float getPeakEnvelope() {
+        return peakEnvelope;
+    }
+
+    /**
+     * @return the envelope of the negative peaks in m/s^2 (positive value)
+     */
+    public float getValleyEnvelope() {
+        return valleyEnvelope;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "threshold %.2f m/s^2 (peaks %.2f, valleys %.2f)", threshold, peakEnvelope,
+                -valleyEnvelope);
+    }
+
+    /**
+     * Starts again with the initial threshold of 2 m/s^2
+     * 以2 m/s^2的初始阈值重新开始
+     */
+    public void reset() {
+        peakEnvelope = valleyEnvelope = INITIAL_THRESHOLD / ENVELOPE_FACTOR;
+        threshold = INITIAL_THRESHOLD;
+        lastTimestamp = -1;
+    }
+}
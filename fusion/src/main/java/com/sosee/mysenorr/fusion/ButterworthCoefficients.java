@@ -0,0 +1,104 @@
+package com.sosee.mysenorr.fusion;
+
+/**
+ * Coefficients of the third order Butterworth low pass used by {@link IirFilterBank},
+ * computed for the exact sampling rate (bilinear transform with prewarping) instead of picking the nearest of a few
+ * fixed rates. The last computed rates are cached, so the measurement every two seconds usually finds its rate
+ * without any calculation. Nothing allocates after construction.
+ * <p>
+ * The filter is {@code y[n] = gain * ((x[n-3] + x[n]) + 3 * (x[n-2] + x[n-1])) + tp0 * y[n-3] + tp1 * y[n-2]
+ * + tp2 * y[n-1]} with the raw inputs x. The gain is derived from tp0..tp2, so the gain at 0 Hz is exactly 1.
+ * <p>
+ * 三阶巴特沃斯低通滤波器的系数，按实际采样率精确计算（带预畸变的双线性变换），而不是选择最接近的固定采样率。
+ * 最近计算的采样率会被缓存。构造后不再分配内存。
+ */
+public class ButterworthCoefficients {
+
+    /**
+     * Corner frequency of the gravity and magnetic field filters in Hz
+     */
+    public static final double CORNER_FREQUENCY = 0.3;
+    /**
+     * Values per rate: tp0, tp1, tp2, gain
+     */
+    public static final int SIZE = 4;
+    /**
+     * Measured rates are clamped to this range, below it the filter would hardly be stable
+     */
+    static final int MIN_RATE = 5;
+    static final int MAX_RATE = 1000;
+    private static final int CACHE_SIZE = 8;
+
+    private final double cornerFrequency;
+    private final int[] cachedRates = new int[CACHE_SIZE];
+    private final double[] cache = new double[CACHE_SIZE * SIZE];
+    private int nextSlot;
+
+    public ButterworthCoefficients() {
+        this(CORNER_FREQUENCY);
+    }
+
+    /**
+     * @param cornerFrequency the corner frequency in Hz
+     */
+    public ButterworthCoefficients(double cornerFrequency) {
+        this.cornerFrequency = cornerFrequency;
+    }
+
+    /**
+     * Gets the coefficients for a sampling rate, from the cache or computed
+     * 获取采样率对应的系数（来自缓存或计算）
+     *
+     * @param rate         the sampling rate in Hz, clamped to 5..1000
+     * @param coefficients receives tp0, tp1, tp2 and the gain
+     * @param offset       index of tp0 in coefficients
+     */
+    public void get(int rate, double[] coefficients, int offset) {
+        rate = Math.max(MIN_RATE, Math.min(MAX_RATE, rate));
+        int slot = -1;
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            if (cachedRates[i] == rate) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot < 0) {
+            slot = nextSlot;
+            nextSlot = (nextSlot + 1) % CACHE_SIZE;
+            compute(rate, cornerFrequency, cache, slot * SIZE);
+            cachedRates[slot] = rate;
+        }
+        System.arraycopy(cache, slot * SIZE, coefficients, offset, SIZE);
+    }
+
+    /**
+     * Computes the coefficients: the analog poles of the Butterworth filter (-1 and -1/2 ± i√3/2, scaled by the
+     * prewarped corner frequency) are mapped with the bilinear transform z = (1 + s) / (1 - s)
+     * 计算系数：巴特沃斯滤波器的模拟极点经双线性变换映射到z平面
+     *
+     * @param rate            the sampling rate in Hz
+     * @param cornerFrequency the corner frequency in Hz, below half the rate
+     * @param coefficients    receives tp0, tp1, tp2 and the gain
+     * @param offset          index of tp0 in coefficients
+     */
+    public static void compute(double rate, double cornerFrequency, double[] coefficients, int offset) {
+        double k = Math.tan(Math.PI * cornerFrequency / rate);
+        // real pole  实极点
+        double r = (1 - k) / (1 + k);
+        // complex pole pair s = k * (-1/2 + i√3/2): z = (1 + s) / (1 - s)  共轭复极点
+        double sRe = -0.5 * k;
+        double sIm = Math.sqrt(3) / 2 * k;
+        double denominator = (1 - sRe) * (1 - sRe) + sIm * sIm;
+        double qRe = ((1 + sRe) * (1 - sRe) - sIm * sIm) / denominator;
+        double qAbs2 = ((1 + sRe) * (1 + sRe) + sIm * sIm) / denominator;
+        // (z - r)(z² - 2 Re(q) z + |q|²) = z³ + a1 z² + a2 z + a3, the feedback is -a
+        double a1 = -(r + 2 * qRe);
+        double a2 = 2 * r * qRe + qAbs2;
+        double a3 = -r * qAbs2;
+        coefficients[offset] = -a3;
+        coefficients[offset + 1] = -a2;
+        coefficients[offset + 2] = -a1;
+        // the numerator (1 + 1/z)³ is 8 at 0 Hz  分子在0 Hz时为8
+        coefficients[offset + 3] = (1 + a1 + a2 + a3) / 8;
+    }
+}
@@ -0,0 +1,373 @@
+package com.sosee.mysenorr.fusion;
+
+import java.util.Locale;
+
+/**
+ * Recognizes how the phone is carried while walking: in the hand in front of the user ({@link #MODE_HAND}), in a
+ * trouser pocket ({@link #MODE_POCKET}), in the hand swinging with the arm ({@link #MODE_SWINGING}) or in a bag
+ * ({@link #MODE_BAG}). The modes differ in how much the acceleration varies, how fast the phone rotates, whether the
+ * screen faces up and how much the direction of the acceleration sways with the leg or the arm.
+ * <p>
+ * These four features are computed over a ring buffer of the last accelerometer samples (100, about 2 seconds at
+ * the usual rate): every sample adds to a few running sums and the sample that falls out of the window is subtracted
+ * again, so the cost per sample is O(1) whatever the length of the window. The gyroscope only contributes its latest
+ * rate to each accelerometer sample, without it the rotation is left out. The model is the mean of the features per
+ * mode and the spread of each feature (nearest centroid), 20 numbers in preallocated arrays, which can be fitted to
+ * labelled traces (CarryModeEvaluator). A new mode must win for 1.5 seconds before it is taken, so a single stride
+ * does not switch the configuration; while the user stands still the mode is kept.
+ * <p>
+ * 识别行走时手机的携带方式：手持在用户前方、裤兜里、随手臂摆动或在包里。这些方式在加速度的变化幅度、手机转动的速度、
+ * 屏幕是否朝上以及加速度方向随腿或手臂摆动的程度上有所不同。
+ * 这四个特征在最近的加速度计样本的环形缓冲区（100个，通常频率下约2秒）上计算：每个样本加到几个累加和中，
+ * 移出窗口的样本再被减去，因此无论窗口多长，每个样本的开销都是O(1)。陀螺仪只为每个加速度计样本提供其最新的角速度，
+ * 没有陀螺仪时不使用转动特征。模型是每种方式的特征均值和每个特征的离散度（最近质心），共20个数，保存在预分配的数组中，
+ * 可以用带标签的轨迹拟合。新的方式必须持续胜出1.5秒才会被采用，因此单个跨步不会切换配置；用户站立时保持原方式。
+ */
+public class CarryModeClassifier {
+
+    /**
+     * Not recognized yet
+     */
+    public static final int MODE_UNKNOWN = -1;
+    /**
+     * In the hand in front of the user, e.g. looking at the map  手持在用户前方，例如看地图
+     */
+    public static final int MODE_HAND = 0;
+    /**
+     * In a trouser pocket  在裤兜里
+     */
+    public static final int MODE_POCKET = 1;
+    /**
+     * In the hand, swinging with the arm  在手中随手臂摆动
+     */
+    public static final int MODE_SWINGING = 2;
+    /**
+     * In a bag or backpack  在包或背包里
+     */
+    public static final int MODE_BAG = 3;
+    public static final int MODES = 4;
+
+    /**
+     * Standard deviation of the magnitude of the acceleration in m/s²
+     */
+    public static final int FEATURE_ACCELERATION = 0;
+    /**
+     * Mean angular speed in rad/s, NaN without gyroscope
+     */
+    public static final int FEATURE_ROTATION = 1;
+    /**
+     * Mean part of the acceleration along the z axis of the device (1 = screen up or down)
+     */
+    public static final int FEATURE_FLATNESS = 2;
+    /**
+     * Standard deviation of the direction of the acceleration (unit vector)
+     */
+    public static final int FEATURE_SWAY = 3;
+    public static final int FEATURES = 4;
+
+    /**
+     * Accelerometer samples in the window
+     */
+    public static final int DEFAULT_WINDOW = 100;
+    /**
+     * Mean features per mode (hand, pocket, swinging, bag) and the spread of each feature
+     */
+    private static final float[] DEFAULT_CENTROIDS = {
+            1.2f, 0.5f, 0.75f, 0.08f,
+            2.5f, 1.5f, 0.30f, 0.30f,
+            2.5f, 2.6f, 0.10f, 0.15f,
+            0.9f, 0.4f, 0.35f, 0.08f};
+    private static final float[] DEFAULT_SCALES = {0.8f, 0.5f, 0.2f, 0.08f};
+    /**
+     * Below this standard deviation of the acceleration in m/s² the user is not walking
+     */
+    private static final float MIN_MOVEMENT = 0.5f;
+    private static final long HOLD_TIME_NS = 1500000000L;
+    /**
+     * A gyroscope sample older than this is not taken as the rate of an accelerometer sample
+     */
+    private static final long GYROSCOPE_TIMEOUT_NS = 200000000L;
+
+    private final int window;
+    /**
+     * The window: magnitude of the acceleration, angular speed (negative without gyroscope) and the unit vector
+     * of the acceleration
+     */
+    private final float[] magnitudes;
+    private final float[] rotations;
+    private final float[] unitX;
+    private final float[] unitY;
+    private final float[] unitZ;
+    private int next;
+    private int count;
+    private int rotationCount;
+    private double sumMagnitude, sumMagnitude2, sumRotation, sumFlatness;
+    private double sumX, sumX2, sumY, sumY2, sumZ, sumZ2;
+
+    private final float[] centroids = new float[MODES * FEATURES];
+    private final float[] scales = new float[FEATURES];
+    private final float[] features = new float[FEATURES];
+
+    private float rotation;
+    private long rotationTimestamp = Long.MIN_VALUE;
+    private int mode = MODE_UNKNOWN;
+    private int candidate = MODE_UNKNOWN;
+    private long candidateSince;
+    private boolean moving;
+
+    public CarryModeClassifier() {
+        this(DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window number of accelerometer samples the features are computed over
+     */
+    public CarryModeClassifier(int window) {
+        if (window < 2) {
+            throw new IllegalArgumentException("Window too short: " + window);
+        }
+        this.window = window;
+        magnitudes = new float[window];
+        rotations = new float[window];
+        unitX = new float[window];
+        unitY = new float[window];
+        unitZ = new float[window];
+        System.arraycopy(DEFAULT_CENTROIDS, 0, centroids, 0, centroids.length);
+        System.arraycopy(DEFAULT_SCALES, 0, scales, 0, scales.length);
+    }
+
+    /**
+     * Processes a sample of the gyroscope, only its rate is kept for the next accelerometer sample
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param values    angular speed in rad/s (x, y, z), only read
+     */
+    public void onGyroscope(long timestamp, float[] values) {
+        rotation = (float) Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+        rotationTimestamp = timestamp;
+    }
+
+    /**
+     * Adds a sample of the accelerometer to the window and classifies it
+     * 将一个加速度计样本加入窗口并进行分类
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param values    acceleration in m/s² (x, y, z), only read
+     * @return true if the mode changed
+     */
+    public boolean onAccelerometer(long timestamp, float[] values) {
+        float x = values[0];
+        float y = values[1];
+        float z = values[2];
+        float magnitude = (float) Math.sqrt(x * x + y * y + z * z);
+        if (magnitude < 1e-3f) {
+            // free fall, no direction  自由落体，没有方向
+            return false;
+        }
+        x /= magnitude;
+        y /= magnitude;
+        z /= magnitude;
+        long age = timestamp - rotationTimestamp;
+        float w = rotationTimestamp != Long.MIN_VALUE && age >= 0 && age <= GYROSCOPE_TIMEOUT_NS ? rotation : -1;
+
+        if (count == window) {
+            remove(next);
+        } else {
+            count++;
+        }
+        magnitudes[next] = magnitude;
+        rotations[next] = w;
+        unitX[next] = x;
+        unitY[next] = y;
+        unitZ[next] = z;
+        sumMagnitude += magnitude;
+        sumMagnitude2 += magnitude * magnitude;
+        if (w >= 0) {
+            sumRotation += w;
+            rotationCount++;
+        }
+        sumFlatness += Math.abs(z);
+        sumX += x;
+        sumX2 += x * x;
+        sumY += y;
+        sumY2 += y * y;
+        sumZ += z;
+        sumZ2 += z * z;
+        next = next + 1 == window ? 0 : next + 1;
+
+        if (count < window) {
+            return false;
+        }
+        computeFeatures();
+        moving = features[FEATURE_ACCELERATION] >= MIN_MOVEMENT;
+        if (!moving) {
+            candidate = MODE_UNKNOWN;
+            return false;
+        }
+        int best = nearest();
+        if (best == mode) {
+            candidate = MODE_UNKNOWN;
+        } else if (best != candidate) {
+            candidate = best;
+            candidateSince = timestamp;
+        } else if (timestamp - candidateSince >= HOLD_TIME_NS) {
+            mode = best;
+            candidate = MODE_UNKNOWN;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Subtracts the sample that falls out of the window
+     */
+    private void remove(int i) {
+        float magnitude = magnitudes[i];
+        sumMagnitude -= magnitude;
+        sumMagnitude2 -= magnitude * magnitude;
+        if (rotations[i] >= 0) {
+            sumRotation -= rotations[i];
+            rotationCount--;
+        }
+        sumFlatness -= Math.abs(unitZ[i]);
+        sumX -= unitX[i];
+        sumX2 -= unitX[i] * unitX[i];
+        sumY -= unitY[i];
+        sumY2 -= unitY[i] * unitY[i];
+        sumZ -= unitZ[i];
+        sumZ2 -= unitZ[i] * unitZ[i];
+    }
+
+    private void computeFeatures() {
+        double n = count;
+        double mean = sumMagnitude / n;
+        features[FEATURE_ACCELERATION] = (float) Math.sqrt(Math.max(0, sumMagnitude2 / n - mean * mean));
+        // the rotation is only meaningful if most samples have a rate  只有多数样本有角速度时转动才有意义
+        features[FEATURE_ROTATION] = rotationCount * 2 >= count ? (float) (sumRotation / rotationCount) : Float.NaN;
+        features[FEATURE_FLATNESS] = (float) (sumFlatness / n);
+        double meanX = sumX / n;
+        double meanY = sumY / n;
+        double meanZ = sumZ / n;
+        double variance = sumX2 / n - meanX * meanX + sumY2 / n - meanY * meanY + sumZ2 / n - meanZ * meanZ;
+        features[FEATURE_SWAY] = (float) Math.sqrt(Math.max(0, variance));
+    }
+
+    /**
+     * @return the mode whose centroid is closest to the features, each feature measured in its spread
+     */
+    private int nearest() {
+        int best = MODE_UNKNOWN;
+        float bestDistance = Float.MAX_VALUE;
+        for (int m = 0; m < MODES; m++) {
+            float distance = 0;
+            for (int f = 0; f < FEATURES; f++) {
+                float value = features[f];
+                if (value != value) {
+                    // NaN, e.g. no gyroscope  NaN，例如没有陀螺仪
+                    continue;
+                }
+                float d = (value - centroids[m * FEATURES + f]) / scales[f];
+                distance += d * d;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = m;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the recognized mode, {@link #MODE_UNKNOWN} until the user walked for a few seconds
+     */
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * @return true if the user walked during the last window, otherwise the mode is not updated
+     */
+    public boolean isMoving() {
+        return moving;
+    }
+
+    /**
+     * @param features receives the features of the last window ({@link #FEATURES} values, FEATURE_* order),
+     *                 zero until the window is full
+     */
+    public void getFeatures(float[] features) {
+        System.arraycopy(this.features, 0, features, 0, FEATURES);
+    }
+
+    /**
+     * Replaces the model, e.g. with one fitted to labelled traces
+     * 替换模型，例如用带标签的轨迹拟合的模型
+     *
+     * @param centroids mean features of each mode, {@link #MODES} times {@link #FEATURES} values in the order of
+     *                  the MODE_* and FEATURE_* constants
+     * @param scales    spread of each feature, positive
+     */
+    public void setModel(float[] centroids, float[] scales) {
+        if (centroids.length != this.centroids.length || scales.length != this.scales.length) {
+            throw new IllegalArgumentException("Model needs " + this.centroids.length + " centroid values and "
+                    + this.scales.length + " scales");
+        }
+        for (float scale : scales) {
+            if (!(scale > 0)) {
+                throw new IllegalArgumentException("Scales must be positive");
+            }
+        }
+        System.arraycopy(centroids, 0, this.centroids, 0, this.centroids.length);
+        System.arraycopy(scales, 0, this.scales, 0, this.scales.length);
+    }
+
+    /**
+     * @param centroids receives the mean features of each mode, see {@link #setModel}
+     * @param scales    receives the spread of each feature
+     */
+    public void getModel(float[] centroids, float[] scales) {
+        System.arraycopy(this.centroids, 0, centroids, 0, this.centroids.length);
+        System.arraycopy(this.scales, 0, scales, 0, this.scales.length);
+    }
+
+    /**
+     * Empties the window and forgets the mode, e.g. when the sensors are restarted
+     */
+    public void reset() {
+        next = count = rotationCount = 0;
+        sumMagnitude = sumMagnitude2 = sumRotation = sumFlatness = 0;
+        sumX = sumX2 = sumY = sumY2 = sumZ = sumZ2 = 0;
+        for (int f = 0; f < FEATURES; f++) {
+            features[f] = 0;
+        }
+        rotationTimestamp = Long.MIN_VALUE;
+        mode = candidate = MODE_UNKNOWN;
+        moving = false;
+    }
+
+    /**
+     * @param mode one of the MODE_* constants
+     * @return its name, e.g. for logs
+     */
+    public static String getName(int mode) {
+        switch (mode) {
+            case MODE_HAND:
+                return "hand";
+            case MODE_POCKET:
+                return "pocket";
+            case MODE_SWINGING:
+                return "swinging";
+            case MODE_BAG:
+                return "bag";
+            default:
+                return "unknown";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "%s, acceleration %.2f m/s², rotation %.2f rad/s, flatness %.2f, "
+                        + "sway %.2f%s", getName(mode), features[FEATURE_ACCELERATION], features[FEATURE_ROTATION],
+                features[FEATURE_FLATNESS], features[FEATURE_SWAY], moving ? "" : ", not walking");
+    }
+}
@@ -0,0 +1,199 @@
+package com.sosee.mysenorr.fusion;
+
+import java.util.Locale;
+
+/**
+ * Estimates the bias (offset) of the gyroscope while the phone lies still, so it can be subtracted before the
+ * samples are integrated into the orientation. A bias of 0.01 rad/s alone turns the heading by 34° per hour.
+ * <p>
+ * The phone counts as still when the variance of the gyroscope (all axes) and the variance of the strength of the
+ * acceleration stay small for {@link #STILL_TIME_NS}, measured with exponentially weighted means over about half a
+ * second, and the mean rate is small enough to be a bias at all (a slow, steady turn is not). While it is still, the
+ * bias follows the gyroscope: at first as the mean of all still samples, later with a time constant of
+ * {@link #BIAS_TIME_CONSTANT} seconds, so it adapts when the temperature changes. The memory is constant, there are
+ * no sample buffers. A stored bias ({@link #setBias(float[])}) counts like a few seconds of still samples.
+ * <p>
+ * 在手机静止时估计陀螺仪的零偏（偏移），以便在把样本积分为方向之前减去它。仅0.01 rad/s的零偏每小时就会使方向转动34°。
+ * 当陀螺仪（所有轴）的方差和加速度大小的方差在一段时间内都很小（用约半秒的指数加权平均测量），且平均角速度小到可能是零偏时
+ * （缓慢匀速的转动不是），视为静止。静止时零偏跟随陀螺仪：开始时为所有静止样本的平均值，之后按时间常数更新，
+ * 因此温度变化时也能适应。内存占用恒定，没有样本缓冲区。保存的零偏相当于几秒钟的静止样本。
+ */
+public class GyroBiasEstimator {
+
+    private static final float NS2S = 1e-9f;
+    /**
+     * Time constant of the running means and variances in seconds
+     */
+    private static final float WINDOW = 0.5f;
+    /**
+     * Largest sum of the variances of the three gyroscope axes ((rad/s)²) and variance of the acceleration
+     * ((m/s²)²) of a still phone; the noise of phone sensors is well below, a hand holding the phone is above
+     * 静止手机三轴陀螺仪方差之和与加速度方差的上限；手机传感器噪声远低于此，手持手机则高于此
+     */
+    private static final float MAX_GYRO_VARIANCE = 4e-4f;
+    private static final float MAX_ACCELERATION_VARIANCE = 4e-3f;
+    /**
+     * Largest bias in rad/s, a larger mean rate is a real rotation
+     */
+    private static final float MAX_BIAS = 0.05f;
+    /**
+     * Time the phone has to be still before the bias is updated, so the start of a movement is not learned
+     */
+    public static final long STILL_TIME_NS = 1000000000L;
+    /**
+     * Longest time constant of the bias in seconds
+     */
+    private static final float BIAS_TIME_CONSTANT = 20;
+    /**
+     * Weight of a stored bias in seconds of still samples
+     */
+    private static final float STORED_WEIGHT = 5;
+    /**
+     * Gaps longer than this (ns), e.g. while the sensors were paused, restart the running means
+     */
+    private static final long MAX_INTERVAL_NS = 500000000L;
+
+    private final float[] gyroMean = new float[3];
+    private final float[] gyroVariance = new float[3];
+    private final float[] bias = new float[3];
+    private float accelerationMean;
+    private float accelerationVariance;
+    private long accelerationTimestamp;
+    private long gyroTimestamp;
+    private long stillSince = -1;
+    private boolean still;
+    /**
+     * Seconds of still samples the bias is based on, at most {@link #BIAS_TIME_CONSTANT}
+     */
+    private float weight;
+    private float totalStillTime;
+
+    /**
+     * Updates the variance of the acceleration, called with every accelerometer sample
+     * 更新加速度方差，每个加速度计样本调用一次
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param values    acceleration in m/s² (x, y, z), only read
+     */
+    public void onAccelerometer(long timestamp, float[] values) {
+        float a = (float) Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+        long interval = timestamp - accelerationTimestamp;
+        accelerationTimestamp = timestamp;
+        if (interval <= 0 || interval > MAX_INTERVAL_NS) {
+            accelerationMean = a;
+            accelerationVariance = MAX_ACCELERATION_VARIANCE;
+            return;
+        }
+        float k = weight(interval);
+        float d = a - accelerationMean;
+        accelerationMean += k * d;
+        accelerationVariance = (1 - k) * (accelerationVariance + k * d * d);
+    }
+
+    /**
+     * Updates stillness and bias with a gyroscope sample and removes the bias from it
+     * 用陀螺仪样本更新静止状态和零偏，并从样本中减去零偏
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param values    angular speed around x, y, z in rad/s, only read
+     * @param corrected receives the angular speed without the bias, may be values
+     */
+    public void onGyroscope(long timestamp, float[] values, float[] corrected) {
+        long interval = timestamp - gyroTimestamp;
+        gyroTimestamp = timestamp;
+        if (interval <= 0 || interval > MAX_INTERVAL_NS) {
+            for (int i = 0; i < 3; i++) {
+                gyroMean[i] = values[i];
+                gyroVariance[i] = MAX_GYRO_VARIANCE;
+            }
+            still = false;
+            stillSince = -1;
+        } else {
+            float k = weight(interval);
+            float variance = 0;
+            float mean = 0;
+            for (int i = 0; i < 3; i++) {
+                float d = values[i] - gyroMean[i];
+                gyroMean[i] += k * d;
+                gyroVariance[i] = (1 - k) * (gyroVariance[i] + k * d * d);
+                variance += gyroVariance[i];
+                mean += gyroMean[i] * gyroMean[i];
+            }
+            // without a recent accelerometer sample stillness is unknown  没有最近的加速度计样本则无法判断是否静止
+            boolean quiet = variance < MAX_GYRO_VARIANCE && mean < MAX_BIAS * MAX_BIAS
+                    && accelerationVariance < MAX_ACCELERATION_VARIANCE
+                    && timestamp - accelerationTimestamp < MAX_INTERVAL_NS;
+            if (!quiet) {
+                stillSince = -1;
+            } else if (stillSince < 0) {
+                stillSince = timestamp;
+            }
+            still = quiet && timestamp - stillSince >= STILL_TIME_NS;
+            if (still) {
+                float dt = interval * NS2S;
+                weight = Math.min(weight + dt, BIAS_TIME_CONSTANT);
+                totalStillTime += dt;
+                float b = dt / weight;
+                for (int i = 0; i < 3; i++) {
+                    bias[i] += b * (values[i] - bias[i]);
+                }
+            }
+        }
+        corrected[0] = values[0] - bias[0];
+        corrected[1] = values[1] - bias[1];
+        corrected[2] = values[2] - bias[2];
+    }
+
+    /**
+     * @return factor of a new sample in the running means
+     */
+    private static float weight(long interval) {
+        float dt = interval * NS2S;
+        return dt / (WINDOW + dt);
+    }
+
+    /**
+     * @return true if the phone lies still and the bias is being updated
+     */
+    public boolean isStill() {
+        return still;
+    }
+
+    /**
+     * @param bias receives the bias in rad/s (x, y, z)
+     */
+    public void getBias(float[] bias) {
+        System.arraycopy(this.bias, 0, bias, 0, 3);
+    }
+
+    /**
+     * Starts with a stored bias, e.g. of the last session, which is then refined by the still samples
+     * 从保存的零偏（例如上次会话的）开始，之后由静止样本细化
+     *
+     * @param bias the bias in rad/s (x, y, z), only read
+     */
+    public void setBias(float[] bias) {
+        System.arraycopy(bias, 0, this.bias, 0, 3);
+        weight = STORED_WEIGHT;
+    }
+
+    /**
+     * @return true if the bias was learned or set, i.e. is worth storing
+     */
+    public boolean hasBias() {
+        return weight > 0;
+    }
+
+    /**
+     * @return total time the phone was still in seconds
+     */
+    public float getTotalStillTime() {
+        return totalStillTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "bias %.4f %.4f %.4f rad/s, still %.0f s", bias[0], bias[1], bias[2],
+                totalStillTime);
+    }
+}
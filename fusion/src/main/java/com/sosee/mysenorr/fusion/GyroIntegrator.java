@@ -0,0 +1,176 @@
+package com.sosee.mysenorr.fusion;
+
+/**
+ * Turns the samples of the gyroscope into the rotation of the device between two samples, as rotation vector (axis
+ * times angle in rad, device coordinates).
+ * <p>
+ * {@link #FIRST_ORDER} takes the rate of the newer sample as constant over the whole interval, as the fusions always
+ * did. The orientation then lags half an interval behind and the error grows with the interval, so the gyroscope had
+ * to run fast. The other methods take the rate as changing along a parabola through the last three samples:
+ * {@link #CONING} integrates it and adds the coning correction (the rotation of the axis during the interval), a few
+ * multiplications, {@link #RK4} integrates the quaternion with the Runge-Kutta method, about four times as many.
+ * Both keep the heading at 50 Hz more accurate than first order integration at 200 Hz (see GyroIntegratorTest, the
+ * time they take is measured by GyroIntegrationBenchmark), so the gyroscope can run at a lower rate. The samples are
+ * assumed to be about evenly spaced, as they are within a batch.
+ * <p>
+ * 把陀螺仪样本转换为设备在两个样本之间的转动，以旋转矢量表示（轴乘以角度，单位rad，设备坐标）。
+ * FIRST_ORDER把较新样本的角速度视为整个区间内的常量，与之前的融合相同。方向因此滞后半个区间，误差随区间增大，
+ * 因此陀螺仪必须以高频率运行。其他方法认为角速度沿通过最近三个样本的抛物线变化：CONING对其积分并加上圆锥修正
+ * （区间内转轴的转动），只需几次乘法；RK4用龙格-库塔法积分四元数，运算量约为四倍。
+ * 两者在50 Hz时的方向都比200 Hz的一阶积分更准确，因此陀螺仪可以用更低的频率运行。假设样本大致等间隔（批处理中即如此）。
+ */
+public class GyroIntegrator {
+
+    /**
+     * Rate of the newer sample times interval
+     */
+    public static final int FIRST_ORDER = 0;
+    /**
+     * Integral of the interpolated rate plus the coning correction
+     */
+    public static final int CONING = 1;
+    /**
+     * Runge-Kutta integration of the quaternion with the interpolated rate
+     */
+    public static final int RK4 = 2;
+
+    private int method;
+    /**
+     * The last two samples and how many of them are known
+     */
+    private final float[] lastRate = new float[3];
+    private final float[] previousRate = new float[3];
+    private int knownRates;
+    /**
+     * The quaternion (w, x, y, z) of the Runge-Kutta steps and their derivatives
+     */
+    private final double[] q = new double[4];
+    private final double[] k1 = new double[4];
+    private final double[] k2 = new double[4];
+    private final double[] k3 = new double[4];
+    private final double[] k4 = new double[4];
+
+    /**
+     * @param method {@link #FIRST_ORDER}, {@link #CONING} or {@link #RK4}
+     */
+    public GyroIntegrator(int method) {
+        setMethod(method);
+    }
+
+    /**
+     * @param method {@link #FIRST_ORDER}, {@link #CONING} or {@link #RK4}
+     */
+    public void setMethod(int method) {
+        if (method != FIRST_ORDER && method != CONING && method != RK4) {
+            throw new IllegalArgumentException("Unknown integration method " + method);
+        }
+        this.method = method;
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    /**
+     * Forgets the last samples, e.g. after a gap, the next interval is then integrated to first order
+     */
+    public void reset() {
+        knownRates = 0;
+    }
+
+    /**
+     * Integrates the interval that ends with a sample
+     * 积分以该样本结束的区间
+     *
+     * @param rate     angular speed around x, y, z in rad/s at the end of the interval, only read
+     * @param dt       length of the interval in s
+     * @param rotation receives the rotation vector of the interval
+     */
+    public void integrate(float[] rate, float dt, float[] rotation) {
+        float wx = rate[0];
+        float wy = rate[1];
+        float wz = rate[2];
+        if (method == FIRST_ORDER || knownRates == 0) {
+            rotation[0] = wx * dt;
+            rotation[1] = wy * dt;
+            rotation[2] = wz * dt;
+        } else {
+            float lx = lastRate[0];
+            float ly = lastRate[1];
+            float lz = lastRate[2];
+            // without the sample before the rate is linear  没有更早的样本时角速度为线性
+            float px = knownRates > 1 ? previousRate[0] : 2 * lx - wx;
+            float py = knownRates > 1 ? previousRate[1] : 2 * ly - wy;
+            float pz = knownRates > 1 ? previousRate[2] : 2 * lz - wz;
+            if (method == CONING) {
+                // mean rate minus the curvature of the parabola, plus 1/12 of the cross product of the rates
+                // 平均角速度减去抛物线的曲率，加上角速度叉积的1/12
+                float c = dt * dt / 12;
+                float d = dt / 12;
+                rotation[0] = (lx + wx) / 2 * dt - d * (wx - 2 * lx + px) + c * (ly * wz - lz * wy);
+                rotation[1] = (ly + wy) / 2 * dt - d * (wy - 2 * ly + py) + c * (lz * wx - lx * wz);
+                rotation[2] = (lz + wz) / 2 * dt - d * (wz - 2 * lz + pz) + c * (lx * wy - ly * wx);
+            } else {
+                rungeKutta(dt, px, py, pz, lx, ly, lz, wx, wy, wz, rotation);
+            }
+        }
+        System.arraycopy(lastRate, 0, previousRate, 0, 3);
+        lastRate[0] = wx;
+        lastRate[1] = wy;
+        lastRate[2] = wz;
+        knownRates = Math.min(knownRates + 1, 2);
+    }
+
+    /**
+     * Integrates dq/dt = q (0, w(t)) / 2 from the identity over the interval from the last (l) to the new rate (w),
+     * w(t) on the parabola through the previous (p), the last and the new rate
+     */
+    private void rungeKutta(float dt, float px, float py, float pz, float lx, float ly, float lz,
+                            float wx, float wy, float wz, float[] rotation) {
+        // the parabola in the middle of the interval  抛物线在区间中点的值
+        double mx = -px / 8.0 + 3 * lx / 4.0 + 3 * wx / 8.0;
+        double my = -py / 8.0 + 3 * ly / 4.0 + 3 * wy / 8.0;
+        double mz = -pz / 8.0 + 3 * lz / 4.0 + 3 * wz / 8.0;
+        double h = dt;
+        q[0] = 1;
+        q[1] = q[2] = q[3] = 0;
+        derivative(q, lx, ly, lz, k1);
+        step(h / 2, k1);
+        derivative(q, mx, my, mz, k2);
+        step(h / 2, k2);
+        derivative(q, mx, my, mz, k3);
+        step(h, k3);
+        derivative(q, wx, wy, wz, k4);
+        double w = 1 + h / 6 * (k1[0] + 2 * k2[0] + 2 * k3[0] + k4[0]);
+        double x = h / 6 * (k1[1] + 2 * k2[1] + 2 * k3[1] + k4[1]);
+        double y = h / 6 * (k1[2] + 2 * k2[2] + 2 * k3[2] + k4[2]);
+        double z = h / 6 * (k1[3] + 2 * k2[3] + 2 * k3[3] + k4[3]);
+
+        // back to a rotation vector, the length of the quaternion does not matter  转换回旋转矢量，四元数的长度无关紧要
+        double sine = Math.sqrt(x * x + y * y + z * z);
+        double scale = sine > 1e-12 ? 2 * Math.atan2(sine, w) / sine : 2 / w;
+        rotation[0] = (float) (x * scale);
+        rotation[1] = (float) (y * scale);
+        rotation[2] = (float) (z * scale);
+    }
+
+    /**
+     * q = identity + h k
+     */
+    private void step(double h, double[] k) {
+        q[0] = 1 + h * k[0];
+        q[1] = h * k[1];
+        q[2] = h * k[2];
+        q[3] = h * k[3];
+    }
+
+    /**
+     * out = q (0, w) / 2
+     */
+    private static void derivative(double[] q, double wx, double wy, double wz, double[] out) {
+        out[0] = 0.5 * (-q[1] * wx - q[2] * wy - q[3] * wz);
+        out[1] = 0.5 * (q[0] * wx + q[2] * wz - q[3] * wy);
+        out[2] = 0.5 * (q[0] * wy - q[1] * wz + q[3] * wx);
+        out[3] = 0.5 * (q[0] * wz + q[1] * wy - q[2] * wx);
+    }
+}
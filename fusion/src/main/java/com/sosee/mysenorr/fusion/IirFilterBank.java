@@ -0,0 +1,203 @@
+package com.sosee.mysenorr.fusion;
+
+/**
+ * The third order Butterworth low pass of {@link ButterworthCoefficients} for the three axes of several sensors in
+ * one object.
+ * Each sensor is a group with its own coefficients, so the accelerometer and the magnetic field can run at different
+ * sampling rates.
+ * <p>
+ * The state is stored as structure of arrays instead of one array per axis and signal: the inputs in {@code x}, the
+ * outputs in {@code y}, each as {@code [group][tap][axis]}, so the whole state of a sensor lies in two short runs
+ * of memory. The results are identical to the difference equation of {@link ButterworthCoefficients} computed per
+ * axis (same operations in the same order).
+ * <p>
+ * The coefficients come from {@link ButterworthCoefficients} for the measured rate. The inputs are stored without
+ * the gain, so a new rate changes only the coefficients and the filter continues without a jump.
+ * <p>
+ * Nothing allocates after construction.
+ * <p>
+ * 将{@link ButterworthCoefficients}的三阶巴特沃斯低通滤波器用于多个传感器的三个轴。每个传感器是一组，有自己的系数。
+ * 状态以数组结构存储（输入x，输出y，均为[组][抽头][轴]），一个传感器的全部状态位于两段连续内存中。
+ * 结果与按轴计算的差分方程完全相同。系数按测量的采样率计算；输入不含增益存储，
+ * 因此更换采样率只改变系数，滤波器输出不会跳变。构造后不再分配内存。
+ */
+public class IirFilterBank {
+
+    public static final int AXES = 3;
+    /**
+     * Number of stored inputs and outputs per axis (order + 1)
+     */
+    private static final int TAPS = 4;
+    private static final int GROUP_STRIDE = TAPS * AXES;
+
+    private final int groups;
+    /**
+     * Raw inputs
+     */
+    private final double[] x;
+    /**
+     * Outputs
+     */
+    private final double[] y;
+    /**
+     * tp0, tp1, tp2 and the gain per group, {@code coefficients[group * 4 + i]}
+     */
+    private final double[] coefficients;
+    private final int[] rates;
+    private final ButterworthCoefficients generator = new ButterworthCoefficients();
+
+    /**
+     * Creates a bank with the coefficients for 50Hz in all groups
+     * 创建一个所有组都使用50Hz系数的滤波器组
+     *
+     * @param groups number of sensors
+     */
+    public IirFilterBank(int groups) {
+        this.groups = groups;
+        x = new double[groups * GROUP_STRIDE];
+        y = new double[groups * GROUP_STRIDE];
+        coefficients = new double[groups * ButterworthCoefficients.SIZE];
+        rates = new int[groups];
+        for (int group = 0; group < groups; group++) {
+            setSamplingRate(group, 50);
+        }
+    }
+
+    public int getGroups() {
+        return groups;
+    }
+
+    /**
+     * Sets the coefficients of a group for the measured sampling rate, the state is kept
+     * 根据测量的采样率设置一组的系数，保留状态
+     *
+     * @param group the sensor
+     * @param freq  the sampling rate in Hz
+     */
+    public void setSamplingRate(int group, int freq) {
+        if (rates[group] != freq) {
+            generator.get(freq, coefficients, group * ButterworthCoefficients.SIZE);
+            rates[group] = freq;
+        }
+    }
+
+    /**
+     * Filters one sample of a group
+     *
+     * @param group  the sensor
+     * @param input  the raw values (x, y, z)
+     * @param output receives the filtered values, may be the input array
+     */
+    public void filter(int group, float[] input, float[] output) {
+        step(group, input, 0, output, 0);
+    }
+
+    /**
+     * Filters consecutive samples of a group, e.g. from a batch or a replayed trace. The samples are interleaved
+     * (x0, y0, z0, x1, y1, z1, ...), the output has the same layout and may be the input array.
+     * 过滤一组的连续样本（交错存储），例如来自批处理或回放。
+     *
+     * @param group        the sensor
+     * @param input        the raw values
+     * @param inputOffset  index of the first value in input
+     * @param output       receives the filtered values
+     * @param outputOffset index of the first value in output
+     * @param samples      number of samples
+     */
+    public void filterBlock(int group, float[] input, int inputOffset, float[] output, int outputOffset,
+                            int samples) {
+        for (int s = 0; s < samples; s++) {
+            step(group, input, inputOffset + s * AXES, output, outputOffset + s * AXES);
+        }
+    }
+
+    /**
+     * One sample, straight code without loops, so the JIT can inline it into the loop of a block
+     */
+    private void step(int group, float[] input, int in, float[] output, int out) {
+        final double[] coefficients = this.coefficients;
+        final double[] x = this.x;
+        final double[] y = this.y;
+        final int c = group * ButterworthCoefficients.SIZE;
+        final double tp0 = coefficients[c];
+        final double tp1 = coefficients[c + 1];
+        final double tp2 = coefficients[c + 2];
+        final double gain = coefficients[c + 3];
+
+        // the taps of a group are adjacent, oldest (n-3) first, each with the three axes
+        //一组的抽头相邻，最旧的(n-3)在前，每个抽头包含三个轴
+        final int n3 = group * GROUP_STRIDE;
+        final int n2 = n3 + AXES;
+        final int n1 = n2 + AXES;
+        final int n0 = n1 + AXES;
+        final double x0 = input[in];
+        final double x1 = input[in + 1];
+        final double x2 = input[in + 2];
+        // shift the taps by one, written out: a loop or System.arraycopy is slower for nine values
+        //抽头移动一位，逐个赋值：对九个值来说循环或System.arraycopy更慢
+        x[n3] = x[n2];
+        x[n3 + 1] = x[n2 + 1];
+        x[n3 + 2] = x[n2 + 2];
+        x[n2] = x[n1];
+        x[n2 + 1] = x[n1 + 1];
+        x[n2 + 2] = x[n1 + 2];
+        x[n1] = x[n0];
+        x[n1 + 1] = x[n0 + 1];
+        x[n1 + 2] = x[n0 + 2];
+        y[n3] = y[n2];
+        y[n3 + 1] = y[n2 + 1];
+        y[n3 + 2] = y[n2 + 2];
+        y[n2] = y[n1];
+        y[n2 + 1] = y[n1 + 1];
+        y[n2 + 2] = y[n1 + 2];
+        y[n1] = y[n0];
+        y[n1 + 1] = y[n0 + 1];
+        y[n1 + 2] = y[n0 + 2];
+
+        final double y0 = gain * ((x[n3] + x0) + 3 * (x[n2] + x[n1]))
+                + (tp0 * y[n3]) + (tp1 * y[n2]) + (tp2 * y[n1]);
+        final double y1 = gain * ((x[n3 + 1] + x1) + 3 * (x[n2 + 1] + x[n1 + 1]))
+                + (tp0 * y[n3 + 1]) + (tp1 * y[n2 + 1]) + (tp2 * y[n1 + 1]);
+        final double y2 = gain * ((x[n3 + 2] + x2) + 3 * (x[n2 + 2] + x[n1 + 2]))
+                + (tp0 * y[n3 + 2]) + (tp1 * y[n2 + 2]) + (tp2 * y[n1 + 2]);
+        x[n0] = x0;
+        x[n0 + 1] = x1;
+        x[n0 + 2] = x2;
+        y[n0] = y0;
+        y[n0 + 1] = y1;
+        y[n0 + 2] = y2;
+        output[out] = (float) y0;
+        output[out + 1] = (float) y1;
+        output[out + 2] = (float) y2;
+    }
+
+    /**
+     * Clears the state of a group
+     * 清除一组的状态
+     */
+    public void reset(int group) {
+        int base = group * GROUP_STRIDE;
+        for (int i = base; i < base + GROUP_STRIDE; i++) {
+            x[i] = 0;
+            y[i] = 0;
+        }
+    }
+
+    /**
+     * Sets the state of a group as if the values had been constant for a long time, so the filter starts without
+     * rising slowly from zero
+     * 将一组的状态设置为数值长时间不变的状态，使滤波器启动时不必从零缓慢上升
+     *
+     * @param group  the sensor
+     * @param values the first raw values (x, y, z)
+     */
+    public void reset(int group, float[] values) {
+        int base = group * GROUP_STRIDE;
+        for (int tap = 0; tap < TAPS; tap++) {
+            for (int axis = 0; axis < AXES; axis++) {
+                x[base + tap * AXES + axis] = values[axis];
+                y[base + tap * AXES + axis] = values[axis];
+            }
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package com.sosee.mysenorr.fusion;
+
+/**
+ * Orientation from gyroscope, accelerometer and magnetic field with an error-state Kalman filter. The gyroscope
+ * propagates the orientation (a quaternion), the accelerometer corrects roll and pitch through the direction of
+ * gravity and the magnetic field corrects the heading. Besides the orientation the filter estimates the bias of the
+ * gyroscope, so the orientation drifts much less between the corrections.
+ * <p>
+ * The Kalman filter works on the small error of the orientation (3 angles in device coordinates) and of the bias
+ * (3 rates), with a 6x6 covariance. After each correction the error is moved into the quaternion and the bias and
+ * starts from zero again. The measurements are processed one value at a time, so no matrix has to be inverted.
+ * The accelerometer is only used while its magnitude is close to gravity (standing, or the quiet phase of a step),
+ * the magnetic field only for the heading (so a disturbed field cannot tilt the orientation) and not while it is
+ * disturbed. Nothing allocates after construction.
+ * <p>
+ * 用误差状态卡尔曼滤波器从陀螺仪、加速度计和磁场求方向。陀螺仪推算方向（四元数），加速度计通过重力方向修正横滚和俯仰，
+ * 磁场修正航向。除方向外，滤波器还估计陀螺仪的零偏，因此方向在两次修正之间漂移小得多。
+ * 卡尔曼滤波器作用于方向的小误差（设备坐标中的3个角）和零偏的小误差（3个角速度），协方差为6x6。每次修正后，
+ * 误差并入四元数和零偏，并重新从零开始。测量值逐个处理，因此无需求逆矩阵。加速度计仅在其大小接近重力时使用，
+ * 磁场仅用于航向（因此受干扰的磁场不会使方向倾斜），且在受干扰时不使用。构造后不再分配内存。
+ */
+public class KalmanOrientationFilter {
+
+    private static final double NS2S = 1e-9;
+    private static final double GRAVITY = 9.80665;
+    /**
+     * Noise of the gyroscope in rad/s/√Hz, the orientation becomes uncertain by this much while it is propagated
+     */
+    private static final double GYRO_NOISE = 0.01;
+    /**
+     * Random walk of the bias in rad/s/√s
+     */
+    private static final double BIAS_NOISE = 0.0002;
+    /**
+     * Noise of the normalized gravity direction, and how much it grows with the deviation from gravity (per m/s²)
+     */
+    private static final double ACCELEROMETER_NOISE = 0.05;
+    private static final double ACCELEROMETER_DYNAMIC_NOISE = 0.1;
+    /**
+     * The accelerometer is not used if its magnitude differs more from gravity (m/s²)
+     */
+    private static final double ACCELEROMETER_GATE = 1.5;
+    /**
+     * Noise of the heading from the magnetic field in rad
+     */
+    private static final double MAGNETIC_NOISE = 0.15;
+    /**
+     * The heading is not taken from the magnetic field if the phone points almost along the field
+     */
+    private static final double MIN_HORIZONTAL_FIELD = 0.2;
+    private static final double INITIAL_ANGLE_VARIANCE = 0.1 * 0.1;
+    private static final double INITIAL_BIAS_VARIANCE = 0.02 * 0.02;
+    /**
+     * Gaps longer than this (s), e.g. while the sensors were paused, are not integrated
+     */
+    private static final double MAX_GYRO_INTERVAL = 0.5;
+    private static final int N = 6;
+
+    /**
+     * The orientation (w, x, y, z), rotates device coordinates into world coordinates (East, North, Up)
+     */
+    private final double[] q = {1, 0, 0, 0};
+    private final double[] bias = new double[3];
+    /**
+     * Covariance of (angle error, bias error), row-major
+     */
+    private final double[] covariance = new double[N * N];
+    /**
+     * Error estimated by the values of the current measurement, moved into q and bias afterwards
+     */
+    private final double[] error = new double[N];
+    private final double[] h = new double[N];
+    private final double[] ph = new double[N];
+    private final double[] rotation = new double[9];
+    private final double[] a = new double[9];
+    private final double[] m1 = new double[9];
+    private final double[] m2 = new double[9];
+    private final float[] initialMatrix = new float[9];
+    private final float[] acceleration = new float[3];
+    private final float[] magneticField = new float[3];
+    /**
+     * The rate without the bias and the rotation vector of the step, from the selected integration
+     */
+    private final GyroIntegrator integrator = new GyroIntegrator(GyroIntegrator.FIRST_ORDER);
+    private final float[] rate = new float[3];
+    private final float[] step = new float[3];
+
+    private boolean initialised;
+    private boolean accelerationKnown;
+    private boolean magneticFieldKnown;
+    private long gyroTimestamp;
+    private volatile boolean magneticDisturbed;
+
+    public KalmanOrientationFilter() {
+        resetCovariance();
+    }
+
+    private void resetCovariance() {
+        for (int i = 0; i < N * N; i++) {
+            covariance[i] = 0;
+        }
+        for (int i = 0; i < 3; i++) {
+            covariance[i * N + i] = INITIAL_ANGLE_VARIANCE;
+            covariance[(i + 3) * N + i + 3] = INITIAL_BIAS_VARIANCE;
+        }
+    }
+
+    /**
+     * Propagates the orientation with a sample of the gyroscope
+     * 用陀螺仪样本推算方向
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param values    angular speed around x, y, z in rad/s, only read
+     * @return true if the orientation was updated
+     */
+    public boolean onGyroscope(long timestamp, float[] values) {
+        long last = gyroTimestamp;
+        gyroTimestamp = timestamp;
+        if (!initialised || last == 0) {
+            return false;
+        }
+        double dt = (timestamp - last) * NS2S;
+        if (dt <= 0 || dt > MAX_GYRO_INTERVAL) {
+            integrator.reset();
+            return false;
+        }
+        rate[0] = (float) (values[0] - bias[0]);
+        rate[1] = (float) (values[1] - bias[1]);
+        rate[2] = (float) (values[2] - bias[2]);
+        integrator.integrate(rate, (float) dt, step);
+
+        // rotation of this step as quaternion  这一步的旋转（四元数）
+        double angle = Math.sqrt(step[0] * step[0] + step[1] * step[1] + step[2] * step[2]);
+        double dw;
+        double s;
+        if (angle > 1e-9) {
+            dw = Math.cos(angle / 2);
+            s = Math.sin(angle / 2) / angle;
+        } else {
+            dw = 1;
+            s = 0.5;
+        }
+        double dx = s * step[0];
+        double dy = s * step[1];
+        double dz = s * step[2];
+        multiply(dw, dx, dy, dz);
+
+        // the angle error turns with the device: A = transposed rotation of the step  角度误差随设备转动
+        fromQuaternion(dw, dx, dy, dz, rotation);
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                a[row * 3 + col] = rotation[col * 3 + row];
+            }
+        }
+        propagateCovariance(dt);
+        return true;
+    }
+
+    /**
+     * P = F P F' + Q with F = [[A, -I dt], [0, I]], computed by blocks
+     */
+    private void propagateCovariance(double dt) {
+        // m1 = A Paa - dt Pba, m2 = A Pab - dt Pbb
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                double sum1 = 0;
+                double sum2 = 0;
+                for (int k = 0; k < 3; k++) {
+                    sum1 += a[row * 3 + k] * covariance[k * N + col];
+                    sum2 += a[row * 3 + k] * covariance[k * N + col + 3];
+                }
+                m1[row * 3 + col] = sum1 - dt * covariance[(row + 3) * N + col];
+                m2[row * 3 + col] = sum2 - dt * covariance[(row + 3) * N + col + 3];
+            }
+        }
+        // Paa = m1 A' - dt m2 + Q, Pab = m2, Pba = m2'
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                double sum = 0;
+                for (int k = 0; k < 3; k++) {
+                    sum += m1[row * 3 + k] * a[col * 3 + k];
+                }
+                covariance[row * N + col] = sum - dt * m2[row * 3 + col];
+                covariance[row * N + col + 3] = m2[row * 3 + col];
+                covariance[(col + 3) * N + row] = m2[row * 3 + col];
+            }
+        }
+        // keep Paa symmetric against rounding  防止舍入误差使Paa不对称
+        for (int row = 0; row < 3; row++) {
+            for (int col = row + 1; col < 3; col++) {
+                double mean = (covariance[row * N + col] + covariance[col * N + row]) / 2;
+                covariance[row * N + col] = mean;
+                covariance[col * N + row] = mean;
+            }
+            covariance[row * N + row] += GYRO_NOISE * GYRO_NOISE * dt;
+            covariance[(row + 3) * N + row + 3] += BIAS_NOISE * BIAS_NOISE * dt;
+        }
+    }
+
+    /**
+     * Corrects roll and pitch with a sample of the accelerometer
+     * 用加速度计样本修正横滚和俯仰
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param values    acceleration in m/s² (x, y, z), only read
+     */
+    public void onAccelerometer(long timestamp, float[] values) {
+        acceleration[0] = values[0];
+        acceleration[1] = values[1];
+        acceleration[2] = values[2];
+        accelerationKnown = true;
+        if (!initialised) {
+            initialise();
+            return;
+        }
+        double norm = Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+        double deviation = Math.abs(norm - GRAVITY);
+        if (deviation > ACCELEROMETER_GATE) {
+            return;
+        }
+        double noise = ACCELEROMETER_NOISE + ACCELEROMETER_DYNAMIC_NOISE * deviation;
+        double variance = noise * noise;
+
+        // expected direction of gravity (up) in device coordinates: R' (0, 0, 1) = third row of R
+        //设备坐标中重力（向上）的预期方向：R的第三行
+        fromQuaternion(q[0], q[1], q[2], q[3], rotation);
+        double ex = rotation[6];
+        double ey = rotation[7];
+        double ez = rotation[8];
+        double zx = values[0] / norm;
+        double zy = values[1] / norm;
+        double zz = values[2] / norm;
+        // z = e + [e]x angleError
+        setH(0, -ez, ey);
+        update(zx - ex, variance);
+        setH(ez, 0, -ex);
+        update(zy - ey, variance);
+        setH(-ey, ex, 0);
+        update(zz - ez, variance);
+        inject();
+    }
+
+    /**
+     * Corrects the heading with a sample of the magnetic field, unless it is disturbed
+     * 用磁场样本修正航向，磁场受干扰时除外
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param values    magnetic field in µT (x, y, z), only read
+     */
+    public void onMagneticField(long timestamp, float[] values) {
+        magneticField[0] = values[0];
+        magneticField[1] = values[1];
+        magneticField[2] = values[2];
+        magneticFieldKnown = true;
+        if (!initialised) {
+            initialise();
+            return;
+        }
+        if (magneticDisturbed) {
+            return;
+        }
+        fromQuaternion(q[0], q[1], q[2], q[3], rotation);
+        double mx = rotation[0] * values[0] + rotation[1] * values[1] + rotation[2] * values[2];
+        double my = rotation[3] * values[0] + rotation[4] * values[1] + rotation[5] * values[2];
+        double mz = rotation[6] * values[0] + rotation[7] * values[1] + rotation[8] * values[2];
+        double horizontal = Math.sqrt(mx * mx + my * my);
+        if (horizontal < MIN_HORIZONTAL_FIELD * Math.sqrt(horizontal * horizontal + mz * mz)) {
+            return;
+        }
+        // the field should point north; a yaw error ε about the vertical is the angle error R' (0, 0, 1) ε
+        //磁场应指向北方；绕垂直轴的航向误差ε对应角度误差R' (0, 0, 1) ε
+        double heading = Math.atan2(mx, my);
+        setH(rotation[6], rotation[7], rotation[8]);
+        update(heading, MAGNETIC_NOISE * MAGNETIC_NOISE);
+        inject();
+    }
+
+    private void setH(double x, double y, double z) {
+        h[0] = x;
+        h[1] = y;
+        h[2] = z;
+        h[3] = h[4] = h[5] = 0;
+    }
+
+    /**
+     * Kalman update with one measured value: residual = h' error + noise
+     *
+     * @param residual measured minus expected value
+     * @param variance variance of the noise of the value
+     */
+    private void update(double residual, double variance) {
+        double innovation = residual;
+        double s = variance;
+        for (int i = 0; i < N; i++) {
+            double sum = 0;
+            for (int j = 0; j < 3; j++) {
+                sum += covariance[i * N + j] * h[j];
+            }
+            ph[i] = sum;
+            innovation -= h[i] * error[i];
+        }
+        for (int j = 0; j < 3; j++) {
+            s += h[j] * ph[j];
+        }
+        for (int i = 0; i < N; i++) {
+            double k = ph[i] / s;
+            error[i] += k * innovation;
+            for (int j = 0; j < N; j++) {
+                covariance[i * N + j] -= k * ph[j];
+            }
+        }
+    }
+
+    /**
+     * Moves the estimated error into the orientation and the bias
+     */
+    private void inject() {
+        multiply(1, error[0] / 2, error[1] / 2, error[2] / 2);
+        bias[0] += error[3];
+        bias[1] += error[4];
+        bias[2] += error[5];
+        for (int i = 0; i < N; i++) {
+            error[i] = 0;
+        }
+    }
+
+    /**
+     * q = q * (w, x, y, z), normalized
+     */
+    private void multiply(double w, double x, double y, double z) {
+        double qw = q[0], qx = q[1], qy = q[2], qz = q[3];
+        double nw = qw * w - qx * x - qy * y - qz * z;
+        double nx = qw * x + qx * w + qy * z - qz * y;
+        double ny = qw * y - qx * z + qy * w + qz * x;
+        double nz = qw * z + qx * y - qy * x + qz * w;
+        double norm = Math.sqrt(nw * nw + nx * nx + ny * ny + nz * nz);
+        q[0] = nw / norm;
+        q[1] = nx / norm;
+        q[2] = ny / norm;
+        q[3] = nz / norm;
+    }
+
+    /**
+     * Rotation matrix (3x3, row-major) of a unit quaternion
+     */
+    private static void fromQuaternion(double w, double x, double y, double z, double[] r) {
+        r[0] = 1 - 2 * (y * y + z * z);
+        r[1] = 2 * (x * y - z * w);
+        r[2] = 2 * (x * z + y * w);
+        r[3] = 2 * (x * y + z * w);
+        r[4] = 1 - 2 * (x * x + z * z);
+        r[5] = 2 * (y * z - x * w);
+        r[6] = 2 * (x * z - y * w);
+        r[7] = 2 * (y * z + x * w);
+        r[8] = 1 - 2 * (x * x + y * y);
+    }
+
+    /**
+     * Starts with the orientation of accelerometer and magnetic field once both are known
+     * 加速度计和磁场都已知后，以它们的方向开始
+     */
+    private void initialise() {
+        if (!accelerationKnown || !magneticFieldKnown
+                || !SensorMath.getRotationMatrix(initialMatrix, acceleration, magneticField)) {
+            return;
+        }
+        quaternionFromMatrix(initialMatrix, q);
+        multiply(1, 0, 0, 0);
+        resetCovariance();
+        initialised = true;
+    }
+
+    /**
+     * Quaternion (w, x, y, z) of a rotation matrix
+     * 旋转矩阵对应的四元数
+     *
+     * @param r a 3x3 row major rotation matrix
+     * @param q receives the quaternion
+     */
+    static void quaternionFromMatrix(float[] r, double[] q) {
+        double trace = r[0] + r[4] + r[8];
+        if (trace > 0) {
+            double s = 2 * Math.sqrt(trace + 1);
+            q[0] = s / 4;
+            q[1] = (r[7] - r[5]) / s;
+            q[2] = (r[2] - r[6]) / s;
+            q[3] = (r[3] - r[1]) / s;
+        } else if (r[0] > r[4] && r[0] > r[8]) {
+            double s = 2 * Math.sqrt(1 + r[0] - r[4] - r[8]);
+            q[0] = (r[7] - r[5]) / s;
+            q[1] = s / 4;
+            q[2] = (r[1] + r[3]) / s;
+            q[3] = (r[2] + r[6]) / s;
+        } else if (r[4] > r[8]) {
+            double s = 2 * Math.sqrt(1 + r[4] - r[0] - r[8]);
+            q[0] = (r[2] - r[6]) / s;
+            q[1] = (r[1] + r[3]) / s;
+            q[2] = s / 4;
+            q[3] = (r[5] + r[7]) / s;
+        } else {
+            double s = 2 * Math.sqrt(1 + r[8] - r[0] - r[4]);
+            q[0] = (r[3] - r[1]) / s;
+            q[1] = (r[2] + r[6]) / s;
+            q[2] = (r[5] + r[7]) / s;
+            q[3] = s / 4;
+        }
+    }
+
+    /**
+     * @param disturbed true while the magnetic field is disturbed, the heading is then only propagated with the
+     *                  gyroscope
+     */
+    public void setMagneticDisturbed(boolean disturbed) {
+        magneticDisturbed = disturbed;
+    }
+
+    /**
+     * @return true once accelerometer and magnetic field gave a first orientation
+     */
+    public boolean isInitialised() {
+        return initialised;
+    }
+
+    /**
+     * @param R a 3x3 (9 values) or 4x4 (16 values) row major matrix, receives the rotation from device to world
+     *          coordinates
+     */
+    public void getRotationMatrix(float[] R) {
+        fromQuaternion(q[0], q[1], q[2], q[3], rotation);
+        if (R.length == 9) {
+            for (int i = 0; i < 9; i++) {
+                R[i] = (float) rotation[i];
+            }
+        } else {
+            for (int row = 0; row < 3; row++) {
+                for (int col = 0; col < 3; col++) {
+                    R[row * 4 + col] = (float) rotation[row * 3 + col];
+                }
+                R[row * 4 + 3] = 0;
+                R[12 + row] = 0;
+            }
+            R[15] = 1;
+        }
+    }
+
+    /**
+     * @param quaternion receives the orientation as (w, x, y, z), as SensorMath.getQuaternionFromVector
+     */
+    public void getQuaternion(float[] quaternion) {
+        quaternion[0] = (float) q[0];
+        quaternion[1] = (float) q[1];
+        quaternion[2] = (float) q[2];
+        quaternion[3] = (float) q[3];
+    }
+
+    /**
+     * Starts the integration over with the next sample, e.g. when the sensors run at another rate: the samples
+     * before are neither integrated against it nor used to interpolate the rate
+     * 从下一个样本重新开始积分，例如传感器以其他频率运行时：之前的样本既不与其一起积分，也不用于插值角速度
+     */
+    public void restartIntegration() {
+        integrator.reset();
+        gyroTimestamp = 0;
+    }
+
+    /**
+     * @param method how the gyroscope is integrated, one of the methods of {@link GyroIntegrator},
+     *               {@link GyroIntegrator#FIRST_ORDER} by default
+     */
+    public void setIntegrator(int method) {
+        integrator.setMethod(method);
+    }
+
+    /**
+     * @param bias receives the estimated bias of the gyroscope in rad/s (x, y, z)
+     */
+    public void getBias(float[] bias) {
+        bias[0] = (float) this.bias[0];
+        bias[1] = (float) this.bias[1];
+        bias[2] = (float) this.bias[2];
+    }
+
+    /**
+     * @param bias a known bias of the gyroscope in rad/s (x, y, z), e.g. stored in an earlier session
+     */
+    public void setBias(float[] bias) {
+        this.bias[0] = bias[0];
+        this.bias[1] = bias[1];
+        this.bias[2] = bias[2];
+    }
+
+    /**
+     * @return standard deviation of the heading in degrees, grows while the magnetic field is not used
+     */
+    public double getHeadingUncertainty() {
+        // variance of the angle error about the vertical R' (0, 0, 1)  绕垂直轴的角度误差方差
+        fromQuaternion(q[0], q[1], q[2], q[3], rotation);
+        double variance = 0;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                variance += rotation[6 + i] * covariance[i * N + j] * rotation[6 + j];
+            }
+        }
+        return Math.toDegrees(Math.sqrt(Math.max(0, variance)));
+    }
+}
@@ -0,0 +1,321 @@
+package com.sosee.mysenorr.fusion;
+
+/**
+ * Lightweight orientation from gyroscope, accelerometer and magnetic field with Madgwick's gradient descent filter,
+ * for devices without a (good) rotation vector sensor. Every gyroscope sample turns the orientation and moves it one
+ * step of the gradient towards the orientation in which the last accelerometer and magnetic field samples point to
+ * gravity and to the earth field. The gain (rad/s) sets how fast: larger follows accelerometer and magnetic field
+ * more closely, smaller trusts the gyroscope longer. The earth field is taken as measured (its dip is not needed)
+ * and only its horizontal direction affects the heading. While the magnetic field is disturbed only the accelerometer
+ * corrects. The bias of the gyroscope is learned while the phone lies still ({@link GyroBiasEstimator}) and
+ * subtracted first. All arithmetic is float, about 150 multiplications per sample, nothing allocates.
+ * <p>
+ * 用Madgwick梯度下降滤波器从陀螺仪、加速度计和磁场求方向的轻量方法，用于没有（好的）旋转矢量传感器的设备。
+ * 每个陀螺仪样本转动方向，并沿梯度向使最近的加速度计和磁场样本指向重力和地磁场的方向移动一步。增益（rad/s）决定速度：
+ * 越大越贴近加速度计和磁场，越小越长时间信任陀螺仪。磁场受干扰时只用加速度计修正。全部为float运算，不分配内存。
+ * <p>
+ * Internally the orientation is that of Madgwick's paper, with the earth frame North, West, Up, it is turned to
+ * East, North, Up for the output.
+ *
+ * @see <a href="https://x-io.co.uk/open-source-imu-and-ahrs-algorithms/">Open source IMU and AHRS algorithms</a>
+ */
+public class MadgwickFilter {
+
+    /**
+     * Default gain in rad/s, Madgwick suggests √(3/4) times the gyroscope error
+     */
+    public static final float DEFAULT_GAIN = 0.05f;
+    private static final float NS2S = 1e-9f;
+    /**
+     * Gaps longer than this (s), e.g. while the sensors were paused, are not integrated
+     */
+    private static final float MAX_GYRO_INTERVAL = 0.5f;
+    /**
+     * cos(45°) = sin(45°), the quaternion turning North-West-Up into East-North-Up is (C, 0, 0, C)
+     */
+    private static final float C = 0.70710678f;
+
+    /**
+     * Orientation (w, x, y, z) relative to North, West, Up
+     */
+    private float q0 = 1, q1, q2, q3;
+    private float gain = DEFAULT_GAIN;
+    private final float[] acceleration = new float[3];
+    private final float[] magneticField = new float[3];
+    private final float[] initialMatrix = new float[9];
+    private final double[] initialQuaternion = new double[4];
+    private final float[] quaternion = new float[4];
+    private final float[] rotationVector = new float[4];
+    private final GyroBiasEstimator biasEstimator = new GyroBiasEstimator();
+    private final float[] correctedGyroscope = new float[3];
+    private final GyroIntegrator integrator = new GyroIntegrator(GyroIntegrator.FIRST_ORDER);
+    private final float[] rotation = new float[3];
+    private boolean accelerationKnown;
+    private boolean magneticFieldKnown;
+    private boolean initialised;
+    private long gyroTimestamp;
+    private volatile boolean magneticDisturbed;
+
+    /**
+     * @param gain step of the gradient descent in rad/s, {@link #DEFAULT_GAIN} by default
+     */
+    public void setGain(float gain) {
+        this.gain = gain;
+    }
+
+    public float getGain() {
+        return gain;
+    }
+
+    /**
+     * @param values acceleration in m/s² (x, y, z), only read; used by the next gyroscope samples
+     */
+    public void onAccelerometer(long timestamp, float[] values) {
+        acceleration[0] = values[0];
+        acceleration[1] = values[1];
+        acceleration[2] = values[2];
+        accelerationKnown = true;
+        biasEstimator.onAccelerometer(timestamp, values);
+        if (!initialised) {
+            initialise();
+        }
+    }
+
+    /**
+     * @param values magnetic field in µT (x, y, z), only read; used by the next gyroscope samples
+     */
+    public void onMagneticField(long timestamp, float[] values) {
+        magneticField[0] = values[0];
+        magneticField[1] = values[1];
+        magneticField[2] = values[2];
+        magneticFieldKnown = true;
+        if (!initialised) {
+            initialise();
+        }
+    }
+
+    /**
+     * Starts with the orientation of accelerometer and magnetic field, so the filter does not have to converge from
+     * an arbitrary orientation
+     */
+    private void initialise() {
+        if (!accelerationKnown || !magneticFieldKnown
+                || !SensorMath.getRotationMatrix(initialMatrix, acceleration, magneticField)) {
+            return;
+        }
+        KalmanOrientationFilter.quaternionFromMatrix(initialMatrix, initialQuaternion);
+        // East-North-Up to North-West-Up: (C, 0, 0, -C) * q  东北天转为北西天
+        double w = initialQuaternion[0], x = initialQuaternion[1], y = initialQuaternion[2], z = initialQuaternion[3];
+        q0 = (float) (C * (w + z));
+        q1 = (float) (C * (x + y));
+        q2 = (float) (C * (y - x));
+        q3 = (float) (C * (z - w));
+        initialised = true;
+    }
+
+    /**
+     * Turns the orientation with a sample of the gyroscope and corrects it with the last accelerometer and magnetic
+     * field samples
+     * 用陀螺仪样本转动方向，并用最近的加速度计和磁场样本修正
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param values    angular speed around x, y, z in rad/s, only read
+     * @return true if the orientation was updated
+     */
+    public boolean onGyroscope(long timestamp, float[] values) {
+        biasEstimator.onGyroscope(timestamp, values, correctedGyroscope);
+        long last = gyroTimestamp;
+        gyroTimestamp = timestamp;
+        if (!initialised || last == 0) {
+            return false;
+        }
+        float dt = (timestamp - last) * NS2S;
+        if (dt <= 0 || dt > MAX_GYRO_INTERVAL) {
+            integrator.reset();
+            return false;
+        }
+        // the mean rate of the interval, from the selected integration  所选积分方法给出的区间平均角速度
+        integrator.integrate(correctedGyroscope, dt, rotation);
+        float gx = rotation[0] / dt;
+        float gy = rotation[1] / dt;
+        float gz = rotation[2] / dt;
+
+        // rate of change of the quaternion from the gyroscope  陀螺仪给出的四元数变化率
+        float qDot0 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+        float qDot1 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+        float qDot2 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+        float qDot3 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+        float ax = acceleration[0];
+        float ay = acceleration[1];
+        float az = acceleration[2];
+        float aNorm = ax * ax + ay * ay + az * az;
+        if (aNorm > 0) {
+            float recip = 1 / (float) Math.sqrt(aNorm);
+            ax *= recip;
+            ay *= recip;
+            az *= recip;
+            float mx = magneticField[0];
+            float my = magneticField[1];
+            float mz = magneticField[2];
+            float mNorm = mx * mx + my * my + mz * mz;
+            float s0, s1, s2, s3;
+            if (!magneticDisturbed && mNorm > 0) {
+                recip = 1 / (float) Math.sqrt(mNorm);
+                mx *= recip;
+                my *= recip;
+                mz *= recip;
+
+                float _2q0mx = 2 * q0 * mx;
+                float _2q0my = 2 * q0 * my;
+                float _2q0mz = 2 * q0 * mz;
+                float _2q1mx = 2 * q1 * mx;
+                float _2q0 = 2 * q0;
+                float _2q1 = 2 * q1;
+                float _2q2 = 2 * q2;
+                float _2q3 = 2 * q3;
+                float _2q0q2 = 2 * q0 * q2;
+                float _2q2q3 = 2 * q2 * q3;
+                float q0q0 = q0 * q0;
+                float q0q1 = q0 * q1;
+                float q0q2 = q0 * q2;
+                float q0q3 = q0 * q3;
+                float q1q1 = q1 * q1;
+                float q1q2 = q1 * q2;
+                float q1q3 = q1 * q3;
+                float q2q2 = q2 * q2;
+                float q2q3 = q2 * q3;
+                float q3q3 = q3 * q3;
+
+                // direction of the earth field in the earth frame: (bx, 0, bz). h is the field turned into the
+                // earth frame, so bx = |h horizontal| and bz = h z (the reference code misses the factor 2 here)
+                //地球坐标系中地磁场的方向：(bx, 0, bz)
+                float hx = mx * q0q0 - _2q0my * q3 + _2q0mz * q2 + mx * q1q1 + _2q1 * my * q2 + _2q1 * mz * q3
+                        - mx * q2q2 - mx * q3q3;
+                float hy = _2q0mx * q3 + my * q0q0 - _2q0mz * q1 + _2q1mx * q2 - my * q1q1 + my * q2q2
+                        + _2q2 * mz * q3 - my * q3q3;
+                float _2bx = 2 * (float) Math.sqrt(hx * hx + hy * hy);
+                float _2bz = 2 * (-_2q0mx * q2 + _2q0my * q1 + mz * q0q0 + _2q1mx * q3 - mz * q1q1 + _2q2 * my * q3
+                        - mz * q2q2 + mz * q3q3);
+                float _4bx = 2 * _2bx;
+                float _4bz = 2 * _2bz;
+
+                // gradient of the errors of gravity and field  重力和磁场误差的梯度
+                float fax = 2 * q1q3 - _2q0q2 - ax;
+                float fay = 2 * q0q1 + _2q2q3 - ay;
+                float faz = 1 - 2 * q1q1 - 2 * q2q2 - az;
+                float fmx = _2bx * (0.5f - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx;
+                float fmy = _2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my;
+                float fmz = _2bx * (q0q2 + q1q3) + _2bz * (0.5f - q1q1 - q2q2) - mz;
+                s0 = -_2q2 * fax + _2q1 * fay - _2bz * q2 * fmx + (-_2bx * q3 + _2bz * q1) * fmy + _2bx * q2 * fmz;
+                s1 = _2q3 * fax + _2q0 * fay - 4 * q1 * faz + _2bz * q3 * fmx + (_2bx * q2 + _2bz * q0) * fmy
+                        + (_2bx * q3 - _4bz * q1) * fmz;
+                s2 = -_2q0 * fax + _2q3 * fay - 4 * q2 * faz + (-_4bx * q2 - _2bz * q0) * fmx
+                        + (_2bx * q1 + _2bz * q3) * fmy + (_2bx * q0 - _4bz * q2) * fmz;
+                s3 = _2q1 * fax + _2q2 * fay + (-_4bx * q3 + _2bz * q1) * fmx + (-_2bx * q0 + _2bz * q2) * fmy
+                        + _2bx * q1 * fmz;
+            } else {
+                // gravity only  仅重力
+                float _2q0 = 2 * q0;
+                float _2q1 = 2 * q1;
+                float _2q2 = 2 * q2;
+                float _2q3 = 2 * q3;
+                float _4q0 = 4 * q0;
+                float _4q1 = 4 * q1;
+                float _4q2 = 4 * q2;
+                float _8q1 = 8 * q1;
+                float _8q2 = 8 * q2;
+                float q0q0 = q0 * q0;
+                float q1q1 = q1 * q1;
+                float q2q2 = q2 * q2;
+                float q3q3 = q3 * q3;
+                s0 = _4q0 * q2q2 + _2q2 * ax + _4q0 * q1q1 - _2q1 * ay;
+                s1 = _4q1 * q3q3 - _2q3 * ax + 4 * q0q0 * q1 - _2q0 * ay - _4q1 + _8q1 * q1q1 + _8q1 * q2q2
+                        + _4q1 * az;
+                s2 = 4 * q0q0 * q2 + _2q0 * ax + _4q2 * q3q3 - _2q3 * ay - _4q2 + _8q2 * q1q1 + _8q2 * q2q2
+                        + _4q2 * az;
+                s3 = 4 * q1q1 * q3 - _2q1 * ax + 4 * q2q2 * q3 - _2q2 * ay;
+            }
+            float sNorm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+            if (sNorm > 0) {
+                recip = gain / (float) Math.sqrt(sNorm);
+                qDot0 -= recip * s0;
+                qDot1 -= recip * s1;
+                qDot2 -= recip * s2;
+                qDot3 -= recip * s3;
+            }
+        }
+
+        q0 += qDot0 * dt;
+        q1 += qDot1 * dt;
+        q2 += qDot2 * dt;
+        q3 += qDot3 * dt;
+        float recip = 1 / (float) Math.sqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        q0 *= recip;
+        q1 *= recip;
+        q2 *= recip;
+        q3 *= recip;
+        return true;
+    }
+
+    /**
+     * @param disturbed true while the magnetic field is disturbed, then only the accelerometer corrects
+     */
+    public void setMagneticDisturbed(boolean disturbed) {
+        magneticDisturbed = disturbed;
+    }
+
+    /**
+     * Starts the integration over with the next sample, e.g. when the sensors run at another rate: the samples
+     * before are neither integrated against it nor used to interpolate the rate
+     * 从下一个样本重新开始积分，例如传感器以其他频率运行时：之前的样本既不与其一起积分，也不用于插值角速度
+     */
+    public void restartIntegration() {
+        integrator.reset();
+        gyroTimestamp = 0;
+    }
+
+    /**
+     * @param method how the gyroscope is integrated, one of the methods of {@link GyroIntegrator},
+     *               {@link GyroIntegrator#FIRST_ORDER} by default
+     */
+    public void setIntegrator(int method) {
+        integrator.setMethod(method);
+    }
+
+    public GyroBiasEstimator getBiasEstimator() {
+        return biasEstimator;
+    }
+
+    /**
+     * @return true once accelerometer and magnetic field gave a first orientation
+     */
+    public boolean isInitialised() {
+        return initialised;
+    }
+
+    /**
+     * @param quaternion receives the orientation relative to East, North, Up as (w, x, y, z), as
+     *                   SensorMath.getQuaternionFromVector
+     */
+    public void getQuaternion(float[] quaternion) {
+        // (C, 0, 0, C) * q
+        quaternion[0] = C * (q0 - q3);
+        quaternion[1] = C * (q1 - q2);
+        quaternion[2] = C * (q2 + q1);
+        quaternion[3] = C * (q3 + q0);
+    }
+
+    /**
+     * @param R a 3x3 (9 values) or 4x4 (16 values) row major matrix, receives the rotation from device to world
+     *          coordinates (East, North, Up)
+     */
+    public void getRotationMatrix(float[] R) {
+        getQuaternion(quaternion);
+        rotationVector[0] = quaternion[1];
+        rotationVector[1] = quaternion[2];
+        rotationVector[2] = quaternion[3];
+        rotationVector[3] = quaternion[0];
+        SensorMath.getRotationMatrixFromVector(R, rotationVector);
+    }
+}
@@ -0,0 +1,390 @@
+package com.sosee.mysenorr.fusion;
+
+import java.util.Locale;
+
+/**
+ * Online hard and soft iron calibration of the magnetometer. Magnets and steel in the phone add a constant offset to
+ * the measured field (hard iron) and distort the sphere that the earth field draws while the phone turns into an
+ * ellipsoid (soft iron). The calibrator fits that ellipsoid to the samples and corrects each sample with
+ * {@code corrected = W * (raw - center)}, so the field has the same strength in every direction again.
+ * <p>
+ * The fit is the algebraic least squares fit of {@code x'Mx + 2v'x + d = 0} with the trace of M fixed to 3, which
+ * unlike {@code x'Mx + 2v'x = 1} also works when the offset is as large as the field. Only the sums of the normal
+ * equations (45 + 9 + 2 values) are kept, with older samples slowly forgotten, so the memory does not grow. Samples are only added
+ * when they differ from the last added one by a few µT, so a phone lying still does not push the rest out. Every 50
+ * added samples the 9x9 system is solved and the new parameters are taken if they are plausible: the ellipsoid is
+ * closed, its axes differ by at most half, its radius lies between 15 and 100 µT and the samples fit it well.
+ * Until then (or after a stored calibration was restored) the last accepted parameters are applied.
+ * <p>
+ * Nothing allocates after construction.
+ * <p>
+ * 磁力计的在线硬铁和软铁校准。手机中的磁铁和钢材给测得的磁场加上恒定偏移（硬铁），并把手机转动时地磁场描绘的球面
+ * 扭曲成椭球（软铁）。校准器将椭球拟合到样本上，并用 corrected = W * (raw - center) 校正每个样本。
+ * 拟合是迹固定为3的 x'Mx + 2v'x + d = 0 的代数最小二乘拟合：只保存正规方程的和（45 + 9 + 2个值），旧样本逐渐被遗忘，因此内存不增长。
+ * 只有与上一个添加的样本相差几µT时才添加样本。每添加50个样本求解一次9x9方程组，参数合理时才采用。构造后不再分配内存。
+ */
+public class MagneticCalibrator {
+
+    /**
+     * Values of a stored calibration: center (3) and the row-major correction matrix (9)
+     */
+    public static final int CALIBRATION_SIZE = 12;
+    /**
+     * The fit works in units of 50 µT, so all sums are of the order of 1
+     */
+    private static final double SCALE = 50;
+    private static final int PARAMETERS = 9;
+    /**
+     * A sample is added if it is at least this far (µT) from the last added one
+     */
+    private static final double MIN_SPACING = 3;
+    private static final double FORGETTING = 0.998;
+    private static final int FIT_INTERVAL = 50;
+    private static final int MIN_SAMPLES = 150;
+    private static final double MAX_AXIS_RATIO = 1.5;
+    private static final double MIN_FIELD = 15;
+    private static final double MAX_FIELD = 100;
+    /**
+     * Largest RMS of the algebraic residual relative to the ellipsoid, about twice the relative radius error
+     */
+    private static final double MAX_RESIDUAL = 0.05;
+
+    /**
+     * Upper triangle of sum(p p') row by row, sum(p t), sum(t²) and sum(1) with
+     * p = (x² - z², y² - z², 2xy, 2xz, 2yz, 2x, 2y, 2z, 1) and t = -3z², i.e. M[2][2] = 3 - M[0][0] - M[1][1]
+     */
+    private final double[] normal = new double[PARAMETERS * PARAMETERS];
+    private final double[] rhs = new double[PARAMETERS];
+    private double targetSquares;
+    private double weight;
+    private final double[] p = new double[PARAMETERS];
+    private final double[] system = new double[PARAMETERS * (PARAMETERS + 1)];
+    private final double[] theta = new double[PARAMETERS];
+    private final double[] eigenvectors = new double[9];
+    private final double[] eigenvalues = new double[3];
+    private final double[] work = new double[9];
+
+    private final float[] lastAdded = new float[3];
+    private boolean anyAdded;
+    private int samples;
+    private int sinceFit;
+
+    // the applied calibration  应用的校准
+    private final float[] center = new float[3];
+    private final float[] matrix = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+    private boolean calibrated;
+    private int fits;
+    private float radius;
+    private float residual;
+
+    /**
+     * Adds a raw sample to the fit, every 50 added samples the calibration is fitted again
+     * 将原始样本加入拟合，每添加50个样本重新拟合一次
+     *
+     * @param raw the uncalibrated magnetic field in µT (x, y, z), only read
+     * @return true if a new calibration was accepted
+     */
+    public boolean update(float[] raw) {
+        if (anyAdded) {
+            float dx = raw[0] - lastAdded[0];
+            float dy = raw[1] - lastAdded[1];
+            float dz = raw[2] - lastAdded[2];
+            if (dx * dx + dy * dy + dz * dz < MIN_SPACING * MIN_SPACING) {
+                return false;
+            }
+        }
+        lastAdded[0] = raw[0];
+        lastAdded[1] = raw[1];
+        lastAdded[2] = raw[2];
+        anyAdded = true;
+
+        double x = raw[0] / SCALE;
+        double y = raw[1] / SCALE;
+        double z = raw[2] / SCALE;
+        p[0] = x * x - z * z;
+        p[1] = y * y - z * z;
+        p[2] = 2 * x * y;
+        p[3] = 2 * x * z;
+        p[4] = 2 * y * z;
+        p[5] = 2 * x;
+        p[6] = 2 * y;
+        p[7] = 2 * z;
+        p[8] = 1;
+        double target = -3 * z * z;
+        for (int i = 0; i < PARAMETERS; i++) {
+            double pi = p[i];
+            int row = i * PARAMETERS;
+            for (int j = i; j < PARAMETERS; j++) {
+                normal[row + j] = FORGETTING * normal[row + j] + pi * p[j];
+            }
+            rhs[i] = FORGETTING * rhs[i] + pi * target;
+        }
+        targetSquares = FORGETTING * targetSquares + target * target;
+        weight = FORGETTING * weight + 1;
+        samples++;
+
+        if (++sinceFit >= FIT_INTERVAL && samples >= MIN_SAMPLES) {
+            sinceFit = 0;
+            return fit();
+        }
+        return false;
+    }
+
+    /**
+     * Solves the normal equations and takes the result if it is plausible
+     */
+    private boolean fit() {
+        if (!solve()) {
+            return false;
+        }
+        // M = [[a, d, e], [d, b, f], [e, f, c]], v = (g, h, i)
+        double a = theta[0], b = theta[1], c = 3 - a - b, d = theta[2], e = theta[3], f = theta[4];
+        double g = theta[5], h = theta[6], i = theta[7];
+        double det = a * (b * c - f * f) - d * (d * c - f * e) + e * (d * f - b * e);
+        if (Math.abs(det) < 1e-12) {
+            return false;
+        }
+        // center = -M⁻¹ v with the adjugate  用伴随矩阵求中心
+        double cx = -((b * c - f * f) * g + (e * f - d * c) * h + (d * f - e * b) * i) / det;
+        double cy = -((e * f - d * c) * g + (a * c - e * e) * h + (d * e - a * f) * i) / det;
+        double cz = -((d * f - e * b) * g + (d * e - a * f) * h + (a * b - d * d) * i) / det;
+        // (x - center)' M (x - center) = center' M center - constant  椭球方程的右端
+        double k = -theta[8] + a * cx * cx + b * cy * cy + c * cz * cz + 2 * (d * cx * cy + e * cx * cz + f * cy * cz);
+        if (k <= 0) {
+            return false;
+        }
+        work[0] = a / k;
+        work[1] = d / k;
+        work[2] = e / k;
+        work[3] = d / k;
+        work[4] = b / k;
+        work[5] = f / k;
+        work[6] = e / k;
+        work[7] = f / k;
+        work[8] = c / k;
+        eigen(work, eigenvalues, eigenvectors);
+        double min = Math.min(eigenvalues[0], Math.min(eigenvalues[1], eigenvalues[2]));
+        double max = Math.max(eigenvalues[0], Math.max(eigenvalues[1], eigenvalues[2]));
+        if (min <= 0 || Math.sqrt(max / min) > MAX_AXIS_RATIO) {
+            return false;
+        }
+        // the sphere with the same volume  体积相同的球
+        double fitRadius = Math.pow(eigenvalues[0] * eigenvalues[1] * eigenvalues[2], -1.0 / 6);
+        double fitResidual = residual() / k;
+        if (fitRadius * SCALE < MIN_FIELD || fitRadius * SCALE > MAX_FIELD || fitResidual > MAX_RESIDUAL) {
+            return false;
+        }
+
+        // W = radius * Q sqrt(Λ) Q'
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                double sum = 0;
+                for (int n = 0; n < 3; n++) {
+                    sum += eigenvectors[row * 3 + n] * Math.sqrt(eigenvalues[n]) * eigenvectors[col * 3 + n];
+                }
+                matrix[row * 3 + col] = (float) (fitRadius * sum);
+            }
+        }
+        center[0] = (float) (cx * SCALE);
+        center[1] = (float) (cy * SCALE);
+        center[2] = (float) (cz * SCALE);
+        radius = (float) (fitRadius * SCALE);
+        residual = (float) fitResidual;
+        calibrated = true;
+        fits++;
+        return true;
+    }
+
+    /**
+     * Gaussian elimination with partial pivoting on a copy of the normal equations
+     *
+     * @return false if the samples do not determine the ellipsoid (e.g. the phone was only turned about one axis)
+     */
+    private boolean solve() {
+        final int width = PARAMETERS + 1;
+        double largest = 0;
+        for (int r = 0; r < PARAMETERS; r++) {
+            for (int col = 0; col < PARAMETERS; col++) {
+                system[r * width + col] = r <= col ? normal[r * PARAMETERS + col] : normal[col * PARAMETERS + r];
+            }
+            system[r * width + PARAMETERS] = rhs[r];
+            largest = Math.max(largest, normal[r * PARAMETERS + r]);
+        }
+        for (int col = 0; col < PARAMETERS; col++) {
+            int pivot = col;
+            for (int r = col + 1; r < PARAMETERS; r++) {
+                if (Math.abs(system[r * width + col]) > Math.abs(system[pivot * width + col])) {
+                    pivot = r;
+                }
+            }
+            if (Math.abs(system[pivot * width + col]) < 1e-9 * largest) {
+                return false;
+            }
+            if (pivot != col) {
+                for (int n = col; n < width; n++) {
+                    double swap = system[col * width + n];
+                    system[col * width + n] = system[pivot * width + n];
+                    system[pivot * width + n] = swap;
+                }
+            }
+            for (int r = col + 1; r < PARAMETERS; r++) {
+                double factor = system[r * width + col] / system[col * width + col];
+                for (int n = col; n < width; n++) {
+                    system[r * width + n] -= factor * system[col * width + n];
+                }
+            }
+        }
+        for (int r = PARAMETERS - 1; r >= 0; r--) {
+            double sum = system[r * width + PARAMETERS];
+            for (int n = r + 1; n < PARAMETERS; n++) {
+                sum -= system[r * width + n] * theta[n];
+            }
+            theta[r] = sum / system[r * width + r];
+        }
+        return true;
+    }
+
+    /**
+     * @return RMS of p'θ - t over the weighted samples, from the sums: θ'Sθ - 2θ's + sum(t²)
+     */
+    private double residual() {
+        double quadratic = 0;
+        double linear = 0;
+        for (int r = 0; r < PARAMETERS; r++) {
+            double row = 0;
+            for (int col = 0; col < PARAMETERS; col++) {
+                row += (r <= col ? normal[r * PARAMETERS + col] : normal[col * PARAMETERS + r]) * theta[col];
+            }
+            quadratic += theta[r] * row;
+            linear += theta[r] * rhs[r];
+        }
+        return Math.sqrt(Math.max(0, quadratic - 2 * linear + targetSquares) / weight);
+    }
+
+    /**
+     * Eigenvalues and eigenvectors of a symmetric 3x3 matrix with the cyclic Jacobi method
+     * 用循环雅可比方法求对称3x3矩阵的特征值和特征向量
+     *
+     * @param a       the matrix (row-major), destroyed
+     * @param values  receives the eigenvalues
+     * @param vectors receives the eigenvectors as columns (row-major)
+     */
+    static void eigen(double[] a, double[] values, double[] vectors) {
+        for (int n = 0; n < 9; n++) {
+            vectors[n] = n % 4 == 0 ? 1 : 0;
+        }
+        for (int sweep = 0; sweep < 50; sweep++) {
+            double off = a[1] * a[1] + a[2] * a[2] + a[5] * a[5];
+            if (off < 1e-30) {
+                break;
+            }
+            for (int p = 0; p < 2; p++) {
+                for (int q = p + 1; q < 3; q++) {
+                    double apq = a[p * 3 + q];
+                    if (apq == 0) {
+                        continue;
+                    }
+                    double theta = (a[q * 3 + q] - a[p * 3 + p]) / (2 * apq);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) {
+                        t = 1;
+                    }
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+                    // A' = J' A J with the rotation J in the plane (p, q)
+                    for (int k = 0; k < 3; k++) {
+                        double akp = a[k * 3 + p];
+                        double akq = a[k * 3 + q];
+                        a[k * 3 + p] = c * akp - s * akq;
+                        a[k * 3 + q] = s * akp + c * akq;
+                    }
+                    for (int k = 0; k < 3; k++) {
+                        double apk = a[p * 3 + k];
+                        double aqk = a[q * 3 + k];
+                        a[p * 3 + k] = c * apk - s * aqk;
+                        a[q * 3 + k] = s * apk + c * aqk;
+                    }
+                    for (int k = 0; k < 3; k++) {
+                        double vkp = vectors[k * 3 + p];
+                        double vkq = vectors[k * 3 + q];
+                        vectors[k * 3 + p] = c * vkp - s * vkq;
+                        vectors[k * 3 + q] = s * vkp + c * vkq;
+                    }
+                }
+            }
+        }
+        values[0] = a[0];
+        values[1] = a[4];
+        values[2] = a[8];
+    }
+
+    /**
+     * Corrects a sample with the current calibration, unchanged before the first calibration
+     *
+     * @param raw       the uncalibrated magnetic field in µT, only read
+     * @param corrected receives the calibrated field, may be the raw array
+     */
+    public void apply(float[] raw, float[] corrected) {
+        float x = raw[0] - center[0];
+        float y = raw[1] - center[1];
+        float z = raw[2] - center[2];
+        corrected[0] = matrix[0] * x + matrix[1] * y + matrix[2] * z;
+        corrected[1] = matrix[3] * x + matrix[4] * y + matrix[5] * z;
+        corrected[2] = matrix[6] * x + matrix[7] * y + matrix[8] * z;
+    }
+
+    /**
+     * @param calibration receives the center (µT) and the row-major correction matrix, {@link #CALIBRATION_SIZE}
+     *                    values, e.g. to store them
+     */
+    public void getCalibration(float[] calibration) {
+        System.arraycopy(center, 0, calibration, 0, 3);
+        System.arraycopy(matrix, 0, calibration, 3, 9);
+    }
+
+    /**
+     * Restores a stored calibration, it is applied until the fit finds a new one
+     * 恢复保存的校准，在拟合找到新的校准之前使用
+     *
+     * @param calibration center and correction matrix as from {@link #getCalibration(float[])}
+     */
+    public void setCalibration(float[] calibration) {
+        System.arraycopy(calibration, 0, center, 0, 3);
+        System.arraycopy(calibration, 3, matrix, 0, 9);
+        calibrated = true;
+    }
+
+    /**
+     * @return true if a calibration was fitted or restored
+     */
+    public boolean isCalibrated() {
+        return calibrated;
+    }
+
+    /**
+     * @return number of accepted fits
+     */
+    public int getFits() {
+        return fits;
+    }
+
+    /**
+     * @return hard iron offset in µT (live array, do not modify)
+     */
+    public float[] getCenter() {
+        return center;
+    }
+
+    /**
+     * @return strength of the field in µT according to the last fit, 0 before
+     */
+    public float getRadius() {
+        return radius;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s, center (%.1f, %.1f, %.1f) µT, field %.1f µT, residual %.3f, %d fits",
+                calibrated ? "calibrated" : "uncalibrated", center[0], center[1], center[2], radius, residual, fits);
+    }
+}
@@ -0,0 +1,146 @@
+package com.sosee.mysenorr.fusion;
+
+import java.util.Locale;
+
+/**
+ * Detects when the magnetic field is disturbed (steel, magnets, electric currents nearby), so that the heading is not
+ * taken from it. The measured field is compared with the earth field expected at the location (e.g. from Android's
+ * GeomagneticField): its strength and its inclination (dip), the angle between the field and the horizontal plane
+ * given by gravity. A disturbance changes the strength or the dip or both, while turning the phone changes neither.
+ * <p>
+ * The field counts as disturbed as soon as one of them is off, and as undisturbed again only after both were within
+ * their tolerance for {@link #RELEASE_TIME_NS}, so the heading does not flip between the sources near the threshold.
+ * Until the expected field is known only the strength is checked, against the range of the earth field.
+ * <p>
+ * 检测磁场何时受到干扰（附近的钢材、磁铁、电流），以便不从中获取方向。将测得的磁场与该位置预期的地磁场
+ * （例如来自Android的GeomagneticField）比较：强度和磁倾角（磁场与重力给出的水平面之间的夹角）。
+ * 干扰会改变强度或倾角，而转动手机两者都不会改变。只要其中一个偏离即视为受干扰，
+ * 两者都在容差内持续一段时间后才视为恢复，因此方向来源不会在阈值附近来回切换。在预期磁场已知之前，只检查强度是否在地磁场范围内。
+ */
+public class MagneticDisturbanceDetector {
+
+    /**
+     * Largest deviation of the strength from the expected strength, relative
+     */
+    private static final float STRENGTH_TOLERANCE = 0.15f;
+    /**
+     * Largest deviation of the dip from the expected dip in degrees
+     */
+    private static final float DIP_TOLERANCE = 8;
+    /**
+     * The earth field is between 22 and 67 µT everywhere, with some margin
+     * 地磁场在任何地方都在22到67µT之间，留有余量
+     */
+    private static final float MIN_EARTH_FIELD = 20;
+    private static final float MAX_EARTH_FIELD = 70;
+    /**
+     * Time both values have to be right before the field is trusted again
+     */
+    public static final long RELEASE_TIME_NS = 1000000000L;
+
+    private float expectedStrength;
+    private float expectedDip;
+    private boolean expected;
+
+    private float strength;
+    private float dip;
+    private boolean disturbed;
+    private long disturbedSince;
+    private long undisturbedSince = -1;
+    private long lastTimestamp;
+    private long totalDuration;
+
+    /**
+     * @param strength expected strength of the earth field in µT
+     * @param dip      expected inclination in degrees, positive if the field points downwards
+     */
+    public void setExpectedField(float strength, float dip) {
+        expectedStrength = strength;
+        expectedDip = dip;
+        expected = true;
+    }
+
+    /**
+     * Checks a sample, called with every accelerometer sample
+     * 检查一个样本，每个加速度计样本调用一次
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param gravity   gravity in device coordinates (pointing up, as measured by the accelerometer), only read
+     * @param magn      the calibrated magnetic field in µT, only read
+     * @return true if the field is disturbed
+     */
+    public boolean update(long timestamp, float[] gravity, float[] magn) {
+        lastTimestamp = timestamp;
+        strength = (float) Math.sqrt(magn[0] * magn[0] + magn[1] * magn[1] + magn[2] * magn[2]);
+        float g = (float) Math.sqrt(gravity[0] * gravity[0] + gravity[1] * gravity[1] + gravity[2] * gravity[2]);
+        if (strength > 0 && g > 0) {
+            // the field points down (against gravity) where the dip is positive  倾角为正时磁场指向下方
+            float sine = -(gravity[0] * magn[0] + gravity[1] * magn[1] + gravity[2] * magn[2]) / (strength * g);
+            dip = (float) Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, sine))));
+        }
+
+        boolean off;
+        if (expected) {
+            off = Math.abs(strength - expectedStrength) > STRENGTH_TOLERANCE * expectedStrength
+                    || Math.abs(dip - expectedDip) > DIP_TOLERANCE;
+        } else {
+            off = strength < MIN_EARTH_FIELD || strength > MAX_EARTH_FIELD;
+        }
+
+        if (off) {
+            undisturbedSince = -1;
+            if (!disturbed) {
+                disturbed = true;
+                disturbedSince = timestamp;
+            }
+        } else if (disturbed) {
+            if (undisturbedSince < 0) {
+                undisturbedSince = timestamp;
+            } else if (timestamp - undisturbedSince >= RELEASE_TIME_NS) {
+                disturbed = false;
+                totalDuration += timestamp - disturbedSince;
+                undisturbedSince = -1;
+            }
+        }
+        return disturbed;
+    }
+
+    public boolean isDisturbed() {
+        return disturbed;
+    }
+
+    /**
+     * @return time since the current disturbance began in nanoseconds, 0 if the field is not disturbed
+     */
+    public long getDuration() {
+        return disturbed ? lastTimestamp - disturbedSince : 0;
+    }
+
+    /**
+     * @return time of all disturbances so far in nanoseconds, including the current one
+     */
+    public long getTotalDuration() {
+        return totalDuration + getDuration();
+    }
+
+    /**
+     * @return strength of the last sample in µT
+     */
+    public float getStrength() {
+        return strength;
+    }
+
+    /**
+     * @return inclination of the last sample in degrees
+     */
+    public float getDip() {
+        return dip;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s, %.1f µT %.1f° (expected %.1f µT %.1f°), disturbed %.1f s",
+                disturbed ? "disturbed" : "undisturbed", strength, dip, expectedStrength, expectedDip,
+                getTotalDuration() / 1e9);
+    }
+}
@@ -0,0 +1,579 @@
+package com.sosee.mysenorr.fusion;
+
+import com.sosee.mysenorr.representation.Matrix;
+
+/**
+ * Step detection, direction and location calculation without any dependency on the Android framework.
+ * Samples are passed in as primitive arrays together with their timestamps in nanoseconds, so the same
+ * pipeline runs on the device (driven by Core) and on the JVM for regression tests and tuning.
+ * None of the per-sample methods allocate.
+ * <p>
+ * 不依赖Android框架的步伐检测、方向和位置计算。
+ * 样本以基本类型数组和纳秒时间戳传入，因此同一流程既可在设备上（由Core驱动）运行，也可在JVM上用于回归测试和调优。
+ */
+public class NavigationEngine {
+
+    /**
+     * The sampling rates are measured in windows of 2 seconds
+     * 每2秒测量一次采样率
+     */
+    private static final long RATE_WINDOW_NS = 2000000000L;
+    /**
+     * Change of direction in degrees which causes an update although no step was made
+     */
+    private static final double ORIENTATION_CHANGE = 5;
+    private static final int GRAVITY = 0;
+    private static final int MAGNETIC = 1;
+    /**
+     * Smallest step threshold in m/s^2 and threshold as part of the envelope for each carry mode (hand, pocket,
+     * swinging, bag): the leg in a pocket and the swinging arm add peaks between the steps, a bag dampens them
+     * 每种携带方式的最小步伐阈值和阈值占包络的比例：裤兜里的腿和摆动的手臂会在步伐之间增加峰值，包会减弱峰值
+     */
+    private static final float[] MODE_MIN_THRESHOLDS = {AdaptiveStepThreshold.MIN_THRESHOLD, 1.0f, 1.2f, 0.4f};
+    private static final float[] MODE_ENVELOPE_FACTORS = {AdaptiveStepThreshold.ENVELOPE_FACTOR, 0.55f, 0.6f, 0.45f};
+
+    private final float[] gravity = new float[3];
+    private final float[] linear = new float[4];
+    private final float[] linearRemapped = new float[4];
+    private final float[] magn = new float[3];
+    private final float[] magnCalibrated = new float[3];
+    private final float[] rMatrix = new float[16];
+    private final float[] rMatrixTranspose = new float[16];
+    /**
+     * Low pass filters of both sensors, group {@link #GRAVITY} and {@link #MAGNETIC}
+     */
+    private final IirFilterBank filters = new IirFilterBank(2);
+    private final StepDetector stepDetector = new StepDetector();
+    private final StepLengthEstimator stepLengthEstimator = new StepLengthEstimator();
+    private final PositionIntegrator position = new PositionIntegrator();
+    private final MagneticCalibrator magneticCalibrator = new MagneticCalibrator();
+    private final MagneticDisturbanceDetector disturbanceDetector = new MagneticDisturbanceDetector();
+    private final WalkingDirectionEstimator walkingDirectionEstimator = new WalkingDirectionEstimator();
+    private final CarryModeClassifier carryModeClassifier = new CarryModeClassifier();
+    private Listener listener;
+    private HeadingSource headingSource;
+    private float decl;
+    private double azimuth;
+    private double oldAzimuth;
+    /**
+     * Direction of the last step, the walking direction if it is used and valid, else the azimuth
+     */
+    private double stepDirection;
+    private boolean useWalkingDirection;
+    private boolean carryModeDetection;
+    private int stepCounter;
+    private float stepLength;
+    private float lastStepLength;
+    /**
+     * Sum of the step lengths in metres
+     */
+    private double walkedDistance;
+    private long timestamp;
+    private boolean dynamicStepLength;
+    /**
+     * The GPS fix at the start of the current calibration segment, accuracy negative if there is none
+     */
+    private double fixLatitude;
+    private double fixLongitude;
+    private float fixAccuracy = -1;
+    private long rateWindowStart = -1;
+    private int aclUnits;
+    private int magnUnits;
+    private boolean gravityStarted;
+    private boolean magneticStarted;
+
+    public NavigationEngine() {
+        gravity[2] = 9.81f;
+        rMatrix[0] = rMatrix[5] = rMatrix[10] = rMatrix[15] = 1;
+    }
+
+    /**
+     * Processes a sample of the magnetic field sensor: removes hard and soft iron ({@link MagneticCalibrator}), then
+     * filters it. The calibrated sample is then available in {@link #getMagnCalibrated()}.
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param values    magnetic field in µT (x, y, z), only read
+     */
+    public void onMagneticField(long timestamp, float[] values) {
+        magneticCalibrator.update(values);
+        magneticCalibrator.apply(values, magnCalibrated);
+        if (!magneticStarted) {
+            filters.reset(MAGNETIC, magnCalibrated);
+            magneticStarted = true;
+        }
+        filters.filter(MAGNETIC, magnCalibrated, magn);
+        magnUnits++;
+    }
+
+    /**
+     * Processes a sample of the gyroscope, only used to recognize how the phone is carried (the direction comes from
+     * the {@link HeadingSource})
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param values    angular speed in rad/s (x, y, z), only read
+     */
+    public void onGyroscope(long timestamp, float[] values) {
+        if (carryModeDetection) {
+            carryModeClassifier.onGyroscope(timestamp, values);
+        }
+    }
+
+    /**
+     * Processes a sample of the accelerometer: filters gravity, calculates the direction and detects steps
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param values    acceleration in m/s^2 (x, y, z), only read
+     */
+    public void onAccelerometer(long timestamp, float[] values) {
+        this.timestamp = timestamp;
+        aclUnits++;
+        if (rateWindowStart < 0) {
+            rateWindowStart = timestamp;
+        } else if (timestamp - rateWindowStart >= RATE_WINDOW_NS) {
+            // every 2sek, measured with the timestamps of the samples; after a gap (sensors paused) the window is
+            // simply started again
+            //每2秒，用样本的时间戳测量；间断（传感器暂停）后重新开始测量窗口
+            long window = timestamp - rateWindowStart;
+            if (window < 2 * RATE_WINDOW_NS) {
+                changeDelay((int) Math.round(aclUnits * 1e9 / window), 0);
+                changeDelay((int) Math.round(magnUnits * 1e9 / window), 1);
+            }
+
+            rateWindowStart = timestamp;
+            aclUnits = magnUnits = 0;
+        }
+
+        if (!gravityStarted) {
+            // start the filter at the first sample, a filter rising from zero would look like a step
+            //滤波器从第一个样本开始，从零上升的滤波器看起来像一步
+            filters.reset(GRAVITY, values);
+            gravityStarted = true;
+        }
+        filters.filter(GRAVITY, values, gravity);
+        linear[0] = values[0] - gravity[0];
+        linear[1] = values[1] - gravity[1];
+        linear[2] = values[2] - gravity[2];
+
+        if (magneticStarted) {
+            boolean disturbedBefore = disturbanceDetector.isDisturbed();
+            boolean disturbed = disturbanceDetector.update(timestamp, gravity, magn);
+            if (disturbed != disturbedBefore) {
+                if (headingSource != null) {
+                    headingSource.onMagneticDisturbance(disturbed);
+                }
+                if (listener != null) {
+                    listener.onMagneticDisturbance(disturbed);
+                }
+            }
+        }
+        if (carryModeDetection && carryModeClassifier.onAccelerometer(timestamp, values)) {
+            applyCarryMode(carryModeClassifier.getMode());
+        }
+        calculateAzimuth();
+        stepDetection(timestamp);
+    }
+
+    /**
+     * Configures the step detection for the way the phone is carried
+     * 根据手机的携带方式配置步伐检测
+     */
+    private void applyCarryMode(int mode) {
+        int i = mode == CarryModeClassifier.MODE_UNKNOWN ? CarryModeClassifier.MODE_HAND : mode;
+        stepDetector.getAdaptiveThreshold().setLimits(MODE_MIN_THRESHOLDS[i], MODE_ENVELOPE_FACTORS[i]);
+        if (listener != null) {
+            listener.onCarryModeChange(mode);
+        }
+    }
+
+    private void calculateAzimuth() {
+        SensorMath.getRotationMatrix(rMatrix, gravity, magn);
+        Matrix.transposeM(rMatrixTranspose, 0, rMatrix, 0);
+        Matrix.multiplyMV(linearRemapped, 0, rMatrixTranspose, 0, linear, 0);
+
+        //If Gyroscope exists, use its orientation, else use accelerometer and magentic field
+        //如果存在陀螺仪，请使用其方向，否则使用加速度计和磁场
+        //While the magnetic field is disturbed the gyroscope goes on alone, without it the last direction is kept
+        //磁场受干扰时陀螺仪单独继续，没有陀螺仪时保持最后的方向
+        //Both refer to magnetic north, the declination is added here for both
+        //两者都以磁北为参考，磁偏角在这里统一加上
+        if (headingSource != null) {
+            azimuth = wrap(headingSource.getAzimuth() + decl);
+        } else if (!disturbanceDetector.isDisturbed()) {
+            azimuth = wrap(SensorMath.getAzimuth(rMatrix, decl));
+        }
+    }
+
+    private void stepDetection(long timestamp) {
+        walkingDirectionEstimator.update(timestamp, linearRemapped[0], linearRemapped[1], linearRemapped[2]);
+        boolean stepBegunBefore = stepDetector.isStepBegun();
+        boolean step = stepDetector.update(timestamp, linearRemapped[2]);
+        if (!stepBegunBefore && stepDetector.isStepBegun()) {
+            stepLengthEstimator.startStep();
+        }
+        stepLengthEstimator.update(linearRemapped[2]);
+
+        if (step) {
+            stepCounter++;
+            stepDirection = azimuth;
+            // linearRemapped is oriented by the magnetic field, the walking direction is wrong while it is disturbed.
+            // A phone held in front points where the user walks, its direction follows turns at once
+            //linearRemapped由磁场定向，磁场受干扰时行走方向是错误的。手持在前方的手机指向行走方向，能立即跟随转弯
+            boolean inHand = carryModeDetection && carryModeClassifier.getMode() == CarryModeClassifier.MODE_HAND;
+            if (walkingDirectionEstimator.onStep() && useWalkingDirection && !inHand
+                    && !disturbanceDetector.isDisturbed()) {
+                stepDirection = wrap(walkingDirectionEstimator.getAzimuth() + decl);
+            }
+            float length = stepLengthEstimator.onStep(timestamp, stepDirection);
+            lastStepLength = dynamicStepLength ? length : stepLength;
+            position.step(stepDirection, lastStepLength);
+            walkedDistance += lastStepLength;
+            //save old azimith for possibly necessary orientation change, in case no steps are detected and users orientation changes strong enough
+            //保存旧的azimith可能需要的方向更改，以防未检测到任何步骤并且用户方向变得足够强大
+            oldAzimuth = azimuth;
+            if (listener != null) {
+                listener.onStep(stepCounter);
+            }
+        } else if (!stepBegunBefore && !stepDetector.isStepBegun()
+                && (oldAzimuth - azimuth > ORIENTATION_CHANGE || oldAzimuth - azimuth < -ORIENTATION_CHANGE)) {
+            //orientation of user has changed more than X degree while no step is being awaited,
+            //so an update is necessary for users position marker and respective orientation
+            //用户方向已经改变了超过X度，且没有正在等待的步骤，所以需要更新用户位置标记和相应的方向
+            oldAzimuth = azimuth;
+            if (listener != null) {
+                listener.onOrientationChange(azimuth);
+            }
+        }
+    }
+
+    /**
+     * @return the direction in degrees within [0, 360)
+     */
+    private static double wrap(double direction) {
+        if (direction >= 360) {
+            return direction - 360;
+        } else if (direction < 0) {
+            return direction + 360;
+        }
+        return direction;
+    }
+
+    /**
+     * Adapts the filters to the measured sampling rate, the step detection works with the timestamps
+     * 根据测量的采样率调整滤波器，步伐检测使用时间戳
+     *
+     * @param freq   sampling rate in Hz
+     * @param sensor 0 for the accelerometer, 1 for the magnetic field sensor
+     */
+    public void changeDelay(int freq, int sensor) {
+        if (sensor == 0) {
+            //  Accelerometer 加速度计
+            filters.setSamplingRate(GRAVITY, freq);
+        } else if (sensor == 1) {
+            // Magnetic Field 磁场
+            filters.setSamplingRate(MAGNETIC, freq);
+        }
+    }
+
+    /**
+     * Restarts the measurement of the sampling rates, e.g. after the sensors were registered again
+     */
+    public void resetRateMeasurement() {
+        rateWindowStart = -1;
+        aclUnits = magnUnits = 0;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @param headingSource source of the azimuth (e.g. gyroscope fusion), null to use accelerometer and magnetic field
+     */
+    public void setHeadingSource(HeadingSource headingSource) {
+        this.headingSource = headingSource;
+    }
+
+    /**
+     * @param decl difference between magnetic and true north in degrees
+     */
+    public void setDeclination(float decl) {
+        this.decl = decl;
+    }
+
+    public void setPosition(double latitude, double longitude) {
+        position.setPosition(latitude, longitude);
+    }
+
+    /**
+     * @param distanceLongitude length of one degree longitude at the current latitude in km
+     * @deprecated the length of a degree is computed from the latitude, the value is ignored
+     */
+    @Deprecated
+    public void setDistanceLongitude(double distanceLongitude) {
+    }
+
+    /**
+     * @param stepLength length of every step in metres, or the average length while the dynamic step length is not
+     *                   calibrated
+     */
+    public void setStepLength(float stepLength) {
+        this.stepLength = stepLength;
+        stepLengthEstimator.setStepLength(stepLength);
+    }
+
+    /**
+     * @param dynamicStepLength true to estimate the length of each step ({@link StepLengthEstimator}), false to use
+     *                          the fixed step length (default)
+     */
+    public void setDynamicStepLength(boolean dynamicStepLength) {
+        this.dynamicStepLength = dynamicStepLength;
+    }
+
+    public boolean isDynamicStepLength() {
+        return dynamicStepLength;
+    }
+
+    /**
+     * @param useWalkingDirection true to move the position of a step in the walking direction
+     *                            ({@link WalkingDirectionEstimator}) when it is clear, independent of how the phone
+     *                            is held; false to always move it in the direction the phone points to (default)
+     */
+    public void setUseWalkingDirection(boolean useWalkingDirection) {
+        this.useWalkingDirection = useWalkingDirection;
+    }
+
+    public boolean isUseWalkingDirection() {
+        return useWalkingDirection;
+    }
+
+    public WalkingDirectionEstimator getWalkingDirectionEstimator() {
+        return walkingDirectionEstimator;
+    }
+
+    /**
+     * @param carryModeDetection true to recognize how the phone is carried ({@link CarryModeClassifier}) and adapt
+     *                           the step threshold and the direction of the steps to it: the walking direction is
+     *                           used unless the phone is in the hand in front of the user; false to use one
+     *                           configuration (default)
+     */
+    public void setCarryModeDetection(boolean carryModeDetection) {
+        if (carryModeDetection == this.carryModeDetection) {
+            return;
+        }
+        this.carryModeDetection = carryModeDetection;
+        if (!carryModeDetection && carryModeClassifier.getMode() != CarryModeClassifier.MODE_UNKNOWN) {
+            carryModeClassifier.reset();
+            applyCarryMode(CarryModeClassifier.MODE_UNKNOWN);
+        }
+    }
+
+    public boolean isCarryModeDetection() {
+        return carryModeDetection;
+    }
+
+    public CarryModeClassifier getCarryModeClassifier() {
+        return carryModeClassifier;
+    }
+
+    /**
+     * @return how the phone is carried, one of the modes of {@link CarryModeClassifier}
+     */
+    public int getCarryMode() {
+        return carryModeClassifier.getMode();
+    }
+
+    public StepLengthEstimator getStepLengthEstimator() {
+        return stepLengthEstimator;
+    }
+
+    /**
+     * Calibrates the step length with a GPS fix: the distance to the fix that started the segment is compared with
+     * the steps in between.
+     * 用GPS定位点校准步长：将与路段起始定位点的距离与其间的步伐进行比较。
+     *
+     * @param latitude  latitude of the fix in degrees
+     * @param longitude longitude of the fix in degrees
+     * @param accuracy  accuracy of the fix in metres
+     * @return true if a segment was completed, e.g. to store the new calibration
+     */
+    public boolean onGpsFix(double latitude, double longitude, float accuracy) {
+        if (fixAccuracy < 0) {
+            startCalibration(latitude, longitude, accuracy);
+            return false;
+        }
+        double distance = PositionIntegrator.distance(fixLatitude, fixLongitude, latitude, longitude);
+        if (stepLengthEstimator.calibrate(distance, fixAccuracy + accuracy)) {
+            startCalibration(latitude, longitude, accuracy);
+            return true;
+        }
+        if (accuracy < fixAccuracy && stepLengthEstimator.getSegmentSteps() == 0) {
+            // a better fix before the first step of the segment  路段第一步之前出现更好的定位点
+            startCalibration(latitude, longitude, accuracy);
+        }
+        return false;
+    }
+
+    private void startCalibration(double latitude, double longitude, float accuracy) {
+        fixLatitude = latitude;
+        fixLongitude = longitude;
+        fixAccuracy = accuracy;
+        stepLengthEstimator.startCalibration();
+    }
+
+    public MagneticCalibrator getMagneticCalibrator() {
+        return magneticCalibrator;
+    }
+
+    /**
+     * @return the detector of magnetic disturbances, e.g. to set the expected field
+     */
+    public MagneticDisturbanceDetector getDisturbanceDetector() {
+        return disturbanceDetector;
+    }
+
+    public StepDetector getStepDetector() {
+        return stepDetector;
+    }
+
+    public double getLatitude() {
+        return position.getLatitude();
+    }
+
+    public double getLongitude() {
+        return position.getLongitude();
+    }
+
+    /**
+     * @return direction in degrees (0 = north)
+     */
+    public double getAzimuth() {
+        return azimuth;
+    }
+
+    /**
+     * @return direction of the last step in degrees (0 = north), in which the position was moved
+     */
+    public double getStepDirection() {
+        return stepDirection;
+    }
+
+    /**
+     * @return length of the last step in metres, fixed or estimated
+     */
+    public float getLastStepLength() {
+        return lastStepLength;
+    }
+
+    /**
+     * @return sum of the lengths of all steps in metres, e.g. to relate the energy to the walked distance
+     */
+    public double getWalkedDistance() {
+        return walkedDistance;
+    }
+
+    /**
+     * @return time of the last accelerometer sample in nanoseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getStepCounter() {
+        return stepCounter;
+    }
+
+    public void setStepCounter(int stepCounter) {
+        this.stepCounter = stepCounter;
+    }
+
+    /**
+     * @return the filtered gravity (live array, do not modify)
+     */
+    public float[] getGravity() {
+        return gravity;
+    }
+
+    /**
+     * @return acceleration without gravity in device coordinates (live array, do not modify)
+     */
+    public float[] getLinear() {
+        return linear;
+    }
+
+    /**
+     * @return acceleration without gravity in world coordinates (live array, do not modify)
+     */
+    public float[] getLinearRemapped() {
+        return linearRemapped;
+    }
+
+    /**
+     * @return the calibrated and filtered magnetic field (live array, do not modify)
+     */
+    public float[] getMagn() {
+        return magn;
+    }
+
+    /**
+     * @return the calibrated, unfiltered magnetic field of the last sample, for the orientation fusions that need
+     * the field as measured (live array, do not modify)
+     * 最后一个样本经校准但未滤波的磁场，供需要原始测量磁场的方向融合使用
+     */
+    public float[] getMagnCalibrated() {
+        return magnCalibrated;
+    }
+
+    /**
+     * Receives the results of the engine
+     * 接收引擎的结果
+     */
+    public interface Listener {
+        /**
+         * A step was detected and the position was moved
+         *
+         * @param stepCounter number of steps so far
+         */
+        void onStep(int stepCounter);
+
+        /**
+         * The direction changed noticeably while the user is not walking
+         *
+         * @param azimuth the new direction in degrees
+         */
+        void onOrientationChange(double azimuth);
+
+        /**
+         * The magnetic field became disturbed or trustworthy again ({@link MagneticDisturbanceDetector})
+         *
+         * @param disturbed true if the field is disturbed
+         */
+        void onMagneticDisturbance(boolean disturbed);
+
+        /**
+         * The way the phone is carried changed and the step detection was adapted to it ({@link CarryModeClassifier})
+         *
+         * @param mode the new mode, {@link CarryModeClassifier#MODE_UNKNOWN} if the detection was switched off
+         */
+        void onCarryModeChange(int mode);
+    }
+
+    /**
+     * Provides the direction if something better than accelerometer and magnetic field is available
+     * 当有比加速度计和磁场更好的方向来源时提供方向
+     */
+    public interface HeadingSource {
+        /**
+         * @return direction in degrees (0 = magnetic north), the engine adds the declination
+         */
+        double getAzimuth();
+
+        /**
+         * The magnetic field became disturbed or trustworthy again, while it is disturbed the direction should only
+         * be propagated with the gyroscope
+         * 磁场受到干扰或重新可信，受干扰期间方向应仅用陀螺仪推算
+         *
+         * @param disturbed true if the field is disturbed
+         */
+        void onMagneticDisturbance(boolean disturbed);
+    }
+}
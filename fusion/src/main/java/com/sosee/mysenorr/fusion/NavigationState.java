@@ -0,0 +1,113 @@
+package com.sosee.mysenorr.fusion;
+
+import java.util.Locale;
+
+/**
+ * The result of the navigation at one moment: heading, position and step count. The object is immutable and is
+ * published as a whole by replacing a volatile reference, so a reader on any thread gets values that belong together
+ * without a lock, and may keep the object as long as it likes. The version grows with every published state, so a
+ * reader can tell whether anything changed since it last looked.
+ * <p>
+ * 某一时刻的导航结果：方向、位置和步数。该对象不可变，通过替换volatile引用整体发布，
+ * 因此任何线程上的读取者无需加锁即可得到相互一致的数值，并可任意长时间保留该对象。
+ * 版本号随每次发布递增，读取者可以判断自上次查看以来是否有变化。
+ */
+public final class NavigationState {
+
+    /**
+     * The state before the first update
+     */
+    public static final NavigationState INITIAL = new NavigationState(0, 0, 0, 0, 0, 0, 0, false, 0);
+
+    private final long version;
+    private final long timestamp;
+    private final double latitude;
+    private final double longitude;
+    private final double azimuth;
+    private final int stepCounter;
+    private final float stepLength;
+    private final boolean magneticDisturbed;
+    private final long disturbanceDuration;
+
+    /**
+     * @param version     number of the state, larger than that of the previous state
+     * @param timestamp   time of the last sample in nanoseconds
+     * @param latitude    latitude in degrees
+     * @param longitude   longitude in degrees
+     * @param azimuth     direction in degrees (0 = north)
+     * @param stepCounter number of steps so far
+     * @param stepLength  length of the last step in metres
+     * @param magneticDisturbed   true if the magnetic field is disturbed and the direction comes from the gyroscope
+     *                            alone (or is kept)
+     * @param disturbanceDuration time since the disturbance began in nanoseconds, 0 if there is none
+     */
+    public NavigationState(long version, long timestamp, double latitude, double longitude, double azimuth,
+                           int stepCounter, float stepLength, boolean magneticDisturbed, long disturbanceDuration) {
+        this.version = version;
+        this.timestamp = timestamp;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.azimuth = azimuth;
+        this.stepCounter = stepCounter;
+        this.stepLength = stepLength;
+        this.magneticDisturbed = magneticDisturbed;
+        this.disturbanceDuration = disturbanceDuration;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return time of the last sample in nanoseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    /**
+     * @return direction in degrees (0 = north)
+     */
+    public double getAzimuth() {
+        return azimuth;
+    }
+
+    public int getStepCounter() {
+        return stepCounter;
+    }
+
+    /**
+     * @return length of the last step in metres
+     */
+    public float getStepLength() {
+        return stepLength;
+    }
+
+    /**
+     * @return true if the magnetic field is disturbed, the direction comes from the gyroscope alone (or is kept)
+     */
+    public boolean isMagneticDisturbed() {
+        return magneticDisturbed;
+    }
+
+    /**
+     * @return time since the disturbance began in nanoseconds, 0 if there is none
+     */
+    public long getDisturbanceDuration() {
+        return disturbanceDuration;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "#%d %.7f, %.7f, %.1f°, %d steps%s", version, latitude, longitude, azimuth,
+                stepCounter, magneticDisturbed ? ", magnetic field disturbed" : "");
+    }
+}
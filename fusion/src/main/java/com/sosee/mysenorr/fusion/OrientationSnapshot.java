@@ -0,0 +1,126 @@
+package com.sosee.mysenorr.fusion;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Publishes an orientation (rotation matrix and quaternion) from the sensor thread to any number of readers without
+ * locks (a seqlock). The writer never waits for readers; a reader that overlaps with a write simply reads again,
+ * so it never sees a half written matrix. Neither side allocates, readers fill buffers they pass in.
+ * <p>
+ * The values are stored as float bits in an {@link AtomicIntegerArray}, so every access has volatile semantics and
+ * the sequence checks are ordered correctly without explicit memory fences.
+ * <p>
+ * 无锁地（seqlock）将方向（旋转矩阵和四元数）从传感器线程发布给任意数量的读取者。写入者从不等待读取者；
+ * 与写入重叠的读取者会重新读取，因此永远不会看到写了一半的矩阵。双方都不分配内存。
+ */
+public class OrientationSnapshot {
+
+    private static final int MATRIX = 0;
+    private static final int QUATERNION = 16;
+    private static final int SIZE = 20;
+
+    /**
+     * Odd while the writer is changing the values
+     * 写入者修改数值时为奇数
+     */
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final AtomicIntegerArray values = new AtomicIntegerArray(SIZE);
+
+    /**
+     * Publishes a new orientation. Must always be called from the same thread.
+     *
+     * @param matrix     4x4 rotation matrix (16 values)
+     * @param quaternion the quaternion (x, y, z, w)
+     */
+    public void publish(float[] matrix, float[] quaternion) {
+        int seq = sequence.get();
+        sequence.set(seq + 1);
+        for (int i = 0; i < 16; i++) {
+            values.set(MATRIX + i, Float.floatToRawIntBits(matrix[i]));
+        }
+        for (int i = 0; i < 4; i++) {
+            values.set(QUATERNION + i, Float.floatToRawIntBits(quaternion[i]));
+        }
+        sequence.set(seq + 2);
+    }
+
+    /**
+     * @param matrix receives the 4x4 rotation matrix (16 values)
+     */
+    public void getRotationMatrix(float[] matrix) {
+        int seq;
+        do {
+            seq = awaitWriter();
+            for (int i = 0; i < 16; i++) {
+                matrix[i] = Float.intBitsToFloat(values.get(MATRIX + i));
+            }
+        } while (sequence.get() != seq);
+    }
+
+    /**
+     * @param quaternion receives the quaternion (x, y, z, w)
+     */
+    public void getQuaternion(float[] quaternion) {
+        int seq;
+        do {
+            seq = awaitWriter();
+            for (int i = 0; i < 4; i++) {
+                quaternion[i] = Float.intBitsToFloat(values.get(QUATERNION + i));
+            }
+        } while (sequence.get() != seq);
+    }
+
+    /**
+     * Like {@link SensorMath#getOrientation(float[], float[])}, but only reads the needed matrix elements
+     *
+     * @param angles receives azimuth, pitch and roll in radians
+     */
+    public void getOrientation(float[] angles) {
+        int seq;
+        float r1, r5, r8, r9, r10;
+        do {
+            seq = awaitWriter();
+            r1 = Float.intBitsToFloat(values.get(MATRIX + 1));
+            r5 = Float.intBitsToFloat(values.get(MATRIX + 5));
+            r8 = Float.intBitsToFloat(values.get(MATRIX + 8));
+            r9 = Float.intBitsToFloat(values.get(MATRIX + 9));
+            r10 = Float.intBitsToFloat(values.get(MATRIX + 10));
+        } while (sequence.get() != seq);
+        angles[0] = (float) Math.atan2(r1, r5);
+        angles[1] = (float) Math.asin(-r9);
+        angles[2] = (float) Math.atan2(-r8, r10);
+    }
+
+    /**
+     * Like {@link SensorMath#getAzimuth(float[], float)}
+     *
+     * @param decl the difference to true north in degrees
+     * @return the azimuth in degrees
+     */
+    public float getAzimuth(float decl) {
+        int seq;
+        float r1, r5;
+        do {
+            seq = awaitWriter();
+            r1 = Float.intBitsToFloat(values.get(MATRIX + 1));
+            r5 = Float.intBitsToFloat(values.get(MATRIX + 5));
+        } while (sequence.get() != seq);
+        float azimuth = (float) Math.atan2(r1, r5);
+        return azimuth >= 0 ? azimuth * SensorMath.RAD_TO_DEG + decl : azimuth * SensorMath.RAD_TO_DEG + 360 + decl;
+    }
+
+    /**
+     * @return the sequence number once no write is in progress
+     */
+    private int awaitWriter() {
+        int seq = sequence.get();
+        while ((seq & 1) != 0) {
+            // a write takes only a few stores, unless the writer was descheduled
+            //写入只需几次存储，除非写入线程被调度出去
+            Thread.yield();
+            seq = sequence.get();
+        }
+        return seq;
+    }
+}
@@ -0,0 +1,170 @@
+package com.sosee.mysenorr.fusion;
+
+/**
+ * Dead reckoning: moves the position by one step length in the direction of the azimuth.
+ * <p>
+ * Each step is split into east and north metres in the local tangent plane and converted to degrees with the
+ * metres per degree of the WGS84 ellipsoid at the current latitude. The scales are cached and computed again only
+ * after the latitude moved by more than 0.001 degrees, so a step costs one sine and one square root. The signs come
+ * from the direction, so the equator needs no special case, and the longitude is wrapped at the antimeridian.
+ * Within about 1 km of a pole the longitude scale vanishes, there the step is made in a plane centred on the pole
+ * instead, which also handles walking over the pole.
+ * <p>
+ * 航位推算：按方位角方向将位置移动一个步长。
+ * 每一步被分解为本地切平面中的东向和北向米数，并用当前纬度处WGS84椭球的每度米数换算为度。比例被缓存，
+ * 纬度变化超过0.001度才重新计算，因此每步只需一次正弦和一次平方根。符号来自方向，赤道不需要特殊处理，经度在对向子午线处回绕。
+ * 在距极点约1公里以内，经度比例趋于零，此时改在以极点为中心的平面中计算，也能处理越过极点。
+ */
+public class PositionIntegrator {
+
+    /**
+     * WGS84 semi-major axis in metres and first eccentricity squared
+     */
+    private static final double EQUATORIAL_RADIUS = 6378137.0;
+    private static final double ECCENTRICITY_SQUARED = 6.69437999014e-3;
+    private static final double RADIANS_PER_DEGREE = Math.PI / 180;
+    /**
+     * The cached scales are computed again after the latitude moved this far (about 110 m)
+     */
+    private static final double SCALE_REFRESH_DEGREES = 0.001;
+    /**
+     * Above this latitude (about 1.1 km from the pole) the steps are made in the polar plane
+     */
+    static final double POLAR_LATITUDE = 89.99;
+
+    private double latitude;
+    private double longitude;
+    private double scaleLatitude = Double.NaN;
+    private double metresPerDegreeLatitude;
+    private double metresPerDegreeLongitude;
+
+    /**
+     * Moves the position by one step
+     *
+     * @param azimuth    direction of the step in degrees (0 = north, 90 = east)
+     * @param stepLength length of the step in metres
+     */
+    public void step(double azimuth, double stepLength) {
+        double direction = azimuth % 360;
+        if (direction < 0) {
+            direction += 360;
+        }
+        double sin = Math.sin(direction * RADIANS_PER_DEGREE);
+        // the cosine from the sine, its sign from the half of the circle  由正弦求余弦，符号取决于所在半圆
+        double cos = Math.sqrt(Math.max(0, 1 - sin * sin));
+        if (direction > 90 && direction < 270) {
+            cos = -cos;
+        }
+        move(stepLength * sin, stepLength * cos);
+    }
+
+    /**
+     * Moves the position in the local tangent plane
+     *
+     * @param east  metres towards east
+     * @param north metres towards north
+     */
+    public void move(double east, double north) {
+        if (Math.abs(latitude) >= POLAR_LATITUDE) {
+            movePolar(east, north);
+            return;
+        }
+        updateScale();
+        latitude += north / metresPerDegreeLatitude;
+        longitude = normalizeLongitude(longitude + east / metresPerDegreeLongitude);
+        if (Math.abs(latitude) > 90) {
+            // a very long move over the pole  越过极点的超长移动
+            latitude = Math.signum(latitude) * 180 - latitude;
+            longitude = normalizeLongitude(longitude + 180);
+        }
+    }
+
+    /**
+     * Moves near a pole in the plane centred on it: the position is {@code r * (sin λ, -cos λ)} at the north pole
+     * and {@code r * (sin λ, cos λ)} at the south pole, with r the distance from the pole
+     * 在以极点为中心的平面中移动，r为到极点的距离
+     */
+    private void movePolar(double east, double north) {
+        double sign = latitude > 0 ? 1 : -1;
+        updateScale();
+        double r = (90 - Math.abs(latitude)) * metresPerDegreeLatitude;
+        double lambda = longitude * RADIANS_PER_DEGREE;
+        double sinLambda = Math.sin(lambda);
+        double cosLambda = Math.cos(lambda);
+        // east is the direction of growing longitude, north points to the north pole
+        //东是经度增加的方向，北指向北极
+        double x = r * sinLambda + east * cosLambda - sign * north * sinLambda;
+        double y = sign * (east * sinLambda - r * cosLambda) + north * cosLambda;
+        double distance = Math.sqrt(x * x + y * y);
+        latitude = sign * (90 - distance / metresPerDegreeLatitude);
+        if (distance > 0) {
+            longitude = normalizeLongitude(Math.atan2(x, -sign * y) / RADIANS_PER_DEGREE);
+        }
+    }
+
+    private void updateScale() {
+        if (!(Math.abs(latitude - scaleLatitude) <= SCALE_REFRESH_DEGREES)) {
+            scaleLatitude = latitude;
+            metresPerDegreeLatitude = metresPerDegreeLatitude(latitude);
+            metresPerDegreeLongitude = metresPerDegreeLongitude(latitude);
+        }
+    }
+
+    /**
+     * @param latitude latitude in degrees
+     * @return length of one degree latitude in metres (meridian radius of curvature)
+     */
+    public static double metresPerDegreeLatitude(double latitude) {
+        double sin = Math.sin(latitude * RADIANS_PER_DEGREE);
+        double w = 1 - ECCENTRICITY_SQUARED * sin * sin;
+        return RADIANS_PER_DEGREE * EQUATORIAL_RADIUS * (1 - ECCENTRICITY_SQUARED) / (w * Math.sqrt(w));
+    }
+
+    /**
+     * @param latitude latitude in degrees
+     * @return length of one degree longitude in metres, 0 at the poles
+     */
+    public static double metresPerDegreeLongitude(double latitude) {
+        double radians = latitude * RADIANS_PER_DEGREE;
+        double sin = Math.sin(radians);
+        return RADIANS_PER_DEGREE * EQUATORIAL_RADIUS * Math.cos(radians)
+                / Math.sqrt(1 - ECCENTRICITY_SQUARED * sin * sin);
+    }
+
+    /**
+     * Distance of two nearby positions in the tangent plane at their mean latitude, e.g. of two GPS fixes, across
+     * the antimeridian as well
+     * 两个相近位置在其平均纬度切平面中的距离
+     *
+     * @return the distance in metres
+     */
+    public static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double mean = (latitude1 + latitude2) / 2;
+        double north = (latitude2 - latitude1) * metresPerDegreeLatitude(mean);
+        double east = normalizeLongitude(longitude2 - longitude1) * metresPerDegreeLongitude(mean);
+        return Math.sqrt(north * north + east * east);
+    }
+
+    /**
+     * @return the longitude in the range -180 (inclusive) to 180 (exclusive)
+     */
+    public static double normalizeLongitude(double longitude) {
+        if (longitude >= 180 || longitude < -180) {
+            longitude -= 360 * Math.floor((longitude + 180) / 360);
+        }
+        return longitude;
+    }
+
+    public void setPosition(double latitude, double longitude) {
+        this.latitude = latitude;
+        this.longitude = normalizeLongitude(longitude);
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+}
@@ -0,0 +1,144 @@
+package com.sosee.mysenorr.fusion;
+
+/**
+ * Collects the sensor events that the sensor hub delivers in one batch (hardware FIFO), so they can be processed
+ * together in the order of their timestamps. The events of different sensors may arrive grouped by sensor, so
+ * they are sorted (by index, with a merge sort on preallocated arrays) before processing. Nothing allocates
+ * after construction.
+ * <p>
+ * 收集传感器中枢一次批量传递（硬件FIFO）的传感器事件，以便按时间戳顺序一起处理。
+ * 不同传感器的事件可能按传感器分组到达，因此处理前会排序。构造后不再分配内存。
+ */
+public class SensorEventBatch {
+
+    /**
+     * Values per event, enough for the rotation vector (x, y, z, w, accuracy)
+     */
+    public static final int MAX_VALUES = 5;
+
+    private final int capacity;
+    private final int[] types;
+    private final long[] timestamps;
+    private final int[] counts;
+    private final float[] values;
+    private final int[] order;
+    private final int[] mergeBuffer;
+    /**
+     * Arrays with exactly 1 to MAX_VALUES elements, so the receiver sees the same length as the original event
+     */
+    private final float[][] eventValues = new float[MAX_VALUES + 1][];
+    private int size;
+    private boolean sorted = true;
+
+    /**
+     * @param capacity maximum number of events
+     */
+    public SensorEventBatch(int capacity) {
+        this.capacity = capacity;
+        types = new int[capacity];
+        timestamps = new long[capacity];
+        counts = new int[capacity];
+        values = new float[capacity * MAX_VALUES];
+        order = new int[capacity];
+        mergeBuffer = new int[capacity];
+        for (int i = 0; i <= MAX_VALUES; i++) {
+            eventValues[i] = new float[i];
+        }
+    }
+
+    /**
+     * Adds an event, the values are copied
+     *
+     * @return false if the batch is full (the event is not added)
+     */
+    public boolean add(int type, long timestamp, float[] eventValues) {
+        if (size == capacity) {
+            return false;
+        }
+        if (size > 0 && timestamp < timestamps[size - 1]) {
+            sorted = false;
+        }
+        int count = Math.min(eventValues.length, MAX_VALUES);
+        types[size] = type;
+        timestamps[size] = timestamp;
+        counts[size] = count;
+        System.arraycopy(eventValues, 0, values, size * MAX_VALUES, count);
+        order[size] = size;
+        size++;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Passes all events in the order of their timestamps to the receiver (events with equal timestamps keep the order
+     * in which they were added) and empties the batch
+     *
+     * @param receiver gets the events, the values array is reused and must not be kept
+     */
+    public void drain(Receiver receiver) {
+        if (!sorted) {
+            sortByTimestamp();
+        }
+        for (int i = 0; i < size; i++) {
+            int event = order[i];
+            float[] target = eventValues[counts[event]];
+            System.arraycopy(values, event * MAX_VALUES, target, 0, target.length);
+            receiver.onEvent(types[event], timestamps[event], target);
+        }
+        size = 0;
+        sorted = true;
+    }
+
+    /**
+     * Bottom-up merge sort of the indices, stable and O(n log n) also for events grouped by sensor
+     */
+    private void sortByTimestamp() {
+        int[] from = order;
+        int[] to = mergeBuffer;
+        for (int width = 1; width < size; width *= 2) {
+            for (int start = 0; start < size; start += 2 * width) {
+                int middle = Math.min(start + width, size);
+                int end = Math.min(start + 2 * width, size);
+                int left = start;
+                int right = middle;
+                for (int k = start; k < end; k++) {
+                    if (left < middle && (right >= end || timestamps[from[left]] <= timestamps[from[right]])) {
+                        to[k] = from[left++];
+                    } else {
+                        to[k] = from[right++];
+                    }
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != order) {
+            System.arraycopy(from, 0, order, 0, size);
+        }
+    }
+
+    /**
+     * Receives the events of a batch
+     * 接收一批事件
+     */
+    public interface Receiver {
+        /**
+         * @param type      sensor type
+         * @param timestamp time of the event in nanoseconds
+         * @param values    the values of the event (reused array)
+         */
+        void onEvent(int type, long timestamp, float[] values);
+    }
+}
@@ -0,0 +1,256 @@
+package com.sosee.mysenorr.fusion;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Feeds one stream of sensor events to several pipelines (e.g. variants of Core or {@link NavigationEngine} with
+ * other thresholds, filters or heading sources) which run in parallel on the threads of an executor. Every pipeline
+ * gets every event exactly once and in the order they were added, so the variants can be compared sample by sample,
+ * live on the device or in replays on the JVM.
+ * <p>
+ * The producer copies the events into chunks. A full chunk (or one that is flushed) is handed to all pipelines at
+ * once and read by them concurrently, it is only written again after the last pipeline is done with it. Each pipeline
+ * has a lane that processes its chunks one after another, so a pipeline never runs on two threads at the same time,
+ * while different pipelines do. The chunks are preallocated; if all of them are still in use, the producer either
+ * waits ({@link #setBlocking(boolean)}, for replays) or drops the event for all pipelines, so the sensor thread is
+ * never held up by a slow variant.
+ * <p>
+ * 将一个传感器事件流分发给多个流程（例如使用其他阈值、滤波器或方向来源的Core或NavigationEngine变体），
+ * 它们在执行器的线程上并行运行。每个流程按添加顺序恰好收到每个事件一次，因此可以逐样本比较变体。
+ * 生产者将事件复制到块中；满的块一次交给所有流程并发读取，在最后一个流程处理完后才会再次写入。每个流程有一条通道，
+ * 按顺序处理其块，因此同一流程不会同时在两个线程上运行。块是预先分配的；若全部在使用中，生产者等待（阻塞模式，用于回放）
+ * 或为所有流程丢弃该事件，因此传感器线程不会被慢的变体拖住。
+ */
+public class SensorFanOut {
+
+    private final Executor executor;
+    private final Lane[] lanes;
+    private final ArrayBlockingQueue<Chunk> freeChunks;
+    private final int chunkCount;
+    private final Object idleLock = new Object();
+    private Chunk current;
+    private boolean blocking;
+    private long droppedEvents;
+    private volatile Throwable failure;
+
+    /**
+     * @param executor   runs the pipelines, e.g. a fixed thread pool with one thread per core
+     * @param chunkSize  events per chunk, the pipelines get the events when a chunk is full or flushed
+     * @param chunkCount number of chunks, at least 2 so the producer can fill one while the pipelines read another
+     * @param pipelines  the receivers of the events
+     */
+    public SensorFanOut(Executor executor, int chunkSize, int chunkCount, SensorEventBatch.Receiver... pipelines) {
+        if (chunkCount < 2) {
+            throw new IllegalArgumentException("chunkCount must be at least 2");
+        }
+        this.executor = executor;
+        this.chunkCount = chunkCount;
+        lanes = new Lane[pipelines.length];
+        for (int i = 0; i < pipelines.length; i++) {
+            lanes[i] = new Lane(pipelines[i], chunkCount);
+        }
+        freeChunks = new ArrayBlockingQueue<Chunk>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            freeChunks.add(new Chunk(chunkSize));
+        }
+    }
+
+    /**
+     * @param blocking true to wait for a free chunk (no event is lost, for replays), false to drop events while the
+     *                 pipelines are behind (default, for the sensor thread)
+     */
+    public void setBlocking(boolean blocking) {
+        this.blocking = blocking;
+    }
+
+    /**
+     * Adds an event for all pipelines, must always be called from the same thread
+     * 为所有流程添加一个事件，必须始终从同一线程调用
+     *
+     * @param type      sensor type
+     * @param timestamp time of the event in nanoseconds
+     * @param values    the values, copied
+     * @return false if the event was dropped because all chunks are in use
+     */
+    public boolean add(int type, long timestamp, float[] values) {
+        if (current == null) {
+            current = takeChunk();
+            if (current == null) {
+                droppedEvents++;
+                return false;
+            }
+        }
+        current.add(type, timestamp, values);
+        if (current.isFull()) {
+            dispatch();
+        }
+        return true;
+    }
+
+    /**
+     * Hands the events added so far to the pipelines, e.g. at the end of a batch
+     * 将目前添加的事件交给各流程，例如在一批事件结束时
+     */
+    public void flush() {
+        if (current != null && current.size > 0) {
+            dispatch();
+        }
+    }
+
+    private void dispatch() {
+        Chunk chunk = current;
+        current = null;
+        chunk.pending.set(lanes.length);
+        if (lanes.length == 0) {
+            release(chunk);
+            return;
+        }
+        for (Lane lane : lanes) {
+            lane.queue.add(chunk);
+            lane.schedule();
+        }
+    }
+
+    private Chunk takeChunk() {
+        if (!blocking) {
+            return freeChunks.poll();
+        }
+        try {
+            return freeChunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void release(Chunk chunk) {
+        chunk.size = 0;
+        freeChunks.add(chunk);
+        synchronized (idleLock) {
+            idleLock.notifyAll();
+        }
+    }
+
+    /**
+     * Flushes and waits until all pipelines have processed all events, e.g. at the end of a replay. Called on the
+     * thread that adds the events.
+     * 刷新并等待所有流程处理完所有事件，例如在回放结束时。在添加事件的线程上调用。
+     *
+     * @throws IllegalStateException if a pipeline threw an exception
+     */
+    public void awaitIdle() throws InterruptedException {
+        flush();
+        synchronized (idleLock) {
+            while (freeChunks.size() + (current != null ? 1 : 0) < chunkCount && failure == null) {
+                idleLock.wait();
+            }
+        }
+        if (failure != null) {
+            throw new IllegalStateException("pipeline failed", failure);
+        }
+    }
+
+    /**
+     * @return events dropped because the pipelines were behind
+     */
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    public int getPipelineCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Events of one chunk, written by the producer, then only read until all lanes are done
+     */
+    private static final class Chunk {
+        final int[] types;
+        final long[] timestamps;
+        final int[] counts;
+        final float[] values;
+        final AtomicInteger pending = new AtomicInteger();
+        int size;
+
+        Chunk(int capacity) {
+            types = new int[capacity];
+            timestamps = new long[capacity];
+            counts = new int[capacity];
+            values = new float[capacity * SensorEventBatch.MAX_VALUES];
+        }
+
+        void add(int type, long timestamp, float[] eventValues) {
+            int count = Math.min(eventValues.length, SensorEventBatch.MAX_VALUES);
+            types[size] = type;
+            timestamps[size] = timestamp;
+            counts[size] = count;
+            System.arraycopy(eventValues, 0, values, size * SensorEventBatch.MAX_VALUES, count);
+            size++;
+        }
+
+        boolean isFull() {
+            return size == types.length;
+        }
+    }
+
+    /**
+     * The chunks of one pipeline, processed one after another by at most one task at a time
+     * 一个流程的块，同一时间最多由一个任务按顺序处理
+     */
+    private final class Lane implements Runnable {
+        final SensorEventBatch.Receiver pipeline;
+        final ArrayBlockingQueue<Chunk> queue;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        /**
+         * Arrays with exactly 1 to MAX_VALUES elements, so the pipeline sees the same length as the original event
+         */
+        final float[][] eventValues = new float[SensorEventBatch.MAX_VALUES + 1][];
+
+        Lane(SensorEventBatch.Receiver pipeline, int chunkCount) {
+            this.pipeline = pipeline;
+            queue = new ArrayBlockingQueue<Chunk>(chunkCount);
+            for (int i = 0; i <= SensorEventBatch.MAX_VALUES; i++) {
+                eventValues[i] = new float[i];
+            }
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                Chunk chunk;
+                while ((chunk = queue.poll()) != null) {
+                    try {
+                        process(chunk);
+                    } catch (RuntimeException | Error e) {
+                        // reported by awaitIdle, the other pipelines go on  由awaitIdle报告，其他流程继续
+                        failure = e;
+                    } finally {
+                        if (chunk.pending.decrementAndGet() == 0) {
+                            release(chunk);
+                        }
+                    }
+                }
+                scheduled.set(false);
+                // a chunk added after the last poll but before the flag was cleared was not scheduled
+                //在最后一次poll之后、标志清除之前添加的块未被调度
+            } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+
+        private void process(Chunk chunk) {
+            for (int i = 0; i < chunk.size; i++) {
+                float[] target = eventValues[chunk.counts[i]];
+                System.arraycopy(chunk.values, i * SensorEventBatch.MAX_VALUES, target, 0, target.length);
+                pipeline.onEvent(chunk.types[i], chunk.timestamps[i], target);
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.sosee.mysenorr.fusion;
+
+/**
+ * The parts of android.hardware.SensorManager that the fusion needs, ported to plain Java so they can
+ * be used without the Android framework. The results are the same as the framework's, all methods work
+ * on caller supplied arrays and don't allocate.
+ * <p>
+ * SensorManager中融合所需部分的纯Java移植，结果与Android框架相同，不分配内存。
+ */
+public final class SensorMath {
+
+    /**
+     * Factor for converting radians to degrees, as used by the azimuth calculation
+     */
+    public static final float RAD_TO_DEG = 57.29577951f;
+
+    private static final float GRAVITY_EARTH = 9.80665f;
+
+    private SensorMath() {
+    }
+
+    /**
+     * Computes the rotation matrix transforming a vector from the device coordinate system to the world's
+     * coordinate system (East, North, Up), like SensorManager.getRotationMatrix.
+     *
+     * @param R           a 3x3 (9 values) or 4x4 (16 values) row major matrix, left untouched on failure
+     * @param gravity     the gravity vector in device coordinates
+     * @param geomagnetic the geomagnetic vector in device coordinates
+     * @return false if the device is in free fall or close to magnetic north/south
+     */
+    public static boolean getRotationMatrix(float[] R, float[] gravity, float[] geomagnetic) {
+        float Ax = gravity[0];
+        float Ay = gravity[1];
+        float Az = gravity[2];
+
+        final float normsqA = (Ax * Ax + Ay * Ay + Az * Az);
+        final float freeFallGravitySquared = 0.01f * GRAVITY_EARTH * GRAVITY_EARTH;
+        if (normsqA < freeFallGravitySquared) {
+            // gravity less than 10% of normal value
+            return false;
+        }
+
+        final float Ex = geomagnetic[0];
+        final float Ey = geomagnetic[1];
+        final float Ez = geomagnetic[2];
+        float Hx = Ey * Az - Ez * Ay;
+        float Hy = Ez * Ax - Ex * Az;
+        float Hz = Ex * Ay - Ey * Ax;
+        final float normH = (float) Math.sqrt(Hx * Hx + Hy * Hy + Hz * Hz);
+
+        if (normH < 0.1f) {
+            // device is close to free fall (or in space?), or close to
+            // magnetic north pole. Typical values are  > 100.
+            return false;
+        }
+        final float invH = 1.0f / normH;
+        Hx *= invH;
+        Hy *= invH;
+        Hz *= invH;
+        final float invA = 1.0f / (float) Math.sqrt(Ax * Ax + Ay * Ay + Az * Az);
+        Ax *= invA;
+        Ay *= invA;
+        Az *= invA;
+        final float Mx = Ay * Hz - Az * Hy;
+        final float My = Az * Hx - Ax * Hz;
+        final float Mz = Ax * Hy - Ay * Hx;
+
+        if (R.length == 9) {
+            R[0] = Hx;
+            R[1] = Hy;
+            R[2] = Hz;
+            R[3] = Mx;
+            R[4] = My;
+            R[5] = Mz;
+            R[6] = Ax;
+            R[7] = Ay;
+            R[8] = Az;
+        } else if (R.length == 16) {
+            R[0] = Hx;
+            R[1] = Hy;
+            R[2] = Hz;
+            R[3] = 0;
+            R[4] = Mx;
+            R[5] = My;
+            R[6] = Mz;
+            R[7] = 0;
+            R[8] = Ax;
+            R[9] = Ay;
+            R[10] = Az;
+            R[11] = 0;
+            R[12] = 0;
+            R[13] = 0;
+            R[14] = 0;
+            R[15] = 1;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the device's orientation (azimuth, pitch, roll in radians) from a rotation matrix,
+     * like SensorManager.getOrientation.
+     *
+     * @param R      a 3x3 (9 values) or 4x4 (16 values) row major rotation matrix
+     * @param values the array receiving azimuth, pitch and roll
+     * @return the values array
+     */
+    public static float[] getOrientation(float[] R, float[] values) {
+        if (R.length == 9) {
+            values[0] = (float) Math.atan2(R[1], R[4]);
+            values[1] = (float) Math.asin(-R[7]);
+            values[2] = (float) Math.atan2(-R[6], R[8]);
+        } else {
+            values[0] = (float) Math.atan2(R[1], R[5]);
+            values[1] = (float) Math.asin(-R[9]);
+            values[2] = (float) Math.atan2(-R[8], R[10]);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the azimuth in degrees (0 to 360) of a rotation matrix plus the given declination.
+     * Remapping the coordinate system with AXIS_X, AXIS_Y (as done before) is the identity, so
+     * the matrix is used as is.
+     * <p>
+     * 返回旋转矩阵的方位角（0到360度）加上磁偏角。
+     *
+     * @param R    a 3x3 (9 values) or 4x4 (16 values) row major rotation matrix
+     * @param decl the difference to true north in degrees
+     * @return the azimuth in degrees
+     */
+    public static float getAzimuth(float[] R, float decl) {
+        float azimuth = (float) (R.length == 9 ? Math.atan2(R[1], R[4]) : Math.atan2(R[1], R[5]));
+        if (azimuth >= 0) {
+            // Azimuth-Calculation (rad in degree) + difference to true north (decl)
+            return azimuth * RAD_TO_DEG + decl;
+        } else {
+            // Azimuth-Calculation (rad in degree) +360 + difference to true north (decl)
+            return azimuth * RAD_TO_DEG + 360 + decl;
+        }
+    }
+
+    /**
+     * Converts a rotation vector to a normalized quaternion (w, x, y, z), like
+     * SensorManager.getQuaternionFromVector.
+     *
+     * @param Q  the array receiving the quaternion
+     * @param rv the rotation vector, the scalar component is calculated if only 3 values are given
+     */
+    public static void getQuaternionFromVector(float[] Q, float[] rv) {
+        if (rv.length >= 4) {
+            Q[0] = rv[3];
+        } else {
+            Q[0] = 1 - rv[0] * rv[0] - rv[1] * rv[1] - rv[2] * rv[2];
+            Q[0] = (Q[0] > 0) ? (float) Math.sqrt(Q[0]) : 0;
+        }
+        Q[1] = rv[0];
+        Q[2] = rv[1];
+        Q[3] = rv[2];
+    }
+
+    /**
+     * Converts a rotation vector (x, y, z[, w]) to a rotation matrix, like
+     * SensorManager.getRotationMatrixFromVector.
+     *
+     * @param R              a 3x3 (9 values) or 4x4 (16 values) row major matrix receiving the rotation
+     * @param rotationVector the rotation vector, the scalar component is calculated if only 3 values are given
+     */
+    public static void getRotationMatrixFromVector(float[] R, float[] rotationVector) {
+        float q0;
+        float q1 = rotationVector[0];
+        float q2 = rotationVector[1];
+        float q3 = rotationVector[2];
+
+        if (rotationVector.length >= 4) {
+            q0 = rotationVector[3];
+        } else {
+            q0 = 1 - q1 * q1 - q2 * q2 - q3 * q3;
+            q0 = (q0 > 0) ? (float) Math.sqrt(q0) : 0;
+        }
+
+        float sq_q1 = 2 * q1 * q1;
+        float sq_q2 = 2 * q2 * q2;
+        float sq_q3 = 2 * q3 * q3;
+        float q1_q2 = 2 * q1 * q2;
+        float q3_q0 = 2 * q3 * q0;
+        float q1_q3 = 2 * q1 * q3;
+        float q2_q0 = 2 * q2 * q0;
+        float q2_q3 = 2 * q2 * q3;
+        float q1_q0 = 2 * q1 * q0;
+
+        if (R.length == 9) {
+            R[0] = 1 - sq_q2 - sq_q3;
+            R[1] = q1_q2 - q3_q0;
+            R[2] = q1_q3 + q2_q0;
+
+            R[3] = q1_q2 + q3_q0;
+            R[4] = 1 - sq_q1 - sq_q3;
+            R[5] = q2_q3 - q1_q0;
+
+            R[6] = q1_q3 - q2_q0;
+            R[7] = q2_q3 + q1_q0;
+            R[8] = 1 - sq_q1 - sq_q2;
+        } else if (R.length == 16) {
+            R[0] = 1 - sq_q2 - sq_q3;
+            R[1] = q1_q2 - q3_q0;
+            R[2] = q1_q3 + q2_q0;
+            R[3] = 0.0f;
+
+            R[4] = q1_q2 + q3_q0;
+            R[5] = 1 - sq_q1 - sq_q3;
+            R[6] = q2_q3 - q1_q0;
+            R[7] = 0.0f;
+
+            R[8] = q1_q3 - q2_q0;
+            R[9] = q2_q3 + q1_q0;
+            R[10] = 1 - sq_q1 - sq_q2;
+            R[11] = 0.0f;
+
+            R[12] = R[13] = R[14] = 0.0f;
+            R[15] = 1.0f;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.sosee.mysenorr.fusion;
+
+import java.util.Locale;
+
+/**
+ * Chooses the sampling rate of the sensors from the activity of the user, so they do not run at the rate of a walk
+ * all the time: {@link #ACTIVITY_STILL} (phone lying or user standing) needs only enough samples to notice the next
+ * movement, {@link #ACTIVITY_WALKING} the usual 50 Hz, {@link #ACTIVITY_RUNNING} more for the short, hard steps and
+ * {@link #ACTIVITY_VEHICLE} (moving without steps, e.g. on a bus) a few for the orientation.
+ * <p>
+ * The activity follows from the variation of the strength of the acceleration (exponentially weighted over about a
+ * second) and the steps of the engine: still when the variation stays at the noise of the sensor for 3 seconds,
+ * running when the recent steps are faster than 2.5 per second, walking with slower steps, vehicle after 10 seconds
+ * of movement without a step. A movement of a still phone switches to walking at once, so the first steps are
+ * sampled at the full rate; lower rates are only taken after the longer times. Each update costs a few operations.
+ * The time spent in each activity is kept, to see how many samples the governor saves, and with the current of the
+ * sensors ({@link #setSensorPower}) the charge they drew and saved. The estimates take the current as proportional to
+ * the rate, as for sensors that sleep between their samples, and the timing error of the steps and the gyroscope
+ * integration as half the interval between the samples.
+ * <p>
+ * 根据用户的活动选择传感器的采样率，使其不必一直以步行的频率运行：静止（手机平放或用户站立）只需足以发现下一次运动的样本，
+ * 步行为通常的50 Hz，跑步需要更多样本以捕捉短而有力的步伐，乘车（运动但没有步伐，例如在公交车上）只需少量样本用于方向。
+ * 活动由加速度大小的变化（约一秒的指数加权）和引擎的步伐决定：变化保持在传感器噪声水平3秒为静止，最近的步伐快于每秒2.5步为跑步，
+ * 较慢的步伐为步行，运动10秒没有步伐为乘车。静止的手机一旦运动立即切换到步行，因此最初的步伐以全频率采样；
+ * 较低的频率只在较长时间后采用。每次更新只需几次运算。记录每种活动的时间，以便查看节省了多少样本，结合传感器的电流还可估计
+ * 消耗和节省的电量。估计时认为电流与频率成正比（对于在样本之间休眠的传感器即如此），步伐和陀螺仪积分的时间误差为样本间隔的一半。
+ */
+public class SensorRateGovernor {
+
+    /**
+     * No sample yet
+     */
+    public static final int ACTIVITY_UNKNOWN = -1;
+    public static final int ACTIVITY_STILL = 0;
+    public static final int ACTIVITY_WALKING = 1;
+    public static final int ACTIVITY_RUNNING = 2;
+    public static final int ACTIVITY_VEHICLE = 3;
+    public static final int ACTIVITIES = 4;
+
+    /**
+     * Rate of the sensors before the activity is known, the rate they always used, in Hz
+     */
+    public static final int DEFAULT_RATE = 50;
+    /**
+     * Rate of the sensors while still in Hz: twice the lowest rate the step detection follows
+     * ({@link StepDetector#MAX_SAMPLE_GAP_NS}), so jittered timestamps still leave the samples of the first step
+     * continuous until the sensors run at the rate of the walk
+     * 静止时的传感器频率：步伐检测所能跟随的最低频率的两倍，使得在传感器以步行频率运行之前，即使时间戳抖动，第一步的样本仍然连续
+     */
+    private static final int STILL_RATE = (int) (2 * 1000000000L / StepDetector.MAX_SAMPLE_GAP_NS);
+    /**
+     * Rate of the sensors in Hz for each activity, a vehicle needs the gyroscope for the orientation but no steps
+     * 每种活动的传感器频率，乘车需要陀螺仪计算方向但不需要步伐
+     */
+    private static final int[] RATES = {STILL_RATE, DEFAULT_RATE, 100, 25};
+
+    private static final float NS2S = 1e-9f;
+    /**
+     * Time constant of the running mean and variance of the acceleration in seconds
+     */
+    private static final float WINDOW = 1;
+    /**
+     * Largest standard deviation of the strength of the acceleration in m/s² of a still phone or user
+     */
+    private static final float MAX_STILL_DEVIATION = 0.15f;
+    private static final long STILL_TIME_NS = 3000000000L;
+    private static final long VEHICLE_TIME_NS = 10000000000L;
+    /**
+     * Steps closer than this are running (2.5 steps per second)
+     */
+    private static final float MAX_RUNNING_INTERVAL = 0.4f;
+    /**
+     * Longest time between steps of a walk, and the weight of the last step interval in the mean
+     */
+    private static final long MAX_STEP_INTERVAL_NS = 2000000000L;
+    private static final float STEP_WEIGHT = 0.3f;
+    /**
+     * Gaps longer than this (ns), e.g. while the sensors were paused, restart the running mean
+     */
+    private static final long MAX_INTERVAL_NS = 500000000L;
+
+    private float mean;
+    private float variance;
+    private long lastTimestamp = -1;
+    private long stillSince = -1;
+    private long movingSince = -1;
+    private long lastStep = -1;
+    private float stepInterval;
+    private int activity = ACTIVITY_UNKNOWN;
+    /**
+     * Seconds spent in each activity
+     */
+    private final double[] times = new double[ACTIVITIES];
+    /**
+     * Current of the sensors at {@link #DEFAULT_RATE} in mA, 0 if unknown
+     */
+    private float power;
+
+    /**
+     * Updates the activity with a sample of the accelerometer
+     * 用一个加速度计样本更新活动
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param values    acceleration in m/s² (x, y, z), only read
+     * @return true if the activity and with it the sampling rate changed
+     */
+    public boolean onAccelerometer(long timestamp, float[] values) {
+        float a = (float) Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+        long interval = timestamp - lastTimestamp;
+        boolean continuous = lastTimestamp >= 0 && interval > 0 && interval <= MAX_INTERVAL_NS;
+        lastTimestamp = timestamp;
+        if (!continuous) {
+            // start over as moving, still has to be proven  重新开始时视为运动，静止需要验证
+            mean = a;
+            variance = MAX_STILL_DEVIATION * MAX_STILL_DEVIATION;
+            stillSince = -1;
+            return setActivity(activity == ACTIVITY_UNKNOWN ? ACTIVITY_WALKING : activity, timestamp);
+        }
+        if (activity != ACTIVITY_UNKNOWN) {
+            times[activity] += interval * NS2S;
+        }
+        float k = Math.min(1, interval * NS2S / WINDOW);
+        float d = a - mean;
+        mean += k * d;
+        variance = (1 - k) * (variance + k * d * d);
+
+        if (variance < MAX_STILL_DEVIATION * MAX_STILL_DEVIATION) {
+            if (stillSince < 0) {
+                stillSince = timestamp;
+            }
+            movingSince = -1;
+            if (timestamp - stillSince >= STILL_TIME_NS) {
+                return setActivity(ACTIVITY_STILL, timestamp);
+            }
+            return false;
+        }
+        stillSince = -1;
+        if (movingSince < 0) {
+            movingSince = timestamp;
+        }
+        if (activity == ACTIVITY_STILL || activity == ACTIVITY_UNKNOWN) {
+            // the user may start to walk, the first steps need the full rate  用户可能开始行走，最初的步伐需要全频率
+            return setActivity(ACTIVITY_WALKING, timestamp);
+        }
+        long sinceStep = lastStep < 0 ? timestamp - movingSince : timestamp - Math.max(lastStep, movingSince);
+        if (sinceStep >= VEHICLE_TIME_NS) {
+            return setActivity(ACTIVITY_VEHICLE, timestamp);
+        }
+        if (activity == ACTIVITY_RUNNING && sinceStep > MAX_STEP_INTERVAL_NS) {
+            return setActivity(ACTIVITY_WALKING, timestamp);
+        }
+        return false;
+    }
+
+    /**
+     * Updates the activity with a step of the engine
+     * 用引擎检测到的一步更新活动
+     *
+     * @param timestamp time of the step in nanoseconds
+     * @return true if the activity and with it the sampling rate changed
+     */
+    public boolean onStep(long timestamp) {
+        long interval = timestamp - lastStep;
+        boolean walk = lastStep >= 0 && interval > 0 && interval <= MAX_STEP_INTERVAL_NS;
+        lastStep = timestamp;
+        if (!walk) {
+            stepInterval = MAX_RUNNING_INTERVAL * 2;
+            return setActivity(ACTIVITY_WALKING, timestamp);
+        }
+        stepInterval += STEP_WEIGHT * (interval * NS2S - stepInterval);
+        return setActivity(stepInterval < MAX_RUNNING_INTERVAL ? ACTIVITY_RUNNING : ACTIVITY_WALKING, timestamp);
+    }
+
+    private boolean setActivity(int activity, long timestamp) {
+        if (activity == this.activity) {
+            return false;
+        }
+        this.activity = activity;
+        if (activity == ACTIVITY_VEHICLE) {
+            // the next step ends the ride  下一步结束乘车
+            lastStep = -1;
+        }
+        movingSince = activity == ACTIVITY_STILL ? -1 : timestamp;
+        return true;
+    }
+
+    /**
+     * @return one of the ACTIVITY_* constants
+     */
+    public int getActivity() {
+        return activity;
+    }
+
+    /**
+     * @return the rate the sensors should run at in Hz
+     */
+    public int getSamplingRate() {
+        return getSamplingRate(activity);
+    }
+
+    /**
+     * @param activity one of the ACTIVITY_* constants
+     * @return the rate the sensors need for it in Hz
+     */
+    public static int getSamplingRate(int activity) {
+        return activity == ACTIVITY_UNKNOWN ? DEFAULT_RATE : RATES[activity];
+    }
+
+    /**
+     * @return seconds spent in an activity since the start or {@link #reset()}
+     */
+    public double getTime(int activity) {
+        return times[activity];
+    }
+
+    /**
+     * @return the samples taken at the chosen rates as part of the samples at {@link #DEFAULT_RATE}, 1 before the
+     * first activity
+     */
+    public double getSampleRatio() {
+        double time = 0;
+        double samples = 0;
+        for (int i = 0; i < ACTIVITIES; i++) {
+            time += times[i];
+            samples += times[i] * RATES[i];
+        }
+        return time > 0 ? samples / (time * DEFAULT_RATE) : 1;
+    }
+
+    /**
+     * @param milliAmperes current of the sensors at {@link #DEFAULT_RATE} in mA, the sum of Sensor.getPower() of the
+     *                     sensors in use
+     */
+    public void setSensorPower(float milliAmperes) {
+        power = milliAmperes;
+    }
+
+    /**
+     * @return current of the sensors at the rate of an activity in mA, 0 if the current is unknown
+     */
+    public float getSensorPower(int activity) {
+        return power * getSamplingRate(activity) / DEFAULT_RATE;
+    }
+
+    /**
+     * @return estimated charge the sensors drew since the start or {@link #reset()} in mAh
+     */
+    public double getCharge() {
+        double charge = 0;
+        for (int i = 0; i < ACTIVITIES; i++) {
+            charge += times[i] * getSensorPower(i) / 3600;
+        }
+        return charge;
+    }
+
+    /**
+     * @return estimated charge saved against the sensors running at {@link #DEFAULT_RATE} all the time in mAh
+     */
+    public double getSavedCharge() {
+        double time = 0;
+        for (int i = 0; i < ACTIVITIES; i++) {
+            time += times[i];
+        }
+        return time * power / 3600 - getCharge();
+    }
+
+    /**
+     * @param activity one of the ACTIVITY_* constants
+     * @return the mean error of the time of a step and of the gyroscope integration at the rate of an activity in
+     * ms, half the interval between the samples
+     */
+    public static float getTimingError(int activity) {
+        return 500f / getSamplingRate(activity);
+    }
+
+    /**
+     * @return the cost and the accuracy of the current rate, e.g. to log them at a change
+     */
+    public String describeRate() {
+        int rate = getSamplingRate();
+        return String.format(Locale.ENGLISH, "%d Hz, %.0f%% of the samples at %d Hz, sensors about %.2f of %.2f mA, "
+                        + "steps and turns timed within %.0f ms", rate, 100.0 * rate / DEFAULT_RATE, DEFAULT_RATE,
+                getSensorPower(activity), power, getTimingError(activity));
+    }
+
+    /**
+     * Forgets the activity and the times, e.g. when the sensors are restarted at {@link #DEFAULT_RATE}
+     */
+    public void reset() {
+        lastTimestamp = stillSince = movingSince = lastStep = -1;
+        activity = ACTIVITY_UNKNOWN;
+        for (int i = 0; i < ACTIVITIES; i++) {
+            times[i] = 0;
+        }
+    }
+
+    /**
+     * @param activity one of the ACTIVITY_* constants
+     * @return its name, e.g. for logs
+     */
+    public static String getName(int activity) {
+        switch (activity) {
+            case ACTIVITY_STILL:
+                return "still";
+            case ACTIVITY_WALKING:
+                return "walking";
+            case ACTIVITY_RUNNING:
+                return "running";
+            case ACTIVITY_VEHICLE:
+                return "vehicle";
+            default:
+                return "unknown";
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(getName(activity));
+        for (int i = 0; i < ACTIVITIES; i++) {
+            builder.append(String.format(Locale.ENGLISH, ", %s %.0f s at %d Hz", getName(i), times[i], RATES[i]));
+        }
+        builder.append(String.format(Locale.ENGLISH, ", %.0f%% of the samples at %d Hz, about %.2f mAh, %.2f mAh "
+                + "saved", 100 * getSampleRatio(), DEFAULT_RATE, getCharge(), getSavedCharge()));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,162 @@
+package com.sosee.mysenorr.fusion;
+
+/**
+ * Recognizes steps in the vertical linear acceleration (world coordinates).
+ * A step begins with a positive peak above the threshold and is completed by a negative peak below
+ * the negative threshold, which has to follow within 0.24 to 0.8 seconds. The threshold adapts to the strength of
+ * the walk ({@link AdaptiveStepThreshold}), unless a fixed threshold is set.
+ * <p>
+ * The time is taken from the timestamps of the samples, not from counting samples, so it does not depend on the
+ * sampling rate, jitter or samples delivered in batches. If no sample arrives for a while or the time goes back
+ * (e.g. a restarted replay), a begun step is dropped, because its negative peak may have been missed.
+ * <p>
+ * 在垂直线性加速度（世界坐标）中识别步伐。
+ * 一步以超过阈值的正峰值开始，并在0.24到0.8秒内以低于负阈值的负峰值结束。阈值随行走强度自适应，除非设置了固定阈值。
+ * 时间取自样本的时间戳而不是样本计数，因此与采样率、抖动或批量传递无关。
+ * 如果一段时间没有样本或时间倒退，已开始的步伐将被丢弃，因为可能错过了其负峰值。
+ */
+public class StepDetector {
+
+    /**
+     * Waiting for the positive peak  等待正峰值
+     */
+    public static final int STATE_IDLE = 0;
+    /**
+     * Positive peak seen, waiting for the negative peak  已检测到正峰值，等待负峰值
+     */
+    public static final int STATE_STEP_BEGUN = 1;
+
+    private static final long MIN_STEP_TIME_NS = 240000000L;
+    private static final long MAX_STEP_TIME_NS = 800000000L;
+    /**
+     * Longest time between two samples within a step, 10 Hz. The sensors have to run clearly faster, the
+     * timestamps jitter (see {@link SensorRateGovernor})
+     */
+    static final long MAX_SAMPLE_GAP_NS = 100000000L;
+
+    private final AdaptiveStepThreshold adaptiveThreshold = new AdaptiveStepThreshold();
+    private float stepThreshold = 2.0f;
+    private boolean adaptive = true;
+    private int state = STATE_IDLE;
+    private long stepBeginTime;
+    private long lastTimestamp = -1;
+
+    /**
+     * Processes one sample of the vertical linear acceleration
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param value     vertical linear acceleration in m/s^2
+     * @return true if this sample completed a step
+     */
+    public boolean update(long timestamp, float value) {
+        boolean step = detect(timestamp, value, adaptive ? adaptiveThreshold.getThreshold() : stepThreshold);
+        adaptiveThreshold.update(timestamp, value);
+        return step;
+    }
+
+    private boolean detect(long timestamp, float value, float threshold) {
+        long gap = timestamp - lastTimestamp;
+        boolean continuous = lastTimestamp >= 0 && gap >= 0 && gap <= MAX_SAMPLE_GAP_NS;
+        lastTimestamp = timestamp;
+
+        if (state == STATE_STEP_BEGUN && !continuous) {
+            // samples are missing, the negative peak may be among them
+            //样本缺失，负峰值可能在其中
+            state = STATE_IDLE;
+        }
+
+        if (state == STATE_IDLE) {
+            if (value >= threshold) {
+                // Introduction of a step
+                //介绍一个步骤
+                state = STATE_STEP_BEGUN;
+                stepBeginTime = timestamp;
+            }
+            return false;
+        }
+
+        long stepTime = timestamp - stepBeginTime;
+        if (stepTime < MIN_STEP_TIME_NS) {
+            // TimeFrame for step too small, so wait
+            //TimeFrame步骤太小，所以请等待
+            return false;
+        }
+        if (stepTime > MAX_STEP_TIME_NS) {
+            // TimeFrame for step too long
+            //步长过长的TimeFrame
+            state = STATE_IDLE;
+            return false;
+        }
+        // Timeframe for step between minTime and maxTime, check for negative peak
+        //minTime和maxTime之间的时间范围，检查负峰值
+        if (value < -threshold) {
+            // TimeFrame correct AND Threshold of reverse side reached
+            //TimeFrame正确且达到反面的阈值
+            state = STATE_IDLE;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true while a step has begun and its negative peak is awaited
+     */
+    public boolean isStepBegun() {
+        return state == STATE_STEP_BEGUN;
+    }
+
+    /**
+     * @return {@link #STATE_IDLE} or {@link #STATE_STEP_BEGUN}
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Forgets a begun step and the last timestamp, e.g. when the sensors are restarted
+     * 忘记已开始的步伐和上一个时间戳，例如在重新启动传感器时
+     */
+    public void reset() {
+        state = STATE_IDLE;
+        lastTimestamp = -1;
+        adaptiveThreshold.reset();
+    }
+
+    /**
+     * @return the threshold for the next sample in m/s^2
+     */
+    public float getStepThreshold() {
+        return adaptive ? adaptiveThreshold.getThreshold() : stepThreshold;
+    }
+
+    /**
+     * Sets a fixed threshold instead of the adaptive one
+     * 设置固定阈值代替自适应阈值
+     *
+     * @param stepThreshold the threshold in m/s^2
+     */
+    public void setStepThreshold(float stepThreshold) {
+        this.stepThreshold = stepThreshold;
+        adaptive = false;
+    }
+
+    /**
+     * @param adaptive true to let the threshold follow the strength of the walk (default), false for the fixed
+     *                 threshold (2 m/s^2 unless set)
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @return the adaptive threshold with its envelopes (e.g. for metrics), updated also while a fixed threshold is
+     * used
+     */
+    public AdaptiveStepThreshold getAdaptiveThreshold() {
+        return adaptiveThreshold;
+    }
+}
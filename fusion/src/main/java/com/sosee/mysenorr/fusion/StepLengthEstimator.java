@@ -0,0 +1,320 @@
+package com.sosee.mysenorr.fusion;
+
+import java.util.Locale;
+
+/**
+ * Estimates the length of each step from the vertical linear acceleration of that step instead of using one fixed
+ * length. The samples from the positive peak that begins a step until the negative peak that completes it are
+ * summarized incrementally (minimum, maximum, mean of the magnitude and variance), nothing is stored per sample.
+ * <p>
+ * Two models are available, both {@code length = k * raw} with one coefficient per user:
+ * <ul>
+ * <li>{@link #MODEL_WEINBERG}: {@code raw = (max - min)^(1/4)}, the bounce of the hip grows with the stride</li>
+ * <li>{@link #MODEL_KIM}: {@code raw = (mean |a|)^(1/3)}</li>
+ * </ul>
+ * Without calibration k is chosen so that the average step has the configured length, so faster and slower steps
+ * still differ. {@link #calibrate(double, double)} learns k from the distance between two GPS fixes: the raw values
+ * of the steps between the fixes are added as vectors in the direction of each step, so turns do not count as
+ * distance, and k is the least squares fit of all segments (older segments are slowly forgotten). The step
+ * frequency and the variance of each step are kept for diagnostics.
+ * <p>
+ * Nothing allocates after construction.
+ * <p>
+ * 根据每一步的垂直线性加速度估计步长，而不是使用固定步长。从开始一步的正峰值到完成它的负峰值之间的样本被增量汇总
+ * （最小值、最大值、绝对值均值和方差），不存储每个样本。
+ * 两种模型：Weinberg（最大值减最小值的四次方根）和Kim（绝对值均值的立方根），均为 步长 = k * 原始值，每个用户一个系数。
+ * 未校准时k使平均步长等于配置的步长。calibrate()根据两个GPS定位点之间的距离学习k：定位点之间各步的原始值按方向作为向量相加，
+ * 因此转弯不算作距离，k是所有路段的最小二乘拟合（旧路段逐渐被遗忘）。构造后不再分配内存。
+ */
+public class StepLengthEstimator {
+
+    public static final int MODEL_WEINBERG = 0;
+    public static final int MODEL_KIM = 1;
+    /**
+     * Used as average step length if none is configured, in metres
+     */
+    public static final float DEFAULT_STEP_LENGTH = 0.7f;
+    /**
+     * Estimates are limited to this range in metres
+     */
+    public static final float MIN_STEP_LENGTH = 0.2f;
+    public static final float MAX_STEP_LENGTH = 2.0f;
+    /**
+     * A segment between two GPS fixes must be at least this long (metres) and its GPS error at most this part of
+     * its length, otherwise the next fix extends it
+     */
+    static final double MIN_CALIBRATION_DISTANCE = 20;
+    static final double MAX_CALIBRATION_ERROR = 0.1;
+    /**
+     * GPS distance / estimated distance outside 1/2..2 means something else than walking (GPS jump, vehicle), the
+     * segment is dropped
+     */
+    static final double MAX_CALIBRATION_RATIO = 2;
+    /**
+     * Weight of the older segments when a new one is added
+     */
+    private static final double FORGETTING = 0.95;
+    /**
+     * Weight of the uncalibrated coefficient in the fit, as if it came from a segment of 30 raw units (~20 steps)
+     */
+    private static final double PRIOR_WEIGHT = 30 * 30;
+    /**
+     * The average raw value adapts over this many steps
+     */
+    private static final int RAW_MEAN_STEPS = 500;
+    /**
+     * Steps further apart do not give a step frequency
+     */
+    private static final long MAX_STEP_INTERVAL_NS = 2000000000L;
+
+    private int model = MODEL_WEINBERG;
+    private float configuredLength = DEFAULT_STEP_LENGTH;
+
+    // the current step  当前步伐
+    private int samples;
+    private float min;
+    private float max;
+    private double mean;
+    private double m2;
+    private double absSum;
+
+    // the last step  上一步
+    private long lastStepTime = -1;
+    private float frequency;
+    private float variance;
+    private float raw;
+    private float length;
+
+    // average raw value for the uncalibrated coefficient  未校准系数使用的平均原始值
+    private double rawMean;
+    private int rawMeanSteps;
+
+    // calibration  校准
+    private double segmentNorth;
+    private double segmentEast;
+    private int segmentSteps;
+    private double sumProducts;
+    private double sumSquares;
+    private int calibrations;
+
+    public StepLengthEstimator() {
+        rawMean = typicalRaw(model);
+        startStep();
+    }
+
+    /**
+     * Starts the summary of a new step, called at the positive peak that begins it
+     * 开始汇总新的一步，在开始它的正峰值处调用
+     */
+    public void startStep() {
+        samples = 0;
+        min = Float.MAX_VALUE;
+        max = -Float.MAX_VALUE;
+        mean = 0;
+        m2 = 0;
+        absSum = 0;
+    }
+
+    /**
+     * Adds a sample of the current step
+     *
+     * @param value vertical linear acceleration in m/s^2
+     */
+    public void update(float value) {
+        samples++;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        // Welford  韦尔福德算法
+        double delta = value - mean;
+        mean += delta / samples;
+        m2 += delta * (value - mean);
+        absSum += Math.abs(value);
+    }
+
+    /**
+     * Completes the current step
+     * 完成当前步伐
+     *
+     * @param timestamp time of the negative peak in nanoseconds
+     * @param azimuth   direction of the step in degrees
+     * @return the estimated length of the step in metres
+     */
+    public float onStep(long timestamp, double azimuth) {
+        long interval = timestamp - lastStepTime;
+        frequency = lastStepTime >= 0 && interval > 0 && interval <= MAX_STEP_INTERVAL_NS
+                ? (float) (1e9 / interval) : 0;
+        lastStepTime = timestamp;
+        variance = samples > 1 ? (float) (m2 / (samples - 1)) : 0;
+
+        if (samples == 0) {
+            raw = (float) rawMean;
+        } else if (model == MODEL_KIM) {
+            raw = (float) Math.cbrt(absSum / samples);
+        } else {
+            raw = (float) Math.sqrt(Math.sqrt(max - min));
+        }
+        rawMeanSteps = Math.min(rawMeanSteps + 1, RAW_MEAN_STEPS);
+        rawMean += (raw - rawMean) / rawMeanSteps;
+
+        double radians = Math.toRadians(azimuth);
+        segmentNorth += raw * Math.cos(radians);
+        segmentEast += raw * Math.sin(radians);
+        segmentSteps++;
+
+        length = Math.max(MIN_STEP_LENGTH, Math.min(MAX_STEP_LENGTH, (float) (getCoefficient() * raw)));
+        startStep();
+        return length;
+    }
+
+    /**
+     * @return the coefficient k of the model, fitted to the GPS segments and the configured step length
+     */
+    public double getCoefficient() {
+        double prior = configuredLength / rawMean;
+        return (sumProducts + PRIOR_WEIGHT * prior) / (sumSquares + PRIOR_WEIGHT);
+    }
+
+    /**
+     * Starts a calibration segment at a GPS fix, the steps since then are measured against the next fix
+     * 在GPS定位点开始一个校准路段
+     */
+    public void startCalibration() {
+        segmentNorth = 0;
+        segmentEast = 0;
+        segmentSteps = 0;
+    }
+
+    /**
+     * Compares the steps since {@link #startCalibration()} with the distance between the two GPS fixes. If the
+     * segment is long and accurate enough, the coefficient is fitted again and the next segment starts; if it is
+     * too short, the next fix extends it; if the distances do not fit at all, it is dropped.
+     * 将startCalibration()以来的步伐与两个GPS定位点之间的距离比较。路段足够长且准确时重新拟合系数并开始下一路段；
+     * 太短时由下一个定位点延长；距离完全不符时丢弃。
+     *
+     * @param distance straight distance between the fixes in metres
+     * @param error    sum of the accuracies of both fixes in metres
+     * @return true if the segment ended (used or dropped) and a new one has started, false if it is extended
+     */
+    public boolean calibrate(double distance, double error) {
+        double rawDistance = Math.sqrt(segmentNorth * segmentNorth + segmentEast * segmentEast);
+        double estimated = getCoefficient() * rawDistance;
+        if (Math.max(distance, estimated) < MIN_CALIBRATION_DISTANCE || error > MAX_CALIBRATION_ERROR * distance) {
+            return false;
+        }
+        if (distance < estimated * MAX_CALIBRATION_RATIO && estimated < distance * MAX_CALIBRATION_RATIO) {
+            sumProducts = FORGETTING * sumProducts + distance * rawDistance;
+            sumSquares = FORGETTING * sumSquares + rawDistance * rawDistance;
+            calibrations++;
+        }
+        startCalibration();
+        return true;
+    }
+
+    /**
+     * @return steps since {@link #startCalibration()}
+     */
+    public int getSegmentSteps() {
+        return segmentSteps;
+    }
+
+    /**
+     * @return the weighted sums of the fit (GPS distance * raw distance, raw distance²), e.g. to store them
+     */
+    public double getSumProducts() {
+        return sumProducts;
+    }
+
+    public double getSumSquares() {
+        return sumSquares;
+    }
+
+    /**
+     * Restores a stored fit, e.g. of the same user on an earlier day
+     * 恢复保存的拟合结果
+     */
+    public void setCalibration(double sumProducts, double sumSquares) {
+        this.sumProducts = sumProducts;
+        this.sumSquares = sumSquares;
+    }
+
+    /**
+     * @return number of segments used since construction or the last model change
+     */
+    public int getCalibrations() {
+        return calibrations;
+    }
+
+    /**
+     * @param length average step length in metres used without calibration, 0 for the default
+     */
+    public void setStepLength(float length) {
+        configuredLength = length > 0 ? length : DEFAULT_STEP_LENGTH;
+    }
+
+    /**
+     * Selects the model, the calibration starts again because the raw values have another scale
+     *
+     * @param model {@link #MODEL_WEINBERG} or {@link #MODEL_KIM}
+     */
+    public void setModel(int model) {
+        if (model != this.model) {
+            this.model = model;
+            rawMean = typicalRaw(model);
+            rawMeanSteps = 0;
+            sumProducts = 0;
+            sumSquares = 0;
+            calibrations = 0;
+            startCalibration();
+        }
+    }
+
+    public int getModel() {
+        return model;
+    }
+
+    /**
+     * Raw value of a normal walk, the starting point of the average
+     */
+    private static double typicalRaw(int model) {
+        // about 5 m/s^2 from peak to valley, 1.5 m/s^2 mean magnitude
+        return model == MODEL_KIM ? Math.cbrt(1.5) : Math.sqrt(Math.sqrt(5));
+    }
+
+    /**
+     * @return the length of the last step in metres
+     */
+    public float getStepLength() {
+        return length;
+    }
+
+    /**
+     * @return steps per second from the last two steps, 0 if they were more than 2 seconds apart
+     */
+    public float getStepFrequency() {
+        return frequency;
+    }
+
+    /**
+     * @return variance of the vertical acceleration during the last step in (m/s^2)^2
+     */
+    public float getVariance() {
+        return variance;
+    }
+
+    /**
+     * @return the model value of the last step before the coefficient is applied
+     */
+    public float getRaw() {
+        return raw;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "step %.2f m (%.2f Hz, variance %.2f), k %.3f, %d calibrations", length,
+                frequency, variance, getCoefficient(), calibrations);
+    }
+}
@@ -0,0 +1,190 @@
+package com.sosee.mysenorr.fusion;
+
+import java.util.Locale;
+
+/**
+ * Estimates the direction the user walks in from the acceleration in world coordinates, independent of how the phone
+ * is held (sideways, in a trouser pocket, in a bag). While walking the body speeds up and slows down along the
+ * direction of travel once per step, so the horizontal acceleration varies most along that line: it is the principal
+ * axis of the horizontal acceleration (PCA of its 2x2 covariance) over the recent steps. Which end of the line is
+ * forward follows from the phase against the vertical movement: like an inverted pendulum the body slows down while it
+ * rises over the standing leg and speeds up while it falls, so the forward acceleration is opposite to the vertical
+ * speed.
+ * <p>
+ * Every sample only adds to a few sums; at each step they become the covariances of that step, which are averaged
+ * with those of the earlier steps (the memory covers about one stride, i.e. both legs), so the cost is O(1) per sample
+ * and nothing is stored per sample. The direction is only valid if the principal axis is clearly longer than the
+ * other one and the phase is clear, otherwise the device azimuth has to be used.
+ * <p>
+ * 从世界坐标系中的加速度估计用户的行走方向，与手机的持握方式无关（侧握、裤兜里、包里）。行走时身体每一步沿行进方向加速和减速一次，
+ * 因此水平加速度沿该直线变化最大：它是最近几步水平加速度的主轴（2x2协方差的主成分分析）。直线的哪一端是前方由与垂直运动的相位决定：
+ * 像倒立摆一样，身体在支撑腿上升高时减速、下降时加速，因此前向加速度与垂直速度相反。
+ * 每个样本只累加到几个和中；每一步时它们变为该步的协方差，并与之前几步的协方差平均（记忆约一个跨步，即两条腿），
+ * 因此每个样本的开销为O(1)，不保存样本。只有主轴明显长于另一轴且相位明确时方向才有效，否则必须使用设备方位角。
+ */
+public class WalkingDirectionEstimator {
+
+    private static final float NS2S = 1e-9f;
+    /**
+     * Weight of the earlier steps in the covariances
+     */
+    private static final double MEMORY = 0.5;
+    /**
+     * Smallest variance of the acceleration along the direction of travel in (m/s²)², below the user is not walking
+     */
+    private static final double MIN_VARIANCE = 0.05;
+    /**
+     * Smallest ratio of the variances along and across the direction of travel
+     */
+    private static final double MIN_AXIS_RATIO = 2;
+    /**
+     * Smallest correlation between forward acceleration and vertical speed for a clear phase
+     */
+    private static final double MIN_CORRELATION = 0.3;
+    /**
+     * A step needs at least this many samples, gaps longer than this (ns) are not integrated
+     */
+    private static final int MIN_SAMPLES = 5;
+    private static final long MAX_INTERVAL_NS = 500000000L;
+
+    /**
+     * Sums over the samples of the current step: east, north, vertical speed
+     */
+    private int count;
+    private double sumE, sumN, sumV;
+    private double sumEE, sumEN, sumNN, sumVV, sumEV, sumNV;
+    private double verticalSpeed;
+    private long lastTimestamp;
+
+    /**
+     * Covariances averaged over the recent steps, and the sum of their weights
+     */
+    private double covEE, covEN, covNN, covVV, covEV, covNV;
+    private double weight;
+
+    private double azimuth;
+    private double axisRatio;
+    private double correlation;
+    private boolean valid;
+
+    /**
+     * Adds a sample of the acceleration without gravity in world coordinates
+     * 添加一个世界坐标系中去除重力的加速度样本
+     *
+     * @param timestamp time of the sample in nanoseconds
+     * @param east      acceleration towards east in m/s²
+     * @param north     acceleration towards north in m/s²
+     * @param up        acceleration upwards in m/s²
+     */
+    public void update(long timestamp, float east, float north, float up) {
+        long interval = timestamp - lastTimestamp;
+        lastTimestamp = timestamp;
+        if (interval > 0 && interval <= MAX_INTERVAL_NS) {
+            verticalSpeed += up * interval * NS2S;
+        }
+        double v = verticalSpeed;
+        count++;
+        sumE += east;
+        sumN += north;
+        sumV += v;
+        sumEE += east * east;
+        sumEN += east * north;
+        sumNN += north * north;
+        sumVV += v * v;
+        sumEV += east * v;
+        sumNV += north * v;
+    }
+
+    /**
+     * Ends the current step and updates the direction with it
+     * 结束当前步并用它更新方向
+     *
+     * @return true if the direction is valid
+     */
+    public boolean onStep() {
+        if (count >= MIN_SAMPLES) {
+            double n = count;
+            double meanE = sumE / n;
+            double meanN = sumN / n;
+            double meanV = sumV / n;
+            covEE = MEMORY * covEE + sumEE / n - meanE * meanE;
+            covEN = MEMORY * covEN + sumEN / n - meanE * meanN;
+            covNN = MEMORY * covNN + sumNN / n - meanN * meanN;
+            covVV = MEMORY * covVV + sumVV / n - meanV * meanV;
+            covEV = MEMORY * covEV + sumEV / n - meanE * meanV;
+            covNV = MEMORY * covNV + sumNV / n - meanN * meanV;
+            weight = MEMORY * weight + 1;
+            estimate();
+        }
+        startStep();
+        return valid;
+    }
+
+    private void startStep() {
+        count = 0;
+        sumE = sumN = sumV = 0;
+        sumEE = sumEN = sumNN = sumVV = sumEV = sumNV = 0;
+        // the integration of the vertical speed starts again, the constant is removed with the mean
+        //垂直速度的积分重新开始，常量随均值去除
+        verticalSpeed = 0;
+    }
+
+    /**
+     * Principal axis of the horizontal covariance and its forward end
+     */
+    private void estimate() {
+        double half = (covEE - covNN) / 2;
+        double root = Math.sqrt(half * half + covEN * covEN);
+        double major = (covEE + covNN) / 2 + root;
+        double minor = (covEE + covNN) / 2 - root;
+        // angle of the principal axis from east, counter-clockwise  主轴与东方向的夹角，逆时针
+        double angle = 0.5 * Math.atan2(2 * covEN, covEE - covNN);
+        double e = Math.cos(angle);
+        double n = Math.sin(angle);
+        double forwardSpeed = e * covEV + n * covNV;
+        if (forwardSpeed > 0) {
+            // the forward acceleration is opposite to the vertical speed  前向加速度与垂直速度相反
+            e = -e;
+            n = -n;
+            forwardSpeed = -forwardSpeed;
+        }
+        azimuth = Math.toDegrees(Math.atan2(e, n));
+        if (azimuth < 0) {
+            azimuth += 360;
+        }
+        axisRatio = minor > 0 ? major / minor : Double.POSITIVE_INFINITY;
+        correlation = major > 0 && covVV > 0 ? -forwardSpeed / Math.sqrt(major * covVV) : 0;
+        valid = major / weight >= MIN_VARIANCE && axisRatio >= MIN_AXIS_RATIO && correlation >= MIN_CORRELATION;
+    }
+
+    /**
+     * @return the direction of travel in degrees (0 = north of the world coordinates of the samples), of the last
+     * step
+     */
+    public double getAzimuth() {
+        return azimuth;
+    }
+
+    /**
+     * @return true if the direction of the last step is clear enough to be used
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Forgets the recent steps, e.g. after a pause
+     */
+    public void reset() {
+        covEE = covEN = covNN = covVV = covEV = covNV = 0;
+        weight = 0;
+        valid = false;
+        startStep();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH, "azimuth %.1f°, axis ratio %.1f, correlation %.2f, %s", azimuth,
+                axisRatio, correlation, valid ? "valid" : "invalid");
+    }
+}
@@ -0,0 +1,88 @@
+package com.sosee.mysenorr.metrics;
+
+import java.util.Locale;
+
+/**
+ * Collects latencies (e.g. from the timestamp of a sensor event to its callback) in a histogram with power of two
+ * buckets, so recording a value is a handful of operations and never allocates. Percentiles are therefore
+ * accurate to a factor of two, mean and maximum are exact.
+ * <p>
+ * Values must be recorded by one thread. Other threads may read the statistics, but then only get approximate
+ * values.
+ * <p>
+ * 以2的幂为区间的直方图收集延迟（例如从传感器事件的时间戳到回调），记录一个值只需几个操作且不分配内存。
+ * 只能由一个线程记录，其他线程读取的统计值是近似的。
+ */
+public class LatencyStats {
+
+    /**
+     * Bucket i holds the values from 2^(i-1) to 2^i - 1 nanoseconds, the last bucket everything from about 1 s
+     */
+    private static final int BUCKETS = 32;
+
+    private final long[] histogram = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * @param nanos the latency in nanoseconds, negative values (e.g. clocks with a different time base) count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos);
+        histogram[bucket < BUCKETS ? bucket : BUCKETS - 1]++;
+        count++;
+        sum += nanos;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public long getMaxNanos() {
+        return max;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the latency below which the given percentage of values lies
+     */
+    public long getPercentileNanos(double percentile) {
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min((1L << i) - 1, max);
+            }
+        }
+        return max;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = 0;
+        }
+        count = sum = max = 0;
+    }
+
+    /**
+     * @return summary in microseconds, e.g. for the log
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "n=%d mean=%.1fus p50<=%.1fus p99<=%.1fus max=%.1fus", count,
+                getMeanNanos() / 1000.0, getPercentileNanos(50) / 1000.0, getPercentileNanos(99) / 1000.0,
+                max / 1000.0);
+    }
+}
@@ -1,6 +1,6 @@
 package com.sosee.mysenorr.representation;
 
-import android.util.Log;
+import java.util.logging.Logger;
 
 /**
  * The Class Matrixf4x4.
@@ -26,6 +26,8 @@ import android.util.Log;
  */
 public class Matrixf4x4 {
 
+    private static final Logger LOG = Logger.getLogger("matrix");
+
     public static final int[] matIndCol9_3x3 = {0, 1, 2, 3, 4, 5, 6, 7, 8};
     public static final int[] matIndCol16_3x3 = {0, 1, 2, 4, 5, 6, 8, 9, 10};
     public static final int[] matIndRow9_3x3 = {0, 3, 6, 1, 4, 7, 3, 5, 8};
@@ -73,7 +75,7 @@ public class Matrixf4x4 {
             this.matrixValid = true;
         else {
             this.matrixValid = false;
-            Log.e("matrix", "Matrix set is invalid, size is " + matrix.length + " expected 9 or 16");
+            LOG.severe("Matrix set is invalid, size is " + matrix.length + " expected 9 or 16");
         }
     }
 
@@ -83,7 +85,7 @@ public class Matrixf4x4 {
 
     public void setMatrixValues(float[] otherMatrix) {
         if (this.matrix.length != otherMatrix.length) {
-            Log.e("matrix", "Matrix set is invalid, size is " + otherMatrix.length + " expected 9 or 16");
+            LOG.severe("Matrix set is invalid, size is " + otherMatrix.length + " expected 9 or 16");
 
         }
 
@@ -152,7 +154,7 @@ public class Matrixf4x4 {
             vector.setZ(z);
             vector.setW(w);
         } else
-            Log.e("matrix", "Matrix is invalid, is " + matrix.length + " long, this equation expects a 16 value matrix");
+            LOG.severe("Matrix is invalid, is " + matrix.length + " long, this equation expects a 16 value matrix");
     }
 
     /**
@@ -192,7 +194,7 @@ public class Matrixf4x4 {
             vector.setY(y);
             vector.setZ(z);
         } else
-            Log.e("matrix", "Matrix is invalid, is " + matrix.length
+            LOG.severe("Matrix is invalid, is " + matrix.length
                     + " long, this function expects the internal matrix to be of size 9");
     }
 
@@ -224,7 +226,7 @@ public class Matrixf4x4 {
 
             matrixf.setMatrix(bufferMatrix);
         } else
-            Log.e("matrix", "Matrix is invalid, internal is " + matrix.length + " long" + " , input matrix is "
+            LOG.severe("Matrix is invalid, internal is " + matrix.length + " long" + " , input matrix is "
                     + matrixf.getMatrix().length + " long");
 
     }
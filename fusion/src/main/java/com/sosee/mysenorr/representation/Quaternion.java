@@ -95,7 +95,6 @@ public class Quaternion extends Vector4f {
      * @param output
      */
     public void multiplyByQuat(Quaternion input, Quaternion output) {
-        Vector4f inputCopy = new Vector4f();
         if (input != output) {
             output.points[3] = (points[3] * input.points[3] - points[0] * input.points[0] - points[1] * input.points[1] - points[2]
                     * input.points[2]); //w = w1w2 - x1x2 - y1y2 - z1z2
@@ -106,19 +105,16 @@ public class Quaternion extends Vector4f {
             output.points[2] = (points[3] * input.points[2] + points[2] * input.points[3] + points[0] * input.points[1] - points[1]
                     * input.points[0]); //z = w1z2 + z1w2 + x1y2 - y1x2
         } else {
-            inputCopy.points[0] = input.points[0];
-            inputCopy.points[1] = input.points[1];
-            inputCopy.points[2] = input.points[2];
-            inputCopy.points[3] = input.points[3];
-
-            output.points[3] = (points[3] * inputCopy.points[3] - points[0] * inputCopy.points[0] - points[1]
-                    * inputCopy.points[1] - points[2] * inputCopy.points[2]); //w = w1w2 - x1x2 - y1y2 - z1z2
-            output.points[0] = (points[3] * inputCopy.points[0] + points[0] * inputCopy.points[3] + points[1]
-                    * inputCopy.points[2] - points[2] * inputCopy.points[1]); //x = w1x2 + x1w2 + y1z2 - z1y2
-            output.points[1] = (points[3] * inputCopy.points[1] + points[1] * inputCopy.points[3] + points[2]
-                    * inputCopy.points[0] - points[0] * inputCopy.points[2]); //y = w1y2 + y1w2 + z1x2 - x1z2
-            output.points[2] = (points[3] * inputCopy.points[2] + points[2] * inputCopy.points[3] + points[0]
-                    * inputCopy.points[1] - points[1] * inputCopy.points[0]); //z = w1z2 + z1w2 + x1y2 - y1x2
+            // Input and output are the same object, so copy the input to locals before overwriting it
+            float ix = input.points[0];
+            float iy = input.points[1];
+            float iz = input.points[2];
+            float iw = input.points[3];
+
+            output.points[3] = (points[3] * iw - points[0] * ix - points[1] * iy - points[2] * iz); //w = w1w2 - x1x2 - y1y2 - z1z2
+            output.points[0] = (points[3] * ix + points[0] * iw + points[1] * iz - points[2] * iy); //x = w1x2 + x1w2 + y1z2 - z1y2
+            output.points[1] = (points[3] * iy + points[1] * iw + points[2] * ix - points[0] * iz); //y = w1y2 + y1w2 + z1x2 - x1z2
+            output.points[2] = (points[3] * iz + points[2] * iw + points[0] * iy - points[1] * ix); //z = w1z2 + z1w2 + x1y2 - y1x2
         }
     }
 
@@ -139,7 +135,7 @@ public class Quaternion extends Vector4f {
      */
     public void multiplyByScalar(float scalar) {
         this.dirty = true;
-        multiplyByScalar(scalar);
+        super.multiplyByScalar(scalar);
     }
 
     /**
@@ -465,18 +461,13 @@ public class Quaternion extends Vector4f {
     public void slerp(Quaternion input, Quaternion output, float t) {
         // Calculate angle between them.
         //double cosHalftheta = this.dotProduct(input);
-        Quaternion bufferQuat = null;
+        // Instead of copying a negated input into a new Quaternion, only remember the sign
+        float inputSign = 1;
         float cosHalftheta = this.dotProduct(input);
 
         if (cosHalftheta < 0) {
-            bufferQuat = new Quaternion();
+            inputSign = -1;
             cosHalftheta = -cosHalftheta;
-            bufferQuat.points[0] = (-input.points[0]);
-            bufferQuat.points[1] = (-input.points[1]);
-            bufferQuat.points[2] = (-input.points[2]);
-            bufferQuat.points[3] = (-input.points[3]);
-        } else {
-            bufferQuat = input;
         }
         /**
          * if(dot < 0.95f){
@@ -516,13 +507,13 @@ public class Quaternion extends Vector4f {
             double halfTheta = Math.acos(cosHalftheta);
 
             double ratioA = Math.sin((1 - t) * halfTheta) / sinHalfTheta;
-            double ratioB = Math.sin(t * halfTheta) / sinHalfTheta;
+            double ratioB = inputSign * Math.sin(t * halfTheta) / sinHalfTheta;
 
             //Calculate Quaternion
-            output.points[3] = ((float) (points[3] * ratioA + bufferQuat.points[3] * ratioB));
-            output.points[0] = ((float) (this.points[0] * ratioA + bufferQuat.points[0] * ratioB));
-            output.points[1] = ((float) (this.points[1] * ratioA + bufferQuat.points[1] * ratioB));
-            output.points[2] = ((float) (this.points[2] * ratioA + bufferQuat.points[2] * ratioB));
+            output.points[3] = ((float) (points[3] * ratioA + input.points[3] * ratioB));
+            output.points[0] = ((float) (this.points[0] * ratioA + input.points[0] * ratioB));
+            output.points[1] = ((float) (this.points[1] * ratioA + input.points[1] * ratioB));
+            output.points[2] = ((float) (this.points[2] * ratioA + input.points[2] * ratioB));
 
             //}
         }
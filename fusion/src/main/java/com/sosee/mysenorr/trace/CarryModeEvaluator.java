@@ -0,0 +1,197 @@
+package com.sosee.mysenorr.trace;
+
+import com.sosee.mysenorr.fusion.CarryModeClassifier;
+import com.sosee.mysenorr.fusion.NavigationEngine;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Replays labelled traces and compares the carry mode recognized by the engine ({@link CarryModeClassifier}) with
+ * the labelled one ({@link TraceFormat#LABEL_CARRY_MODE}). Every accelerometer sample while the user walks is
+ * counted in a confusion matrix of labelled against recognized mode, so the accuracy includes the delay after a
+ * change. The features of these samples are collected per labelled mode as well, to fit the model of the classifier
+ * to the traces ({@link #fitModel}).
+ * <p>
+ * 回放带标签的轨迹，并将引擎识别的携带方式与标记的方式进行比较。用户行走时的每个加速度计样本都计入标记方式对识别方式的
+ * 混淆矩阵，因此准确率包含切换后的延迟。这些样本的特征也按标记方式收集，用于将分类器的模型拟合到轨迹。
+ */
+public class CarryModeEvaluator {
+
+    private static final int MODES = CarryModeClassifier.MODES;
+    private static final int FEATURES = CarryModeClassifier.FEATURES;
+
+    private final TraceReplay replay;
+    /**
+     * Samples per labelled (row) and recognized mode (column), the last column counts {@link
+     * CarryModeClassifier#MODE_UNKNOWN}
+     */
+    private final int[] confusion = new int[MODES * (MODES + 1)];
+    private int samples;
+    /**
+     * Number, sum and sum of squares of each feature per labelled mode
+     */
+    private final int[] featureCounts = new int[MODES * FEATURES];
+    private final double[] featureSums = new double[MODES * FEATURES];
+    private final double[] featureSquares = new double[MODES * FEATURES];
+    private final float[] features = new float[FEATURES];
+
+    /**
+     * @param replay feeds the engine whose carry mode is evaluated, the detection is switched on
+     */
+    public CarryModeEvaluator(TraceReplay replay) {
+        this.replay = replay;
+        replay.getEngine().setCarryModeDetection(true);
+    }
+
+    /**
+     * Replays a trace, the results add up over several traces. The classifier starts again with each trace.
+     *
+     * @param reader the labelled trace, not closed
+     * @throws IOException if the trace cannot be read
+     */
+    public void evaluate(TraceReader reader) throws IOException {
+        NavigationEngine engine = replay.getEngine();
+        CarryModeClassifier classifier = engine.getCarryModeClassifier();
+        classifier.reset();
+        int labelled = CarryModeClassifier.MODE_UNKNOWN;
+        while (reader.next()) {
+            int type = reader.getType();
+            float[] values = reader.getValues();
+            if (type == TraceFormat.TYPE_LABEL) {
+                if (reader.getValueCount() > 1 && (int) values[0] == TraceFormat.LABEL_CARRY_MODE) {
+                    int mode = (int) values[1];
+                    labelled = mode >= 0 && mode < MODES ? mode : CarryModeClassifier.MODE_UNKNOWN;
+                }
+                continue;
+            }
+            replay.process(type, reader.getTimestamp(), values, reader.getValueCount());
+            if (type == TraceFormat.TYPE_ACCELEROMETER && labelled != CarryModeClassifier.MODE_UNKNOWN
+                    && classifier.isMoving()) {
+                count(labelled, classifier);
+            }
+        }
+    }
+
+    private void count(int labelled, CarryModeClassifier classifier) {
+        confusion[index(labelled, classifier.getMode())]++;
+        samples++;
+        classifier.getFeatures(features);
+        for (int f = 0; f < FEATURES; f++) {
+            float value = features[f];
+            if (value == value) {
+                int i = labelled * FEATURES + f;
+                featureCounts[i]++;
+                featureSums[i] += value;
+                featureSquares[i] += value * value;
+            }
+        }
+    }
+
+    /**
+     * Fits the model of a classifier to the evaluated traces: the centroid of a mode is the mean of its features,
+     * the scale of a feature its standard deviation within the modes. Modes without samples keep their centroid.
+     * 将分类器的模型拟合到已评估的轨迹：每种方式的质心是其特征的均值，每个特征的尺度是其在各方式内的标准差。
+     *
+     * @param classifier receives the model, e.g. the one of the engine for the next evaluation
+     * @return number of modes that were fitted
+     */
+    public int fitModel(CarryModeClassifier classifier) {
+        float[] centroids = new float[MODES * FEATURES];
+        float[] scales = new float[FEATURES];
+        classifier.getModel(centroids, scales);
+        int fitted = 0;
+        for (int m = 0; m < MODES; m++) {
+            boolean complete = true;
+            for (int f = 0; f < FEATURES; f++) {
+                int i = m * FEATURES + f;
+                if (featureCounts[i] > 0) {
+                    centroids[i] = (float) (featureSums[i] / featureCounts[i]);
+                } else {
+                    complete = false;
+                }
+            }
+            if (complete) {
+                fitted++;
+            }
+        }
+        for (int f = 0; f < FEATURES; f++) {
+            double squares = 0;
+            int n = 0;
+            for (int m = 0; m < MODES; m++) {
+                int i = m * FEATURES + f;
+                if (featureCounts[i] > 0) {
+                    double mean = featureSums[i] / featureCounts[i];
+                    squares += featureSquares[i] - featureCounts[i] * mean * mean;
+                    n += featureCounts[i];
+                }
+            }
+            if (n > 1 && squares > 0) {
+                scales[f] = (float) Math.sqrt(squares / n);
+            }
+        }
+        classifier.setModel(centroids, scales);
+        return fitted;
+    }
+
+    /**
+     * @param labelled   the labelled mode
+     * @param recognized the recognized mode, {@link CarryModeClassifier#MODE_UNKNOWN} for samples before the first
+     *                   recognition
+     * @return number of walking samples with this combination
+     */
+    public int getConfusion(int labelled, int recognized) {
+        return confusion[index(labelled, recognized)];
+    }
+
+    private static int index(int labelled, int recognized) {
+        return labelled * (MODES + 1) + (recognized == CarryModeClassifier.MODE_UNKNOWN ? MODES : recognized);
+    }
+
+    /**
+     * @return number of labelled samples while the user walked
+     */
+    public int getSamples() {
+        return samples;
+    }
+
+    public int getCorrect() {
+        int correct = 0;
+        for (int m = 0; m < MODES; m++) {
+            correct += confusion[index(m, m)];
+        }
+        return correct;
+    }
+
+    /**
+     * @return correctly recognized samples / samples, 1 without samples
+     */
+    public double getAccuracy() {
+        return samples == 0 ? 1 : (double) getCorrect() / samples;
+    }
+
+    /**
+     * @return correctly recognized samples of a mode / labelled samples of the mode, 1 without samples
+     */
+    public double getRecall(int mode) {
+        int labelled = 0;
+        for (int r = 0; r <= MODES; r++) {
+            labelled += confusion[mode * (MODES + 1) + r];
+        }
+        return labelled == 0 ? 1 : (double) confusion[index(mode, mode)] / labelled;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format(Locale.US,
+                "carry mode samples=%d correct=%d accuracy=%.3f", samples, getCorrect(), getAccuracy()));
+        for (int m = 0; m < MODES; m++) {
+            builder.append(String.format(Locale.US, "%n%-8s recall=%.3f", CarryModeClassifier.getName(m),
+                    getRecall(m)));
+            for (int r = 0; r <= MODES; r++) {
+                builder.append(' ').append(confusion[m * (MODES + 1) + r]);
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,140 @@
+package com.sosee.mysenorr.trace;
+
+import com.sosee.mysenorr.fusion.NavigationEngine;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Replays a labelled trace and compares the detected steps with the labelled ones ({@link TraceFormat#TYPE_LABEL}).
+ * A detected step counts as correct if a labelled step lies within the tolerance and is not yet matched to another
+ * detection. Precision is the part of the detected steps that are correct, recall the part of the labelled steps
+ * that were detected.
+ * <p>
+ * 回放带标签的轨迹，并将检测到的步伐与标记的步伐进行比较。精确率是检测到的步伐中正确的比例，
+ * 召回率是标记的步伐中被检测到的比例。
+ */
+public class StepEvaluator {
+
+    /**
+     * Steps are detected at the negative peak, a label may lie a bit before or after it
+     */
+    public static final long DEFAULT_TOLERANCE_NS = 250000000L;
+
+    private final TraceReplay replay;
+    private final long tolerance;
+    private long[] labels = new long[256];
+    private int labelCount;
+    private long[] detections = new long[256];
+    private int detectionCount;
+    private int truePositives;
+
+    /**
+     * @param replay feeds the engine whose steps are evaluated
+     */
+    public StepEvaluator(TraceReplay replay) {
+        this(replay, DEFAULT_TOLERANCE_NS);
+    }
+
+    /**
+     * @param replay    feeds the engine whose steps are evaluated
+     * @param tolerance largest time between a detected and a labelled step in nanoseconds
+     */
+    public StepEvaluator(TraceReplay replay, long tolerance) {
+        this.replay = replay;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Replays a trace, the results add up over several traces
+     *
+     * @param reader the labelled trace, not closed
+     * @throws IOException if the trace cannot be read
+     */
+    public void evaluate(TraceReader reader) throws IOException {
+        NavigationEngine engine = replay.getEngine();
+        int firstLabel = labelCount;
+        int firstDetection = detectionCount;
+        while (reader.next()) {
+            int type = reader.getType();
+            long timestamp = reader.getTimestamp();
+            if (type == TraceFormat.TYPE_LABEL) {
+                if (reader.getValueCount() > 0 && (int) reader.getValues()[0] == TraceFormat.LABEL_STEP) {
+                    labels = append(labels, labelCount++, timestamp);
+                }
+                continue;
+            }
+            int steps = engine.getStepCounter();
+            replay.process(type, timestamp, reader.getValues(), reader.getValueCount());
+            if (engine.getStepCounter() > steps) {
+                detections = append(detections, detectionCount++, timestamp);
+            }
+        }
+        truePositives += match(firstLabel, firstDetection);
+    }
+
+    /**
+     * Matches the steps of one trace, both in the order of time: the earliest unmatched detection and label are
+     * paired if they are close enough, otherwise the earlier of them has no partner
+     */
+    private int match(int firstLabel, int firstDetection) {
+        Arrays.sort(labels, firstLabel, labelCount);
+        int matched = 0;
+        int l = firstLabel;
+        int d = firstDetection;
+        while (l < labelCount && d < detectionCount) {
+            long difference = detections[d] - labels[l];
+            if (Math.abs(difference) <= tolerance) {
+                matched++;
+                l++;
+                d++;
+            } else if (difference < 0) {
+                d++;
+            } else {
+                l++;
+            }
+        }
+        return matched;
+    }
+
+    private static long[] append(long[] array, int index, long value) {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[index] = value;
+        return array;
+    }
+
+    public int getLabelledSteps() {
+        return labelCount;
+    }
+
+    public int getDetectedSteps() {
+        return detectionCount;
+    }
+
+    public int getTruePositives() {
+        return truePositives;
+    }
+
+    /**
+     * @return correct detections / detections, 1 without detections
+     */
+    public double getPrecision() {
+        return detectionCount == 0 ? 1 : (double) truePositives / detectionCount;
+    }
+
+    /**
+     * @return correct detections / labelled steps, 1 without labels
+     */
+    public double getRecall() {
+        return labelCount == 0 ? 1 : (double) truePositives / labelCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "steps labelled=%d detected=%d correct=%d precision=%.3f recall=%.3f",
+                labelCount, detectionCount, truePositives, getPrecision(), getRecall());
+    }
+}
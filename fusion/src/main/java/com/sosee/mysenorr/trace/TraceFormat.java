@@ -0,0 +1,64 @@
+package com.sosee.mysenorr.trace;
+
+import java.nio.ByteOrder;
+
+/**
+ * The binary format of recorded sensor traces.
+ * <p>
+ * A trace starts with a header of 8 bytes: the magic number {@link #MAGIC} and the format {@link #VERSION}
+ * (both int). It is followed by the records, which are appended in the order the events arrived:
+ * <pre>
+ *   byte   type        sensor type, the values of android.hardware.Sensor.TYPE_* are used
+ *   byte   count       number of values
+ *   long   timestamp   time of the event in nanoseconds (SensorEvent.timestamp)
+ *   float  values[count]
+ * </pre>
+ * All numbers are little endian. There is no footer, so a trace that was cut off (e.g. the app was killed)
+ * can be read up to the last complete record.
+ * <p>
+ * 录制的传感器轨迹的二进制格式。文件以8字节的文件头开始，之后按事件到达的顺序追加记录。
+ */
+public final class TraceFormat {
+
+    /**
+     * "SNTR" (SmartNavi trace)
+     */
+    public static final int MAGIC = 0x534E5452;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    /**
+     * Sensor types, identical to the constants of android.hardware.Sensor
+     * 传感器类型，与android.hardware.Sensor的常量相同
+     */
+    public static final int TYPE_ACCELEROMETER = 1;
+    public static final int TYPE_MAGNETIC_FIELD = 2;
+    public static final int TYPE_GYROSCOPE = 4;
+    public static final int TYPE_ROTATION_VECTOR = 11;
+    /**
+     * Not a sensor: the ground truth of a labelled trace (e.g. a step counted by hand or by a foot mounted sensor),
+     * values[0] is one of the LABEL_* kinds. Replays ignore it, evaluators compare against it.
+     * 不是传感器：带标签轨迹的真实值，回放时忽略，评估时用于比较。
+     */
+    public static final int TYPE_LABEL = 100;
+    /**
+     * Label: a step was completed at the timestamp of the record
+     */
+    public static final int LABEL_STEP = 1;
+    /**
+     * Label: from the timestamp of the record on the phone is carried as given by values[1], one of the modes of
+     * CarryModeClassifier (e.g. in a pocket)
+     */
+    public static final int LABEL_CARRY_MODE = 2;
+
+    /**
+     * Values per record, additional values of an event are not recorded
+     */
+    public static final int MAX_VALUES = 16;
+    public static final int RECORD_HEADER_SIZE = 10;
+    public static final int MAX_RECORD_SIZE = RECORD_HEADER_SIZE + 4 * MAX_VALUES;
+
+    private TraceFormat() {
+    }
+}
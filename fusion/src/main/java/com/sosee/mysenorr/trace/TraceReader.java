@@ -0,0 +1,127 @@
+package com.sosee.mysenorr.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads a trace in the {@link TraceFormat binary format} record by record.
+ * The values of the current record are stored in a reused array, so reading does not allocate.
+ * <p>
+ * 逐条读取二进制格式的轨迹。当前记录的值存放在重复使用的数组中，读取时不分配内存。
+ *
+ * <pre>
+ * while (reader.next()) {
+ *     process(reader.getType(), reader.getTimestamp(), reader.getValues());
+ * }
+ * </pre>
+ */
+public class TraceReader implements Closeable {
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final float[] values = new float[TraceFormat.MAX_VALUES];
+    private int type;
+    private int count;
+    private long timestamp;
+    private boolean endOfChannel;
+
+    /**
+     * Opens the trace and checks the header
+     *
+     * @param channel the trace, it is closed by {@link #close()}
+     * @throws IOException if the channel does not contain a trace of a supported version
+     */
+    public TraceReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer = ByteBuffer.allocateDirect(TraceWriter.DEFAULT_BUFFER_SIZE).order(TraceFormat.BYTE_ORDER);
+        buffer.flip();
+        if (!fill(TraceFormat.HEADER_SIZE) || buffer.getInt() != TraceFormat.MAGIC) {
+            throw new IOException("Not a sensor trace");
+        }
+        int version = buffer.getInt();
+        if (version != TraceFormat.VERSION) {
+            throw new IOException("Unsupported trace version " + version);
+        }
+    }
+
+    /**
+     * Moves to the next record
+     *
+     * @return false at the end of the trace (an incomplete last record is ignored)
+     */
+    public boolean next() throws IOException {
+        if (!fill(TraceFormat.RECORD_HEADER_SIZE)) {
+            return false;
+        }
+        int recordType = buffer.get();
+        int recordCount = buffer.get();
+        long recordTimestamp = buffer.getLong();
+        if (recordCount < 0 || recordCount > TraceFormat.MAX_VALUES) {
+            throw new IOException("Corrupt trace, record with " + recordCount + " values");
+        }
+        if (!fill(4 * recordCount)) {
+            return false;
+        }
+        for (int i = 0; i < recordCount; i++) {
+            values[i] = buffer.getFloat();
+        }
+        type = recordType;
+        count = recordCount;
+        timestamp = recordTimestamp;
+        return true;
+    }
+
+    /**
+     * Makes sure that the buffer holds at least the given number of bytes
+     *
+     * @return false if the channel ends before
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return true;
+        }
+        buffer.compact();
+        while (buffer.position() < bytes && !endOfChannel) {
+            if (channel.read(buffer) < 0) {
+                endOfChannel = true;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= bytes;
+    }
+
+    /**
+     * @return sensor type of the current record, see {@link TraceFormat}
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return time of the current record in nanoseconds
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return number of values of the current record
+     */
+    public int getValueCount() {
+        return count;
+    }
+
+    /**
+     * @return the values of the current record (reused array, only the first {@link #getValueCount()} are valid)
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
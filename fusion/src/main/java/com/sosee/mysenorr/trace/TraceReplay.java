@@ -0,0 +1,176 @@
+package com.sosee.mysenorr.trace;
+
+import com.sosee.mysenorr.fusion.GyroFusion;
+import com.sosee.mysenorr.fusion.GyroIntegrator;
+import com.sosee.mysenorr.fusion.KalmanOrientationFilter;
+import com.sosee.mysenorr.fusion.MadgwickFilter;
+import com.sosee.mysenorr.fusion.NavigationEngine;
+import com.sosee.mysenorr.fusion.SensorMath;
+
+import java.io.IOException;
+
+/**
+ * Feeds a recorded trace through the same pipeline as on the device: accelerometer and magnetic field go to the
+ * {@link NavigationEngine} (like Core does), gyroscope and rotation vector to a {@link GyroFusion} which provides
+ * the heading (like the ImprovedOrientationSensor2Provider does), or to one of the other fusions, so the providers
+ * can be compared on the same recordings. The gyroscope also goes to the engine, which uses it to recognize how the
+ * phone is carried. Everything is driven by the timestamps of the
+ * records, nothing depends on the wall clock, so a trace gives the same steps, azimuths and positions on every
+ * run and is replayed as fast as the CPU allows.
+ * <p>
+ * 通过与设备上相同的流程回放录制的轨迹。一切都由记录的时间戳驱动，不依赖于系统时钟，
+ * 因此每次回放的步数、方位角和位置都相同，并且以CPU允许的最快速度回放。
+ */
+public class TraceReplay {
+
+    /**
+     * The heading is calculated from accelerometer and magnetic field, as on devices without gyroscope
+     */
+    public static final int FUSION_NONE = 0;
+    /**
+     * {@link GyroFusion}: gyroscope and rotation vector, as the ImprovedOrientationSensor2Provider
+     */
+    public static final int FUSION_GYRO = 1;
+    /**
+     * {@link KalmanOrientationFilter}: gyroscope, accelerometer and magnetic field, as the KalmanOrientationProvider
+     */
+    public static final int FUSION_KALMAN = 2;
+    /**
+     * {@link MadgwickFilter}: gyroscope, accelerometer and magnetic field, as the MadgwickOrientationProvider
+     */
+    public static final int FUSION_MADGWICK = 3;
+
+    private final NavigationEngine engine;
+    private final int fusion;
+    private final GyroFusion gyroFusion = new GyroFusion();
+    private final KalmanOrientationFilter kalmanFilter = new KalmanOrientationFilter();
+    private final MadgwickFilter madgwickFilter = new MadgwickFilter();
+    /**
+     * Orientation of the gyroscope fusion, identity until the first update (as in the OrientationProvider)
+     */
+    private final float[] rotationMatrix = new float[16];
+    /**
+     * Older devices report the rotation vector without w, then exactly 3 values have to be passed on
+     */
+    private final float[] rotationVector3 = new float[3];
+
+    /**
+     * @param engine       receives the accelerometer and magnetic field records
+     * @param useGyroscope true to take the heading from gyroscope and rotation vector (as on devices with a
+     *                     gyroscope), false to calculate it from accelerometer and magnetic field
+     */
+    public TraceReplay(NavigationEngine engine, boolean useGyroscope) {
+        this(engine, useGyroscope ? FUSION_GYRO : FUSION_NONE);
+    }
+
+    /**
+     * @param engine receives the accelerometer and magnetic field records
+     * @param fusion where the heading comes from, {@link #FUSION_NONE}, {@link #FUSION_GYRO}, {@link #FUSION_KALMAN}
+     *               or {@link #FUSION_MADGWICK}
+     */
+    public TraceReplay(NavigationEngine engine, int fusion) {
+        this.engine = engine;
+        this.fusion = fusion;
+        rotationMatrix[0] = rotationMatrix[5] = rotationMatrix[10] = rotationMatrix[15] = 1;
+        if (fusion != FUSION_NONE) {
+            engine.setHeadingSource(new NavigationEngine.HeadingSource() {
+                @Override
+                public double getAzimuth() {
+                    // magnetic north like Core, the engine adds the declination
+                    return SensorMath.getAzimuth(rotationMatrix, 0);
+                }
+
+                @Override
+                public void onMagneticDisturbance(boolean disturbed) {
+                    gyroFusion.setGyroOnly(disturbed);
+                    kalmanFilter.setMagneticDisturbed(disturbed);
+                    madgwickFilter.setMagneticDisturbed(disturbed);
+                }
+            });
+        }
+    }
+
+    /**
+     * @param method how the fusions integrate the gyroscope, one of the methods of {@link GyroIntegrator},
+     *               {@link GyroIntegrator#FIRST_ORDER} by default
+     */
+    public void setGyroIntegrator(int method) {
+        gyroFusion.setIntegrator(method);
+        kalmanFilter.setIntegrator(method);
+        madgwickFilter.setIntegrator(method);
+    }
+
+    /**
+     * Replays all records of the trace
+     *
+     * @return number of records read
+     */
+    public long replay(TraceReader reader) throws IOException {
+        long records = 0;
+        while (reader.next()) {
+            process(reader.getType(), reader.getTimestamp(), reader.getValues(), reader.getValueCount());
+            records++;
+        }
+        return records;
+    }
+
+    /**
+     * Processes one record, records of other types are ignored
+     *
+     * @param type      sensor type, see {@link TraceFormat}
+     * @param timestamp time of the record in nanoseconds
+     * @param values    the values, only read
+     * @param count     number of valid values
+     */
+    public void process(int type, long timestamp, float[] values, int count) {
+        switch (type) {
+            case TraceFormat.TYPE_ACCELEROMETER:
+                if (fusion == FUSION_GYRO) {
+                    gyroFusion.onAccelerometer(timestamp, values);
+                } else if (fusion == FUSION_KALMAN) {
+                    kalmanFilter.onAccelerometer(timestamp, values);
+                } else if (fusion == FUSION_MADGWICK) {
+                    madgwickFilter.onAccelerometer(timestamp, values);
+                }
+                engine.onAccelerometer(timestamp, values);
+                break;
+
+            case TraceFormat.TYPE_MAGNETIC_FIELD:
+                // the fusions get the field calibrated by the engine, like in Core
+                engine.onMagneticField(timestamp, values);
+                if (fusion == FUSION_KALMAN) {
+                    kalmanFilter.onMagneticField(timestamp, engine.getMagnCalibrated());
+                } else if (fusion == FUSION_MADGWICK) {
+                    madgwickFilter.onMagneticField(timestamp, engine.getMagnCalibrated());
+                }
+                break;
+
+            case TraceFormat.TYPE_ROTATION_VECTOR:
+                if (fusion != FUSION_GYRO) {
+                    break;
+                }
+                if (count < 4) {
+                    System.arraycopy(values, 0, rotationVector3, 0, 3);
+                    gyroFusion.onRotationVector(rotationVector3);
+                } else {
+                    gyroFusion.onRotationVector(values);
+                }
+                break;
+
+            case TraceFormat.TYPE_GYROSCOPE:
+                engine.onGyroscope(timestamp, values);
+                if (fusion == FUSION_GYRO && gyroFusion.onGyroscope(timestamp, values)) {
+                    gyroFusion.getRotationMatrix(rotationMatrix);
+                } else if (fusion == FUSION_KALMAN && kalmanFilter.onGyroscope(timestamp, values)) {
+                    kalmanFilter.getRotationMatrix(rotationMatrix);
+                } else if (fusion == FUSION_MADGWICK && madgwickFilter.onGyroscope(timestamp, values)) {
+                    madgwickFilter.getRotationMatrix(rotationMatrix);
+                }
+                break;
+        }
+    }
+
+    public NavigationEngine getEngine() {
+        return engine;
+    }
+}
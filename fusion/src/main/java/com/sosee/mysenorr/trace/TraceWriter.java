@@ -0,0 +1,102 @@
+package com.sosee.mysenorr.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Appends sensor events to a trace in the {@link TraceFormat binary format}.
+ * The records are collected in a preallocated direct buffer, which is written to the channel only when it is full
+ * (or on {@link #flush()}), so {@link #write(int, long, float[])} does not allocate and mostly only copies
+ * a few bytes. Not thread safe, all events have to be written from the same thread.
+ * <p>
+ * 将传感器事件追加到二进制格式的轨迹中。记录先收集在预分配的直接缓冲区中，只有缓冲区满时才写入通道，
+ * 因此写入不分配内存。非线程安全。
+ */
+public class TraceWriter implements Closeable {
+
+    /**
+     * 64 KiB hold about 2000 events, i.e. the buffer is written every few seconds at 200 Hz
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private long recordCount;
+
+    public TraceWriter(WritableByteChannel channel) throws IOException {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates the writer and writes the header
+     *
+     * @param channel    the trace is appended to this channel, it is closed by {@link #close()}
+     * @param bufferSize size of the buffer in bytes, at least {@link TraceFormat#MAX_RECORD_SIZE}
+     */
+    public TraceWriter(WritableByteChannel channel, int bufferSize) throws IOException {
+        if (bufferSize < TraceFormat.MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("bufferSize must be at least " + TraceFormat.MAX_RECORD_SIZE);
+        }
+        this.channel = channel;
+        buffer = ByteBuffer.allocateDirect(bufferSize).order(TraceFormat.BYTE_ORDER);
+        buffer.putInt(TraceFormat.MAGIC);
+        buffer.putInt(TraceFormat.VERSION);
+    }
+
+    /**
+     * Appends one event
+     *
+     * @param type      sensor type, see {@link TraceFormat}
+     * @param timestamp time of the event in nanoseconds
+     * @param values    the values of the event, only the first {@link TraceFormat#MAX_VALUES} are recorded
+     */
+    public void write(int type, long timestamp, float[] values) throws IOException {
+        int count = Math.min(values.length, TraceFormat.MAX_VALUES);
+        if (buffer.remaining() < TraceFormat.RECORD_HEADER_SIZE + 4 * count) {
+            flushBuffer();
+        }
+        buffer.put((byte) type);
+        buffer.put((byte) count);
+        buffer.putLong(timestamp);
+        for (int i = 0; i < count; i++) {
+            buffer.putFloat(values[i]);
+        }
+        recordCount++;
+    }
+
+    /**
+     * Writes the buffered records to the channel
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return number of records written so far
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Writes the buffered records and closes the channel
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            channel.close();
+        }
+    }
+}
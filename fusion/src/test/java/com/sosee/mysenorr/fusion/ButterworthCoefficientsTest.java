@@ -0,0 +1,67 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ButterworthCoefficientsTest {
+
+    /**
+     * The former lookup table: rate, ugain (1 / gain), tp0, tp1, tp2
+     */
+    private static final double[][] TABLE = {
+            {10, 1429.899908, 0.6855359773, -2.3146825811, 2.6235518066},
+            {20, 10477.51171, 0.8281462754, -2.6404834928, 2.8115736773},
+            {25, 20097.49869, 0.8599919781, -2.7096291328, 2.8492390952},
+            {30, 34309.44333, 0.8818931306, -2.7564831952, 2.8743568927},
+            {40, 80092.71123, 0.9100493001, -2.8159101079, 2.9057609235},
+            {50, 154994.3249, 0.9273699683, -2.8520278186, 2.9246062355},
+            {60, 266181.2926, 0.9390989403, -2.8762997235, 2.9371707284},
+            {70, 420820.6222, 0.9475671238, -2.8937318862, 2.9461457520},
+            {80, 626079.3215, 0.9539681632, -2.9068581408, 2.9528771997},
+            {90, 889124.3983, 0.9589765397, -2.9170984005, 2.9581128632},
+            {100, 1217122.860, 0.9630021159, -2.9253101348, 2.9623014461},
+            {110, 1617241.715, 0.9663083052, -2.9320417512, 2.9657284993},
+            {120, 2096647.970, 0.9690721133, -2.9376603253, 2.9685843964},
+            {130, 2662508.633, 0.9714168814, -2.9424208232, 2.9710009372},
+    };
+
+    @Test
+    public void matchesTheFormerTableAtItsRates() {
+        ButterworthCoefficients generator = new ButterworthCoefficients();
+        double[] c = new double[ButterworthCoefficients.SIZE];
+        for (double[] row : TABLE) {
+            generator.get((int) row[0], c, 0);
+            assertEquals(row[1], 1 / c[3], row[1] * 1e-8);
+            assertEquals(row[2], c[0], 1e-9);
+            assertEquals(row[3], c[1], 1e-9);
+            assertEquals(row[4], c[2], 1e-9);
+        }
+    }
+
+    @Test
+    public void gainAtZeroHzIsOneForAnyRate() {
+        double[] c = new double[ButterworthCoefficients.SIZE];
+        for (int rate = ButterworthCoefficients.MIN_RATE; rate <= ButterworthCoefficients.MAX_RATE; rate++) {
+            ButterworthCoefficients.compute(rate, ButterworthCoefficients.CORNER_FREQUENCY, c, 0);
+            // a constant input x = y is a fixed point: 8 * gain + tp0 + tp1 + tp2 = 1
+            assertEquals(1, 8 * c[3] + c[0] + c[1] + c[2], 1e-14);
+        }
+    }
+
+    @Test
+    public void cachedRatesGiveTheSameCoefficients() {
+        ButterworthCoefficients generator = new ButterworthCoefficients();
+        double[] first = new double[ButterworthCoefficients.SIZE];
+        double[] again = new double[ButterworthCoefficients.SIZE + 2];
+        generator.get(58, first, 0);
+        // more rates than the cache holds  比缓存容量更多的采样率
+        for (int rate = 40; rate < 60; rate++) {
+            generator.get(rate, again, 2);
+        }
+        generator.get(58, again, 2);
+        for (int i = 0; i < first.length; i++) {
+            assertEquals(first[i], again[i + 2], 0);
+        }
+    }
+}
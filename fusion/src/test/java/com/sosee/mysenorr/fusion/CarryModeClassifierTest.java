@@ -0,0 +1,128 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Walks with the phone carried in the different ways through {@link CarryModeClassifier}
+ */
+public class CarryModeClassifierTest {
+
+    private static final int RATE = 50;
+    private static final long PERIOD = 1000000000L / RATE;
+    /**
+     * Per mode: axis the phone sways about (0 = x, 2 = z), tilt and amplitude of the sway in degrees, frequency of
+     * the sway in Hz, vertical and forward acceleration in m/s², radius of the arm in m
+     */
+    private static final double[][] CARRIERS = {
+            {0, 40, 4, 1.8, 1.5, 0.8, 0},
+            {0, 75, 25, 0.9, 3.0, 1.5, 0},
+            {2, 0, 40, 0.9, 2.0, 1.0, 0.6},
+            {0, 70, 4, 1.8, 1.2, 0.5, 0}};
+
+    private final Random random = new Random(24);
+    private final float[] acl = new float[3];
+    private final float[] gyro = new float[3];
+    private long timestamp;
+
+    /**
+     * One sample of the phone carried in a mode while walking with 1.8 steps per second, standing if mode is
+     * {@link CarryModeClassifier#MODE_UNKNOWN}
+     */
+    private void sample(int mode, double t) {
+        if (mode == CarryModeClassifier.MODE_UNKNOWN) {
+            acl[0] = acl[1] = (float) (0.05 * random.nextGaussian());
+            acl[2] = (float) (9.81 + 0.05 * random.nextGaussian());
+            gyro[0] = gyro[1] = gyro[2] = (float) (0.01 * random.nextGaussian());
+            return;
+        }
+        double[] c = CARRIERS[mode];
+        double f = 2 * Math.PI * c[3];
+        double amplitude = Math.toRadians(c[2]);
+        double angle = Math.toRadians(c[1]) + amplitude * Math.sin(f * t);
+        double rate = amplitude * f * Math.cos(f * t);
+        double step = 2 * Math.PI * 1.8 * t;
+        // along the vertical of the phone (with the pull of the arm) and across it
+        //沿手机的垂直方向（包括手臂的拉力）和垂直于它的方向
+        double along = 9.81 + c[4] * Math.sin(step) + c[6] * rate * rate;
+        double across = c[5] * Math.sin(step + 1) - c[6] * amplitude * f * f * Math.sin(f * t);
+        double s = Math.sin(angle);
+        double cos = Math.cos(angle);
+        int i = (int) c[0];
+        int j = i == 0 ? 1 : 0;
+        int k = i == 0 ? 2 : 1;
+        acl[i] = (float) (0.1 * random.nextGaussian());
+        acl[j] = (float) (along * s + across * cos + 0.1 * random.nextGaussian());
+        acl[k] = (float) (along * cos - across * s + 0.1 * random.nextGaussian());
+        gyro[i] = (float) (rate + 0.05 * random.nextGaussian());
+        gyro[j] = (float) (0.1 * Math.sin(step) + 0.05 * random.nextGaussian());
+        gyro[k] = (float) (0.1 * Math.cos(step) + 0.05 * random.nextGaussian());
+    }
+
+    private void carry(CarryModeClassifier classifier, int mode, double seconds, boolean gyroscope) {
+        for (int n = 0; n < seconds * RATE; n++) {
+            timestamp += PERIOD;
+            sample(mode, timestamp * 1e-9);
+            if (gyroscope) {
+                classifier.onGyroscope(timestamp, gyro);
+            }
+            classifier.onAccelerometer(timestamp, acl);
+        }
+    }
+
+    @Test
+    public void recognizesEachMode() {
+        for (int gyroscope = 0; gyroscope < 2; gyroscope++) {
+            for (int mode = 0; mode < CarryModeClassifier.MODES; mode++) {
+                CarryModeClassifier classifier = new CarryModeClassifier();
+                carry(classifier, mode, 10, gyroscope == 1);
+                assertTrue(classifier.isMoving());
+                assertEquals(classifier.toString(), mode, classifier.getMode());
+            }
+        }
+    }
+
+    @Test
+    public void featuresOfTheWindowAreExact() {
+        CarryModeClassifier classifier = new CarryModeClassifier(50);
+        float[] window = new float[50];
+        for (int n = 0; n < 333; n++) {
+            timestamp += PERIOD;
+            sample(CarryModeClassifier.MODE_POCKET, timestamp * 1e-9);
+            classifier.onAccelerometer(timestamp, acl);
+            window[n % 50] = (float) Math.sqrt(acl[0] * acl[0] + acl[1] * acl[1] + acl[2] * acl[2]);
+        }
+        double mean = 0;
+        for (float magnitude : window) {
+            mean += magnitude / 50;
+        }
+        double variance = 0;
+        for (float magnitude : window) {
+            variance += (magnitude - mean) * (magnitude - mean) / 50;
+        }
+        float[] features = new float[CarryModeClassifier.FEATURES];
+        classifier.getFeatures(features);
+        assertEquals(Math.sqrt(variance), features[CarryModeClassifier.FEATURE_ACCELERATION], 1e-3);
+        assertTrue(Float.isNaN(features[CarryModeClassifier.FEATURE_ROTATION]));
+    }
+
+    @Test
+    public void keepsTheModeWhileStandingAndForShortChanges() {
+        CarryModeClassifier classifier = new CarryModeClassifier();
+        carry(classifier, CarryModeClassifier.MODE_POCKET, 10, true);
+        assertEquals(CarryModeClassifier.MODE_POCKET, classifier.getMode());
+        carry(classifier, CarryModeClassifier.MODE_UNKNOWN, 5, true);
+        assertFalse(classifier.isMoving());
+        assertEquals(CarryModeClassifier.MODE_POCKET, classifier.getMode());
+        // taken out of the pocket for a moment  从裤兜里短暂拿出
+        carry(classifier, CarryModeClassifier.MODE_HAND, 1, true);
+        assertEquals(CarryModeClassifier.MODE_POCKET, classifier.getMode());
+        carry(classifier, CarryModeClassifier.MODE_HAND, 5, true);
+        assertEquals(CarryModeClassifier.MODE_HAND, classifier.getMode());
+    }
+}
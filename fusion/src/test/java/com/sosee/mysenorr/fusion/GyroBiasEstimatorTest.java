@@ -0,0 +1,88 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds {@link GyroBiasEstimator} a biased, noisy gyroscope while the phone lies still, is carried and turns slowly
+ */
+public class GyroBiasEstimatorTest {
+
+    private static final int GYRO_RATE = 200;
+    private static final long GYRO_PERIOD = 1000000000L / GYRO_RATE;
+    private static final float[] BIAS = {0.012f, -0.008f, 0.02f};
+
+    private final GyroBiasEstimator estimator = new GyroBiasEstimator();
+    private final Random random = new Random(21);
+    private final float[] gyro = new float[3];
+    private final float[] acl = new float[3];
+    private final float[] corrected = new float[3];
+    private long timestamp;
+
+    /**
+     * @param rate    true angular speed around z in rad/s
+     * @param shaking amplitude of the acceleration of the hand in m/s²
+     */
+    private void simulate(int seconds, float rate, float shaking) {
+        for (int i = 0; i < seconds * GYRO_RATE; i++) {
+            timestamp += GYRO_PERIOD;
+            double t = timestamp * 1e-9;
+            gyro[0] = (float) (BIAS[0] + 0.004 * random.nextGaussian());
+            gyro[1] = (float) (BIAS[1] + 0.004 * random.nextGaussian());
+            gyro[2] = (float) (rate + BIAS[2] + 0.004 * random.nextGaussian());
+            estimator.onGyroscope(timestamp, gyro, corrected);
+            if (i % 4 == 0) {
+                acl[0] = (float) (0.02 * random.nextGaussian());
+                acl[1] = (float) (0.02 * random.nextGaussian());
+                acl[2] = (float) (9.81 + shaking * Math.sin(2 * Math.PI * 2 * t) + 0.02 * random.nextGaussian());
+                estimator.onAccelerometer(timestamp, acl);
+            }
+        }
+    }
+
+    @Test
+    public void learnsTheBiasWhileStill() {
+        simulate(10, 0, 0);
+        assertTrue(estimator.isStill());
+        assertTrue(estimator.hasBias());
+        float[] bias = new float[3];
+        estimator.getBias(bias);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BIAS[i], bias[i], 0.001);
+            assertEquals(gyro[i] - bias[i], corrected[i], 1e-6);
+        }
+    }
+
+    @Test
+    public void ignoresMovementAndSteadyTurns() {
+        // carried: the hand shakes the phone  手持：手使手机晃动
+        simulate(10, 0, 1);
+        assertFalse(estimator.isStill());
+        // a slow turn on a table is not a bias  桌上的缓慢转动不是零偏
+        simulate(10, 0.3f, 0);
+        assertFalse(estimator.isStill());
+        assertFalse(estimator.hasBias());
+        float[] bias = new float[3];
+        estimator.getBias(bias);
+        assertEquals(0, bias[2], 0);
+    }
+
+    @Test
+    public void storedBiasIsUsedAndRefined() {
+        estimator.setBias(new float[]{0.01f, 0, 0.03f});
+        simulate(1, 0, 1);
+        assertEquals(gyro[2] - 0.03f, corrected[2], 1e-6);
+
+        simulate(60, 0, 0);
+        float[] bias = new float[3];
+        estimator.getBias(bias);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BIAS[i], bias[i], 0.001);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Turns the phone about its z axis through {@link GyroFusion}, with a pause of the sensors in between
+ */
+public class GyroFusionTest {
+
+    private static final int RATE = 50;
+    private static final long PERIOD = 1000000000L / RATE;
+
+    private final GyroFusion fusion = new GyroFusion();
+    private final float[] gyro = new float[3];
+    private final float[] matrix = new float[16];
+    private long timestamp;
+
+    private void turn(double seconds, float rate) {
+        gyro[2] = rate;
+        for (int i = 0; i < seconds * RATE; i++) {
+            timestamp += PERIOD;
+            fusion.onGyroscope(timestamp, gyro);
+        }
+    }
+
+    private double yaw() {
+        fusion.getRotationMatrix(matrix);
+        return Math.atan2(matrix[1], matrix[0]);
+    }
+
+    @Test
+    public void gapIsNotIntegrated() {
+        fusion.onRotationVector(new float[]{0, 0, 0});
+        fusion.setGyroOnly(true);
+        fusion.setIntegrator(GyroIntegrator.CONING);
+        // the first sample only starts the integration  第一个样本只开始积分
+        turn(1.0 / RATE, 0);
+        turn(1, 1);
+        double before = yaw();
+        assertEquals(1, Math.abs(before), 1e-3);
+
+        // the sensors were paused for 2 s and resume turning the other way  传感器暂停2秒后以相反方向转动恢复
+        timestamp += 2000000000L;
+        gyro[2] = -1;
+        assertFalse(fusion.onGyroscope(timestamp, gyro));
+        assertEquals(before, yaw(), 1e-6);
+        // the samples before the gap are not used for the rate after it  间隔之前的样本不用于间隔之后的角速度
+        turn(1, -1);
+        assertEquals(0, yaw(), 1e-3);
+    }
+}
@@ -0,0 +1,145 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Integrates the gyroscope of a phone swinging in the hand of a walking, turning user with {@link GyroIntegrator}
+ * at different rates and compares the heading with the true one
+ */
+public class GyroIntegratorTest {
+
+    private static final int SECONDS = 60;
+
+    /**
+     * The true orientation (w, x, y, z) at time t: turning slowly, swinging forward and back at the step frequency
+     * and rolling at half of it
+     */
+    private static void truth(double t, double[] q) {
+        double yaw = 0.2 * t;
+        double pitch = 0.6 * Math.sin(2 * Math.PI * 1.8 * t);
+        double roll = 0.4 * Math.sin(2 * Math.PI * 0.9 * t + 1);
+        double cy = Math.cos(yaw / 2), sy = Math.sin(yaw / 2);
+        double cp = Math.cos(pitch / 2), sp = Math.sin(pitch / 2);
+        double cr = Math.cos(roll / 2), sr = Math.sin(roll / 2);
+        // yaw about z, then pitch about x, then roll about y  先绕z偏航，再绕x俯仰，再绕y横滚
+        double w = cy * cp, x = cy * sp, y = sy * sp, z = sy * cp;
+        q[0] = w * cr - y * sr;
+        q[1] = x * cr - z * sr;
+        q[2] = y * cr + w * sr;
+        q[3] = z * cr + x * sr;
+    }
+
+    /**
+     * The angular speed in device coordinates at time t: 2 q' dq/dt, the derivative numerically
+     */
+    private static void rate(double t, float[] rate) {
+        double h = 1e-6;
+        double[] q = new double[4];
+        double[] before = new double[4];
+        double[] after = new double[4];
+        truth(t, q);
+        truth(t - h, before);
+        truth(t + h, after);
+        double dw = (after[0] - before[0]) / (2 * h);
+        double dx = (after[1] - before[1]) / (2 * h);
+        double dy = (after[2] - before[2]) / (2 * h);
+        double dz = (after[3] - before[3]) / (2 * h);
+        // conjugate of q times dq  q的共轭乘以dq
+        rate[0] = (float) (2 * (q[0] * dx - q[1] * dw - q[2] * dz + q[3] * dy));
+        rate[1] = (float) (2 * (q[0] * dy - q[2] * dw - q[3] * dx + q[1] * dz));
+        rate[2] = (float) (2 * (q[0] * dz - q[3] * dw - q[1] * dy + q[2] * dx));
+    }
+
+    /**
+     * @return azimuth of the y axis of the device in degrees
+     */
+    private static double azimuth(double[] q) {
+        double r01 = 2 * (q[1] * q[2] - q[0] * q[3]);
+        double r11 = 1 - 2 * (q[1] * q[1] + q[3] * q[3]);
+        return Math.toDegrees(Math.atan2(r01, r11));
+    }
+
+    /**
+     * q = q * rotation vector
+     */
+    private static void rotate(double[] q, float[] rotation) {
+        double angle = Math.sqrt(rotation[0] * rotation[0] + rotation[1] * rotation[1] + rotation[2] * rotation[2]);
+        double s = angle > 1e-12 ? Math.sin(angle / 2) / angle : 0.5;
+        double dw = Math.cos(angle / 2), dx = s * rotation[0], dy = s * rotation[1], dz = s * rotation[2];
+        double w = q[0] * dw - q[1] * dx - q[2] * dy - q[3] * dz;
+        double x = q[0] * dx + q[1] * dw + q[2] * dz - q[3] * dy;
+        double y = q[0] * dy - q[1] * dz + q[2] * dw + q[3] * dx;
+        double z = q[0] * dz + q[1] * dy - q[2] * dx + q[3] * dw;
+        double norm = Math.sqrt(w * w + x * x + y * y + z * z);
+        q[0] = w / norm;
+        q[1] = x / norm;
+        q[2] = y / norm;
+        q[3] = z / norm;
+    }
+
+    /**
+     * @return root mean square error of the heading over {@link #SECONDS} in degrees
+     */
+    private static double headingError(int method, int hz) {
+        GyroIntegrator integrator = new GyroIntegrator(method);
+        double[] q = new double[4];
+        double[] expected = new double[4];
+        float[] rate = new float[3];
+        float[] rotation = new float[3];
+        truth(0, q);
+        rate(0, rate);
+        integrator.integrate(rate, 0, rotation);
+        double squares = 0;
+        for (int i = 1; i <= SECONDS * hz; i++) {
+            double t = (double) i / hz;
+            rate(t, rate);
+            integrator.integrate(rate, 1f / hz, rotation);
+            rotate(q, rotation);
+            truth(t, expected);
+            double error = Math.abs(azimuth(q) - azimuth(expected)) % 360;
+            error = Math.min(error, 360 - error);
+            squares += error * error;
+        }
+        return Math.sqrt(squares / (SECONDS * hz));
+    }
+
+    @Test
+    public void constantRotationIsExact() {
+        float[] rate = {0.3f, -1.2f, 0.8f};
+        float[] rotation = new float[3];
+        int[] methods = {GyroIntegrator.FIRST_ORDER, GyroIntegrator.CONING, GyroIntegrator.RK4};
+        for (int method : methods) {
+            GyroIntegrator integrator = new GyroIntegrator(method);
+            integrator.integrate(rate, 0.02f, rotation);
+            integrator.integrate(rate, 0.02f, rotation);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(rate[i] * 0.02f, rotation[i], 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void higherOrderAt50HzIsBetterThanFirstOrderAt200Hz() {
+        double firstOrder200 = headingError(GyroIntegrator.FIRST_ORDER, 200);
+        double firstOrder50 = headingError(GyroIntegrator.FIRST_ORDER, 50);
+        assertTrue(firstOrder50 > 3 * firstOrder200);
+        assertTrue(headingError(GyroIntegrator.CONING, 50) < firstOrder200 / 5);
+        assertTrue(headingError(GyroIntegrator.RK4, 50) < firstOrder200 / 5);
+    }
+
+    @Test
+    public void resetStartsOver() {
+        GyroIntegrator integrator = new GyroIntegrator(GyroIntegrator.RK4);
+        float[] rotation = new float[3];
+        integrator.integrate(new float[]{5, 5, 5}, 0.02f, rotation);
+        integrator.integrate(new float[]{-5, 2, 1}, 0.02f, rotation);
+        integrator.reset();
+        integrator.integrate(new float[]{0.1f, 0.2f, 0.3f}, 0.02f, rotation);
+        assertEquals(0.002f, rotation[0], 1e-7);
+        assertEquals(0.004f, rotation[1], 1e-7);
+        assertEquals(0.006f, rotation[2], 1e-7);
+    }
+}
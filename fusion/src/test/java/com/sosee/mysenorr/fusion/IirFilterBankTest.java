@@ -0,0 +1,120 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class IirFilterBankTest {
+
+    @Test
+    public void followsTheDifferenceEquation() {
+        IirFilterBank bank = new IirFilterBank(2);
+        double[] gravityCoefficients = new double[ButterworthCoefficients.SIZE];
+        double[] magneticCoefficients = new double[ButterworthCoefficients.SIZE];
+        ButterworthCoefficients.compute(50, ButterworthCoefficients.CORNER_FREQUENCY, gravityCoefficients, 0);
+        ButterworthCoefficients.compute(50, ButterworthCoefficients.CORNER_FREQUENCY, magneticCoefficients, 0);
+        double[][] gravityState = new double[6][4];
+        double[][] magneticState = new double[6][4];
+        Random random = new Random(42);
+        float[] acl = new float[3];
+        float[] magn = new float[3];
+        float[] expected = new float[3];
+        float[] actual = new float[3];
+        for (int i = 0; i < 5000; i++) {
+            if (i == 1000) {
+                // different rates for both sensors  两个传感器使用不同的采样率
+                ButterworthCoefficients.compute(100, ButterworthCoefficients.CORNER_FREQUENCY, gravityCoefficients, 0);
+                bank.setSamplingRate(0, 100);
+                ButterworthCoefficients.compute(20, ButterworthCoefficients.CORNER_FREQUENCY, magneticCoefficients, 0);
+                bank.setSamplingRate(1, 20);
+            }
+            for (int k = 0; k < 3; k++) {
+                acl[k] = (float) (random.nextGaussian() * 3 + (k == 2 ? 9.81 : 0));
+                magn[k] = (float) (random.nextGaussian() * 2 - 30);
+            }
+            filter(gravityCoefficients, gravityState, acl, expected);
+            bank.filter(0, acl, actual);
+            assertArrayEquals(expected, actual);
+            // the magnetic field only every second time  磁场每两次一次
+            if (i % 2 == 0) {
+                filter(magneticCoefficients, magneticState, magn, expected);
+                bank.filter(1, magn, magn);
+                assertArrayEquals(expected, magn);
+            }
+        }
+    }
+
+    /**
+     * The difference equation of {@link ButterworthCoefficients} for each axis, the state holds the last four inputs
+     * and outputs of the axes
+     */
+    private static void filter(double[] tp, double[][] state, float[] input, float[] output) {
+        for (int k = 0; k < 3; k++) {
+            double[] x = state[2 * k];
+            double[] y = state[2 * k + 1];
+            x[0] = x[1];
+            x[1] = x[2];
+            x[2] = x[3];
+            x[3] = input[k];
+            y[0] = y[1];
+            y[1] = y[2];
+            y[2] = y[3];
+            y[3] = tp[3] * ((x[0] + x[3]) + 3 * (x[1] + x[2])) + (tp[0] * y[0]) + (tp[1] * y[1]) + (tp[2] * y[2]);
+            output[k] = (float) y[3];
+        }
+    }
+
+    @Test
+    public void blockGivesTheSameValuesAsSingleSamples() {
+        IirFilterBank single = new IirFilterBank(1);
+        IirFilterBank block = new IirFilterBank(1);
+        Random random = new Random(7);
+        float[] input = new float[300];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (float) random.nextGaussian();
+        }
+        // in place, with offset  原地处理，带偏移
+        float[] output = new float[input.length + 3];
+        System.arraycopy(input, 0, output, 3, input.length);
+        block.filterBlock(0, output, 3, output, 3, 100);
+
+        float[] sample = new float[3];
+        for (int i = 0; i < 100; i++) {
+            System.arraycopy(input, i * 3, sample, 0, 3);
+            single.filter(0, sample, sample);
+            for (int k = 0; k < 3; k++) {
+                assertEquals(sample[k], output[3 + i * 3 + k], 0);
+            }
+        }
+    }
+
+    @Test
+    public void newSamplingRateCausesNoJump() {
+        IirFilterBank bank = new IirFilterBank(1);
+        float[] gravity = {0.5f, -0.3f, 9.81f};
+        float[] output = new float[3];
+        for (int i = 0; i < 2000; i++) {
+            bank.filter(0, gravity, output);
+        }
+        // the rate is measured again every two seconds and changes slightly
+        //每两秒重新测量一次采样率，会略有变化
+        int[] rates = {58, 61, 47, 100, 50};
+        for (int rate : rates) {
+            bank.setSamplingRate(0, rate);
+            for (int i = 0; i < 100; i++) {
+                bank.filter(0, gravity, output);
+                for (int k = 0; k < 3; k++) {
+                    assertEquals(gravity[k], output[k], 1e-4);
+                }
+            }
+        }
+    }
+
+    private static void assertArrayEquals(float[] expected, float[] actual) {
+        for (int k = 0; k < expected.length; k++) {
+            assertEquals(expected[k], actual[k], 0);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulates a phone that is turned about all axes, with a biased and noisy gyroscope, and checks the orientation and
+ * the bias estimated by {@link KalmanOrientationFilter}
+ */
+public class KalmanOrientationFilterTest {
+
+    private static final int GYRO_RATE = 200;
+    private static final long GYRO_PERIOD = 1000000000L / GYRO_RATE;
+    private static final float[] BIAS = {0.02f, -0.015f, 0.03f};
+
+    private final float[] gyro = new float[3];
+    private final float[] acl = new float[3];
+    private final float[] magn = new float[3];
+    private final Random random = new Random(19);
+    private final OrientationSimulator phone = new OrientationSimulator(random);
+    private long timestamp;
+
+    /**
+     * Runs the simulation: the phone turns about a changing axis, accelerometer and magnetic field at 50 Hz
+     */
+    private void simulate(KalmanOrientationFilter filter, int seconds, boolean turning) {
+        for (int i = 0; i < seconds * GYRO_RATE; i++) {
+            timestamp += GYRO_PERIOD;
+            double t = timestamp * 1e-9;
+            double wx = turning ? 0.6 * Math.sin(0.7 * t) : 0;
+            double wy = turning ? 0.5 * Math.cos(0.45 * t) : 0;
+            double wz = turning ? 0.8 * Math.sin(0.3 * t + 1) : 0;
+            phone.rotate(wx / GYRO_RATE, wy / GYRO_RATE, wz / GYRO_RATE);
+            gyro[0] = (float) (wx + BIAS[0] + 0.005 * random.nextGaussian());
+            gyro[1] = (float) (wy + BIAS[1] + 0.005 * random.nextGaussian());
+            gyro[2] = (float) (wz + BIAS[2] + 0.005 * random.nextGaussian());
+            filter.onGyroscope(timestamp, gyro);
+            if (i % 4 == 0) {
+                phone.accelerometer(acl, 0.05);
+                filter.onAccelerometer(timestamp, acl);
+                phone.magneticField(magn, 0.5);
+                filter.onMagneticField(timestamp, magn);
+            }
+        }
+    }
+
+    /**
+     * @return angle between the true and the estimated orientation in degrees
+     */
+    private double error(KalmanOrientationFilter filter) {
+        float[] q = new float[4];
+        filter.getQuaternion(q);
+        return phone.error(q);
+    }
+
+    @Test
+    public void followsTheOrientationAndLearnsTheBias() {
+        KalmanOrientationFilter filter = new KalmanOrientationFilter();
+        simulate(filter, 120, true);
+        assertTrue(filter.isInitialised());
+        assertTrue("error " + error(filter), error(filter) < 2);
+
+        float[] bias = new float[3];
+        filter.getBias(bias);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BIAS[i], bias[i], 0.005);
+        }
+    }
+
+    @Test
+    public void keepsTheHeadingWhileTheFieldIsDisturbed() {
+        KalmanOrientationFilter filter = new KalmanOrientationFilter();
+        simulate(filter, 120, true);
+        double uncertainty = filter.getHeadingUncertainty();
+
+        // the field is ignored, the learned bias keeps the drift small  磁场被忽略，学到的零偏使漂移很小
+        filter.setMagneticDisturbed(true);
+        phone.field[0] = 30;
+        simulate(filter, 30, true);
+        assertTrue("error " + error(filter), error(filter) < 3);
+        assertTrue(filter.getHeadingUncertainty() > uncertainty);
+    }
+
+    @Test
+    public void updateDoesNotAllocate() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        KalmanOrientationFilter filter = new KalmanOrientationFilter();
+        float[] acl = {0.3f, -0.2f, 9.7f};
+        float[] magn = {3, 20, -41};
+        float[] gyro = {0.1f, -0.05f, 0.2f};
+        long t = 0;
+        for (int i = 0; i < 50000; i++) {
+            t += GYRO_PERIOD;
+            filter.onGyroscope(t, gyro);
+            filter.onAccelerometer(t, acl);
+            filter.onMagneticField(t, magn);
+        }
+        // the best of some rounds, the JVM itself occasionally allocates on the thread  取几轮中最好的一轮
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long before = bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < 10000; i++) {
+                t += GYRO_PERIOD;
+                filter.onGyroscope(t, gyro);
+                filter.onAccelerometer(t, acl);
+                filter.onMagneticField(t, magn);
+            }
+            allocated = Math.min(allocated, bean.getThreadAllocatedBytes(Thread.currentThread().getId()) - before);
+        }
+        assertTrue(allocated + " bytes", allocated < 1000);
+    }
+}
@@ -0,0 +1,171 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Simulates a phone that is turned, paused and put into a disturbed field, and checks the orientation of
+ * {@link MadgwickFilter}
+ */
+public class MadgwickFilterTest {
+
+    private static final int GYRO_RATE = 100;
+    private static final long GYRO_PERIOD = 1000000000L / GYRO_RATE;
+
+    private final float[] bias = new float[3];
+    private final float[] gyro = new float[3];
+    private final float[] acl = new float[3];
+    private final float[] magn = new float[3];
+    private final Random random = new Random(20);
+    private final OrientationSimulator phone = new OrientationSimulator(random);
+    private long timestamp;
+
+    /**
+     * Runs the simulation: the phone turns with the given rates in rad/s, accelerometer and magnetic field at 50 Hz
+     */
+    private void simulate(MadgwickFilter filter, double seconds, double wx, double wy, double wz) {
+        for (int i = 0; i < seconds * GYRO_RATE; i++) {
+            timestamp += GYRO_PERIOD;
+            phone.rotate(wx / GYRO_RATE, wy / GYRO_RATE, wz / GYRO_RATE);
+            gyro[0] = (float) (wx + bias[0] + 0.002 * random.nextGaussian());
+            gyro[1] = (float) (wy + bias[1] + 0.002 * random.nextGaussian());
+            gyro[2] = (float) (wz + bias[2] + 0.002 * random.nextGaussian());
+            filter.onGyroscope(timestamp, gyro);
+            if (i % 2 == 0) {
+                phone.accelerometer(acl, 0.02);
+                filter.onAccelerometer(timestamp, acl);
+                phone.magneticField(magn, 0.2);
+                filter.onMagneticField(timestamp, magn);
+            }
+        }
+    }
+
+    /**
+     * Puts the phone back flat, pointing north, with the undisturbed field
+     */
+    private void restart() {
+        timestamp = 0;
+        phone.restart();
+    }
+
+    /**
+     * Turns the phone by the angles in rad about x, then y, then z of the device while the sensors are paused
+     */
+    private void pause(double seconds, double x, double y, double z) {
+        timestamp += (long) (seconds * 1e9);
+        phone.rotate(x, 0, 0);
+        phone.rotate(0, y, 0);
+        phone.rotate(0, 0, z);
+    }
+
+    /**
+     * @return angle between the true and the estimated orientation in degrees
+     */
+    private double error(MadgwickFilter filter) {
+        float[] q = new float[4];
+        filter.getQuaternion(q);
+        return phone.error(q);
+    }
+
+    /**
+     * @return difference of the estimated and the true heading in degrees
+     */
+    private double headingError(MadgwickFilter filter) {
+        float[] r = new float[9];
+        filter.getRotationMatrix(r);
+        return phone.headingError(r);
+    }
+
+    @Test
+    public void correctsABiasedGyroscopeWhileTurning() {
+        MadgwickFilter filter = new MadgwickFilter();
+        simulate(filter, 3, 0, 0, 0);
+        assertTrue(filter.isInitialised());
+        assertTrue("error " + error(filter), error(filter) < 2);
+
+        // the bias is not learned while the phone turns, the field has to hold the heading. With the earth field
+        // of the reference at half its strength the error grew to several degrees.
+        //手机转动时不学习零偏，必须由磁场保持方向。参考代码中地磁场只有一半强度时误差增大到数度。
+        bias[2] = 0.02f;
+        double max = 0;
+        for (int i = 0; i < 600; i++) {
+            double t = i * 0.1;
+            simulate(filter, 0.1, 0, 0, 0.3 * Math.sin(0.3 * t + 1));
+            if (t >= 10) {
+                max = Math.max(max, error(filter));
+            }
+        }
+        assertTrue("error " + max, max < 1);
+    }
+
+    @Test
+    public void gainSetsTheSpeedOfTheCorrection() {
+        double[] errors = new double[3];
+        float[] gains = {0, MadgwickFilter.DEFAULT_GAIN, 0.5f};
+        for (int i = 0; i < gains.length; i++) {
+            restart();
+            MadgwickFilter filter = new MadgwickFilter();
+            filter.setGain(gains[i]);
+            assertEquals(gains[i], filter.getGain(), 0);
+            simulate(filter, 3, 0, 0, 0);
+            // turned while the sensors were paused  传感器暂停时被转动
+            pause(1, Math.toRadians(20), 0, Math.toRadians(40));
+            simulate(filter, 3, 0, 0, 0);
+            errors[i] = error(filter);
+        }
+        // without a gain the gyroscope alone keeps the error of 44.5°  没有增益时陀螺仪单独保持44.5°的误差
+        assertTrue("error " + errors[0], errors[0] > 40);
+        assertTrue(errors[1] + " " + errors[0], errors[1] < errors[0] - 10);
+        assertTrue(errors[2] + " " + errors[1], errors[2] < 1);
+    }
+
+    @Test
+    public void gapIsNotIntegrated() {
+        MadgwickFilter filter = new MadgwickFilter();
+        simulate(filter, 3, 0, 0, 0);
+        float[] before = new float[4];
+        filter.getQuaternion(before);
+
+        // the first sample after a pause reports a turn, the time since the last one is not integrated
+        //暂停后的第一个样本报告转动，自上一个样本以来的时间不积分
+        timestamp += 2000000000L;
+        gyro[0] = gyro[1] = 0;
+        gyro[2] = 1;
+        assertFalse(filter.onGyroscope(timestamp, gyro));
+        float[] after = new float[4];
+        filter.getQuaternion(after);
+        assertArrayEquals(before, after, 0);
+
+        simulate(filter, 1, 0, 0, 1);
+        assertTrue("error " + error(filter), error(filter) < 2);
+    }
+
+    @Test
+    public void onlyTheAccelerometerCorrectsWhileTheFieldIsDisturbed() {
+        MadgwickFilter disturbedFilter = new MadgwickFilter();
+        MadgwickFilter filter = new MadgwickFilter();
+        disturbedFilter.setMagneticDisturbed(true);
+        for (MadgwickFilter f : new MadgwickFilter[]{disturbedFilter, filter}) {
+            restart();
+            f.setGain(0.2f);
+            // accelerometer and field start the orientation  加速度计和磁场给出初始方向
+            f.onAccelerometer(timestamp, new float[]{0, 0, 9.81f});
+            f.onMagneticField(timestamp, new float[]{0, 22, -40});
+            simulate(f, 1, 0, 0, 0);
+            // a magnet turns the field, and the phone is tilted during a pause  磁铁使磁场偏转，暂停时手机被倾斜
+            phone.field[0] = 30;
+            pause(1, Math.toRadians(20), 0, 0);
+            simulate(f, 10, 0, 0, 0);
+        }
+        phone.field[0] = 0;
+        assertTrue("error " + error(disturbedFilter), error(disturbedFilter) < 1);
+        // without the flag the heading follows the disturbed field  没有该标志时方向跟随受干扰的磁场
+        assertTrue("heading error " + headingError(filter), headingError(filter) > 20);
+    }
+}
@@ -0,0 +1,111 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MagneticCalibratorTest {
+
+    private static final float FIELD = 48;
+    private static final float[] HARD_IRON = {25, -40, 60};
+    /**
+     * Symmetric soft iron, stretches and tilts the sphere  对称的软铁，拉伸并倾斜球面
+     */
+    private static final float[] SOFT_IRON = {1.15f, 0.08f, -0.05f, 0.08f, 0.9f, 0.04f, -0.05f, 0.04f, 1.05f};
+
+    private static void distort(float[] field, float[] raw) {
+        for (int row = 0; row < 3; row++) {
+            raw[row] = HARD_IRON[row] + SOFT_IRON[row * 3] * field[0] + SOFT_IRON[row * 3 + 1] * field[1]
+                    + SOFT_IRON[row * 3 + 2] * field[2];
+        }
+    }
+
+    private static void randomDirection(Random random, float[] field) {
+        double z = 2 * random.nextDouble() - 1;
+        double phi = 2 * Math.PI * random.nextDouble();
+        double r = Math.sqrt(1 - z * z);
+        field[0] = (float) (FIELD * r * Math.cos(phi));
+        field[1] = (float) (FIELD * r * Math.sin(phi));
+        field[2] = (float) (FIELD * z);
+    }
+
+    @Test
+    public void hardAndSoftIronAreRemoved() {
+        MagneticCalibrator calibrator = new MagneticCalibrator();
+        Random random = new Random(17);
+        float[] field = new float[3];
+        float[] raw = new float[3];
+        for (int i = 0; i < 2000; i++) {
+            randomDirection(random, field);
+            distort(field, raw);
+            // sensor noise  传感器噪声
+            raw[0] += (float) (0.3 * random.nextGaussian());
+            raw[1] += (float) (0.3 * random.nextGaussian());
+            raw[2] += (float) (0.3 * random.nextGaussian());
+            calibrator.update(raw);
+        }
+        assertTrue(calibrator.isCalibrated());
+        assertTrue(calibrator.getFits() > 0);
+        assertArrayEquals(HARD_IRON, calibrator.getCenter(), 1.0f);
+
+        // every direction has the same strength after the correction  校正后每个方向的强度相同
+        float[] corrected = new float[3];
+        float min = Float.MAX_VALUE;
+        float max = 0;
+        for (int i = 0; i < 500; i++) {
+            randomDirection(random, field);
+            distort(field, raw);
+            calibrator.apply(raw, corrected);
+            float strength = (float) Math.sqrt(corrected[0] * corrected[0] + corrected[1] * corrected[1]
+                    + corrected[2] * corrected[2]);
+            min = Math.min(min, strength);
+            max = Math.max(max, strength);
+        }
+        assertTrue(min + " - " + max, max - min < 0.04f * FIELD);
+        assertEquals(FIELD * Math.cbrt(determinant(SOFT_IRON)), calibrator.getRadius(), 1.5);
+    }
+
+    @Test
+    public void turningOnlyAboutOneAxisIsNotEnough() {
+        MagneticCalibrator calibrator = new MagneticCalibrator();
+        float[] field = new float[3];
+        float[] raw = new float[3];
+        // the phone lies flat and is turned around, the ellipsoid is not determined  手机平放并旋转，椭球不确定
+        for (int i = 0; i < 3000; i++) {
+            double angle = i * 0.05;
+            field[0] = (float) (22 * Math.sin(angle));
+            field[1] = (float) (22 * Math.cos(angle));
+            field[2] = -42;
+            distort(field, raw);
+            assertFalse(calibrator.update(raw));
+        }
+        assertFalse(calibrator.isCalibrated());
+        calibrator.apply(raw, field);
+        assertArrayEquals(raw, field, 0);
+    }
+
+    @Test
+    public void storedCalibrationIsRestored() {
+        MagneticCalibrator calibrator = new MagneticCalibrator();
+        float[] stored = {1, 2, 3, 1.1f, 0, 0, 0, 0.9f, 0, 0, 0, 1};
+        calibrator.setCalibration(stored);
+        assertTrue(calibrator.isCalibrated());
+        float[] copy = new float[MagneticCalibrator.CALIBRATION_SIZE];
+        calibrator.getCalibration(copy);
+        assertArrayEquals(stored, copy, 0);
+
+        float[] corrected = new float[3];
+        calibrator.apply(new float[]{11, 12, 13}, corrected);
+        assertArrayEquals(new float[]{11, 9, 10}, corrected, 1e-5f);
+    }
+
+    private static double determinant(float[] m) {
+        return m[0] * (m[4] * m[8] - m[5] * m[7]) - m[1] * (m[3] * m[8] - m[5] * m[6])
+                + m[2] * (m[3] * m[7] - m[4] * m[6]);
+    }
+}
@@ -0,0 +1,106 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MagneticDisturbanceDetectorTest {
+
+    private static final long SAMPLE = 20000000L;
+    private static final float[] GRAVITY = {0, 0, 9.81f};
+
+    /**
+     * The field of {0, 22, -40}: 45.6 µT, 61.2° downwards
+     */
+    private static MagneticDisturbanceDetector detector() {
+        MagneticDisturbanceDetector detector = new MagneticDisturbanceDetector();
+        detector.setExpectedField(45.6f, 61.2f);
+        return detector;
+    }
+
+    @Test
+    public void turningThePhoneIsNoDisturbance() {
+        MagneticDisturbanceDetector detector = detector();
+        float[] magn = new float[3];
+        for (int i = 0; i < 500; i++) {
+            double angle = i * 0.05;
+            magn[0] = (float) (22 * Math.sin(angle));
+            magn[1] = (float) (22 * Math.cos(angle));
+            magn[2] = -40;
+            assertFalse(detector.update(i * SAMPLE, GRAVITY, magn));
+        }
+        assertEquals(61.2, detector.getDip(), 0.1);
+        assertEquals(0, detector.getTotalDuration());
+    }
+
+    @Test
+    public void strengthOrDipOffIsADisturbance() {
+        MagneticDisturbanceDetector detector = detector();
+        // a steel beam doubles the horizontal field, the strength changes by less than 15 %, but the dip by 10°
+        //钢梁使水平磁场加倍，强度变化小于15%，但倾角变化10°
+        assertTrue(detector.update(0, GRAVITY, new float[]{0, 30, -40}));
+        assertTrue(detector().update(0, GRAVITY, new float[]{0, 30, -55}));
+        assertFalse(detector().update(0, GRAVITY, new float[]{0, 23, -41}));
+    }
+
+    @Test
+    public void disturbanceEndsAfterTheReleaseTime() {
+        MagneticDisturbanceDetector detector = detector();
+        float[] normal = {0, 22, -40};
+        float[] magnet = {10, 40, -70};
+        long t = 0;
+        for (int i = 0; i < 100; i++, t += SAMPLE) {
+            detector.update(t, GRAVITY, normal);
+        }
+        for (int i = 0; i < 100; i++, t += SAMPLE) {
+            assertTrue(detector.update(t, GRAVITY, magnet));
+        }
+        assertEquals(99 * SAMPLE, detector.getDuration());
+        // still disturbed during the release time  释放时间内仍受干扰
+        for (int i = 0; i < 50; i++, t += SAMPLE) {
+            assertTrue(detector.update(t, GRAVITY, normal));
+        }
+        assertEquals(149 * SAMPLE, detector.getDuration());
+        for (int i = 0; i < 10; i++, t += SAMPLE) {
+            detector.update(t, GRAVITY, normal);
+        }
+        assertFalse(detector.isDisturbed());
+        assertEquals(0, detector.getDuration());
+        assertEquals(150 * SAMPLE, detector.getTotalDuration());
+    }
+
+    @Test
+    public void engineKeepsTheDirectionWhileDisturbed() {
+        NavigationEngine engine = new NavigationEngine();
+        engine.getDisturbanceDetector().setExpectedField(45.6f, 61.2f);
+        float[] acl = {0, 0, 9.81f};
+        float[] magn = {0, 22, -40};
+        long t = 0;
+        for (int i = 0; i < 250; i++, t += SAMPLE) {
+            engine.onMagneticField(t, magn);
+            engine.onAccelerometer(t, acl);
+        }
+        assertEquals(0, engine.getAzimuth(), 0.5);
+
+        // a magnet east of the phone turns the field; the filtered field follows it gradually, the direction is kept
+        // from the first disturbed sample on
+        //手机东侧的磁铁使磁场偏转；滤波后的磁场逐渐跟随，从第一个受干扰的样本起保持方向
+        magn[0] = 30;
+        double kept = Double.NaN;
+        for (int i = 0; i < 250; i++, t += SAMPLE) {
+            engine.onMagneticField(t, magn);
+            engine.onAccelerometer(t, acl);
+            if (engine.getDisturbanceDetector().isDisturbed()) {
+                if (Double.isNaN(kept)) {
+                    kept = engine.getAzimuth();
+                }
+                assertEquals(kept, engine.getAzimuth(), 0);
+            }
+        }
+        assertTrue(engine.getDisturbanceDetector().isDisturbed());
+        // undisturbed it would have turned to 306°  不受干扰时会转到306°
+        assertTrue(String.valueOf(kept), kept > 310);
+    }
+}
@@ -0,0 +1,127 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class NavigationEngineTest {
+
+    private static final int RATE = 50;
+    private static final long NS_PER_SAMPLE = 1000000000L / RATE;
+
+    private NavigationEngine engine;
+    private int steps;
+
+    @Before
+    public void setUp() {
+        engine = new NavigationEngine();
+        engine.setPosition(48.0, 11.0);
+        engine.setStepLength(0.7f);
+        engine.setListener(new NavigationEngine.Listener() {
+            @Override
+            public void onStep(int stepCounter) {
+                steps++;
+            }
+
+            @Override
+            public void onOrientationChange(double azimuth) {
+            }
+
+            @Override
+            public void onMagneticDisturbance(boolean disturbed) {
+            }
+
+            @Override
+            public void onCarryModeChange(int mode) {
+            }
+        });
+    }
+
+    @Test
+    public void walkingNorth_countsStepsAndMovesNorth() {
+        // phone flat, top pointing north, two steps per second for 60 seconds
+        walk(60 * RATE, 0, 22, -40);
+
+        // the filters need a moment to settle, so the first steps may be missed
+        assertEquals(120, engine.getStepCounter(), 5);
+        assertEquals(steps, engine.getStepCounter());
+        assertEquals(steps * 0.7, engine.getWalkedDistance(), 1e-4);
+        assertEquals(0, Math.min(engine.getAzimuth(), 360 - engine.getAzimuth()), 1);
+        assertEquals(48.0 + steps * 0.7 / PositionIntegrator.metresPerDegreeLatitude(48.0), engine.getLatitude(), 1e-9);
+        assertEquals(11.0, engine.getLongitude(), 1e-6);
+    }
+
+    @Test
+    public void walkingEast_movesEast() {
+        // the top of the phone points east, so magnetic north lies along -x
+        walk(60 * RATE, -22, 0, -40);
+
+        assertEquals(90, engine.getAzimuth(), 1);
+        assertEquals(48.0, engine.getLatitude(), 1e-6);
+        assertEquals(11.0 + steps * 0.7 / PositionIntegrator.metresPerDegreeLongitude(48.0), engine.getLongitude(), 1e-7);
+    }
+
+    @Test
+    public void phoneSideways_movesInTheWalkingDirection() {
+        // the top of the phone points east while the user walks north, i.e. along -x of the phone
+        engine.setUseWalkingDirection(true);
+        walk(60 * RATE, -22, 0, -40, -1);
+
+        assertEquals(90, engine.getAzimuth(), 1);
+        assertEquals(0, Math.min(engine.getStepDirection(), 360 - engine.getStepDirection()), 5);
+        assertEquals(48.0 + steps * 0.7 / PositionIntegrator.metresPerDegreeLatitude(48.0), engine.getLatitude(),
+                2 * 0.7 / PositionIntegrator.metresPerDegreeLatitude(48.0));
+        assertEquals(11.0, engine.getLongitude(), 5 * 0.7 / PositionIntegrator.metresPerDegreeLongitude(48.0));
+    }
+
+    @Test
+    public void declinationAppliesToEveryDirection() {
+        // the top of the phone points to magnetic east while the user walks to magnetic north, a gyroscope heading
+        // agrees with the magnetic field
+        //手机顶部指向磁东，用户向磁北行走，陀螺仪方向与磁场一致
+        engine.setHeadingSource(new NavigationEngine.HeadingSource() {
+            @Override
+            public double getAzimuth() {
+                return 90;
+            }
+
+            @Override
+            public void onMagneticDisturbance(boolean disturbed) {
+            }
+        });
+        engine.setDeclination(10);
+        engine.setUseWalkingDirection(true);
+        walk(60 * RATE, -22, 0, -40, -1);
+        assertEquals(100, engine.getAzimuth(), 1e-6);
+        assertEquals(10, engine.getStepDirection(), 5);
+
+        // without the walking direction the steps follow the heading, with the same reference
+        //没有行走方向时步伐沿手机方向，参考相同
+        engine.setUseWalkingDirection(false);
+        walk(5 * RATE, -22, 0, -40, -1);
+        assertEquals(100, engine.getStepDirection(), 1e-6);
+    }
+
+    private void walk(int samples, float mx, float my, float mz) {
+        walk(samples, mx, my, mz, 0);
+    }
+
+    /**
+     * @param forwardX forward acceleration along x of the phone, as the user slows down rising over the standing leg
+     *                 and speeds up falling
+     */
+    private void walk(int samples, float mx, float my, float mz, float forwardX) {
+        float[] acl = new float[3];
+        float[] magn = {mx, my, mz};
+        for (int i = 0; i < samples; i++) {
+            double t = (double) i / RATE;
+            long timestamp = i * NS_PER_SAMPLE;
+            acl[0] = (float) (forwardX * Math.cos(2 * Math.PI * 2 * t));
+            acl[1] = 0;
+            acl[2] = (float) (9.81 + 3.0 * Math.sin(2 * Math.PI * 2 * t));
+            engine.onMagneticField(timestamp, magn);
+            engine.onAccelerometer(timestamp, acl);
+        }
+    }
+}
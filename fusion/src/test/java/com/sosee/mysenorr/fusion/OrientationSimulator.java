@@ -0,0 +1,111 @@
+package com.sosee.mysenorr.fusion;
+
+import java.util.Random;
+
+/**
+ * The true orientation of a simulated phone and the accelerometer and magnetic field it measures, for the tests of
+ * the orientation filters. The tests turn the phone and add the gyroscope themselves.
+ */
+class OrientationSimulator {
+
+    /**
+     * The earth field in world coordinates (East, North, Up), may be changed to disturb it
+     */
+    final double[] field = {0, 22, -40};
+    /**
+     * The true orientation (w, x, y, z)
+     */
+    private final double[] truth = {1, 0, 0, 0};
+    private final float[] matrix = new float[9];
+    private final Random random;
+
+    /**
+     * @param random noise of the sensors, the tests draw the noise of the gyroscope from it too
+     */
+    OrientationSimulator(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * Puts the phone back flat, pointing north, with the undisturbed field
+     */
+    void restart() {
+        truth[0] = 1;
+        truth[1] = truth[2] = truth[3] = 0;
+        field[0] = 0;
+    }
+
+    /**
+     * Turns the phone by the rotation vector (x, y, z) in rad in device coordinates
+     */
+    void rotate(double x, double y, double z) {
+        double angle = Math.sqrt(x * x + y * y + z * z);
+        double w = Math.cos(angle / 2);
+        double s = angle > 0 ? Math.sin(angle / 2) / angle : 0.5;
+        x *= s;
+        y *= s;
+        z *= s;
+        double qw = truth[0], qx = truth[1], qy = truth[2], qz = truth[3];
+        double nw = qw * w - qx * x - qy * y - qz * z;
+        double nx = qw * x + qx * w + qy * z - qz * y;
+        double ny = qw * y - qx * z + qy * w + qz * x;
+        double nz = qw * z + qx * y - qy * x + qz * w;
+        double norm = Math.sqrt(nw * nw + nx * nx + ny * ny + nz * nz);
+        truth[0] = nw / norm;
+        truth[1] = nx / norm;
+        truth[2] = ny / norm;
+        truth[3] = nz / norm;
+    }
+
+    /**
+     * @param acl receives the gravity in device coordinates in m/s²
+     */
+    void accelerometer(float[] acl, double noise) {
+        toDevice(0, 0, 9.81, acl, noise);
+    }
+
+    /**
+     * @param magn receives the {@link #field} in device coordinates in µT
+     */
+    void magneticField(float[] magn, double noise) {
+        toDevice(field[0], field[1], field[2], magn, noise);
+    }
+
+    /**
+     * A world vector in device coordinates: R' v
+     */
+    private void toDevice(double x, double y, double z, float[] out, double noise) {
+        getRotationMatrix(matrix);
+        for (int i = 0; i < 3; i++) {
+            out[i] = (float) (matrix[i] * x + matrix[3 + i] * y + matrix[6 + i] * z + noise * random.nextGaussian());
+        }
+    }
+
+    /**
+     * @param r receives the true rotation matrix, 3x3
+     */
+    void getRotationMatrix(float[] r) {
+        SensorMath.getRotationMatrixFromVector(r,
+                new float[]{(float) truth[1], (float) truth[2], (float) truth[3], (float) truth[0]});
+    }
+
+    /**
+     * @param q the estimated orientation (w, x, y, z)
+     * @return angle between the true and the estimated orientation in degrees
+     */
+    double error(float[] q) {
+        double dot = Math.abs(q[0] * truth[0] + q[1] * truth[1] + q[2] * truth[2] + q[3] * truth[3]);
+        return Math.toDegrees(2 * Math.acos(Math.min(1, dot)));
+    }
+
+    /**
+     * @param r the estimated rotation matrix, 3x3
+     * @return difference of the estimated and the true heading in degrees
+     */
+    double headingError(float[] r) {
+        float[] t = new float[9];
+        getRotationMatrix(t);
+        double difference = Math.toDegrees(Math.atan2(r[1], r[4]) - Math.atan2(t[1], t[4]));
+        return Math.abs(Math.IEEEremainder(difference, 360));
+    }
+}
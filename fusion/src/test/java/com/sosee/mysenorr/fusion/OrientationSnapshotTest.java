@@ -0,0 +1,75 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OrientationSnapshotTest {
+
+    @Test
+    public void readersNeverSeeAHalfWrittenOrientation() throws InterruptedException {
+        final OrientationSnapshot snapshot = new OrientationSnapshot();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // every publication has all values equal, a torn read would mix two of them
+                float[] matrix = new float[16];
+                float[] quaternion = new float[4];
+                for (int k = 1; running.get(); k++) {
+                    for (int i = 0; i < 16; i++) {
+                        matrix[i] = k;
+                    }
+                    for (int i = 0; i < 4; i++) {
+                        quaternion[i] = k;
+                    }
+                    snapshot.publish(matrix, quaternion);
+                }
+            }
+        });
+        writer.start();
+
+        float[] matrix = new float[16];
+        float[] quaternion = new float[4];
+        float last = 0;
+        for (int n = 0; n < 200000; n++) {
+            snapshot.getRotationMatrix(matrix);
+            for (int i = 1; i < 16; i++) {
+                assertEquals(matrix[0], matrix[i], 0);
+            }
+            assertTrue(matrix[0] >= last);
+            last = matrix[0];
+
+            snapshot.getQuaternion(quaternion);
+            for (int i = 1; i < 4; i++) {
+                assertEquals(quaternion[0], quaternion[i], 0);
+            }
+        }
+        running.set(false);
+        writer.join();
+    }
+
+    @Test
+    public void azimuthAndAnglesMatchSensorMath() {
+        OrientationSnapshot snapshot = new OrientationSnapshot();
+        float[] matrix = new float[16];
+        // rotation by 30° around z, tilted by 10° around x
+        SensorMath.getRotationMatrixFromVector(matrix, new float[]{
+                (float) (Math.sin(Math.toRadians(5)) * Math.cos(Math.toRadians(15))),
+                (float) (Math.sin(Math.toRadians(5)) * Math.sin(Math.toRadians(15))),
+                (float) (Math.cos(Math.toRadians(5)) * Math.sin(Math.toRadians(15))),
+                (float) (Math.cos(Math.toRadians(5)) * Math.cos(Math.toRadians(15)))});
+        snapshot.publish(matrix, new float[4]);
+
+        assertEquals(SensorMath.getAzimuth(matrix, 2), snapshot.getAzimuth(2), 0);
+        float[] angles = new float[3];
+        snapshot.getOrientation(angles);
+        float[] expected = SensorMath.getOrientation(matrix, new float[3]);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(expected[i], angles[i], 0);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PositionIntegratorTest {
+
+    /**
+     * Metres per degree of the WGS84 ellipsoid (published values)
+     */
+    @Test
+    public void lengthOfADegreeFollowsTheEllipsoid() {
+        assertEquals(110574.3, PositionIntegrator.metresPerDegreeLatitude(0), 0.1);
+        assertEquals(111694.0, PositionIntegrator.metresPerDegreeLatitude(90), 0.1);
+        assertEquals(111319.5, PositionIntegrator.metresPerDegreeLongitude(0), 0.1);
+        assertEquals(78846.8, PositionIntegrator.metresPerDegreeLongitude(45), 0.1);
+        assertEquals(0, PositionIntegrator.metresPerDegreeLongitude(90), 1e-9);
+    }
+
+    @Test
+    public void stepsAcrossTheEquatorMoveInBothDirections() {
+        PositionIntegrator position = new PositionIntegrator();
+        position.setPosition(0, 10);
+        position.step(0, 1);
+        assertEquals(1 / PositionIntegrator.metresPerDegreeLatitude(0), position.getLatitude(), 1e-12);
+
+        position.setPosition(0, 10);
+        for (int i = 0; i < 100; i++) {
+            position.step(180, 0.7);
+        }
+        assertEquals(-70 / PositionIntegrator.metresPerDegreeLatitude(0), position.getLatitude(), 1e-9);
+        assertEquals(10, position.getLongitude(), 1e-12);
+
+        // southern hemisphere, north-west  南半球，西北方向
+        position.setPosition(-33.9, 18.4);
+        position.step(315, 100);
+        assertEquals(-33.9 + 100 * Math.sqrt(0.5) / PositionIntegrator.metresPerDegreeLatitude(-33.9),
+                position.getLatitude(), 1e-9);
+        assertEquals(18.4 - 100 * Math.sqrt(0.5) / PositionIntegrator.metresPerDegreeLongitude(-33.9),
+                position.getLongitude(), 1e-9);
+    }
+
+    @Test
+    public void longitudeWrapsAtTheAntimeridian() {
+        PositionIntegrator position = new PositionIntegrator();
+        position.setPosition(-16.5, 179.9995);
+        for (int i = 0; i < 200; i++) {
+            position.step(90, 0.7);
+        }
+        double expected = 179.9995 + 140 / PositionIntegrator.metresPerDegreeLongitude(-16.5) - 360;
+        assertEquals(expected, position.getLongitude(), 1e-9);
+        for (int i = 0; i < 200; i++) {
+            position.step(270, 0.7);
+        }
+        assertEquals(179.9995, position.getLongitude(), 1e-9);
+        assertEquals(-16.5, position.getLatitude(), 1e-12);
+
+        assertEquals(140, PositionIntegrator.distance(-16.5, 179.9995, -16.5, expected), 1e-6);
+        assertEquals(-180, PositionIntegrator.normalizeLongitude(180), 0);
+        assertEquals(179, PositionIntegrator.normalizeLongitude(-541), 1e-12);
+    }
+
+    @Test
+    public void walkingOverThePoleContinuesOnTheOtherSide() {
+        double metres = PositionIntegrator.metresPerDegreeLatitude(90);
+        PositionIntegrator position = new PositionIntegrator();
+        // 500 m from the north pole, one move of 600 m north ends 100 m past the pole, where the way straight on
+        // leads south
+        //距北极500米，向北移动600米后越过极点100米，继续直行即为向南
+        position.setPosition(90 - 500 / metres, 30);
+        position.step(0, 600);
+        assertEquals(90 - 100 / metres, position.getLatitude(), 1e-9);
+        assertEquals(-150, position.getLongitude(), 1e-9);
+        for (int i = 0; i < 400; i++) {
+            position.step(180, 1);
+        }
+        assertEquals(90 - 500 / metres, position.getLatitude(), 1e-9);
+        assertEquals(-150, position.getLongitude(), 1e-9);
+
+        // 100 m from the south pole, one metre east: along the circle of latitude  距南极100米，向东一米
+        position.setPosition(-90 + 100 / metres, 0);
+        position.step(90, 1);
+        assertEquals(-90 + Math.sqrt(100 * 100 + 1) / metres, position.getLatitude(), 1e-12);
+        assertEquals(Math.toDegrees(Math.atan2(1, 100)), position.getLongitude(), 1e-9);
+    }
+
+    @Test
+    public void aClosedLoopReturnsToTheStart() {
+        PositionIntegrator position = new PositionIntegrator();
+        position.setPosition(48.137154, 11.576124);
+        for (int side = 0; side < 4; side++) {
+            for (int i = 0; i < 100; i++) {
+                position.step(side * 90, 0.75);
+            }
+        }
+        assertEquals(48.137154, position.getLatitude(), 1e-9);
+        assertEquals(11.576124, position.getLongitude(), 1e-7);
+    }
+}
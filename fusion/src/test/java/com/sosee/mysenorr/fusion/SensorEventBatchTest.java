@@ -0,0 +1,86 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SensorEventBatchTest {
+
+    private static final int ACCELEROMETER = 1;
+    private static final int MAGNETIC_FIELD = 2;
+    private static final int ROTATION_VECTOR = 11;
+
+    @Test
+    public void eventsGroupedBySensorAreDrainedInTimestampOrder() {
+        SensorEventBatch batch = new SensorEventBatch(100);
+        // the FIFO delivers all accelerometer events first, then the magnetic field
+        for (int i = 0; i < 10; i++) {
+            batch.add(ACCELEROMETER, i * 20, new float[]{i, 0, 0});
+        }
+        for (int i = 0; i < 10; i++) {
+            batch.add(MAGNETIC_FIELD, i * 20, new float[]{i, 0, 0});
+        }
+        batch.add(ROTATION_VECTOR, 5, new float[]{0, 0, 0, 1, 0});
+
+        final List<String> events = new ArrayList<String>();
+        batch.drain(new SensorEventBatch.Receiver() {
+            @Override
+            public void onEvent(int type, long timestamp, float[] values) {
+                events.add(type + "@" + timestamp + "/" + values.length);
+            }
+        });
+
+        assertEquals(21, events.size());
+        assertEquals("1@0/3", events.get(0));
+        // equal timestamps keep the order of arrival
+        assertEquals("2@0/3", events.get(1));
+        assertEquals("11@5/5", events.get(2));
+        assertEquals("1@20/3", events.get(3));
+        assertEquals("2@180/3", events.get(20));
+        assertTrue(batch.isEmpty());
+    }
+
+    @Test
+    public void batchedWalkGivesTheSameResultAsSingleSamples() {
+        NavigationEngine single = new NavigationEngine();
+        NavigationEngine batched = new NavigationEngine();
+        final NavigationEngine target = batched;
+        SensorEventBatch.Receiver receiver = new SensorEventBatch.Receiver() {
+            @Override
+            public void onEvent(int type, long timestamp, float[] values) {
+                if (type == ACCELEROMETER) {
+                    target.onAccelerometer(timestamp, values);
+                } else {
+                    target.onMagneticField(timestamp, values);
+                }
+            }
+        };
+        // batches of 5 seconds, delivered sensor by sensor
+        SensorEventBatch batch = new SensorEventBatch(500);
+        float[] acl = new float[3];
+        float[] magn = {-22, 0, -40};
+        for (int second = 0; second < 60; second += 5) {
+            for (int i = second * 50; i < (second + 5) * 50; i++) {
+                acl[2] = (float) (9.81 + 3.0 * Math.sin(2 * Math.PI * 2 * i / 50.0));
+                single.onMagneticField(i * 20000000L, magn);
+                single.onAccelerometer(i * 20000000L, acl);
+                assertTrue(batch.add(ACCELEROMETER, i * 20000000L, acl));
+            }
+            for (int i = second * 50; i < (second + 5) * 50; i++) {
+                assertTrue(batch.add(MAGNETIC_FIELD, i * 20000000L, magn));
+            }
+            assertTrue(batch.isFull());
+            assertFalse(batch.add(MAGNETIC_FIELD, 0, magn));
+            batch.drain(receiver);
+        }
+
+        assertTrue(single.getStepCounter() > 100);
+        assertEquals(single.getStepCounter(), batched.getStepCounter());
+        assertEquals(single.getAzimuth(), batched.getAzimuth(), 0);
+    }
+}
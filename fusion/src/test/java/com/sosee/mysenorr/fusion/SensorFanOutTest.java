@@ -0,0 +1,141 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SensorFanOutTest {
+
+    /**
+     * Remembers the timestamps and checks that the values arrive with their original length
+     */
+    private static class Recorder implements SensorEventBatch.Receiver {
+        final long[] timestamps = new long[10000];
+        int count;
+        volatile Thread busy;
+        volatile boolean overlapped;
+
+        @Override
+        public void onEvent(int type, long timestamp, float[] values) {
+            if (busy != null) {
+                overlapped = true;
+            }
+            busy = Thread.currentThread();
+            assertEquals(type == 11 ? 4 : 3, values.length);
+            assertEquals(timestamp, (long) values[0]);
+            timestamps[count++] = timestamp;
+            busy = null;
+        }
+    }
+
+    @Test
+    public void everyPipelineGetsEveryEventInOrder() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        Recorder[] pipelines = {new Recorder(), new Recorder(), new Recorder()};
+        SensorFanOut fanOut = new SensorFanOut(pool, 16, 4, pipelines);
+        fanOut.setBlocking(true);
+        float[] three = new float[3];
+        float[] four = new float[4];
+        long[] expected = new long[10000];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = i;
+            float[] values = i % 5 == 0 ? four : three;
+            values[0] = i;
+            assertTrue(fanOut.add(i % 5 == 0 ? 11 : 1, i, values));
+        }
+        fanOut.awaitIdle();
+        pool.shutdown();
+
+        for (Recorder pipeline : pipelines) {
+            assertArrayEquals(expected, pipeline.timestamps);
+            assertFalse(pipeline.overlapped);
+        }
+        assertEquals(0, fanOut.getDroppedEvents());
+    }
+
+    @Test
+    public void eventsAreDroppedForAllWhileThePipelinesAreBehind() throws InterruptedException {
+        // runs the tasks only when asked  仅在被要求时运行任务
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+        Executor manual = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        };
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        SensorFanOut fanOut = new SensorFanOut(manual, 4, 2, first, second);
+        float[] values = new float[3];
+        int added = 0;
+        for (int i = 0; i < 12; i++) {
+            values[0] = i;
+            if (fanOut.add(1, i, values)) {
+                added++;
+            }
+        }
+        // two chunks of four are waiting, the rest had no chunk  两个四事件的块在等待，其余没有块
+        assertEquals(8, added);
+        assertEquals(4, fanOut.getDroppedEvents());
+
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+        values[0] = 12;
+        assertTrue(fanOut.add(1, 12, values));
+        fanOut.flush();
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        }
+        fanOut.awaitIdle();
+        assertEquals(9, first.count);
+        assertEquals(9, second.count);
+        assertEquals(12, first.timestamps[8]);
+    }
+
+    @Test
+    public void variantsAreComparedOnTheSameStream() throws InterruptedException {
+        NavigationEngine adaptive = new NavigationEngine();
+        NavigationEngine fixed = new NavigationEngine();
+        fixed.getStepDetector().setStepThreshold(2.0f);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        SensorFanOut fanOut = new SensorFanOut(pool, 256, 4, receiver(adaptive), receiver(fixed));
+        fanOut.setBlocking(true);
+
+        // a slow walker with weak steps, one step per second  步伐较弱的慢行者，每秒一步
+        float[] acl = new float[3];
+        float[] magn = {0, 22, -40};
+        for (int i = 0; i < 60 * 50; i++) {
+            long timestamp = i * 20000000L;
+            acl[2] = (float) (9.81 + 1.6 * Math.sin(2 * Math.PI * i / 50.0));
+            fanOut.add(2, timestamp, magn);
+            fanOut.add(1, timestamp, acl);
+        }
+        fanOut.awaitIdle();
+        pool.shutdown();
+
+        assertEquals(60, adaptive.getStepCounter(), 3);
+        assertEquals(0, fixed.getStepCounter());
+    }
+
+    private static SensorEventBatch.Receiver receiver(final NavigationEngine engine) {
+        return new SensorEventBatch.Receiver() {
+            @Override
+            public void onEvent(int type, long timestamp, float[] values) {
+                if (type == 1) {
+                    engine.onAccelerometer(timestamp, values);
+                } else {
+                    engine.onMagneticField(timestamp, values);
+                }
+            }
+        };
+    }
+}
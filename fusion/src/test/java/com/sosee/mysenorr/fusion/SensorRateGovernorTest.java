@@ -0,0 +1,141 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Takes {@link SensorRateGovernor} through a day in a few minutes: lying on the table, walking, running, a bus ride
+ */
+public class SensorRateGovernorTest {
+
+    private final SensorRateGovernor governor = new SensorRateGovernor();
+    private final Random random = new Random(25);
+    private final float[] acl = new float[3];
+    private long timestamp;
+    private int changes;
+
+    /**
+     * Feeds the governor at its own sampling rate, as the sensors would after a change
+     *
+     * @param shaking amplitude of the acceleration in m/s²
+     * @param cadence steps per second, 0 without steps
+     */
+    private void simulate(double seconds, double shaking, double cadence) {
+        long end = timestamp + (long) (seconds * 1e9);
+        double nextStep = cadence > 0 ? timestamp * 1e-9 + 1 / cadence : Double.MAX_VALUE;
+        while (timestamp < end) {
+            timestamp += 1000000000L / governor.getSamplingRate();
+            double t = timestamp * 1e-9;
+            acl[0] = (float) (0.02 * random.nextGaussian());
+            acl[1] = (float) (0.02 * random.nextGaussian());
+            acl[2] = (float) (9.81 + shaking * Math.sin(2 * Math.PI * Math.max(cadence, 7) * t)
+                    + 0.02 * random.nextGaussian());
+            if (governor.onAccelerometer(timestamp, acl)) {
+                changes++;
+            }
+            if (t >= nextStep) {
+                if (governor.onStep(timestamp)) {
+                    changes++;
+                }
+                nextStep += 1 / cadence;
+            }
+        }
+    }
+
+    @Test
+    public void followsTheActivity() {
+        simulate(10, 0, 0);
+        assertEquals(SensorRateGovernor.ACTIVITY_STILL, governor.getActivity());
+        assertEquals(20, governor.getSamplingRate());
+
+        // the first movement raises the rate at once  第一次运动立即提高频率
+        simulate(0.3, 2, 1.8);
+        assertEquals(SensorRateGovernor.ACTIVITY_WALKING, governor.getActivity());
+        simulate(20, 2, 1.8);
+        assertEquals(SensorRateGovernor.ACTIVITY_WALKING, governor.getActivity());
+        assertEquals(SensorRateGovernor.DEFAULT_RATE, governor.getSamplingRate());
+
+        simulate(10, 6, 2.9);
+        assertEquals(SensorRateGovernor.ACTIVITY_RUNNING, governor.getActivity());
+
+        // vibration of a bus, no steps  公交车的振动，没有步伐
+        simulate(15, 0.5, 0);
+        assertEquals(SensorRateGovernor.ACTIVITY_VEHICLE, governor.getActivity());
+        simulate(3, 2, 1.8);
+        assertEquals(SensorRateGovernor.ACTIVITY_WALKING, governor.getActivity());
+        assertTrue(changes <= 7);
+    }
+
+    @Test
+    public void shortPausesKeepTheRate() {
+        simulate(20, 2, 1.8);
+        // waiting at a crossing  在路口等待
+        simulate(2, 0, 0);
+        assertEquals(SensorRateGovernor.ACTIVITY_WALKING, governor.getActivity());
+        simulate(20, 2, 1.8);
+        assertEquals(1, changes);
+    }
+
+    @Test
+    public void countsTheSavedSamples() {
+        governor.setSensorPower(3);
+        simulate(60, 0, 0);
+        simulate(60, 2, 1.8);
+        // 3 s at the full rate until still is recognized, then 20 Hz instead of 50 Hz
+        //识别为静止之前的3秒为全频率，然后以20 Hz代替50 Hz
+        assertEquals(57, governor.getTime(SensorRateGovernor.ACTIVITY_STILL), 0.5);
+        assertEquals(63, governor.getTime(SensorRateGovernor.ACTIVITY_WALKING), 0.5);
+        assertEquals((63 + 57 * 0.4) / 120, governor.getSampleRatio(), 0.01);
+        assertEquals((63 + 57 * 0.4) * 3 / 3600, governor.getCharge(), 0.001);
+        assertEquals(57 * 0.6 * 3 / 3600, governor.getSavedCharge(), 0.001);
+        governor.reset();
+        assertEquals(1, governor.getSampleRatio(), 0);
+    }
+
+    @Test
+    public void stillRateKeepsTheFirstSteps() {
+        int steps = startWalking(SensorRateGovernor.DEFAULT_RATE);
+        assertEquals(steps, startWalking(SensorRateGovernor.getSamplingRate(SensorRateGovernor.ACTIVITY_STILL)));
+        // at 10 Hz the jitter breaks the samples of the first steps apart  10 Hz时抖动使第一步的样本中断
+        assertTrue(startWalking(10) < steps);
+    }
+
+    /**
+     * Stands for 2 s and walks for 5 s with two steps per second through the engine. The sensors run at the rate of
+     * a still phone until 1 s into the walk, when they are registered again, the timestamps jitter by up to 20% of
+     * the interval.
+     *
+     * @return the steps the engine counted
+     */
+    private int startWalking(int stillRate) {
+        NavigationEngine engine = new NavigationEngine();
+        engine.changeDelay(stillRate, 0);
+        engine.changeDelay(stillRate, 1);
+        float[] magn = {0, 22, -40};
+        long start = 2000000000L;
+        long end = start + 5000000000L;
+        long nominal = 0;
+        int rate = stillRate;
+        while (nominal < end) {
+            if (rate == stillRate && nominal >= start + 1000000000L) {
+                rate = SensorRateGovernor.DEFAULT_RATE;
+                engine.changeDelay(rate, 0);
+                engine.changeDelay(rate, 1);
+            }
+            long period = 1000000000L / rate;
+            nominal += period;
+            long timestamp = nominal + (long) (0.2 * period * (2 * random.nextDouble() - 1));
+            double walking = Math.max(0, (timestamp - start) * 1e-9);
+            acl[0] = (float) (0.02 * random.nextGaussian());
+            acl[1] = (float) (0.02 * random.nextGaussian());
+            acl[2] = (float) (9.81 + 3.0 * Math.sin(2 * Math.PI * 2 * walking) + 0.02 * random.nextGaussian());
+            engine.onMagneticField(timestamp, magn);
+            engine.onAccelerometer(timestamp, acl);
+        }
+        return engine.getStepCounter();
+    }
+}
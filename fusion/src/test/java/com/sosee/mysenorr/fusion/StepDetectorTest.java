@@ -0,0 +1,110 @@
+package com.sosee.mysenorr.fusion;
+
+import com.sosee.mysenorr.trace.TraceFormat;
+import com.sosee.mysenorr.trace.TraceReader;
+import com.sosee.mysenorr.trace.TraceReplay;
+import com.sosee.mysenorr.trace.TraceWriter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StepDetectorTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void negativePeakCompletesAStepOnlyWithinTheTimeFrame() {
+        StepDetector detector = new StepDetector();
+        assertFalse(detector.update(0, 3));
+        assertTrue(detector.isStepBegun());
+        // too early  太早
+        assertFalse(detector.update(100 * MS, -3));
+        assertFalse(detector.update(200 * MS, -3));
+        assertTrue(detector.update(300 * MS, -3));
+        assertEquals(StepDetector.STATE_IDLE, detector.getState());
+
+        // too late: the step is dropped after 0.8 s  太晚：0.8秒后丢弃
+        long t = 1000 * MS;
+        detector.update(t, 3);
+        for (int i = 1; i <= 9; i++) {
+            assertFalse(detector.update(t + i * 90 * MS, 0));
+        }
+        assertFalse(detector.isStepBegun());
+        assertFalse(detector.update(t + 900 * MS, -3));
+    }
+
+    @Test
+    public void gapsAndTimeGoingBackDropABegunStep() {
+        StepDetector detector = new StepDetector();
+        detector.update(0, 3);
+        // no samples for 300 ms, the negative peak may have been missed
+        //300毫秒没有样本，可能错过了负峰值
+        assertFalse(detector.update(300 * MS, -3));
+        assertFalse(detector.isStepBegun());
+
+        detector.update(1000 * MS, 3);
+        assertFalse(detector.update(500 * MS, -3));
+        assertFalse(detector.isStepBegun());
+    }
+
+    @Test
+    public void stepsAreCountedAtAnySamplingRate() throws IOException {
+        int[] rates = {16, 25, 50, 100, 200};
+        for (int rate : rates) {
+            // the filters need a few seconds to settle, so only the steps after the first 10 s are compared
+            //滤波器需要几秒钟稳定，因此只比较前10秒之后的步数
+            int settling = replay(recordWalk(rate, 0, 10)).getStepCounter();
+            int all = replay(recordWalk(rate, 0, 60)).getStepCounter();
+            assertEquals("steps at " + rate + " Hz", 100, all - settling);
+        }
+    }
+
+    @Test
+    public void jitterDoesNotChangeTheResult() throws IOException {
+        int exact = replay(recordWalk(50, 0, 60)).getStepCounter();
+        // up to ±40% of the sample interval  最多为采样间隔的±40%
+        assertEquals(exact, replay(recordWalk(50, 0.4, 60)).getStepCounter(), 1);
+    }
+
+    private static NavigationEngine replay(byte[] trace) throws IOException {
+        NavigationEngine engine = new NavigationEngine();
+        engine.setStepLength(0.7f);
+        TraceReader reader = new TraceReader(Channels.newChannel(new ByteArrayInputStream(trace)));
+        new TraceReplay(engine, false).replay(reader);
+        reader.close();
+        return engine;
+    }
+
+    /**
+     * Phone flat, two steps per second, the timestamps optionally with jitter
+     *
+     * @param rate   sampling rate in Hz
+     * @param jitter maximum deviation of a timestamp as part of the sample interval
+     */
+    private static byte[] recordWalk(int rate, double jitter, int seconds) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(Channels.newChannel(out));
+        Random random = new Random(rate);
+        float[] acl = new float[3];
+        float[] magn = {0, 22, -40};
+        long interval = 1000000000L / rate;
+        for (int i = 0; i < seconds * rate; i++) {
+            long timestamp = i * interval + (long) ((random.nextDouble() * 2 - 1) * jitter * interval);
+            double t = timestamp / 1e9;
+            acl[2] = (float) (9.81 + 3.0 * Math.sin(2 * Math.PI * 2 * t));
+            writer.write(TraceFormat.TYPE_MAGNETIC_FIELD, timestamp, magn);
+            writer.write(TraceFormat.TYPE_ACCELEROMETER, timestamp, acl);
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,117 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StepLengthEstimatorTest {
+
+    private static final long STEP_NS = 550000000L;
+    private static final int SAMPLES_PER_STEP = 25;
+
+    private long time;
+
+    /**
+     * One step from the positive to the negative peak, a half sine with the given amplitude
+     */
+    private float step(StepLengthEstimator estimator, double amplitude, double azimuth) {
+        estimator.startStep();
+        for (int i = 0; i <= SAMPLES_PER_STEP; i++) {
+            estimator.update((float) (amplitude * Math.cos(Math.PI * i / SAMPLES_PER_STEP)));
+        }
+        time += STEP_NS;
+        return estimator.onStep(time, azimuth);
+    }
+
+    @Test
+    public void strongerStepsAreLongerAndTheAverageIsTheConfiguredLength() {
+        StepLengthEstimator estimator = new StepLengthEstimator();
+        estimator.setStepLength(0.75f);
+        double sum = 0;
+        for (int i = 0; i < 1000; i++) {
+            sum += step(estimator, i % 2 == 0 ? 2 : 4, 0);
+        }
+        assertEquals(0.75, sum / 1000, 0.01);
+
+        float weak = step(estimator, 2, 0);
+        float strong = step(estimator, 4, 0);
+        // Weinberg: (8 / 4)^(1/4), the average moves a little in between
+        assertEquals(Math.pow(2, 0.25), strong / weak, 1e-3);
+        assertEquals(1e9 / STEP_NS, estimator.getStepFrequency(), 1e-3);
+        assertTrue(estimator.getVariance() > 0);
+    }
+
+    @Test
+    public void gpsSegmentsTeachTheCoefficientOfTheUser() {
+        StepLengthEstimator estimator = new StepLengthEstimator();
+        // the user makes longer steps than the model expects  用户的步伐比模型预期的长
+        double trueCoefficient = 1.25 * estimator.getCoefficient();
+        for (int segment = 0; segment < 30; segment++) {
+            estimator.startCalibration();
+            double distance = 0;
+            for (int i = 0; i < 40; i++) {
+                step(estimator, 2 + (i + segment) % 3, 90);
+                distance += trueCoefficient * estimator.getRaw();
+            }
+            assertTrue(estimator.calibrate(distance, 2));
+        }
+        assertEquals(30, estimator.getCalibrations());
+        assertEquals(trueCoefficient, estimator.getCoefficient(), 0.02 * trueCoefficient);
+
+        // a new estimator continues with the stored calibration  新的估计器使用保存的校准继续
+        StepLengthEstimator restored = new StepLengthEstimator();
+        restored.setCalibration(estimator.getSumProducts(), estimator.getSumSquares());
+        assertEquals(trueCoefficient, restored.getCoefficient(), 0.02 * trueCoefficient);
+    }
+
+    @Test
+    public void shortInaccurateOrImplausibleSegmentsAreNotUsed() {
+        StepLengthEstimator estimator = new StepLengthEstimator();
+
+        // there and back: only the straight distance counts  往返：只计直线距离
+        estimator.startCalibration();
+        for (int i = 0; i < 20; i++) {
+            step(estimator, 3, 0);
+        }
+        for (int i = 0; i < 20; i++) {
+            step(estimator, 3, 180);
+        }
+        assertFalse(estimator.calibrate(1, 2));
+
+        // too inaccurate, extended by the next fix  太不准确，由下一个定位点延长
+        estimator.startCalibration();
+        for (int i = 0; i < 40; i++) {
+            step(estimator, 3, 0);
+        }
+        assertFalse(estimator.calibrate(28, 10));
+        assertEquals(40, estimator.getSegmentSteps());
+        double coefficient = estimator.getCoefficient();
+
+        // GPS jumped 200 m: the segment is dropped  GPS跳变200米：丢弃该路段
+        assertTrue(estimator.calibrate(228, 4));
+        assertEquals(0, estimator.getSegmentSteps());
+        assertEquals(0, estimator.getCalibrations());
+        assertEquals(coefficient, estimator.getCoefficient(), 1e-9);
+    }
+
+    @Test
+    public void engineCalibratesWithGpsFixes() {
+        NavigationEngine engine = new NavigationEngine();
+        engine.setPosition(48.0, 11.0);
+        engine.setStepLength(0.7f);
+        assertFalse(engine.isDynamicStepLength());
+
+        // the first fix starts the segment, a fix 30 m north after the steps completes it
+        //第一个定位点开始路段，步行后北方30米的定位点完成它
+        assertFalse(engine.onGpsFix(48.0, 11.0, 1));
+        StepLengthEstimator estimator = engine.getStepLengthEstimator();
+        for (int i = 0; i < 40; i++) {
+            step(estimator, 3, 0);
+        }
+        assertTrue(engine.onGpsFix(48.0 + 30 / PositionIntegrator.metresPerDegreeLatitude(48.0), 11.0, 1));
+        assertEquals(1, estimator.getCalibrations());
+        assertEquals(0, estimator.getSegmentSteps());
+    }
+}
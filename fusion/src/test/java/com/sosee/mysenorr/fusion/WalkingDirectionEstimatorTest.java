@@ -0,0 +1,74 @@
+package com.sosee.mysenorr.fusion;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds {@link WalkingDirectionEstimator} the acceleration of a walking user: up and down twice per second, slowing
+ * down while rising and speeding up while falling, swaying sideways once per second
+ */
+public class WalkingDirectionEstimatorTest {
+
+    private static final int RATE = 50;
+    private static final long NS_PER_SAMPLE = 1000000000L / RATE;
+    private static final double STEP_FREQUENCY = 2;
+
+    private final WalkingDirectionEstimator estimator = new WalkingDirectionEstimator();
+    private final Random random = new Random(23);
+    private long timestamp;
+
+    /**
+     * @param direction direction of travel in degrees (0 = north)
+     * @param forward   amplitude of the forward acceleration in m/s²
+     */
+    private void walk(int seconds, double direction, double forward) {
+        double e = Math.sin(Math.toRadians(direction));
+        double n = Math.cos(Math.toRadians(direction));
+        double w = 2 * Math.PI * STEP_FREQUENCY;
+        for (int i = 0; i < seconds * RATE; i++) {
+            timestamp += NS_PER_SAMPLE;
+            double t = timestamp * 1e-9;
+            // vertical speed -cos, so the forward acceleration is +cos  垂直速度为-cos，因此前向加速度为+cos
+            double up = 3 * Math.sin(w * t);
+            double ahead = forward * Math.cos(w * t);
+            double side = 0.3 * Math.sin(w / 2 * t);
+            estimator.update(timestamp,
+                    (float) (ahead * e + side * n + 0.1 * random.nextGaussian()),
+                    (float) (ahead * n - side * e + 0.1 * random.nextGaussian()),
+                    (float) (up + 0.1 * random.nextGaussian()));
+            if (i % (RATE / 2) == RATE / 2 - 1) {
+                estimator.onStep();
+            }
+        }
+    }
+
+    @Test
+    public void findsTheDirectionOfTravel() {
+        double[] directions = {0, 30, 135, 210, 300};
+        for (double direction : directions) {
+            estimator.reset();
+            walk(10, direction, 1);
+            assertTrue(estimator.toString(), estimator.isValid());
+            double error = Math.abs(estimator.getAzimuth() - direction);
+            assertEquals(estimator.toString(), 0, Math.min(error, 360 - error), 5);
+        }
+    }
+
+    @Test
+    public void followsATurn() {
+        walk(10, 90, 1);
+        walk(3, 180, 1);
+        assertEquals(180, estimator.getAzimuth(), 5);
+    }
+
+    @Test
+    public void invalidWithoutHorizontalMovement() {
+        walk(10, 0, 0);
+        assertFalse(estimator.isValid());
+    }
+}
@@ -0,0 +1,33 @@
+package com.sosee.mysenorr.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyStatsTest {
+
+    @Test
+    public void percentilesAreAccurateToAFactorOfTwo() {
+        LatencyStats stats = new LatencyStats();
+        // 1 ms to 10 ms, 1% of the events 50 ms late
+        for (int i = 0; i < 990; i++) {
+            stats.record(1000000L + i * 9091L);
+        }
+        for (int i = 0; i < 10; i++) {
+            stats.record(50000000L);
+        }
+
+        assertEquals(1000, stats.getCount());
+        assertEquals(50000000L, stats.getMaxNanos());
+        long median = stats.getPercentileNanos(50);
+        assertTrue(median >= 5500000L && median < 2 * 5500000L);
+        long p99 = stats.getPercentileNanos(99);
+        assertTrue(p99 >= 10000000L && p99 < 2 * 10000000L);
+        assertEquals(50000000L, stats.getPercentileNanos(100));
+
+        stats.reset();
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getPercentileNanos(99));
+    }
+}
@@ -0,0 +1,123 @@
+package com.sosee.mysenorr.trace;
+
+import com.sosee.mysenorr.fusion.AdaptiveStepThreshold;
+import com.sosee.mysenorr.fusion.CarryModeClassifier;
+import com.sosee.mysenorr.fusion.NavigationEngine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CarryModeEvaluatorTest {
+
+    private static final int RATE = 50;
+    /**
+     * Per mode: axis the phone sways about (0 = x, 2 = z), tilt and amplitude of the sway in degrees, frequency of
+     * the sway in Hz, vertical and forward acceleration in m/s², radius of the arm in m
+     */
+    private static final double[][] CARRIERS = {
+            {0, 40, 4, 1.8, 1.5, 0.8, 0},
+            {0, 75, 25, 0.9, 3.0, 1.5, 0},
+            {2, 0, 40, 0.9, 2.0, 1.0, 0.6},
+            {0, 70, 4, 1.8, 1.2, 0.5, 0}};
+
+    @Test
+    public void recognizesTheLabelledModes() throws IOException {
+        NavigationEngine engine = new NavigationEngine();
+        CarryModeEvaluator evaluator = new CarryModeEvaluator(new TraceReplay(engine, false));
+        evaluate(evaluator, trace(new int[]{1, 0, 2, 3}, 1));
+        assertTrue(evaluator.toString(), evaluator.getAccuracy() >= 0.8);
+        for (int mode = 0; mode < CarryModeClassifier.MODES; mode++) {
+            assertTrue(evaluator.toString(), evaluator.getRecall(mode) >= 0.7);
+        }
+        // the step detection follows the mode  步伐检测跟随携带方式
+        assertEquals(CarryModeClassifier.MODE_BAG, engine.getCarryMode());
+        AdaptiveStepThreshold threshold = engine.getStepDetector().getAdaptiveThreshold();
+        assertTrue(threshold.getMinThreshold() < AdaptiveStepThreshold.MIN_THRESHOLD);
+    }
+
+    @Test
+    public void fittedModelRecognizesOtherTraces() throws IOException {
+        CarryModeEvaluator training = new CarryModeEvaluator(new TraceReplay(new NavigationEngine(), true));
+        evaluate(training, trace(new int[]{0, 1, 2, 3}, 2));
+        NavigationEngine engine = new NavigationEngine();
+        assertEquals(CarryModeClassifier.MODES, training.fitModel(engine.getCarryModeClassifier()));
+
+        CarryModeEvaluator evaluator = new CarryModeEvaluator(new TraceReplay(engine, true));
+        evaluate(evaluator, trace(new int[]{3, 2, 1, 0}, 3));
+        assertTrue(evaluator.toString(), evaluator.getAccuracy() >= 0.8);
+        assertEquals(0, evaluator.getConfusion(CarryModeClassifier.MODE_HAND, CarryModeClassifier.MODE_SWINGING));
+    }
+
+    private static void evaluate(CarryModeEvaluator evaluator, byte[] trace) throws IOException {
+        TraceReader reader = new TraceReader(Channels.newChannel(new ByteArrayInputStream(trace)));
+        evaluator.evaluate(reader);
+        reader.close();
+    }
+
+    /**
+     * 20 s of walking in each of the modes, with 3 s standing before each, labelled when the walk starts
+     */
+    private static byte[] trace(int[] modes, long seed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(Channels.newChannel(out));
+        Random random = new Random(seed);
+        float[] acl = new float[3];
+        float[] gyro = new float[3];
+        long interval = 1000000000L / RATE;
+        long timestamp = 0;
+        for (int mode : modes) {
+            for (int i = 0; i < 23 * RATE; i++) {
+                timestamp += interval;
+                boolean walking = i >= 3 * RATE;
+                if (i == 3 * RATE) {
+                    writer.write(TraceFormat.TYPE_LABEL, timestamp, new float[]{TraceFormat.LABEL_CARRY_MODE, mode});
+                }
+                sample(walking ? mode : CarryModeClassifier.MODE_UNKNOWN, timestamp * 1e-9, random, acl, gyro);
+                writer.write(TraceFormat.TYPE_GYROSCOPE, timestamp, gyro);
+                writer.write(TraceFormat.TYPE_ACCELEROMETER, timestamp, acl);
+            }
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * The phone carried in a mode while walking with 1.8 steps per second, lying still if mode is
+     * {@link CarryModeClassifier#MODE_UNKNOWN}
+     */
+    private static void sample(int mode, double t, Random random, float[] acl, float[] gyro) {
+        if (mode == CarryModeClassifier.MODE_UNKNOWN) {
+            acl[0] = acl[1] = (float) (0.05 * random.nextGaussian());
+            acl[2] = (float) (9.81 + 0.05 * random.nextGaussian());
+            gyro[0] = gyro[1] = gyro[2] = (float) (0.01 * random.nextGaussian());
+            return;
+        }
+        double[] c = CARRIERS[mode];
+        double f = 2 * Math.PI * c[3];
+        double amplitude = Math.toRadians(c[2]);
+        double angle = Math.toRadians(c[1]) + amplitude * Math.sin(f * t);
+        double rate = amplitude * f * Math.cos(f * t);
+        double step = 2 * Math.PI * 1.8 * t;
+        double along = 9.81 + c[4] * Math.sin(step) + c[6] * rate * rate;
+        double across = c[5] * Math.sin(step + 1) - c[6] * amplitude * f * f * Math.sin(f * t);
+        double s = Math.sin(angle);
+        double cos = Math.cos(angle);
+        int i = (int) c[0];
+        int j = i == 0 ? 1 : 0;
+        int k = i == 0 ? 2 : 1;
+        acl[i] = (float) (0.1 * random.nextGaussian());
+        acl[j] = (float) (along * s + across * cos + 0.1 * random.nextGaussian());
+        acl[k] = (float) (along * cos - across * s + 0.1 * random.nextGaussian());
+        gyro[i] = (float) (rate + 0.05 * random.nextGaussian());
+        gyro[j] = (float) (0.1 * Math.sin(step) + 0.05 * random.nextGaussian());
+        gyro[k] = (float) (0.1 * Math.cos(step) + 0.05 * random.nextGaussian());
+    }
+}
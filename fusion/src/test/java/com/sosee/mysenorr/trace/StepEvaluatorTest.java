@@ -0,0 +1,101 @@
+package com.sosee.mysenorr.trace;
+
+import com.sosee.mysenorr.fusion.NavigationEngine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StepEvaluatorTest {
+
+    private static final int RATE = 50;
+
+    @Test
+    public void perfectDetectionsAreMatched() throws IOException {
+        // the labels lie at the negative peaks, where the steps are detected
+        StepEvaluator evaluator = evaluate(walk(3.0, 2.0, 0, 0), true);
+        assertTrue(evaluator.toString(), evaluator.getLabelledSteps() >= 59);
+        assertEquals(evaluator.toString(), 1.0, evaluator.getPrecision(), 0.02);
+        assertEquals(evaluator.toString(), 1.0, evaluator.getRecall(), 0.02);
+    }
+
+    @Test
+    public void adaptiveThresholdCountsSlowWalkersAndRunners() throws IOException {
+        // amplitude, cadence, bounce of the heel strike (second harmonic): slow walkers, normal walk, runners,
+        // stairs
+        //振幅、步频、脚跟着地的反弹（二次谐波）：慢行者、正常行走、跑步者、楼梯
+        double[][] walkers = {{0.9, 1.4, 0}, {1.5, 1.7, 0.2}, {3.0, 2.0, 0.3}, {9.0, 2.8, 0.5}, {12.0, 3.0, 0.6},
+                {4.0, 1.2, 0.8}};
+        for (double[] walker : walkers) {
+            StepEvaluator evaluator = evaluate(walk(walker[0], walker[1], walker[2], 0.15), true);
+            assertTrue(evaluator.toString(), evaluator.getPrecision() >= 0.95);
+            assertTrue(evaluator.toString(), evaluator.getRecall() >= 0.95);
+        }
+    }
+
+    @Test
+    public void fixedThresholdMissesSlowWalkers() throws IOException {
+        StepEvaluator evaluator = evaluate(walk(1.5, 1.7, 0.2, 0.15), false);
+        assertEquals(evaluator.toString(), 0, evaluator.getRecall(), 0.05);
+    }
+
+    private static StepEvaluator evaluate(byte[] trace, boolean adaptive) throws IOException {
+        NavigationEngine engine = new NavigationEngine();
+        engine.getStepDetector().setAdaptive(adaptive);
+        StepEvaluator evaluator = new StepEvaluator(new TraceReplay(engine, false));
+        TraceReader reader = new TraceReader(Channels.newChannel(new ByteArrayInputStream(trace)));
+        evaluator.evaluate(reader);
+        reader.close();
+        return evaluator;
+    }
+
+    /**
+     * Phone flat: 10 s standing (the filters settle), 30 s walking, 10 s standing. The vertical acceleration is
+     * a sine with the cadence plus its second harmonic, every negative peak of the sine is labelled as a step.
+     *
+     * @param amplitude vertical acceleration in m/s^2
+     * @param cadence   steps per second
+     * @param bounce    amplitude of the second harmonic relative to the first
+     * @param noise     standard deviation of the sensor noise in m/s^2
+     */
+    private static byte[] walk(double amplitude, double cadence, double bounce, double noise) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(Channels.newChannel(out));
+        Random random = new Random(42);
+        float[] acl = new float[3];
+        float[] magn = {0, 22, -40};
+        float[] label = {TraceFormat.LABEL_STEP};
+        long interval = 1000000000L / RATE;
+        double walkStart = 10;
+        double walkEnd = 40;
+        double nextLabel = walkStart + 0.75 / cadence;
+        for (int i = 0; i < 50 * RATE; i++) {
+            long timestamp = i * interval;
+            double t = i / (double) RATE;
+            double vertical = 0;
+            if (t >= walkStart && t < walkEnd) {
+                double phase = 2 * Math.PI * cadence * (t - walkStart);
+                vertical = amplitude * (Math.sin(phase) + bounce * Math.sin(2 * phase + 1));
+            }
+            for (int k = 0; k < 3; k++) {
+                acl[k] = (float) (random.nextGaussian() * noise);
+            }
+            acl[2] += (float) (9.81 + vertical);
+            if (t >= nextLabel && nextLabel < walkEnd) {
+                writer.write(TraceFormat.TYPE_LABEL, (long) (nextLabel * 1e9), label);
+                nextLabel += 1 / cadence;
+            }
+            writer.write(TraceFormat.TYPE_MAGNETIC_FIELD, timestamp, magn);
+            writer.write(TraceFormat.TYPE_ACCELEROMETER, timestamp, acl);
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,172 @@
+package com.sosee.mysenorr.trace;
+
+import com.sosee.mysenorr.fusion.NavigationEngine;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceReplayTest {
+
+    private static final long NS_PER_GYRO_SAMPLE = 10000000L;
+    /**
+     * Faster than GyroFusion.EPSILON, slower rotations are damped by the fusion
+     */
+    private static final double TURN_RATE = 0.5;
+    /**
+     * Hard and soft iron of a phone: center in µT and the correction matrix, as stored by the MagneticCalibrator
+     */
+    private static final float[] CALIBRATION = {30, -20, 15, 0.8f, 0, 0, 0, 1.25f, 0, 0, 0, 1};
+
+    @Test
+    public void replayIsDeterministic() throws IOException {
+        byte[] trace = recordWalk(60);
+
+        NavigationEngine first = replay(trace, true);
+        NavigationEngine second = replay(trace, true);
+
+        assertTrue(first.getStepCounter() > 100);
+        assertEquals(first.getStepCounter(), second.getStepCounter());
+        assertEquals(first.getAzimuth(), second.getAzimuth(), 0);
+        assertEquals(first.getLatitude(), second.getLatitude(), 0);
+        assertEquals(first.getLongitude(), second.getLongitude(), 0);
+    }
+
+    @Test
+    public void headingComesFromTheGyroscope() throws IOException {
+        byte[] trace = recordWalk(20);
+
+        // the magnetic field says north, while the phone turns clockwise (the last accelerometer sample is at 19.98 s)
+        NavigationEngine magnetic = replay(trace, false);
+        assertEquals(0, Math.min(magnetic.getAzimuth(), 360 - magnetic.getAzimuth()), 1);
+        assertEquals(Math.toDegrees(19.98 * TURN_RATE) % 360, replay(trace, true).getAzimuth(), 1);
+    }
+
+    @Test
+    public void allFusionsFollowTheTurn() throws IOException {
+        byte[] trace = recordTurn(60);
+        double expected = Math.toDegrees(59.98 * TURN_RATE) % 360;
+        int[] fusions = {TraceReplay.FUSION_GYRO, TraceReplay.FUSION_KALMAN, TraceReplay.FUSION_MADGWICK};
+        for (int fusion : fusions) {
+            double azimuth = replay(trace, fusion).getAzimuth();
+            double error = Math.abs(azimuth - expected);
+            assertTrue("fusion " + fusion + ": " + azimuth, Math.min(error, 360 - error) < 2);
+        }
+    }
+
+    @Test
+    public void fusionsGetTheCalibratedField() throws IOException {
+        byte[] trace = recordTurn(60, false);
+        byte[] distorted = recordTurn(60, true);
+        int[] fusions = {TraceReplay.FUSION_KALMAN, TraceReplay.FUSION_MADGWICK};
+        for (int fusion : fusions) {
+            double expected = replay(trace, fusion).getAzimuth();
+            double azimuth = replay(distorted, fusion, CALIBRATION).getAzimuth();
+            double error = Math.abs(azimuth - expected);
+            assertTrue("fusion " + fusion + ": " + azimuth + " instead of " + expected,
+                    Math.min(error, 360 - error) < 1);
+        }
+    }
+
+    private static NavigationEngine replay(byte[] trace, boolean useGyroscope) throws IOException {
+        return replay(trace, useGyroscope ? TraceReplay.FUSION_GYRO : TraceReplay.FUSION_NONE);
+    }
+
+    private static NavigationEngine replay(byte[] trace, int fusion) throws IOException {
+        return replay(trace, fusion, null);
+    }
+
+    /**
+     * @param calibration magnetic calibration the engine starts with, null for none
+     */
+    private static NavigationEngine replay(byte[] trace, int fusion, float[] calibration) throws IOException {
+        NavigationEngine engine = new NavigationEngine();
+        if (calibration != null) {
+            engine.getMagneticCalibrator().setCalibration(calibration);
+        }
+        engine.setPosition(48.0, 11.0);
+        engine.setStepLength(0.7f);
+        TraceReader reader = new TraceReader(Channels.newChannel(new ByteArrayInputStream(trace)));
+        new TraceReplay(engine, fusion).replay(reader);
+        reader.close();
+        return engine;
+    }
+
+    private static byte[] recordTurn(int seconds) throws IOException {
+        return recordTurn(seconds, false);
+    }
+
+    /**
+     * Like {@link #recordWalk(int)}, but the magnetic field turns with the phone and the gyroscope has a bias
+     *
+     * @param distorted true to add the hard and soft iron that {@link #CALIBRATION} removes
+     */
+    private static byte[] recordTurn(int seconds, boolean distorted) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(Channels.newChannel(out));
+        float[] acl = new float[3];
+        float[] magn = new float[3];
+        float[] gyro = {0.002f, -0.003f, (float) (-TURN_RATE + 0.01)};
+        float[] rotationVector = new float[4];
+        for (int i = 0; i < seconds * 100; i++) {
+            long timestamp = i * NS_PER_GYRO_SAMPLE;
+            double t = i / 100.0;
+            double yaw = TURN_RATE * t;
+            rotationVector[2] = (float) -Math.sin(yaw / 2);
+            rotationVector[3] = (float) Math.cos(yaw / 2);
+            writer.write(TraceFormat.TYPE_ROTATION_VECTOR, timestamp, rotationVector);
+            writer.write(TraceFormat.TYPE_GYROSCOPE, timestamp, gyro);
+            if (i % 2 == 0) {
+                acl[2] = (float) (9.81 + 3.0 * Math.sin(2 * Math.PI * 2 * t));
+                magn[0] = (float) (-22 * Math.sin(yaw));
+                magn[1] = (float) (22 * Math.cos(yaw));
+                magn[2] = -40;
+                if (distorted) {
+                    for (int axis = 0; axis < 3; axis++) {
+                        magn[axis] = magn[axis] / CALIBRATION[3 + 4 * axis] + CALIBRATION[axis];
+                    }
+                }
+                writer.write(TraceFormat.TYPE_MAGNETIC_FIELD, timestamp, magn);
+                writer.write(TraceFormat.TYPE_ACCELEROMETER, timestamp, acl);
+            }
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * Phone flat, two steps per second, magnetic field pointing north and the phone slowly turning clockwise.
+     * Accelerometer and magnetic field at 50 Hz, gyroscope and rotation vector at 100 Hz.
+     */
+    private static byte[] recordWalk(int seconds) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(Channels.newChannel(out));
+        float[] acl = new float[3];
+        float[] magn = {0, 22, -40};
+        float[] gyro = {0, 0, (float) -TURN_RATE};
+        float[] rotationVector = new float[4];
+        for (int i = 0; i < seconds * 100; i++) {
+            long timestamp = i * NS_PER_GYRO_SAMPLE;
+            double t = i / 100.0;
+            // yaw grows clockwise, i.e. a rotation by -yaw around z
+            double yaw = TURN_RATE * t;
+            rotationVector[2] = (float) -Math.sin(yaw / 2);
+            rotationVector[3] = (float) Math.cos(yaw / 2);
+            writer.write(TraceFormat.TYPE_ROTATION_VECTOR, timestamp, rotationVector);
+            writer.write(TraceFormat.TYPE_GYROSCOPE, timestamp, gyro);
+            if (i % 2 == 0) {
+                acl[2] = (float) (9.81 + 3.0 * Math.sin(2 * Math.PI * 2 * t));
+                writer.write(TraceFormat.TYPE_MAGNETIC_FIELD, timestamp, magn);
+                writer.write(TraceFormat.TYPE_ACCELEROMETER, timestamp, acl);
+            }
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+}
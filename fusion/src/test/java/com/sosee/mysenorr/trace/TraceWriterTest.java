@@ -0,0 +1,72 @@
+package com.sosee.mysenorr.trace;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TraceWriterTest {
+
+    @Test
+    public void writtenEventsAreReadBack() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // small buffer, so it is flushed many times
+        TraceWriter writer = new TraceWriter(Channels.newChannel(out), TraceFormat.MAX_RECORD_SIZE);
+        float[] acl = new float[3];
+        float[] rotationVector = new float[5];
+        for (int i = 0; i < 1000; i++) {
+            acl[0] = i;
+            acl[2] = 9.81f;
+            writer.write(TraceFormat.TYPE_ACCELEROMETER, i * 5000000L, acl);
+            rotationVector[3] = i;
+            writer.write(TraceFormat.TYPE_ROTATION_VECTOR, i * 5000000L + 1, rotationVector);
+        }
+        writer.close();
+        assertEquals(2000, writer.getRecordCount());
+
+        TraceReader reader = new TraceReader(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())));
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(reader.next());
+            assertEquals(TraceFormat.TYPE_ACCELEROMETER, reader.getType());
+            assertEquals(i * 5000000L, reader.getTimestamp());
+            assertEquals(3, reader.getValueCount());
+            assertArrayEquals(new float[]{i, 0, 9.81f}, Arrays.copyOf(reader.getValues(), 3), 0);
+
+            assertTrue(reader.next());
+            assertEquals(TraceFormat.TYPE_ROTATION_VECTOR, reader.getType());
+            assertEquals(i * 5000000L + 1, reader.getTimestamp());
+            assertEquals(5, reader.getValueCount());
+            assertEquals(i, reader.getValues()[3], 0);
+        }
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void truncatedTraceIsReadUpToTheLastCompleteRecord() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(Channels.newChannel(out));
+        writer.write(TraceFormat.TYPE_GYROSCOPE, 1, new float[]{1, 2, 3});
+        writer.write(TraceFormat.TYPE_GYROSCOPE, 2, new float[]{4, 5, 6});
+        writer.close();
+        byte[] trace = Arrays.copyOf(out.toByteArray(), out.size() - 1);
+
+        TraceReader reader = new TraceReader(Channels.newChannel(new ByteArrayInputStream(trace)));
+        assertTrue(reader.next());
+        assertEquals(1, reader.getTimestamp());
+        assertFalse(reader.next());
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        byte[] csv = "origmagn0; origmagn1; origmagn2;".getBytes("UTF-8");
+        new TraceReader(Channels.newChannel(new ByteArrayInputStream(csv)));
+    }
+}